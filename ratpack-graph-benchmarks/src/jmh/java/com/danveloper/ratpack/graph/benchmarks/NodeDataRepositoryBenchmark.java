@@ -0,0 +1,123 @@
+package com.danveloper.ratpack.graph.benchmarks;
+
+import com.danveloper.ratpack.graph.NodeClassifier;
+import com.danveloper.ratpack.graph.NodeDataRepository;
+import com.danveloper.ratpack.graph.NodeProperties;
+import com.danveloper.ratpack.graph.internal.InMemoryNodeDataRepository;
+import com.danveloper.ratpack.graph.redis.RedisGraphModule;
+import com.danveloper.ratpack.graph.redis.RedisNodeDataRepository;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.openjdk.jmh.annotations.*;
+import ratpack.test.exec.ExecHarness;
+import redis.embedded.RedisServer;
+
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures reading node data from a {@link NodeDataRepository} that holds {@code size} data objects.
+ * The "redis-near-cache" repository is Redis with the near cache enabled, so its reads measure cache hits.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class NodeDataRepositoryBenchmark {
+  private static final NodeClassifier CLASSIFIER = new NodeClassifier("benchmark", "data");
+
+  @Param({"memory", "redis", "redis-near-cache"})
+  public String repository;
+
+  @Param({"10000"})
+  public int size;
+
+  private ExecHarness harness;
+  private RedisServer redisServer;
+  private NodeDataRepository repo;
+  private NodeProperties[] nodes;
+
+  @Setup(Level.Trial)
+  public void setup() throws Exception {
+    harness = ExecHarness.harness();
+    repo = createRepository();
+    harness.run(execution -> repo.onStart(null));
+    nodes = new NodeProperties[size];
+    for (int i = 0; i < size; i++) {
+      nodes[i] = new NodeProperties("node" + i, CLASSIFIER);
+      Data data = new Data("node" + i, i, Arrays.asList("a", "b", "c"));
+      NodeProperties props = nodes[i];
+      harness.execute(execution -> repo.save(props, data));
+    }
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() throws Exception {
+    harness.run(execution -> repo.onStop(null));
+    harness.close();
+    if (redisServer != null) {
+      redisServer.stop();
+    }
+  }
+
+  @Benchmark
+  public Data get() throws Exception {
+    NodeProperties props = randomNode();
+    return harness.yield(execution -> repo.<Data>get(props)).getValueOrThrow();
+  }
+
+  @Benchmark
+  public Map<NodeProperties, Data> getAll() throws Exception {
+    NodeProperties[] batch = new NodeProperties[100];
+    for (int i = 0; i < batch.length; i++) {
+      batch[i] = randomNode();
+    }
+    return harness.yield(execution -> repo.<Data>getAll(Arrays.asList(batch))).getValueOrThrow();
+  }
+
+  private NodeDataRepository createRepository() throws IOException {
+    switch (repository) {
+      case "memory":
+        return new InMemoryNodeDataRepository();
+      case "redis":
+      case "redis-near-cache":
+        int port = freePort();
+        redisServer = new RedisServer(port);
+        redisServer.start();
+        RedisGraphModule.Config config = new RedisGraphModule.Config();
+        config.setPort(port);
+        config.getNearCache().setEnabled(repository.equals("redis-near-cache"));
+        return new RedisNodeDataRepository(config, new ObjectMapper());
+      default:
+        throw new IllegalArgumentException("Unknown repository: " + repository);
+    }
+  }
+
+  private NodeProperties randomNode() {
+    return nodes[ThreadLocalRandom.current().nextInt(size)];
+  }
+
+  private static int freePort() throws IOException {
+    try (ServerSocket socket = new ServerSocket(0)) {
+      return socket.getLocalPort();
+    }
+  }
+
+  public static class Data {
+    public String name;
+    public int count;
+    public List<String> tags;
+
+    public Data() {
+    }
+
+    Data(String name, int count, List<String> tags) {
+      this.name = name;
+      this.count = count;
+      this.tags = tags;
+    }
+  }
+}
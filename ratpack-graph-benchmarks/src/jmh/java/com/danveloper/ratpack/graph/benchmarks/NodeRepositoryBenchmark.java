@@ -0,0 +1,237 @@
+package com.danveloper.ratpack.graph.benchmarks;
+
+import com.danveloper.ratpack.graph.*;
+import com.danveloper.ratpack.graph.internal.CompactNodeRepository;
+import com.danveloper.ratpack.graph.internal.InMemoryNodeRepository;
+import com.danveloper.ratpack.graph.redis.RedisGraphModule;
+import com.danveloper.ratpack.graph.redis.RedisNodeRepository;
+import com.google.common.collect.Lists;
+import org.openjdk.jmh.annotations.*;
+import ratpack.exec.Execution;
+import ratpack.exec.Operation;
+import ratpack.exec.Promise;
+import ratpack.func.Function;
+import ratpack.test.exec.ExecHarness;
+import redis.embedded.RedisServer;
+
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Measures the {@link NodeRepository} operations against a pre-populated graph.
+ * The graph holds {@code graphSize} nodes spread across {@link #CATEGORIES} classifiers, and every node is related to {@code degree} other, randomly chosen, nodes.
+ * Run with {@code ./gradlew :ratpack-graph-benchmarks:jmh}; results are written as JSON to {@code build/reports/jmh/results.json}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class NodeRepositoryBenchmark {
+  private static final int CATEGORIES = 100;
+  private static final NodeClassifier SAVED = new NodeClassifier("saved", "benchmark");
+  private static final NodeClassifier REMOVABLE = new NodeClassifier("removable", "benchmark");
+  private static final NodeClassifier EXPIRING = new NodeClassifier("expiring", "benchmark");
+  private static final int EXPIRING_NODES = 100;
+  private static final long EXPIRING_TTL = 5L;
+
+  @Param({"memory", "compact", "redis"})
+  public String repository;
+
+  @Param({"10000", "100000"})
+  public int graphSize;
+
+  @Param({"1", "10"})
+  public int degree;
+
+  private final AtomicLong sequence = new AtomicLong();
+  private ExecHarness harness;
+  private RedisServer redisServer;
+  private NodeRepository repo;
+  private NodeProperties[] nodes;
+
+  @Setup(Level.Trial)
+  public void setup() throws Exception {
+    harness = ExecHarness.harness();
+    repo = createRepository();
+    harness.run(execution -> repo.onStart(null));
+
+    Random random = new Random(42);
+    nodes = new NodeProperties[graphSize];
+    for (int i = 0; i < graphSize; i++) {
+      nodes[i] = new NodeProperties("node" + i, classifier(i));
+    }
+    Node[] graph = new Node[graphSize];
+    for (int i = 0; i < graphSize; i++) {
+      graph[i] = new Node(nodes[i]);
+    }
+    for (int i = 0; i < graphSize; i++) {
+      for (int d = 0; d < degree; d++) {
+        int related = random.nextInt(graphSize);
+        graph[i].getEdge().addRelationship(nodes[related]);
+        graph[related].getEdge().addDependent(nodes[i]);
+      }
+    }
+    for (Node node : graph) {
+      execute(execution -> repo.save(node));
+    }
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() throws Exception {
+    harness.run(execution -> repo.onStop(null));
+    harness.close();
+    if (redisServer != null) {
+      redisServer.stop();
+    }
+  }
+
+  /**
+   * A node that is saved before each invocation of {@link #remove(Removable)}, so that every invocation has a node to remove.
+   */
+  @State(Scope.Thread)
+  public static class Removable {
+    private NodeProperties properties;
+
+    @Setup(Level.Invocation)
+    public void setup(NodeRepositoryBenchmark benchmark) throws Exception {
+      Node node = new Node(new NodeProperties("removable" + benchmark.sequence.incrementAndGet(), REMOVABLE));
+      for (int d = 0; d < benchmark.degree; d++) {
+        node.getEdge().addRelationship(benchmark.randomNode());
+        node.getEdge().addDependent(benchmark.randomNode());
+      }
+      benchmark.execute(execution -> benchmark.repo.save(node));
+      properties = node.getProperties();
+    }
+  }
+
+  /**
+   * {@link #EXPIRING_NODES} nodes that are saved before each invocation of {@link #expireAll(Expiring)}, and that are stale by the time it runs.
+   * Redis stamps nodes with the time they are saved at, rather than the access time of the saved node, so the nodes are only made stale by waiting out {@link #EXPIRING_TTL} before the invocation.
+   */
+  @State(Scope.Thread)
+  public static class Expiring {
+    private final List<NodeProperties> properties = Lists.newArrayList();
+    private NodeRepositoryBenchmark benchmark;
+
+    @Setup(Level.Invocation)
+    public void setup(NodeRepositoryBenchmark benchmark) throws Exception {
+      this.benchmark = benchmark;
+      properties.clear();
+      for (int i = 0; i < EXPIRING_NODES; i++) {
+        Node node = new Node(new NodeProperties("expiring" + benchmark.sequence.incrementAndGet(), EXPIRING), new NodeEdge(), 0L);
+        benchmark.execute(execution -> benchmark.repo.save(node));
+        properties.add(node.getProperties());
+      }
+      Thread.sleep(EXPIRING_TTL + 1);
+    }
+
+    @TearDown(Level.Invocation)
+    public void verify() throws Exception {
+      Map<NodeProperties, Node> remaining = benchmark.await(execution -> benchmark.repo.readAll(properties));
+      if (!remaining.isEmpty()) {
+        throw new IllegalStateException(String.format("%d of the %d stale nodes were not expired", remaining.size(), properties.size()));
+      }
+    }
+  }
+
+  @Benchmark
+  public Node get() throws Exception {
+    return await(execution -> repo.get(randomNode()));
+  }
+
+  @Benchmark
+  public Node read() throws Exception {
+    return await(execution -> repo.read(randomNode()));
+  }
+
+  @Benchmark
+  public Map<NodeProperties, Node> readAll() throws Exception {
+    NodeProperties[] batch = new NodeProperties[10];
+    for (int i = 0; i < batch.length; i++) {
+      batch[i] = randomNode();
+    }
+    return await(execution -> repo.readAll(Arrays.asList(batch)));
+  }
+
+  @Benchmark
+  public void save() throws Exception {
+    Node node = new Node(new NodeProperties("saved" + sequence.incrementAndGet(), SAVED));
+    for (int d = 0; d < degree; d++) {
+      node.getEdge().addRelationship(randomNode());
+    }
+    execute(execution -> repo.save(node));
+  }
+
+  @Benchmark
+  public void relate() throws Exception {
+    Node left = new Node(randomNode());
+    Node right = new Node(randomNode());
+    execute(execution -> repo.relate(left, right));
+  }
+
+  @Benchmark
+  public void remove(Removable removable) throws Exception {
+    execute(execution -> repo.remove(removable.properties));
+  }
+
+  @Benchmark
+  public Set<NodeProperties> lookup() throws Exception {
+    return await(execution -> repo.lookup(classifier(ThreadLocalRandom.current().nextInt(CATEGORIES))));
+  }
+
+  /**
+   * Expires {@link #EXPIRING_NODES} stale nodes from a classifier, while the rest of the graph is left untouched.
+   */
+  @Benchmark
+  @OutputTimeUnit(TimeUnit.MILLISECONDS)
+  public void expireAll(Expiring expiring) throws Exception {
+    execute(execution -> repo.expireAll(EXPIRING, EXPIRING_TTL));
+  }
+
+  private NodeRepository createRepository() throws IOException {
+    switch (repository) {
+      case "memory":
+        return new InMemoryNodeRepository();
+      case "compact":
+        return new CompactNodeRepository();
+      case "redis":
+        int port = freePort();
+        redisServer = new RedisServer(port);
+        redisServer.start();
+        RedisGraphModule.Config config = new RedisGraphModule.Config();
+        config.setPort(port);
+        return new RedisNodeRepository(config);
+      default:
+        throw new IllegalArgumentException("Unknown repository: " + repository);
+    }
+  }
+
+  private NodeProperties randomNode() {
+    return nodes[ThreadLocalRandom.current().nextInt(graphSize)];
+  }
+
+  private static NodeClassifier classifier(int i) {
+    return new NodeClassifier("benchmark", "category" + (i % CATEGORIES));
+  }
+
+  private <T> T await(Function<? super Execution, ? extends Promise<T>> action) throws Exception {
+    return harness.yield(action).getValueOrThrow();
+  }
+
+  private void execute(Function<? super Execution, ? extends Operation> action) throws Exception {
+    harness.execute(action);
+  }
+
+  private static int freePort() throws IOException {
+    try (ServerSocket socket = new ServerSocket(0)) {
+      return socket.getLocalPort();
+    }
+  }
+}
@@ -0,0 +1,183 @@
+package com.danveloper.ratpack.graph.benchmarks;
+
+import com.danveloper.ratpack.graph.Node;
+import com.danveloper.ratpack.graph.NodeClassifier;
+import com.danveloper.ratpack.graph.NodeProperties;
+import com.danveloper.ratpack.graph.redis.RedisGraphModule;
+import com.danveloper.ratpack.graph.redis.RedisNodeRepository;
+import org.openjdk.jmh.annotations.*;
+import ratpack.exec.Execution;
+import ratpack.exec.Operation;
+import ratpack.func.Function;
+import ratpack.test.exec.ExecHarness;
+import redis.embedded.RedisServer;
+
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.util.Random;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Compares the Lua scripts that {@link RedisNodeRepository} saves, relates and removes nodes with against the {@link MultiHopRedisNodeWriter multi-hop} implementation they replaced.
+ * The graph holds {@link #GRAPH_SIZE} nodes, and every node is related to {@code degree} other, randomly chosen, nodes.
+ * Select it with {@code ./gradlew :ratpack-graph-benchmarks:jmh -Pjmh.include=RedisWriteBenchmark}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class RedisWriteBenchmark {
+  private static final int GRAPH_SIZE = 10000;
+  private static final int CATEGORIES = 100;
+  private static final NodeClassifier SAVED = new NodeClassifier("saved", "benchmark");
+  private static final NodeClassifier REMOVABLE = new NodeClassifier("removable", "benchmark");
+
+  @Param({"lua", "multi-hop"})
+  public String implementation;
+
+  @Param({"1", "10"})
+  public int degree;
+
+  private final AtomicLong sequence = new AtomicLong();
+  private ExecHarness harness;
+  private RedisServer redisServer;
+  private NodeWriter writer;
+  private NodeProperties[] nodes;
+
+  /**
+   * The writes that are compared.
+   */
+  interface NodeWriter extends AutoCloseable {
+    Operation save(Node node);
+
+    Operation relate(Node left, Node right);
+
+    Operation remove(NodeProperties properties);
+  }
+
+  /**
+   * A node that is saved before each invocation of {@link #remove(Removable)}, so that every invocation has a node to remove.
+   */
+  @State(Scope.Thread)
+  public static class Removable {
+    private NodeProperties properties;
+
+    @Setup(Level.Invocation)
+    public void setup(RedisWriteBenchmark benchmark) throws Exception {
+      Node node = new Node(new NodeProperties("removable" + benchmark.sequence.incrementAndGet(), REMOVABLE));
+      for (int d = 0; d < benchmark.degree; d++) {
+        node.getEdge().addRelationship(benchmark.randomNode());
+        node.getEdge().addDependent(benchmark.randomNode());
+      }
+      benchmark.execute(execution -> benchmark.writer.save(node));
+      properties = node.getProperties();
+    }
+  }
+
+  @Setup(Level.Trial)
+  public void setup() throws Exception {
+    harness = ExecHarness.harness();
+    int port = freePort();
+    redisServer = new RedisServer(port);
+    redisServer.start();
+    writer = createWriter(port);
+
+    Random random = new Random(42);
+    nodes = new NodeProperties[GRAPH_SIZE];
+    for (int i = 0; i < GRAPH_SIZE; i++) {
+      nodes[i] = new NodeProperties("node" + i, new NodeClassifier("benchmark", "category" + (i % CATEGORIES)));
+    }
+    Node[] graph = new Node[GRAPH_SIZE];
+    for (int i = 0; i < GRAPH_SIZE; i++) {
+      graph[i] = new Node(nodes[i]);
+    }
+    for (int i = 0; i < GRAPH_SIZE; i++) {
+      for (int d = 0; d < degree; d++) {
+        int related = random.nextInt(GRAPH_SIZE);
+        graph[i].getEdge().addRelationship(nodes[related]);
+        graph[related].getEdge().addDependent(nodes[i]);
+      }
+    }
+    for (Node node : graph) {
+      execute(execution -> writer.save(node));
+    }
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() throws Exception {
+    writer.close();
+    harness.close();
+    redisServer.stop();
+  }
+
+  @Benchmark
+  public void save() throws Exception {
+    Node node = new Node(new NodeProperties("saved" + sequence.incrementAndGet(), SAVED));
+    for (int d = 0; d < degree; d++) {
+      node.getEdge().addRelationship(randomNode());
+    }
+    execute(execution -> writer.save(node));
+  }
+
+  @Benchmark
+  public void relate() throws Exception {
+    Node left = new Node(randomNode());
+    Node right = new Node(randomNode());
+    execute(execution -> writer.relate(left, right));
+  }
+
+  @Benchmark
+  public void remove(Removable removable) throws Exception {
+    execute(execution -> writer.remove(removable.properties));
+  }
+
+  private NodeWriter createWriter(int port) throws Exception {
+    switch (implementation) {
+      case "lua":
+        RedisGraphModule.Config config = new RedisGraphModule.Config();
+        config.setPort(port);
+        RedisNodeRepository repo = new RedisNodeRepository(config);
+        harness.run(execution -> repo.onStart(null));
+        return new NodeWriter() {
+          @Override
+          public Operation save(Node node) {
+            return repo.save(node);
+          }
+
+          @Override
+          public Operation relate(Node left, Node right) {
+            return repo.relate(left, right);
+          }
+
+          @Override
+          public Operation remove(NodeProperties properties) {
+            return repo.remove(properties);
+          }
+
+          @Override
+          public void close() throws Exception {
+            harness.run(execution -> repo.onStop(null));
+          }
+        };
+      case "multi-hop":
+        return new MultiHopRedisNodeWriter(port);
+      default:
+        throw new IllegalArgumentException("Unknown implementation: " + implementation);
+    }
+  }
+
+  private NodeProperties randomNode() {
+    return nodes[ThreadLocalRandom.current().nextInt(GRAPH_SIZE)];
+  }
+
+  private void execute(Function<? super Execution, ? extends Operation> action) throws Exception {
+    harness.execute(action);
+  }
+
+  private static int freePort() throws IOException {
+    try (ServerSocket socket = new ServerSocket(0)) {
+      return socket.getLocalPort();
+    }
+  }
+}
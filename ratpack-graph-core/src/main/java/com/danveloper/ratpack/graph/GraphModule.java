@@ -1,21 +1,261 @@
 package com.danveloper.ratpack.graph;
 
+import com.danveloper.ratpack.graph.internal.CompactNodeRepository;
 import com.danveloper.ratpack.graph.internal.InMemoryNodeDataRepository;
 import com.danveloper.ratpack.graph.internal.InMemoryNodeRepository;
+import com.danveloper.ratpack.graph.internal.NodeExpiryService;
 import com.danveloper.ratpack.graph.rendering.NodeCollectionJsonRenderer;
 import com.danveloper.ratpack.graph.rendering.NodeJsonRenderer;
-import com.google.inject.Binder;
-import com.google.inject.Module;
+import com.google.common.collect.Lists;
+import com.google.inject.Provides;
 import com.google.inject.Scopes;
+import com.google.inject.Singleton;
 import com.google.inject.multibindings.Multibinder;
+import ratpack.guice.ConfigurableModule;
 import ratpack.render.Renderer;
 
-public class GraphModule implements Module {
+import java.time.Duration;
+import java.util.List;
+
+public class GraphModule extends ConfigurableModule<GraphModule.Config> {
   @Override
-  public void configure(Binder binder) {
-    binder.bind(NodeRepository.class).to(InMemoryNodeRepository.class).in(Scopes.SINGLETON);
-    binder.bind(NodeDataRepository.class).to(InMemoryNodeDataRepository.class).in(Scopes.SINGLETON);
-    Multibinder.newSetBinder(binder, Renderer.class).addBinding().to(NodeJsonRenderer.class).in(Scopes.SINGLETON);
-    Multibinder.newSetBinder(binder, Renderer.class).addBinding().to(NodeCollectionJsonRenderer.class).in(Scopes.SINGLETON);
+  protected void configure() {
+    bind(NodeDataRepository.class).to(InMemoryNodeDataRepository.class).in(Scopes.SINGLETON);
+    bind(NodeExpiryService.class).in(Scopes.SINGLETON);
+    bind(NodeConverterRegistry.class).in(Scopes.SINGLETON);
+    Multibinder.newSetBinder(binder(), Renderer.class).addBinding().to(NodeJsonRenderer.class).in(Scopes.SINGLETON);
+    Multibinder.newSetBinder(binder(), Renderer.class).addBinding().to(NodeCollectionJsonRenderer.class).in(Scopes.SINGLETON);
+  }
+
+  @Provides
+  @Singleton
+  NodeRepository nodeRepository(Config config) {
+    switch (config.getEngine()) {
+      case COMPACT:
+        return new CompactNodeRepository(config);
+      default:
+        return new InMemoryNodeRepository(config);
+    }
+  }
+
+  /**
+   * The engines that can back the in-memory {@link NodeRepository}.
+   */
+  public enum Engine {
+    /**
+     * Nodes and their edges are kept in concurrent maps, and are evicted after five minutes without being accessed.
+     */
+    DEFAULT,
+
+    /**
+     * Nodes are interned to int ids and their edges are kept as sorted arrays of those ids, which uses far less heap per edge on large graphs.
+     * Nodes are kept until they are removed or expired.
+     */
+    COMPACT
+  }
+
+  public static class Config {
+    private Engine engine = Engine.DEFAULT;
+    private Duration accessTimeFlushInterval = Duration.ofSeconds(1);
+    private List<Expiry> expiries = Lists.newArrayList();
+    private Duration expiryInterval = Duration.ofSeconds(30);
+    private int maxExpiriesPerTick = 1000;
+    private int renderBatchSize = 100;
+    private int renderConcurrency = 8;
+
+    /**
+     * The engine that backs the in-memory {@link NodeRepository}.
+     * Modules that bind their own repository, such as the Redis module, ignore this setting.
+     *
+     * @return the in-memory engine
+     */
+    public Engine getEngine() {
+      return engine;
+    }
+
+    /**
+     * Set the engine that backs the in-memory {@link NodeRepository}.
+     *
+     * @param engine the in-memory engine
+     */
+    public void setEngine(Engine engine) {
+      this.engine = engine;
+    }
+
+    /**
+     * The interval at which buffered node access times are persisted.
+     * Reading a node only records its access time in memory, so expiry performed by other application instances may see access times that are stale by up to this interval.
+     *
+     * @return the interval at which buffered node access times are persisted
+     */
+    public Duration getAccessTimeFlushInterval() {
+      return accessTimeFlushInterval;
+    }
+
+    /**
+     * Set the interval at which buffered node access times are persisted.
+     *
+     * @param accessTimeFlushInterval the interval at which buffered node access times are persisted
+     */
+    public void setAccessTimeFlushInterval(Duration accessTimeFlushInterval) {
+      this.accessTimeFlushInterval = accessTimeFlushInterval;
+    }
+
+    /**
+     * Expire nodes of the provided classifier in the background once they have not been accessed for the provided TTL.
+     *
+     * @param classifier the classifier of the nodes to expire
+     * @param ttl the Time-to-Live of the nodes
+     * @return this config
+     */
+    public Config expire(NodeClassifier classifier, Duration ttl) {
+      expiries.add(new Expiry(classifier.getType(), classifier.getCategory(), ttl));
+      return this;
+    }
+
+    /**
+     * The classifiers that are expired in the background, along with their TTLs.
+     *
+     * @return the background expiry configuration
+     */
+    public List<Expiry> getExpiries() {
+      return expiries;
+    }
+
+    /**
+     * Set the classifiers that are expired in the background, along with their TTLs.
+     *
+     * @param expiries the background expiry configuration
+     */
+    public void setExpiries(List<Expiry> expiries) {
+      this.expiries = expiries;
+    }
+
+    /**
+     * The interval at which background expiry runs.
+     *
+     * @return the interval at which background expiry runs
+     */
+    public Duration getExpiryInterval() {
+      return expiryInterval;
+    }
+
+    /**
+     * Set the interval at which background expiry runs.
+     *
+     * @param expiryInterval the interval at which background expiry runs
+     */
+    public void setExpiryInterval(Duration expiryInterval) {
+      this.expiryInterval = expiryInterval;
+    }
+
+    /**
+     * The maximum number of nodes that are removed by a single run of background expiry, across all configured classifiers.
+     * Nodes that are not removed in one run are picked up by the next, so a large backlog of expired nodes is drained gradually instead of stalling the repository.
+     *
+     * @return the maximum number of nodes removed per run of background expiry
+     */
+    public int getMaxExpiriesPerTick() {
+      return maxExpiriesPerTick;
+    }
+
+    /**
+     * Set the maximum number of nodes that are removed by a single run of background expiry.
+     *
+     * @param maxExpiriesPerTick the maximum number of nodes removed per run of background expiry
+     */
+    public void setMaxExpiriesPerTick(int maxExpiriesPerTick) {
+      this.maxExpiriesPerTick = maxExpiriesPerTick;
+    }
+
+    /**
+     * The maximum number of nodes per batch when a {@link com.danveloper.ratpack.graph.rendering.NodeCollection} is rendered.
+     * The nodes of each classifier in a batch are converted with a single {@link NodeConverter#convertAll(List)} call.
+     *
+     * @return the maximum number of nodes per batch of a rendered collection
+     */
+    public int getRenderBatchSize() {
+      return renderBatchSize;
+    }
+
+    /**
+     * Set the maximum number of nodes per batch when a collection is rendered.
+     *
+     * @param renderBatchSize the maximum number of nodes per batch of a rendered collection
+     */
+    public void setRenderBatchSize(int renderBatchSize) {
+      this.renderBatchSize = renderBatchSize;
+    }
+
+    /**
+     * The maximum number of batches of a rendered {@link com.danveloper.ratpack.graph.rendering.NodeCollection} that are converted at once.
+     * It also bounds the nodes of the collection that are converted at once by converters that do not override {@link NodeConverter#convertAll(List)}.
+     *
+     * @return the maximum number of concurrently converted batches per rendered collection
+     */
+    public int getRenderConcurrency() {
+      return renderConcurrency;
+    }
+
+    /**
+     * Set the maximum number of batches of a rendered collection that are converted at once.
+     *
+     * @param renderConcurrency the maximum number of concurrently converted batches per rendered collection
+     */
+    public void setRenderConcurrency(int renderConcurrency) {
+      this.renderConcurrency = renderConcurrency;
+    }
+  }
+
+  /**
+   * The TTL of a classifier that is expired in the background.
+   */
+  public static class Expiry {
+    private String type;
+    private String category;
+    private Duration ttl;
+
+    public Expiry() {
+    }
+
+    public Expiry(String type, String category, Duration ttl) {
+      this.type = type;
+      this.category = category;
+      this.ttl = ttl;
+    }
+
+    /**
+     * @return the classifier of the nodes to expire
+     */
+    public NodeClassifier getClassifier() {
+      return NodeClassifier.of(type, category);
+    }
+
+    public String getType() {
+      return type;
+    }
+
+    public void setType(String type) {
+      this.type = type;
+    }
+
+    public String getCategory() {
+      return category;
+    }
+
+    public void setCategory(String category) {
+      this.category = category;
+    }
+
+    /**
+     * @return the Time-to-Live of the nodes, measured from when they were last accessed
+     */
+    public Duration getTtl() {
+      return ttl;
+    }
+
+    public void setTtl(Duration ttl) {
+      this.ttl = ttl;
+    }
   }
 }
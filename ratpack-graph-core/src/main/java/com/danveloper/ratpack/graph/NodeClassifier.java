@@ -1,16 +1,47 @@
 package com.danveloper.ratpack.graph;
 
+import com.google.common.collect.Interner;
+import com.google.common.collect.Interners;
+
+import java.util.Objects;
+
 /**
  * Type qualifier for {@link Node} types.
  * Allows you to categorically organize a typed node.
  */
 public class NodeClassifier {
+  private static final Interner<NodeClassifier> INTERNER = Interners.newWeakInterner();
+
   private final String type;
   private final String category;
+  private final int hash;
 
   public NodeClassifier(String type, String category) {
-    this.type = type;
-    this.category = category;
+    this.type = Objects.requireNonNull(type, "The type of a classifier must not be null");
+    this.category = Objects.requireNonNull(category, "The category of a classifier must not be null");
+    this.hash = 31 * type.hashCode() + category.hashCode();
+  }
+
+  /**
+   * Provides the canonical classifier for the provided type and category.
+   *
+   * @param type the type qualifier
+   * @param category the category within which the classifier exists
+   * @return the canonical classifier
+   * @see #intern()
+   */
+  public static NodeClassifier of(String type, String category) {
+    return INTERNER.intern(new NodeClassifier(type, category));
+  }
+
+  /**
+   * Provides the canonical instance of this classifier, which is shared by every equal classifier that has been interned.
+   * Canonical instances are only weakly held, so they are collected once they are no longer in use.
+   *
+   * @return the canonical instance of this classifier
+   */
+  public NodeClassifier intern() {
+    return INTERNER.intern(this);
   }
 
   /**
@@ -34,6 +65,7 @@ public class NodeClassifier {
 
     NodeClassifier that = (NodeClassifier) o;
 
+    if (hash != that.hash) return false;
     if (!type.equals(that.type)) return false;
     return category.equals(that.category);
 
@@ -41,9 +73,7 @@ public class NodeClassifier {
 
   @Override
   public int hashCode() {
-    int result = type.hashCode();
-    result = 31 * result + category.hashCode();
-    return result;
+    return hash;
   }
 
   @Override
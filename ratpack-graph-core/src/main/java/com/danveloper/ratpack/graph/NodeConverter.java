@@ -1,8 +1,16 @@
 package com.danveloper.ratpack.graph;
 
+import com.google.common.collect.Lists;
+import ratpack.exec.Execution;
 import ratpack.exec.Promise;
+import ratpack.exec.Throttle;
 import ratpack.service.Service;
 
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.stream.Collectors;
+
 /**
  * An interface for converting {@link Node} types to a representative object.
  * As an example, this class can pull the node's data object from the {@link NodeDataRepository} to build and provide a representative model object.
@@ -25,4 +33,34 @@ public interface NodeConverter<T> extends Service {
    * @return a promise to the node's representative object
    */
   Promise<T> convert(Node node);
+
+  /**
+   * Converts a batch of nodes of this converter's {@link NodeClassifier}, which is how nodes are converted when a collection is rendered.
+   * The default implementation forks an execution per node that converts it with {@link #convert(Node)}, and joins the results in the order of the nodes.
+   * While a collection is rendered, the forks are limited by the {@link Throttle} in the registry of the current execution, which allows {@link GraphModule.Config#getRenderConcurrency()} nodes of the collection to be converted at once.
+   * Converters that look up data per node should override this method to fetch the data for the whole batch at once.
+   *
+   * @param nodes the nodes to be converted
+   * @return a promise to the representative objects, in the same order as the nodes
+   */
+  default Promise<List<T>> convertAll(List<Node> nodes) {
+    Throttle throttle = Execution.current().maybeGet(Throttle.class).orElse(Throttle.unlimited());
+    return Promise.async(d -> {
+      List<CompletableFuture<T>> futures = Lists.newArrayListWithCapacity(nodes.size());
+      for (Node node : nodes) {
+        CompletableFuture<T> converted = new CompletableFuture<>();
+        Execution.fork()
+            .onError(converted::completeExceptionally)
+            .start(execution -> convert(node).throttled(throttle).then(converted::complete));
+        futures.add(converted);
+      }
+      CompletableFuture.allOf(futures.toArray(new CompletableFuture<?>[futures.size()])).whenComplete((v, failure) -> {
+        if (failure == null) {
+          d.success(futures.stream().map(CompletableFuture::join).collect(Collectors.toList()));
+        } else {
+          d.error(failure instanceof CompletionException ? failure.getCause() : failure);
+        }
+      });
+    });
+  }
 }
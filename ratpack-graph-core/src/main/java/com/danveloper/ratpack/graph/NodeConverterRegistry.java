@@ -0,0 +1,51 @@
+package com.danveloper.ratpack.graph;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Maps;
+import ratpack.service.Service;
+import ratpack.service.StartEvent;
+
+import java.util.Map;
+
+/**
+ * Provides the {@link NodeConverter} for a {@link NodeClassifier}.
+ * The converters in the server registry are indexed by their classifier once, when the application starts, so that finding the converter for a node is a single hash lookup.
+ */
+public class NodeConverterRegistry implements Service {
+  private volatile Map<NodeClassifier, NodeConverter<?>> converters = ImmutableMap.of();
+
+  @Override
+  public void onStart(StartEvent e) {
+    Map<NodeClassifier, NodeConverter<?>> converters = Maps.newHashMap();
+    for (NodeConverter<?> converter : e.getRegistry().getAll(NodeConverter.class)) {
+      NodeConverter<?> existing = converters.put(converter.getClassifier(), converter);
+      if (existing != null && existing != converter) {
+        throw new IllegalStateException(String.format("Both %s and %s are registered as the NodeConverter for %s",
+            existing.getClass().getName(), converter.getClass().getName(), converter.getClassifier()));
+      }
+    }
+    this.converters = ImmutableMap.copyOf(converters);
+  }
+
+  /**
+   * @param classifier the classifier of the nodes to convert
+   * @return the converter for the classifier
+   * @throws IllegalStateException if no converter is registered for the classifier
+   */
+  public NodeConverter<?> get(NodeClassifier classifier) {
+    NodeConverter<?> converter = converters.get(classifier);
+    if (converter == null) {
+      throw new IllegalStateException(String.format("No NodeConverter is registered for %s", classifier));
+    }
+    return converter;
+  }
+
+  /**
+   * @param node the node to convert
+   * @return the converter for the node's classifier
+   * @throws IllegalStateException if no converter is registered for the node's classifier
+   */
+  public NodeConverter<?> get(Node node) {
+    return get(node.getProperties().getClassifier());
+  }
+}
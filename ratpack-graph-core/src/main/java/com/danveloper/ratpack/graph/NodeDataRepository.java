@@ -4,6 +4,9 @@ import ratpack.exec.Operation;
 import ratpack.exec.Promise;
 import ratpack.service.Service;
 
+import java.util.Collection;
+import java.util.Map;
+
 /**
  * A repository for storing data objects that are associated with a {@link Node}
  */
@@ -18,6 +21,16 @@ public interface NodeDataRepository extends Service {
    */
   <T> Promise<T> get(NodeProperties properties);
 
+  /**
+   * Retrieves the data objects that are stored for all of the nodes represented by the provided properties in a single batch.
+   * Properties that have no data stored for them are absent from the resulting map.
+   *
+   * @param properties the properties representing the nodes
+   * @param <T> the type of the data objects
+   * @return a promise to a map of the provided properties to the data objects stored for them
+   */
+  <T> Promise<Map<NodeProperties, T>> getAll(Collection<NodeProperties> properties);
+
   /**
    * Saves the data object for the node represented by the provided properties.
    * Existing data will be overwritten with this call.
@@ -27,10 +40,25 @@ public interface NodeDataRepository extends Service {
    */
   Operation save(NodeProperties properties, Object object);
 
+  /**
+   * Saves the data objects for all of the nodes represented by the keys of the provided map in a single batch.
+   * Existing data will be overwritten with this call.
+   *
+   * @param objects the data to store, keyed by the properties representing the nodes
+   */
+  Operation saveAll(Map<NodeProperties, ?> objects);
+
   /**
    * Removes any data objects that are stored for the node represented by the provided properties
    *
    * @param properties the properties representing the node
    */
   Operation remove(NodeProperties properties);
+
+  /**
+   * Removes any data objects that are stored for all of the nodes represented by the provided properties in a single batch.
+   *
+   * @param properties the properties representing the nodes
+   */
+  Operation removeAll(Collection<NodeProperties> properties);
 }
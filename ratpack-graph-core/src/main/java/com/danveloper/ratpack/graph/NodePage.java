@@ -0,0 +1,37 @@
+package com.danveloper.ratpack.graph;
+
+import java.util.List;
+
+/**
+ * A page of the nodes stored with a {@link NodeClassifier}, as provided by {@link NodeRepository#page(NodeClassifier, String, int)}.
+ */
+public class NodePage {
+  private final List<NodeProperties> properties;
+  private final String cursor;
+
+  public NodePage(List<NodeProperties> properties, String cursor) {
+    this.properties = properties;
+    this.cursor = cursor;
+  }
+
+  /**
+   * @return the properties of the nodes on this page, which may be empty even when there are further pages
+   */
+  public List<NodeProperties> getProperties() {
+    return properties;
+  }
+
+  /**
+   * @return the continuation token for the next page, or null if this is the last page
+   */
+  public String getCursor() {
+    return cursor;
+  }
+
+  /**
+   * @return true if there are no further pages
+   */
+  public boolean isLast() {
+    return cursor == null;
+  }
+}
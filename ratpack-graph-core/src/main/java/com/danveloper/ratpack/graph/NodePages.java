@@ -0,0 +1,95 @@
+package com.danveloper.ratpack.graph;
+
+import com.google.common.collect.Lists;
+import ratpack.exec.Promise;
+import ratpack.stream.Streams;
+import ratpack.stream.TransformablePublisher;
+
+import java.util.ArrayDeque;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NavigableSet;
+import java.util.Set;
+
+/**
+ * Support for paging through the nodes of a classifier.
+ */
+public class NodePages {
+  public static final int DEFAULT_PAGE_SIZE = 100;
+
+  /**
+   * The order of the nodes of a classifier that {@link #page(NavigableSet, String, int)} pages through, which only compares ids, as every node of a classifier has a distinct id.
+   */
+  public static final Comparator<NodeProperties> BY_ID = Comparator.comparing(NodeProperties::getId);
+
+  private NodePages() {
+  }
+
+  /**
+   * Streams the nodes of a classifier, one page at a time.
+   * A page is only requested once every node of the previous page has been requested downstream, so at most a single page is held in memory per subscriber.
+   *
+   * @param repository the repository to page through
+   * @param classifier the classifier of the nodes
+   * @param pageSize the number of nodes to request per page
+   * @return a publisher of the properties of the nodes
+   */
+  public static TransformablePublisher<NodeProperties> stream(NodeRepository repository, NodeClassifier classifier, int pageSize) {
+    return Streams.transformable(subscriber -> {
+      Scan scan = new Scan(repository, classifier, pageSize);
+      Streams.flatYield(request -> scan.next()).subscribe(subscriber);
+    });
+  }
+
+  /**
+   * Pages through a classifier in order of id, with the id of the last node on the previous page as the cursor.
+   * Each page resumes right after that node, so it costs the same however far into the classifier it is.
+   * Nodes that are added while paging are provided if their id comes after the cursor, and removing nodes does not shift the nodes that are still to come.
+   *
+   * @param nodes the nodes of the classifier, ordered by {@link #BY_ID}
+   * @param cursor the id of the last node on the previous page, or null to start from the beginning
+   * @param count the maximum number of nodes on the page, which is at least one
+   * @return the page
+   */
+  public static NodePage page(NavigableSet<NodeProperties> nodes, String cursor, int count) {
+    Set<NodeProperties> remaining = cursor == null ? nodes : nodes.tailSet(new NodeProperties(cursor, null), false);
+    List<NodeProperties> page = Lists.newArrayListWithCapacity(Math.max(1, Math.min(count, DEFAULT_PAGE_SIZE)));
+    Iterator<NodeProperties> iterator = remaining.iterator();
+    while ((page.isEmpty() || page.size() < count) && iterator.hasNext()) {
+      page.add(iterator.next());
+    }
+    return new NodePage(page, iterator.hasNext() ? page.get(page.size() - 1).getId() : null);
+  }
+
+  private static class Scan {
+    private final NodeRepository repository;
+    private final NodeClassifier classifier;
+    private final int pageSize;
+    private final Deque<NodeProperties> buffer = new ArrayDeque<>();
+    private String cursor;
+    private boolean last;
+
+    private Scan(NodeRepository repository, NodeClassifier classifier, int pageSize) {
+      this.repository = repository;
+      this.classifier = classifier;
+      this.pageSize = pageSize;
+    }
+
+    /**
+     * @return a promise to the next node, or to null once every page has been provided
+     */
+    Promise<NodeProperties> next() {
+      if (!buffer.isEmpty() || last) {
+        return Promise.value(buffer.poll());
+      }
+      return repository.page(classifier, cursor, pageSize).flatMap(page -> {
+        buffer.addAll(page.getProperties());
+        cursor = page.getCursor();
+        last = page.isLast();
+        return next();
+      });
+    }
+  }
+}
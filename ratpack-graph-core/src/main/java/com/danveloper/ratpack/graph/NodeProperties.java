@@ -1,16 +1,47 @@
 package com.danveloper.ratpack.graph;
 
+import com.google.common.collect.Interner;
+import com.google.common.collect.Interners;
+
 /**
  * The metadata associated with a {@link Node}.
  * This class provides a composite relationship of a unique id and a {@link NodeClassifier}.
  */
 public class NodeProperties {
+  private static final Interner<NodeProperties> INTERNER = Interners.newWeakInterner();
+
   private final String id;
   private final NodeClassifier classifier;
+  private final int hash;
 
   public NodeProperties(String id, NodeClassifier classifier) {
     this.id = id;
     this.classifier = classifier;
+    this.hash = 31 * (id != null ? id.hashCode() : 0) + (classifier != null ? classifier.hashCode() : 0);
+  }
+
+  /**
+   * Provides the canonical properties for the provided id and classifier.
+   *
+   * @param id the unique id of the node
+   * @param classifier the classifier of the node
+   * @return the canonical properties
+   * @see #intern()
+   */
+  public static NodeProperties of(String id, NodeClassifier classifier) {
+    return new NodeProperties(id, classifier).intern();
+  }
+
+  /**
+   * Provides the canonical instance of these properties, whose classifier is also canonical.
+   * Repositories intern the properties they retain, so that a node that is referenced from many edges is held in memory once, and comparisons between canonical instances succeed on identity.
+   * Canonical instances are only weakly held, so they are collected once they are no longer in use.
+   *
+   * @return the canonical instance of these properties
+   */
+  public NodeProperties intern() {
+    NodeClassifier canonicalClassifier = classifier != null ? classifier.intern() : null;
+    return INTERNER.intern(canonicalClassifier == classifier ? this : new NodeProperties(id, canonicalClassifier));
   }
 
   /**
@@ -34,6 +65,7 @@ public class NodeProperties {
 
     NodeProperties that = (NodeProperties) o;
 
+    if (hash != that.hash) return false;
     if (id != null ? !id.equals(that.id) : that.id != null) return false;
     return !(classifier != null ? !classifier.equals(that.classifier) : that.classifier != null);
 
@@ -41,9 +73,7 @@ public class NodeProperties {
 
   @Override
   public int hashCode() {
-    int result = id != null ? id.hashCode() : 0;
-    result = 31 * result + (classifier != null ? classifier.hashCode() : 0);
-    return result;
+    return hash;
   }
 
   @Override
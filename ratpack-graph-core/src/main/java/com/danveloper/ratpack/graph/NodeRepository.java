@@ -3,7 +3,11 @@ package com.danveloper.ratpack.graph;
 import ratpack.exec.Operation;
 import ratpack.exec.Promise;
 import ratpack.service.Service;
+import ratpack.stream.TransformablePublisher;
 
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
 /**
@@ -26,6 +30,29 @@ public interface NodeRepository extends Service {
    */
   Promise<Set<NodeProperties>> lookup(NodeClassifier classifier);
 
+  /**
+   * Provides a page of the properties of the nodes with the given {@link NodeClassifier}.
+   * Unlike {@link #lookup(NodeClassifier)}, this never materializes the whole classifier at once.
+   * Paging makes the same guarantees as a Redis SSCAN: every node that is stored for the whole time is provided, but nodes that are added or removed while paging may or may not be, and a node may be provided more than once.
+   *
+   * @param classifier the {@link NodeClassifier} to page through
+   * @param cursor the continuation token of the previous page, or null for the first page
+   * @param count a hint for the number of nodes on the page
+   * @return a promise to the page
+   */
+  Promise<NodePage> page(NodeClassifier classifier, String cursor, int count);
+
+  /**
+   * Streams the properties of the nodes with the given {@link NodeClassifier}, requesting pages with {@link #page(NodeClassifier, String, int)} as they are demanded.
+   * This allows large classifiers to be processed in constant memory.
+   *
+   * @param classifier the {@link NodeClassifier} to stream
+   * @return a publisher of the properties of the nodes matching the provided {@link NodeClassifier}
+   */
+  default TransformablePublisher<NodeProperties> stream(NodeClassifier classifier) {
+    return NodePages.stream(this, classifier, NodePages.DEFAULT_PAGE_SIZE);
+  }
+
   /**
    * Gets the fully hydrated {@link Node} for the provided {@link NodeProperties}.
    *
@@ -43,6 +70,24 @@ public interface NodeRepository extends Service {
    */
   Promise<Node> read(NodeProperties properties);
 
+  /**
+   * Gets the fully hydrated {@link Node}s for all of the provided {@link NodeProperties} in a single batch.
+   * Properties that do not represent a persisted node are absent from the resulting map.
+   *
+   * @param properties the properties of the nodes
+   * @return a promise to a map of the provided {@link NodeProperties} to the nodes they represent
+   */
+  Promise<Map<NodeProperties, Node>> getAll(Collection<NodeProperties> properties);
+
+  /**
+   * Reads the fully hydrated {@link Node}s for all of the provided {@link NodeProperties} in a single batch.
+   * This is exactly the same as {@link #getAll(Collection)}, with the difference that this method will not update the nodes' "lastAccessTime" field.
+   *
+   * @param properties the properties of the nodes
+   * @return a promise to a map of the provided {@link NodeProperties} to the nodes they represent
+   */
+  Promise<Map<NodeProperties, Node>> readAll(Collection<NodeProperties> properties);
+
   /**
    * Performs a sort-of "update-or-insert" like functionality.
    * If a {@link Node} exists for the provided {@link NodeProperties}, then it is returned.
@@ -58,6 +103,7 @@ public interface NodeRepository extends Service {
    * This means that calling {@link NodeEdge#hasRelationship(NodeProperties)} on "left" with the {@link NodeProperties} of "right" will return true.
    * Similarly, this creates a persistent dependency of "left" to "right".
    * This means that calling {@link NodeEdge#hasDependent(NodeProperties)} on "right" with the {@link NodeProperties} of "left" will return true.
+   * Both nodes are saved along with the edge, so any other leaves that were added to them since they were read are persisted too.
    *
    * This method can be read as, "relate node, 'left', TO node, 'right'."
    *
@@ -80,4 +126,67 @@ public interface NodeRepository extends Service {
    * @param ttl the Time-to-Live in milliseconds
    */
   Operation expireAll(NodeClassifier classifier, Long ttl);
+
+  /**
+   * Will expire at most the provided number of nodes that are stored with the matching classifier and have not been accessed in time less than the specified TTL.
+   * The least recently accessed nodes are expired first, which allows a classifier to be expired in incremental slices rather than all at once.
+   *
+   * @param classifier the classifier for the nodes to expire
+   * @param ttl the Time-to-Live in milliseconds
+   * @param limit the maximum number of nodes to expire
+   * @return a promise to the number of nodes that were expired
+   */
+  Promise<Integer> expire(NodeClassifier classifier, Long ttl, int limit);
+
+  /**
+   * Walks the neighborhood of the node represented by the provided properties, as described by the {@link Traversal}.
+   * The starting node is visited first, at depth 0, and is always visited regardless of the traversal's classifier filter.
+   * Leaves that do not represent a persisted node are skipped.
+   * Like {@link #read(NodeProperties)}, traversing does not update the visited nodes' "lastAccessTime" field.
+   *
+   * @param properties the properties of the node to start from
+   * @param traversal the traversal to walk
+   * @return a promise to the visited nodes, in the order they were visited
+   */
+  default Promise<Set<Node>> traverse(NodeProperties properties, Traversal traversal) {
+    return Traversals.traverse(this, properties, traversal);
+  }
+
+  /**
+   * Finds the shortest path of relationships from one node to another.
+   * The path is searched from both ends at once, following relationships forward from the source and dependents backward from the target, so both sides of each edge must have been persisted, as {@link #relate(Node, Node)} does.
+   *
+   * @param from the properties of the source node
+   * @param to the properties of the target node
+   * @param maxDepth the maximum number of edges in the path
+   * @return a promise to the properties of the nodes on the path, from source to target, or an empty list if there is no such path
+   */
+  default Promise<List<NodeProperties>> shortestPath(NodeProperties from, NodeProperties to, int maxDepth) {
+    return ShortestPaths.shortestPath(this, from, to, maxDepth);
+  }
+
+  /**
+   * Finds the shortest path of relationships from one node to another, regardless of its length.
+   *
+   * @param from the properties of the source node
+   * @param to the properties of the target node
+   * @return a promise to the properties of the nodes on the path, from source to target, or an empty list if there is no such path
+   * @see #shortestPath(NodeProperties, NodeProperties, int)
+   */
+  default Promise<List<NodeProperties>> shortestPath(NodeProperties from, NodeProperties to) {
+    return shortestPath(from, to, Integer.MAX_VALUE);
+  }
+
+  /**
+   * Informs as to whether one node is transitively related to another.
+   *
+   * @param from the properties of the source node
+   * @param to the properties of the target node
+   * @param maxDepth the maximum number of edges between the nodes
+   * @return a promise to true if the target can be reached from the source by following at most maxDepth relationships
+   * @see #shortestPath(NodeProperties, NodeProperties, int)
+   */
+  default Promise<Boolean> reachable(NodeProperties from, NodeProperties to, int maxDepth) {
+    return shortestPath(from, to, maxDepth).map(path -> !path.isEmpty());
+  }
 }
@@ -0,0 +1,171 @@
+package com.danveloper.ratpack.graph;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import ratpack.exec.Promise;
+
+import java.util.*;
+import java.util.function.Function;
+
+/**
+ * Finds shortest paths with a bidirectional breadth-first search.
+ * The search expands forward from the source over relationships and backward from the target over dependents, always expanding whichever frontier is smaller, until the two meet.
+ */
+public class ShortestPaths {
+
+  /**
+   * Provides the leaves of every node in a frontier, in one batch.
+   */
+  public interface Expander {
+    Promise<? extends Map<NodeProperties, ? extends Collection<NodeProperties>>> expand(List<NodeProperties> frontier);
+  }
+
+  private ShortestPaths() {
+  }
+
+  /**
+   * Searches for the shortest path by reading each frontier with {@link NodeRepository#readAll(Collection)}.
+   *
+   * @param repository the repository to read the nodes from
+   * @param from the properties of the source node
+   * @param to the properties of the target node
+   * @param maxDepth the maximum number of edges in the path
+   * @return a promise to the properties of the nodes on the path, from source to target, or an empty list if there is no such path
+   */
+  public static Promise<List<NodeProperties>> shortestPath(NodeRepository repository, NodeProperties from, NodeProperties to, int maxDepth) {
+    return shortestPath(
+        frontier -> repository.readAll(frontier).map(nodes -> Maps.transformValues(nodes, node -> node.getEdge().relationships())),
+        frontier -> repository.readAll(frontier).map(nodes -> Maps.transformValues(nodes, node -> node.getEdge().dependents())),
+        from, to, maxDepth
+    );
+  }
+
+  /**
+   * Searches for the shortest path with the provided expanders.
+   *
+   * @param relationships provides the relationships of the nodes in a forward frontier
+   * @param dependents provides the dependents of the nodes in a backward frontier
+   * @param from the properties of the source node
+   * @param to the properties of the target node
+   * @param maxDepth the maximum number of edges in the path
+   * @return a promise to the properties of the nodes on the path, from source to target, or an empty list if there is no such path
+   */
+  public static Promise<List<NodeProperties>> shortestPath(Expander relationships, Expander dependents, NodeProperties from, NodeProperties to, int maxDepth) {
+    Search search = new Search(from, to, maxDepth);
+    if (search.isDone()) {
+      return Promise.value(search.path());
+    }
+    return step(search, relationships, dependents);
+  }
+
+  /**
+   * Searches for the shortest path synchronously, reading nodes with the provided function.
+   *
+   * @param reader reads the node for the provided properties, or provides null if there is none
+   * @param from the properties of the source node
+   * @param to the properties of the target node
+   * @param maxDepth the maximum number of edges in the path
+   * @return the properties of the nodes on the path, from source to target, or an empty list if there is no such path
+   */
+  public static List<NodeProperties> shortestPath(Function<NodeProperties, Node> reader, NodeProperties from, NodeProperties to, int maxDepth) {
+    Search search = new Search(from, to, maxDepth);
+    while (!search.isDone()) {
+      boolean forward = search.expandsForward();
+      Map<NodeProperties, Collection<NodeProperties>> leaves = Maps.newHashMap();
+      for (NodeProperties properties : search.frontier(forward)) {
+        Node node = reader.apply(properties);
+        if (node != null) {
+          leaves.put(properties, forward ? node.getEdge().relationships() : node.getEdge().dependents());
+        }
+      }
+      search.expand(forward, leaves);
+    }
+    return search.path();
+  }
+
+  private static Promise<List<NodeProperties>> step(Search search, Expander relationships, Expander dependents) {
+    boolean forward = search.expandsForward();
+    return (forward ? relationships : dependents).expand(search.frontier(forward)).flatMap(leaves -> {
+      search.expand(forward, leaves);
+      return search.isDone() ? Promise.value(search.path()) : step(search, relationships, dependents);
+    });
+  }
+
+  private static class Search {
+    private final int maxDepth;
+    private final Map<NodeProperties, NodeProperties> forwardParents = Maps.newHashMap();
+    private final Map<NodeProperties, NodeProperties> backwardParents = Maps.newHashMap();
+    private List<NodeProperties> forwardFrontier;
+    private List<NodeProperties> backwardFrontier;
+    private int depth;
+    private NodeProperties meeting;
+
+    private Search(NodeProperties from, NodeProperties to, int maxDepth) {
+      this.maxDepth = maxDepth;
+      forwardParents.put(from, null);
+      backwardParents.put(to, null);
+      forwardFrontier = Collections.singletonList(from);
+      backwardFrontier = Collections.singletonList(to);
+      if (from.equals(to)) {
+        meeting = from;
+      }
+    }
+
+    boolean isDone() {
+      return meeting != null || forwardFrontier.isEmpty() || backwardFrontier.isEmpty() || depth >= maxDepth;
+    }
+
+    boolean expandsForward() {
+      return forwardFrontier.size() <= backwardFrontier.size();
+    }
+
+    List<NodeProperties> frontier(boolean forward) {
+      return forward ? forwardFrontier : backwardFrontier;
+    }
+
+    /**
+     * Advances one side of the search by a level, stopping at the first node that the other side has already reached.
+     */
+    void expand(boolean forward, Map<NodeProperties, ? extends Collection<NodeProperties>> leaves) {
+      Map<NodeProperties, NodeProperties> parents = forward ? forwardParents : backwardParents;
+      Map<NodeProperties, NodeProperties> otherParents = forward ? backwardParents : forwardParents;
+      List<NodeProperties> next = Lists.newArrayList();
+      depth++;
+      for (NodeProperties properties : frontier(forward)) {
+        Collection<NodeProperties> nodeLeaves = leaves.get(properties);
+        if (nodeLeaves == null) {
+          continue;
+        }
+        for (NodeProperties leaf : nodeLeaves) {
+          if (!parents.containsKey(leaf)) {
+            parents.put(leaf, properties);
+            if (otherParents.containsKey(leaf)) {
+              meeting = leaf;
+              return;
+            }
+            next.add(leaf);
+          }
+        }
+      }
+      if (forward) {
+        forwardFrontier = next;
+      } else {
+        backwardFrontier = next;
+      }
+    }
+
+    List<NodeProperties> path() {
+      if (meeting == null) {
+        return Collections.emptyList();
+      }
+      LinkedList<NodeProperties> path = new LinkedList<>();
+      for (NodeProperties node = meeting; node != null; node = forwardParents.get(node)) {
+        path.addFirst(node);
+      }
+      for (NodeProperties node = backwardParents.get(meeting); node != null; node = backwardParents.get(node)) {
+        path.addLast(node);
+      }
+      return path;
+    }
+  }
+}
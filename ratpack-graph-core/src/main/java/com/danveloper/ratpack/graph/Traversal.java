@@ -0,0 +1,122 @@
+package com.danveloper.ratpack.graph;
+
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Iterables;
+
+import java.util.Collections;
+import java.util.Set;
+
+/**
+ * Describes how a neighborhood of nodes is walked by {@link NodeRepository#traverse(NodeProperties, Traversal)}.
+ * A traversal follows the edges in its {@link Direction} from a starting node, up to a maximum depth, and stops once it has visited a maximum number of nodes.
+ * Leaves can be restricted to a set of classifiers, in which case leaves of other classifiers are neither visited nor followed.
+ */
+public class Traversal {
+  /**
+   * The edges that are followed from each visited node.
+   */
+  public enum Direction {
+    RELATIONSHIPS, DEPENDENTS, BOTH
+  }
+
+  /**
+   * The order in which nodes are visited.
+   */
+  public enum Order {
+    BREADTH_FIRST, DEPTH_FIRST
+  }
+
+  private Direction direction = Direction.RELATIONSHIPS;
+  private Order order = Order.BREADTH_FIRST;
+  private int maxDepth = 1;
+  private int maxNodes = Integer.MAX_VALUE;
+  private Set<NodeClassifier> classifiers = Collections.emptySet();
+
+  /**
+   * @param direction the edges to follow
+   * @return a breadth-first traversal that follows the provided edges one hop from the starting node
+   */
+  public static Traversal of(Direction direction) {
+    return new Traversal().direction(direction);
+  }
+
+  public Traversal direction(Direction direction) {
+    this.direction = direction;
+    return this;
+  }
+
+  public Traversal order(Order order) {
+    this.order = order;
+    return this;
+  }
+
+  /**
+   * @param maxDepth the number of hops from the starting node, which is at depth 0
+   * @return this traversal
+   */
+  public Traversal maxDepth(int maxDepth) {
+    this.maxDepth = maxDepth;
+    return this;
+  }
+
+  /**
+   * @param maxNodes the maximum number of nodes to visit, including the starting node
+   * @return this traversal
+   */
+  public Traversal maxNodes(int maxNodes) {
+    this.maxNodes = maxNodes;
+    return this;
+  }
+
+  /**
+   * @param classifiers the classifiers of the leaves to visit, or none to visit leaves of any classifier
+   * @return this traversal
+   */
+  public Traversal classifiers(NodeClassifier... classifiers) {
+    this.classifiers = ImmutableSet.copyOf(classifiers);
+    return this;
+  }
+
+  public Direction getDirection() {
+    return direction;
+  }
+
+  public Order getOrder() {
+    return order;
+  }
+
+  public int getMaxDepth() {
+    return maxDepth;
+  }
+
+  public int getMaxNodes() {
+    return maxNodes;
+  }
+
+  public Set<NodeClassifier> getClassifiers() {
+    return classifiers;
+  }
+
+  /**
+   * @param properties the properties of a leaf
+   * @return true if the leaf passes the classifier filter of this traversal
+   */
+  public boolean accepts(NodeProperties properties) {
+    return classifiers.isEmpty() || classifiers.contains(properties.getClassifier());
+  }
+
+  /**
+   * @param node a visited node
+   * @return the leaves of the node that this traversal follows, in no particular order
+   */
+  public Iterable<NodeProperties> leaves(Node node) {
+    switch (direction) {
+      case DEPENDENTS:
+        return node.getEdge().dependents();
+      case BOTH:
+        return Iterables.concat(node.getEdge().relationships(), node.getEdge().dependents());
+      default:
+        return node.getEdge().relationships();
+    }
+  }
+}
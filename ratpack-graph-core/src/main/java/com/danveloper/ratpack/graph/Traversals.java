@@ -0,0 +1,176 @@
+package com.danveloper.ratpack.graph;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+import ratpack.exec.Promise;
+
+import java.util.*;
+import java.util.function.Function;
+
+/**
+ * Implementations of {@link Traversal}s.
+ * Repositories that can reach their nodes without going through a promise walk them synchronously, with {@link #traverse(Function, NodeProperties, Traversal)}.
+ * Every other repository reads a whole breadth-first frontier per hop with {@link NodeRepository#readAll(Collection)}.
+ */
+public class Traversals {
+
+  private Traversals() {
+  }
+
+  /**
+   * Walks the traversal through the provided repository.
+   * Breadth-first traversals read one batch per hop; depth-first traversals read one node at a time, as the next node to visit depends on the last.
+   *
+   * @param repository the repository to read the nodes from
+   * @param start the properties of the node to start from
+   * @param traversal the traversal to walk
+   * @return a promise to the visited nodes, in the order they were visited
+   */
+  public static Promise<Set<Node>> traverse(NodeRepository repository, NodeProperties start, Traversal traversal) {
+    Set<Node> result = Sets.newLinkedHashSet();
+    if (traversal.getOrder() == Traversal.Order.DEPTH_FIRST) {
+      Deque<Step> stack = new ArrayDeque<>();
+      stack.push(new Step(start, 0));
+      return depthFirst(repository, traversal, stack, Maps.newHashMap(), Maps.newHashMap(), result);
+    }
+    return breadthFirst(repository, traversal, Collections.singletonList(start), 0, Sets.newHashSet(start), result);
+  }
+
+  /**
+   * Walks the traversal synchronously, reading nodes with the provided function.
+   *
+   * @param reader reads the node for the provided properties, or provides null if there is none
+   * @param start the properties of the node to start from
+   * @param traversal the traversal to walk
+   * @return the visited nodes, in the order they were visited
+   */
+  public static Set<Node> traverse(Function<NodeProperties, Node> reader, NodeProperties start, Traversal traversal) {
+    Set<Node> result = Sets.newLinkedHashSet();
+    if (traversal.getOrder() == Traversal.Order.DEPTH_FIRST) {
+      Map<NodeProperties, Integer> depths = Maps.newHashMap();
+      Map<NodeProperties, Node> read = Maps.newHashMap();
+      Deque<Step> stack = new ArrayDeque<>();
+      stack.push(new Step(start, 0));
+      while (!stack.isEmpty() && result.size() < traversal.getMaxNodes()) {
+        Step step = stack.pop();
+        if (reached(step, depths)) {
+          if (!read.containsKey(step.properties)) {
+            read.put(step.properties, reader.apply(step.properties));
+          }
+          visit(read.get(step.properties), step.depth, traversal, stack, depths, result);
+        }
+      }
+    } else {
+      Set<NodeProperties> visited = Sets.newHashSet(start);
+      List<NodeProperties> frontier = Collections.singletonList(start);
+      for (int depth = 0; !frontier.isEmpty() && result.size() < traversal.getMaxNodes(); depth++) {
+        List<NodeProperties> next = Lists.newArrayList();
+        for (NodeProperties properties : frontier) {
+          if (result.size() >= traversal.getMaxNodes()) {
+            break;
+          }
+          visit(reader.apply(properties), depth, traversal, next, visited, result);
+        }
+        frontier = next;
+      }
+    }
+    return result;
+  }
+
+  private static Promise<Set<Node>> breadthFirst(NodeRepository repository, Traversal traversal, List<NodeProperties> frontier, int depth,
+                                                 Set<NodeProperties> visited, Set<Node> result) {
+    if (frontier.isEmpty() || result.size() >= traversal.getMaxNodes()) {
+      return Promise.value(result);
+    }
+    return repository.readAll(frontier).flatMap(nodes -> {
+      List<NodeProperties> next = Lists.newArrayList();
+      for (NodeProperties properties : frontier) {
+        if (result.size() >= traversal.getMaxNodes()) {
+          break;
+        }
+        visit(nodes.get(properties), depth, traversal, next, visited, result);
+      }
+      return breadthFirst(repository, traversal, next, depth + 1, visited, result);
+    });
+  }
+
+  private static Promise<Set<Node>> depthFirst(NodeRepository repository, Traversal traversal, Deque<Step> stack,
+                                               Map<NodeProperties, Integer> depths, Map<NodeProperties, Node> read, Set<Node> result) {
+    Step step = stack.poll();
+    while (step != null && !reached(step, depths)) {
+      step = stack.poll();
+    }
+    if (step == null || result.size() >= traversal.getMaxNodes()) {
+      return Promise.value(result);
+    }
+    Step reached = step;
+    if (read.containsKey(reached.properties)) {
+      visit(read.get(reached.properties), reached.depth, traversal, stack, depths, result);
+      return depthFirst(repository, traversal, stack, depths, read, result);
+    }
+    return repository.read(reached.properties).flatMap(node -> {
+      read.put(reached.properties, node);
+      visit(node, reached.depth, traversal, stack, depths, result);
+      return depthFirst(repository, traversal, stack, depths, read, result);
+    });
+  }
+
+  /**
+   * Records the depth of a depth-first step, unless its node has already been reached at the same or a shallower depth.
+   * A node that is reached again at a shallower depth is expanded again, so that the leaves within the maximum depth of it are not missed.
+   */
+  private static boolean reached(Step step, Map<NodeProperties, Integer> depths) {
+    Integer depth = depths.get(step.properties);
+    if (depth != null && depth <= step.depth) {
+      return false;
+    }
+    depths.put(step.properties, step.depth);
+    return true;
+  }
+
+  /**
+   * Adds a breadth-first node to the result, and queues its unvisited leaves for the next hop.
+   */
+  private static void visit(Node node, int depth, Traversal traversal, List<NodeProperties> next, Set<NodeProperties> visited, Set<Node> result) {
+    if (node == null) {
+      return;
+    }
+    result.add(node);
+    if (depth < traversal.getMaxDepth()) {
+      for (NodeProperties leaf : traversal.leaves(node)) {
+        if (traversal.accepts(leaf) && visited.add(leaf)) {
+          next.add(leaf);
+        }
+      }
+    }
+  }
+
+  /**
+   * Adds a depth-first node to the result, unless it is already there, and pushes the leaves that it reaches at a shallower depth than they have been reached at so far, so that they are visited before the rest of the stack.
+   */
+  private static void visit(Node node, int depth, Traversal traversal, Deque<Step> stack, Map<NodeProperties, Integer> depths, Set<Node> result) {
+    if (node == null) {
+      return;
+    }
+    result.add(node);
+    if (depth < traversal.getMaxDepth()) {
+      for (NodeProperties leaf : traversal.leaves(node)) {
+        Integer reached = depths.get(leaf);
+        if (traversal.accepts(leaf) && (reached == null || reached > depth + 1)) {
+          stack.push(new Step(leaf, depth + 1));
+        }
+      }
+    }
+  }
+
+  private static class Step {
+    private final NodeProperties properties;
+    private final int depth;
+
+    private Step(NodeProperties properties, int depth) {
+      this.properties = properties;
+      this.depth = depth;
+    }
+  }
+}
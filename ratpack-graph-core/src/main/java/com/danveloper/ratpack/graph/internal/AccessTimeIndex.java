@@ -0,0 +1,90 @@
+package com.danveloper.ratpack.graph.internal;
+
+import com.danveloper.ratpack.graph.NodeClassifier;
+import com.danveloper.ratpack.graph.NodeProperties;
+import com.google.common.collect.Lists;
+
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+
+/**
+ * Orders the nodes of each {@link NodeClassifier} by their last access time, so that expired nodes can be found without scanning the whole classifier.
+ */
+public class AccessTimeIndex {
+  private static final Comparator<Entry> ORDER = Comparator.<Entry>comparingLong(e -> e.accessTime)
+      .thenComparing(e -> e.properties == null ? "" : e.properties.getId());
+
+  private final Map<NodeClassifier, NavigableSet<Entry>> index = new ConcurrentHashMap<>();
+
+  /**
+   * Moves the node from its previous access time to its new one.
+   *
+   * @param properties the properties of the node
+   * @param previousAccessTime the access time the node was indexed at, or null if it was not indexed
+   * @param accessTime the new access time of the node
+   */
+  public void update(NodeProperties properties, Long previousAccessTime, long accessTime) {
+    NavigableSet<Entry> entries = index.computeIfAbsent(properties.getClassifier(), c -> new ConcurrentSkipListSet<>(ORDER));
+    if (previousAccessTime != null && previousAccessTime != accessTime) {
+      entries.remove(new Entry(previousAccessTime, properties));
+    }
+    entries.add(new Entry(accessTime, properties));
+  }
+
+  /**
+   * Removes the node from the index.
+   *
+   * @param properties the properties of the node
+   * @param accessTime the access time the node was indexed at
+   */
+  public void remove(NodeProperties properties, long accessTime) {
+    NavigableSet<Entry> entries = index.get(properties.getClassifier());
+    if (entries != null) {
+      entries.remove(new Entry(accessTime, properties));
+    }
+  }
+
+  /**
+   * Provides the oldest entries of the classifier that were last accessed before the provided time.
+   *
+   * @param classifier the classifier of the nodes
+   * @param accessedBefore the exclusive upper bound for the access time of the entries
+   * @param limit the maximum number of entries to provide
+   * @return the expired entries, oldest first
+   */
+  public List<Entry> expired(NodeClassifier classifier, long accessedBefore, int limit) {
+    List<Entry> expired = Lists.newArrayList();
+    NavigableSet<Entry> entries = index.get(classifier);
+    if (entries != null) {
+      for (Entry entry : entries.headSet(new Entry(accessedBefore, null), false)) {
+        if (expired.size() >= limit) {
+          break;
+        }
+        expired.add(entry);
+      }
+    }
+    return expired;
+  }
+
+  public static class Entry {
+    private final long accessTime;
+    private final NodeProperties properties;
+
+    private Entry(long accessTime, NodeProperties properties) {
+      this.accessTime = accessTime;
+      this.properties = properties;
+    }
+
+    public long getAccessTime() {
+      return accessTime;
+    }
+
+    public NodeProperties getProperties() {
+      return properties;
+    }
+  }
+}
@@ -0,0 +1,100 @@
+package com.danveloper.ratpack.graph.internal;
+
+import com.danveloper.ratpack.graph.NodeProperties;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Maps;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Buffers node access times in memory so that reads do not have to write back to the repository.
+ * Touches are recorded in a stripe chosen by the calling thread, so hot nodes that are read from many threads do not contend on a single entry.
+ * Repositories periodically {@link #drain()} the buffer and persist the coalesced, latest access time of each node.
+ */
+public class AccessTimeTracker {
+  private final List<ConcurrentMap<NodeProperties, Long>> stripes;
+
+  public AccessTimeTracker() {
+    this(Runtime.getRuntime().availableProcessors());
+  }
+
+  public AccessTimeTracker(int concurrency) {
+    int numStripes = Integer.highestOneBit(Math.max(1, concurrency - 1)) << 1;
+    ImmutableList.Builder<ConcurrentMap<NodeProperties, Long>> stripes = ImmutableList.builder();
+    for (int i = 0; i < numStripes; i++) {
+      stripes.add(new ConcurrentHashMap<>());
+    }
+    this.stripes = stripes.build();
+  }
+
+  /**
+   * Records that the node represented by the provided properties was accessed at the provided time.
+   */
+  public void touch(NodeProperties properties, long accessTime) {
+    int stripe = (int) Thread.currentThread().getId() & (stripes.size() - 1);
+    stripes.get(stripe).merge(properties, accessTime, Math::max);
+  }
+
+  /**
+   * @return the latest access time that has been recorded but not yet drained for the node, or null if there is none
+   */
+  public Long getPending(NodeProperties properties) {
+    Long latest = null;
+    for (ConcurrentMap<NodeProperties, Long> stripe : stripes) {
+      Long accessTime = stripe.get(properties);
+      if (accessTime != null && (latest == null || accessTime > latest)) {
+        latest = accessTime;
+      }
+    }
+    return latest;
+  }
+
+  /**
+   * Applies any pending access time for the node to the provided, persisted access time.
+   */
+  public Long withPending(NodeProperties properties, Long lastAccessTime) {
+    Long pending = getPending(properties);
+    if (pending == null) {
+      return lastAccessTime;
+    }
+    return lastAccessTime == null ? pending : Math.max(pending, lastAccessTime);
+  }
+
+  /**
+   * Forgets any pending access time for the node, such as when it has been removed.
+   */
+  public void discard(NodeProperties properties) {
+    for (ConcurrentMap<NodeProperties, Long> stripe : stripes) {
+      stripe.remove(properties);
+    }
+  }
+
+  /**
+   * Removes and returns the pending access times, coalesced to the latest access time per node.
+   * Touches that race with the drain are retained for the next drain.
+   */
+  public Map<NodeProperties, Long> drain() {
+    Map<NodeProperties, Long> drained = Maps.newHashMap();
+    for (ConcurrentMap<NodeProperties, Long> stripe : stripes) {
+      for (Map.Entry<NodeProperties, Long> entry : stripe.entrySet()) {
+        if (stripe.remove(entry.getKey(), entry.getValue())) {
+          Long drainedAccessTime = drained.get(entry.getKey());
+          if (drainedAccessTime == null || drainedAccessTime < entry.getValue()) {
+            drained.put(entry.getKey(), entry.getValue());
+          }
+        }
+      }
+    }
+    return drained;
+  }
+
+  /**
+   * Puts access times back into the buffer, such as when persisting a drained batch failed.
+   */
+  public void restore(Map<NodeProperties, Long> accessTimes) {
+    accessTimes.forEach(this::touch);
+  }
+}
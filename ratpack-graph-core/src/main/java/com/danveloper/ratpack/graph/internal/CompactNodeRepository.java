@@ -0,0 +1,419 @@
+package com.danveloper.ratpack.graph.internal;
+
+import com.danveloper.ratpack.graph.*;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+import com.google.inject.Inject;
+import ratpack.exec.Execution;
+import ratpack.exec.Operation;
+import ratpack.exec.Promise;
+import ratpack.service.StartEvent;
+import ratpack.service.StopEvent;
+
+import java.util.*;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * An in-memory {@link NodeRepository} for large graphs.
+ * Every {@link NodeProperties} is interned to an int id, and the leaves of each node are kept in {@link EdgeSet}s of those ids, so an edge costs a few bytes of primitive arrays instead of a graph of objects.
+ * Unlike {@link InMemoryNodeRepository}, nodes are not evicted after a period of inactivity; they are kept until they are removed or expired.
+ */
+public class CompactNodeRepository implements NodeRepository {
+  private static final int EXPIRE_BATCH_SIZE = 100;
+  private static final long ABSENT = Long.MIN_VALUE;
+
+  private final GraphModule.Config config;
+  private final AccessTimeTracker accessTimeTracker = new AccessTimeTracker();
+  private final AccessTimeIndex accessTimeIndex = new AccessTimeIndex();
+  private final ReadWriteLock lock = new ReentrantReadWriteLock();
+  private ScheduledFuture<?> accessTimeFlush;
+
+  private final Map<NodeProperties, Integer> ids = Maps.newHashMap();
+  private final Map<NodeClassifier, NavigableSet<NodeProperties>> classifiers = Maps.newHashMap();
+  private NodeProperties[] properties = new NodeProperties[16];
+  private long[] lastAccessTimes = new long[16];
+  private EdgeSet[] relationships = new EdgeSet[16];
+  private EdgeSet[] dependents = new EdgeSet[16];
+  private int[] references = new int[16];
+  private int[] freeIds = new int[16];
+  private int freeIdCount;
+  private int nextId;
+
+  public CompactNodeRepository() {
+    this(new GraphModule.Config());
+  }
+
+  @Inject
+  public CompactNodeRepository(GraphModule.Config config) {
+    this.config = config;
+  }
+
+  @Override
+  public void onStart(StartEvent e) {
+    ScheduledExecutorService executor = Execution.current().getController().getExecutor();
+    long flushInterval = config.getAccessTimeFlushInterval().toMillis();
+    accessTimeFlush = executor.scheduleWithFixedDelay(this::flushAccessTimes, flushInterval, flushInterval, TimeUnit.MILLISECONDS);
+  }
+
+  @Override
+  public void onStop(StopEvent e) {
+    if (accessTimeFlush != null) {
+      accessTimeFlush.cancel(false);
+    }
+    flushAccessTimes();
+  }
+
+  @Override
+  public Operation save(Node node) {
+    return Operation.of(() -> save0(node));
+  }
+
+  @Override
+  public Promise<Set<NodeProperties>> lookup(NodeClassifier classifier) {
+    lock.readLock().lock();
+    try {
+      Set<NodeProperties> nodes = classifiers.get(classifier);
+      return Promise.value(nodes != null ? ImmutableSet.copyOf(nodes) : null);
+    } finally {
+      lock.readLock().unlock();
+    }
+  }
+
+  @Override
+  public Promise<NodePage> page(NodeClassifier classifier, String cursor, int count) {
+    lock.readLock().lock();
+    try {
+      return Promise.value(NodePages.page(classifiers.getOrDefault(classifier, Collections.emptyNavigableSet()), cursor, count));
+    } finally {
+      lock.readLock().unlock();
+    }
+  }
+
+  @Override
+  public Promise<Node> get(NodeProperties nodeProperties) {
+    return Promise.value(get(nodeProperties, true));
+  }
+
+  @Override
+  public Promise<Node> read(NodeProperties nodeProperties) {
+    return Promise.value(get(nodeProperties, false));
+  }
+
+  @Override
+  public Promise<Map<NodeProperties, Node>> getAll(Collection<NodeProperties> properties) {
+    return Promise.value(getAll(properties, true));
+  }
+
+  @Override
+  public Promise<Map<NodeProperties, Node>> readAll(Collection<NodeProperties> properties) {
+    return Promise.value(getAll(properties, false));
+  }
+
+  @Override
+  public Promise<Node> getOrCreate(NodeProperties nodeProperties) {
+    lock.writeLock().lock();
+    try {
+      if (idOf(nodeProperties) < 0) {
+        save0(new Node(nodeProperties));
+      }
+    } finally {
+      lock.writeLock().unlock();
+    }
+    return get(nodeProperties);
+  }
+
+  @Override
+  public Operation relate(Node left, Node right) {
+    left.getEdge().addRelationship(right.getProperties());
+    right.getEdge().addDependent(left.getProperties());
+    return Operation.of(() -> {
+      lock.writeLock().lock();
+      try {
+        save0(left);
+        save0(right);
+      } finally {
+        lock.writeLock().unlock();
+      }
+    });
+  }
+
+  @Override
+  public Operation remove(NodeProperties nodeProperties) {
+    lock.writeLock().lock();
+    try {
+      remove0(nodeProperties);
+    } finally {
+      lock.writeLock().unlock();
+    }
+    return Operation.noop();
+  }
+
+  @Override
+  public Operation expireAll(NodeClassifier classifier, Long ttl) {
+    expire0(classifier, ttl, Integer.MAX_VALUE);
+    return Operation.noop();
+  }
+
+  @Override
+  public Promise<Integer> expire(NodeClassifier classifier, Long ttl, int limit) {
+    return Promise.value(expire0(classifier, ttl, limit));
+  }
+
+  @Override
+  public Promise<Set<Node>> traverse(NodeProperties nodeProperties, Traversal traversal) {
+    lock.readLock().lock();
+    try {
+      return Promise.value(Traversals.traverse(props -> get0(props, false), nodeProperties, traversal));
+    } finally {
+      lock.readLock().unlock();
+    }
+  }
+
+  @Override
+  public Promise<List<NodeProperties>> shortestPath(NodeProperties from, NodeProperties to, int maxDepth) {
+    lock.readLock().lock();
+    try {
+      return Promise.value(ShortestPaths.shortestPath(props -> get0(props, false), from, to, maxDepth));
+    } finally {
+      lock.readLock().unlock();
+    }
+  }
+
+  private void flushAccessTimes() {
+    Map<NodeProperties, Long> accessTimes = accessTimeTracker.drain();
+    if (accessTimes.isEmpty()) {
+      return;
+    }
+    lock.writeLock().lock();
+    try {
+      for (Map.Entry<NodeProperties, Long> entry : accessTimes.entrySet()) {
+        int id = idOf(entry.getKey());
+        if (id >= 0 && lastAccessTimes[id] < entry.getValue()) {
+          accessTimeIndex.update(entry.getKey(), lastAccessTimes[id], entry.getValue());
+          lastAccessTimes[id] = entry.getValue();
+        }
+      }
+    } finally {
+      lock.writeLock().unlock();
+    }
+  }
+
+  private int expire0(NodeClassifier classifier, Long ttl, int limit) {
+    flushAccessTimes();
+    long expiredBefore = System.currentTimeMillis() - ttl;
+    int expiredCount = 0;
+    lock.writeLock().lock();
+    try {
+      while (expiredCount < limit) {
+        List<AccessTimeIndex.Entry> expired = accessTimeIndex.expired(classifier, expiredBefore, Math.min(EXPIRE_BATCH_SIZE, limit - expiredCount));
+        if (expired.isEmpty()) {
+          break;
+        }
+        for (AccessTimeIndex.Entry entry : expired) {
+          int id = idOf(entry.getProperties());
+          if (id >= 0 && lastAccessTimes[id] == entry.getAccessTime()) {
+            remove0(entry.getProperties());
+            expiredCount++;
+          } else {
+            accessTimeIndex.remove(entry.getProperties(), entry.getAccessTime());
+            if (id >= 0) {
+              accessTimeIndex.update(entry.getProperties(), null, lastAccessTimes[id]);
+            }
+          }
+        }
+      }
+    } finally {
+      lock.writeLock().unlock();
+    }
+    return expiredCount;
+  }
+
+  private void save0(Node node) {
+    if (node == null || node.getProperties() == null || node.getProperties().getId() == null) {
+      throw new IllegalStateException("Somebody tried to insert an empty node");
+    }
+    lock.writeLock().lock();
+    try {
+      NodeProperties nodeProperties = node.getProperties();
+      int id = intern(nodeProperties);
+      Long existingLastAccessTime = lastAccessTimes[id] == ABSENT ? null : lastAccessTimes[id];
+      long lastAccessTime = existingLastAccessTime != null ? Math.max(existingLastAccessTime, node.getLastAccessTime()) : node.getLastAccessTime();
+      lastAccessTimes[id] = lastAccessTime;
+      accessTimeIndex.update(nodeProperties, existingLastAccessTime, lastAccessTime);
+      if (existingLastAccessTime == null) {
+        classifiers.computeIfAbsent(nodeProperties.getClassifier(), c -> new TreeSet<>(NodePages.BY_ID)).add(nodeProperties);
+      }
+
+      for (NodeEdge.ModifyEvent event : node.getEdge().getRelationshipEvents()) {
+        applyEvent(id, event, true);
+      }
+      for (NodeEdge.ModifyEvent event : node.getEdge().getDependentEvents()) {
+        applyEvent(id, event, false);
+      }
+    } finally {
+      lock.writeLock().unlock();
+    }
+  }
+
+  private void applyEvent(int id, NodeEdge.ModifyEvent event, boolean relationship) {
+    if (event.getEventType() == NodeEdge.ModifyEvent.EventType.ADD) {
+      int leafId = intern(event.getNodeProperties());
+      EdgeSet[] edges = relationship ? relationships : dependents;
+      if (edges[id] == null) {
+        edges[id] = new EdgeSet();
+      }
+      if (edges[id].add(leafId, event.getModifyTime())) {
+        references[leafId]++;
+      }
+    } else {
+      Integer leafId = ids.get(event.getNodeProperties());
+      EdgeSet edge = (relationship ? relationships : dependents)[id];
+      if (leafId != null && edge != null && edge.remove(leafId, event.getModifyTime())) {
+        references[leafId]--;
+        release(leafId);
+      }
+    }
+  }
+
+  private void remove0(NodeProperties nodeProperties) {
+    Integer id = ids.get(nodeProperties);
+    if (id == null || lastAccessTimes[id] == ABSENT) {
+      return;
+    }
+    unlink(id, relationships[id], dependents);
+    unlink(id, dependents[id], relationships);
+    relationships[id] = null;
+    dependents[id] = null;
+
+    Set<NodeProperties> classified = classifiers.get(nodeProperties.getClassifier());
+    if (classified != null) {
+      classified.remove(nodeProperties);
+    }
+    accessTimeIndex.remove(nodeProperties, lastAccessTimes[id]);
+    accessTimeTracker.discard(nodeProperties);
+    lastAccessTimes[id] = ABSENT;
+    release(id);
+  }
+
+  private void unlink(int id, EdgeSet edge, EdgeSet[] oppositeEdges) {
+    if (edge == null) {
+      return;
+    }
+    for (int i = 0; i < edge.size(); i++) {
+      int leafId = edge.get(i);
+      EdgeSet opposite = oppositeEdges[leafId];
+      if (lastAccessTimes[leafId] != ABSENT && opposite != null && opposite.remove(id, Long.MAX_VALUE)) {
+        references[id]--;
+      }
+      references[leafId]--;
+    }
+    for (int i = 0; i < edge.size(); i++) {
+      int leafId = edge.get(i);
+      if (references[leafId] == 0 && lastAccessTimes[leafId] == ABSENT) {
+        release(leafId);
+      }
+    }
+  }
+
+  private Map<NodeProperties, Node> getAll(Collection<NodeProperties> properties, boolean updateAccessTime) {
+    Map<NodeProperties, Node> nodes = Maps.newLinkedHashMap();
+    lock.readLock().lock();
+    try {
+      for (NodeProperties nodeProperties : properties) {
+        Node node = get0(nodeProperties, updateAccessTime);
+        if (node != null) {
+          nodes.put(nodeProperties, node);
+        }
+      }
+    } finally {
+      lock.readLock().unlock();
+    }
+    return nodes;
+  }
+
+  private Node get(NodeProperties nodeProperties, boolean updateAccessTime) {
+    lock.readLock().lock();
+    try {
+      return get0(nodeProperties, updateAccessTime);
+    } finally {
+      lock.readLock().unlock();
+    }
+  }
+
+  private Node get0(NodeProperties nodeProperties, boolean updateAccessTime) {
+    int id = idOf(nodeProperties);
+    if (id < 0) {
+      return null;
+    }
+    NodeEdge nodeEdge = new NodeEdge(leaves(relationships[id]), leaves(dependents[id]));
+    long lastAccessTime;
+    if (updateAccessTime) {
+      lastAccessTime = System.currentTimeMillis();
+      accessTimeTracker.touch(nodeProperties, lastAccessTime);
+    } else {
+      lastAccessTime = accessTimeTracker.withPending(nodeProperties, lastAccessTimes[id]);
+    }
+    return new Node(nodeProperties, nodeEdge, lastAccessTime);
+  }
+
+  private Set<NodeProperties> leaves(EdgeSet edge) {
+    if (edge == null) {
+      return Sets.newHashSet();
+    }
+    Set<NodeProperties> leaves = Sets.newHashSetWithExpectedSize(edge.size());
+    for (int i = 0; i < edge.size(); i++) {
+      leaves.add(properties[edge.get(i)]);
+    }
+    return leaves;
+  }
+
+  /**
+   * @return the id of the stored node, or -1 if the node is not stored
+   */
+  private int idOf(NodeProperties nodeProperties) {
+    Integer id = ids.get(nodeProperties);
+    return id != null && lastAccessTimes[id] != ABSENT ? id : -1;
+  }
+
+  private int intern(NodeProperties nodeProperties) {
+    Integer existing = ids.get(nodeProperties);
+    if (existing != null) {
+      return existing;
+    }
+    int id = freeIdCount > 0 ? freeIds[--freeIdCount] : nextId++;
+    if (id == properties.length) {
+      int capacity = id + (id >> 1);
+      properties = Arrays.copyOf(properties, capacity);
+      lastAccessTimes = Arrays.copyOf(lastAccessTimes, capacity);
+      relationships = Arrays.copyOf(relationships, capacity);
+      dependents = Arrays.copyOf(dependents, capacity);
+      references = Arrays.copyOf(references, capacity);
+    }
+    NodeProperties canonical = nodeProperties.intern();
+    ids.put(canonical, id);
+    properties[id] = canonical;
+    lastAccessTimes[id] = ABSENT;
+    references[id] = 0;
+    return id;
+  }
+
+  /**
+   * Frees the id once the node it represents is neither stored nor a leaf of another node, so that it can be reused.
+   */
+  private void release(int id) {
+    if (lastAccessTimes[id] != ABSENT || references[id] > 0 || properties[id] == null) {
+      return;
+    }
+    ids.remove(properties[id]);
+    properties[id] = null;
+    if (freeIdCount == freeIds.length) {
+      freeIds = Arrays.copyOf(freeIds, freeIdCount << 1);
+    }
+    freeIds[freeIdCount++] = id;
+  }
+}
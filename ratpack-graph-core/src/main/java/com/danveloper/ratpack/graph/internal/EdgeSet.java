@@ -0,0 +1,93 @@
+package com.danveloper.ratpack.graph.internal;
+
+import java.util.Arrays;
+
+/**
+ * The leaves of one side of a node's edge, stored as a sorted array of interned node ids with the time at which each leaf was last added.
+ * Each leaf costs twelve bytes, rather than the boxed events and hash set entries that {@link InMemoryNodeRepository} keeps per leaf.
+ * This class is not thread safe.
+ */
+public class EdgeSet {
+  private static final int[] NO_IDS = new int[0];
+  private static final long[] NO_TIMES = new long[0];
+
+  private int[] ids = NO_IDS;
+  private long[] modifyTimes = NO_TIMES;
+  private int size;
+
+  /**
+   * Adds the leaf, or moves its modify time forward if it is already present.
+   *
+   * @param id the interned id of the leaf
+   * @param modifyTime the time at which the leaf was added
+   * @return true if the leaf was not already present
+   */
+  public boolean add(int id, long modifyTime) {
+    int index = Arrays.binarySearch(ids, 0, size, id);
+    if (index >= 0) {
+      modifyTimes[index] = Math.max(modifyTimes[index], modifyTime);
+      return false;
+    }
+    index = -index - 1;
+    if (size == ids.length) {
+      int capacity = Math.max(4, size + (size >> 1));
+      ids = Arrays.copyOf(ids, capacity);
+      modifyTimes = Arrays.copyOf(modifyTimes, capacity);
+    }
+    System.arraycopy(ids, index, ids, index + 1, size - index);
+    System.arraycopy(modifyTimes, index, modifyTimes, index + 1, size - index);
+    ids[index] = id;
+    modifyTimes[index] = modifyTime;
+    size++;
+    return true;
+  }
+
+  /**
+   * Removes the leaf, unless it was added after the provided time.
+   *
+   * @param id the interned id of the leaf
+   * @param modifyTime the time at which the leaf was removed
+   * @return true if the leaf was removed
+   */
+  public boolean remove(int id, long modifyTime) {
+    int index = Arrays.binarySearch(ids, 0, size, id);
+    if (index < 0 || modifyTimes[index] > modifyTime) {
+      return false;
+    }
+    System.arraycopy(ids, index + 1, ids, index, size - index - 1);
+    System.arraycopy(modifyTimes, index + 1, modifyTimes, index, size - index - 1);
+    size--;
+    if (size == 0) {
+      ids = NO_IDS;
+      modifyTimes = NO_TIMES;
+    } else if (size < ids.length >> 2) {
+      ids = Arrays.copyOf(ids, size << 1);
+      modifyTimes = Arrays.copyOf(modifyTimes, size << 1);
+    }
+    return true;
+  }
+
+  public boolean contains(int id) {
+    return Arrays.binarySearch(ids, 0, size, id) >= 0;
+  }
+
+  /**
+   * @param index the position of the leaf, from 0 to {@link #size()}
+   * @return the interned id of the leaf at the provided position
+   */
+  public int get(int index) {
+    return ids[index];
+  }
+
+  /**
+   * @param index the position of the leaf, from 0 to {@link #size()}
+   * @return the time at which the leaf at the provided position was last added
+   */
+  public long getModifyTime(int index) {
+    return modifyTimes[index];
+  }
+
+  public int size() {
+    return size;
+  }
+}
@@ -6,6 +6,7 @@ import com.google.common.collect.Maps;
 import ratpack.exec.Operation;
 import ratpack.exec.Promise;
 
+import java.util.Collection;
 import java.util.Map;
 
 public class InMemoryNodeDataRepository implements NodeDataRepository {
@@ -16,12 +17,31 @@ public class InMemoryNodeDataRepository implements NodeDataRepository {
     return Promise.value(storage.containsKey(properties) ? ((T) storage.get(properties)) : null);
   }
 
+  @Override
+  public <T> Promise<Map<NodeProperties, T>> getAll(Collection<NodeProperties> properties) {
+    Map<NodeProperties, T> result = Maps.newHashMapWithExpectedSize(properties.size());
+    for (NodeProperties props : properties) {
+      @SuppressWarnings("unchecked")
+      T object = (T) storage.get(props);
+      if (object != null) {
+        result.put(props, object);
+      }
+    }
+    return Promise.value(result);
+  }
+
   @Override
   public Operation save(NodeProperties properties, Object object) {
     storage.put(properties, object);
     return Operation.noop();
   }
 
+  @Override
+  public Operation saveAll(Map<NodeProperties, ?> objects) {
+    storage.putAll(objects);
+    return Operation.noop();
+  }
+
   @Override
   public Operation remove(NodeProperties properties) {
     if (storage.containsKey(properties)) {
@@ -29,4 +49,10 @@ public class InMemoryNodeDataRepository implements NodeDataRepository {
     }
     return Operation.noop();
   }
+
+  @Override
+  public Operation removeAll(Collection<NodeProperties> properties) {
+    properties.forEach(storage::remove);
+    return Operation.noop();
+  }
 }
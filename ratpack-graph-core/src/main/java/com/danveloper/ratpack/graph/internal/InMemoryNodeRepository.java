@@ -3,46 +3,71 @@ package com.danveloper.ratpack.graph.internal;
 import com.danveloper.ratpack.graph.*;
 import com.github.benmanes.caffeine.cache.Cache;
 import com.github.benmanes.caffeine.cache.Caffeine;
+import com.google.common.collect.Maps;
 import com.google.common.collect.Sets;
+import com.google.inject.Inject;
 import ratpack.exec.Execution;
 import ratpack.exec.Operation;
 import ratpack.exec.Promise;
 import ratpack.service.StartEvent;
+import ratpack.service.StopEvent;
 
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListSet;
 import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.TimeUnit;
-import java.util.stream.Collectors;
 
 public class InMemoryNodeRepository implements NodeRepository {
+  private static final int EXPIRE_BATCH_SIZE = 100;
+
+  private final GraphModule.Config config;
+  private final AccessTimeTracker accessTimeTracker = new AccessTimeTracker();
+  private final AccessTimeIndex accessTimeIndex = new AccessTimeIndex();
+  private ScheduledFuture<?> accessTimeFlush;
 
   private Map<NodeProperties, Long> nodePropertiesIndex;
-  private Map<NodeProperties, Set<NodeEdge.ModifyEvent>> nodeDependentsIndex;
-  private Map<NodeProperties, Set<NodeEdge.ModifyEvent>> nodeRelationshipsIndex;
+  private Map<NodeProperties, Map<NodeProperties, Long>> nodeDependentsIndex;
+  private Map<NodeProperties, Map<NodeProperties, Long>> nodeRelationshipsIndex;
   private Map<NodeClassifier, Set<NodeProperties>> nodeClassifierIndex;
 
   private static class Caches {
     Cache<NodeProperties, Long> nodePropertiesIndexCache;
-    Cache<NodeProperties, Set<NodeEdge.ModifyEvent>> nodeDependentsIndexCache;
-    Cache<NodeProperties, Set<NodeEdge.ModifyEvent>> nodeRelationshipsIndexCache;
+    Cache<NodeProperties, Map<NodeProperties, Long>> nodeDependentsIndexCache;
+    Cache<NodeProperties, Map<NodeProperties, Long>> nodeRelationshipsIndexCache;
     Cache<NodeClassifier, Set<NodeProperties>> nodeClassifierIndexCache;
   }
 
+  public InMemoryNodeRepository() {
+    this(new GraphModule.Config());
+  }
+
+  @Inject
+  public InMemoryNodeRepository(GraphModule.Config config) {
+    this.config = config;
+  }
+
   @Override
   public void onStart(StartEvent e) {
     ScheduledExecutorService executor = Execution.current().getController().getExecutor();
     Caches caches = new Caches();
-    caches.nodePropertiesIndexCache = buildExpiringCache(executor).build();
+    caches.nodePropertiesIndexCache = buildExpiringCache(executor)
+        .<NodeProperties, Long>removalListener((props, lastAccessTime, cause) -> {
+          if (cause.wasEvicted()) {
+            accessTimeIndex.remove(props, lastAccessTime);
+          }
+        }).build();
     caches.nodeClassifierIndexCache = buildExpiringCache(executor).build();
     caches.nodeDependentsIndexCache = buildExpiringCache(executor)
-        .<NodeProperties, Set<NodeEdge.ModifyEvent>>removalListener((props, deps, cause) -> {
+        .<NodeProperties, Map<NodeProperties, Long>>removalListener((props, deps, cause) -> {
           if (cause.wasEvicted()) {
             caches.nodePropertiesIndexCache.invalidate(props);
             caches.nodeRelationshipsIndexCache.invalidate(props);
           }
         }).build();
     caches.nodeRelationshipsIndexCache = buildExpiringCache(executor)
-        .<NodeProperties, Set<NodeEdge.ModifyEvent>>removalListener((props, deps, cause) -> {
+        .<NodeProperties, Map<NodeProperties, Long>>removalListener((props, deps, cause) -> {
           if (cause.wasEvicted()) {
             caches.nodePropertiesIndexCache.invalidate(props);
             caches.nodeDependentsIndexCache.invalidate(props);
@@ -53,6 +78,17 @@ public class InMemoryNodeRepository implements NodeRepository {
     nodeDependentsIndex = caches.nodeDependentsIndexCache.asMap();
     nodeRelationshipsIndex = caches.nodeRelationshipsIndexCache.asMap();
     nodeClassifierIndex = caches.nodeClassifierIndexCache.asMap();
+
+    long flushInterval = config.getAccessTimeFlushInterval().toMillis();
+    accessTimeFlush = executor.scheduleWithFixedDelay(this::flushAccessTimes, flushInterval, flushInterval, TimeUnit.MILLISECONDS);
+  }
+
+  @Override
+  public void onStop(StopEvent e) {
+    if (accessTimeFlush != null) {
+      accessTimeFlush.cancel(false);
+    }
+    flushAccessTimes();
   }
 
   @SuppressWarnings("unchecked")
@@ -71,6 +107,13 @@ public class InMemoryNodeRepository implements NodeRepository {
         Collections.unmodifiableSet(nodeClassifierIndex.get(classifier)) : null);
   }
 
+  @Override
+  public Promise<NodePage> page(NodeClassifier classifier, String cursor, int count) {
+    // the index only holds the navigable sets that save0 creates
+    NavigableSet<NodeProperties> nodes = (NavigableSet<NodeProperties>) nodeClassifierIndex.get(classifier);
+    return Promise.value(NodePages.page(nodes != null ? nodes : Collections.emptyNavigableSet(), cursor, count));
+  }
+
   @Override
   public Promise<Node> get(NodeProperties nodeProperties) {
     Node node = get(nodeProperties, true);
@@ -83,6 +126,16 @@ public class InMemoryNodeRepository implements NodeRepository {
     return Promise.value(node);
   }
 
+  @Override
+  public Promise<Map<NodeProperties, Node>> getAll(Collection<NodeProperties> properties) {
+    return Promise.value(getAll(properties, true));
+  }
+
+  @Override
+  public Promise<Map<NodeProperties, Node>> readAll(Collection<NodeProperties> properties) {
+    return Promise.value(getAll(properties, false));
+  }
+
   @Override
   public Promise<Node> getOrCreate(NodeProperties nodeProperties) {
     if (!nodePropertiesIndex.containsKey(nodeProperties)) {
@@ -110,25 +163,34 @@ public class InMemoryNodeRepository implements NodeRepository {
 
   @Override
   public Operation expireAll(NodeClassifier classifier, Long ttl) {
-    if (nodeClassifierIndex.containsKey(classifier)) {
-      nodeClassifierIndex.get(classifier).stream()
-          .map(props -> get(props, false))
-          .filter(node -> node != null && System.currentTimeMillis() - node.getLastAccessTime() > ttl)
-          .map(Node::getProperties)
-          .forEach(this::remove0);
-    }
+    expire0(classifier, ttl, Integer.MAX_VALUE);
     return Operation.noop();
   }
 
+  @Override
+  public Promise<Integer> expire(NodeClassifier classifier, Long ttl, int limit) {
+    return Promise.value(expire0(classifier, ttl, limit));
+  }
+
+  @Override
+  public Promise<Set<Node>> traverse(NodeProperties nodeProperties, Traversal traversal) {
+    return Promise.value(Traversals.traverse(props -> get(props, false), nodeProperties, traversal));
+  }
+
+  @Override
+  public Promise<List<NodeProperties>> shortestPath(NodeProperties from, NodeProperties to, int maxDepth) {
+    return Promise.value(ShortestPaths.shortestPath(props -> get(props, false), from, to, maxDepth));
+  }
+
   public Map<NodeProperties, Long> getNodePropertiesIndex() {
     return nodePropertiesIndex;
   }
 
-  public Map<NodeProperties, Set<NodeEdge.ModifyEvent>> getNodeDependentsIndex() {
+  public Map<NodeProperties, Map<NodeProperties, Long>> getNodeDependentsIndex() {
     return nodeDependentsIndex;
   }
 
-  public Map<NodeProperties, Set<NodeEdge.ModifyEvent>> getNodeRelationshipsIndex() {
+  public Map<NodeProperties, Map<NodeProperties, Long>> getNodeRelationshipsIndex() {
     return nodeRelationshipsIndex;
   }
 
@@ -136,6 +198,49 @@ public class InMemoryNodeRepository implements NodeRepository {
     return nodeClassifierIndex;
   }
 
+  private void flushAccessTimes() {
+    for (Map.Entry<NodeProperties, Long> entry : accessTimeTracker.drain().entrySet()) {
+      Long lastAccessTime = nodePropertiesIndex.get(entry.getKey());
+      if (lastAccessTime != null && lastAccessTime < entry.getValue() &&
+          nodePropertiesIndex.replace(entry.getKey(), lastAccessTime, entry.getValue())) {
+        accessTimeIndex.update(entry.getKey(), lastAccessTime, entry.getValue());
+      }
+    }
+  }
+
+  private int expire0(NodeClassifier classifier, Long ttl, int limit) {
+    flushAccessTimes();
+    long expiredBefore = System.currentTimeMillis() - ttl;
+    int expiredCount = 0;
+    while (expiredCount < limit) {
+      List<AccessTimeIndex.Entry> expired = accessTimeIndex.expired(classifier, expiredBefore, Math.min(EXPIRE_BATCH_SIZE, limit - expiredCount));
+      if (expired.isEmpty()) {
+        break;
+      }
+      for (AccessTimeIndex.Entry entry : expired) {
+        if (expire0(entry)) {
+          expiredCount++;
+        }
+      }
+    }
+    return expiredCount;
+  }
+
+  private boolean expire0(AccessTimeIndex.Entry entry) {
+    NodeProperties nodeProperties = entry.getProperties();
+    Long lastAccessTime = nodePropertiesIndex.get(nodeProperties);
+    if (lastAccessTime != null && lastAccessTime == entry.getAccessTime()) {
+      remove0(nodeProperties);
+      return true;
+    } else {
+      accessTimeIndex.remove(nodeProperties, entry.getAccessTime());
+      if (lastAccessTime != null) {
+        accessTimeIndex.update(nodeProperties, null, lastAccessTime);
+      }
+      return false;
+    }
+  }
+
   private void remove0(NodeProperties nodeProperties) {
     if (nodePropertiesIndex.containsKey(nodeProperties)) {
       Node node = get(nodeProperties, false);
@@ -159,70 +264,86 @@ public class InMemoryNodeRepository implements NodeRepository {
           nodeClassifierIndex.get(nodeProperties.getClassifier()).contains(nodeProperties)) {
         nodeClassifierIndex.get(nodeProperties.getClassifier()).remove(nodeProperties);
       }
-      nodePropertiesIndex.remove(nodeProperties);
+      Long lastAccessTime = nodePropertiesIndex.remove(nodeProperties);
+      if (lastAccessTime != null) {
+        accessTimeIndex.remove(nodeProperties, lastAccessTime);
+      }
+      accessTimeTracker.discard(nodeProperties);
     }
   }
 
   private Node save0(Node node) {
     if (node != null && node.getProperties() != null && node.getProperties().getId() != null) {
+      NodeProperties nodeProperties = node.getProperties().intern();
       long trueLastAccessTime = node.getLastAccessTime();
-      if (nodePropertiesIndex.containsKey(node.getProperties())) {
-        long existingLastAccessTime = nodePropertiesIndex.get(node.getProperties());
-        if (existingLastAccessTime > trueLastAccessTime) {
-          trueLastAccessTime = existingLastAccessTime;
-        }
+      Long existingLastAccessTime = nodePropertiesIndex.get(nodeProperties);
+      if (existingLastAccessTime != null && existingLastAccessTime > trueLastAccessTime) {
+        trueLastAccessTime = existingLastAccessTime;
       }
-      nodePropertiesIndex.put(node.getProperties(), trueLastAccessTime);
+      nodePropertiesIndex.put(nodeProperties, trueLastAccessTime);
+      accessTimeIndex.update(nodeProperties, existingLastAccessTime, trueLastAccessTime);
 
-      Set<NodeEdge.ModifyEvent> dependents = nodeDependentsIndex.getOrDefault(node.getProperties(), Sets.newConcurrentHashSet());
-      Set<NodeEdge.ModifyEvent> relateds = nodeRelationshipsIndex.getOrDefault(node.getProperties(), Sets.newConcurrentHashSet());
+      Map<NodeProperties, Long> dependents = nodeDependentsIndex.getOrDefault(nodeProperties, new ConcurrentHashMap<>());
+      Map<NodeProperties, Long> relateds = nodeRelationshipsIndex.getOrDefault(nodeProperties, new ConcurrentHashMap<>());
 
       processModificationEvents(node.getEdge().getDependentEvents(), dependents);
       processModificationEvents(node.getEdge().getRelationshipEvents(), relateds);
 
-      nodeDependentsIndex.put(node.getProperties(), dependents);
-      nodeRelationshipsIndex.put(node.getProperties(), relateds);
+      nodeDependentsIndex.put(nodeProperties, dependents);
+      nodeRelationshipsIndex.put(nodeProperties, relateds);
 
-      if (!nodeClassifierIndex.containsKey(node.getProperties().getClassifier())) {
-        nodeClassifierIndex.put(node.getProperties().getClassifier(), Sets.newConcurrentHashSet());
+      if (!nodeClassifierIndex.containsKey(nodeProperties.getClassifier())) {
+        nodeClassifierIndex.put(nodeProperties.getClassifier(), new ConcurrentSkipListSet<>(NodePages.BY_ID));
       }
-      if (!nodeClassifierIndex.get(node.getProperties().getClassifier()).contains(node.getProperties())) {
-        nodeClassifierIndex.get(node.getProperties().getClassifier()).add(node.getProperties());
+      if (!nodeClassifierIndex.get(nodeProperties.getClassifier()).contains(nodeProperties)) {
+        nodeClassifierIndex.get(nodeProperties.getClassifier()).add(nodeProperties);
       }
-      return get(node.getProperties(), false);
+      return get(nodeProperties, false);
     } else {
       throw new IllegalStateException("Somebody tried to insert an empty node");
     }
   }
 
-  private void processModificationEvents(List<NodeEdge.ModifyEvent> events, Set<NodeEdge.ModifyEvent> relateds) {
-    events.stream().forEach(event -> {
+  /**
+   * Applies the events to the leaves, which map each leaf to the time it was last added.
+   * Conflicting events are resolved by their modify time, so a removal only takes effect on a leaf that was not added again after it.
+   */
+  private void processModificationEvents(List<NodeEdge.ModifyEvent> events, Map<NodeProperties, Long> leaves) {
+    for (NodeEdge.ModifyEvent event : events) {
       if (event.getEventType() == NodeEdge.ModifyEvent.EventType.ADD) {
-        relateds.add(event);
+        leaves.merge(event.getNodeProperties().intern(), event.getModifyTime(), Math::max);
       } else {
-        Optional<NodeEdge.ModifyEvent> eventOptional = relateds.stream().filter(e ->
-            e.getNodeProperties() == event.getNodeProperties() && e.getModifyTime() < event.getModifyTime()
-        ).findFirst();
-        if (eventOptional.isPresent()) {
-          relateds.remove(eventOptional.get());
-        }
+        leaves.computeIfPresent(event.getNodeProperties(), (leaf, addTime) -> addTime <= event.getModifyTime() ? null : addTime);
       }
-    });
+    }
+  }
+
+  private Map<NodeProperties, Node> getAll(Collection<NodeProperties> properties, boolean updateAccessTime) {
+    Map<NodeProperties, Node> nodes = Maps.newLinkedHashMap();
+    for (NodeProperties nodeProperties : properties) {
+      Node node = get(nodeProperties, updateAccessTime);
+      if (node != null) {
+        nodes.put(nodeProperties, node);
+      }
+    }
+    return nodes;
   }
 
   private Node get(NodeProperties nodeProperties, boolean updateAccessTime) {
     if (nodePropertiesIndex.containsKey(nodeProperties)) {
       Long lastAccessTime = nodePropertiesIndex.get(nodeProperties);
-      Set<NodeEdge.ModifyEvent> dependents = nodeDependentsIndex.getOrDefault(nodeProperties, Sets.newConcurrentHashSet());
-      Set<NodeEdge.ModifyEvent> relateds = nodeRelationshipsIndex.getOrDefault(nodeProperties, Sets.newConcurrentHashSet());
+      Map<NodeProperties, Long> dependents = nodeDependentsIndex.getOrDefault(nodeProperties, Collections.emptyMap());
+      Map<NodeProperties, Long> relateds = nodeRelationshipsIndex.getOrDefault(nodeProperties, Collections.emptyMap());
 
-      Set<NodeProperties> dependentRefs = dependents.stream().map(NodeEdge.ModifyEvent::getNodeProperties).collect(Collectors.toSet());
-      Set<NodeProperties> relatedRefs = relateds.stream().map(NodeEdge.ModifyEvent::getNodeProperties).collect(Collectors.toSet());
-
-      NodeEdge nodeEdge = new NodeEdge(Sets.newConcurrentHashSet(relatedRefs), Sets.newConcurrentHashSet(dependentRefs));
-      Node upd = new Node(nodeProperties, nodeEdge, updateAccessTime ? System.currentTimeMillis() : lastAccessTime);
+      NodeEdge nodeEdge = new NodeEdge(Sets.newConcurrentHashSet(relateds.keySet()), Sets.newConcurrentHashSet(dependents.keySet()));
+      if (updateAccessTime) {
+        lastAccessTime = System.currentTimeMillis();
+        accessTimeTracker.touch(nodeProperties, lastAccessTime);
+      } else {
+        lastAccessTime = accessTimeTracker.withPending(nodeProperties, lastAccessTime);
+      }
 
-      return updateAccessTime ? save0(upd) : upd;
+      return new Node(nodeProperties, nodeEdge, lastAccessTime);
     } else {
       return null;
     }
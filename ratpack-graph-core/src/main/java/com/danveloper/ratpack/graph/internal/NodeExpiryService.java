@@ -0,0 +1,81 @@
+package com.danveloper.ratpack.graph.internal;
+
+import com.danveloper.ratpack.graph.GraphModule;
+import com.danveloper.ratpack.graph.NodeRepository;
+import com.google.inject.Inject;
+import ratpack.exec.ExecController;
+import ratpack.exec.Execution;
+import ratpack.exec.Promise;
+import ratpack.service.Service;
+import ratpack.service.StartEvent;
+import ratpack.service.StopEvent;
+
+import java.util.List;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Expires the nodes of the classifiers configured through {@link GraphModule.Config#getExpiries()} in the background.
+ * Each tick removes at most {@link GraphModule.Config#getMaxExpiriesPerTick()} nodes, shared across the classifiers, and the classifier that is expired first rotates between ticks so that one busy classifier cannot starve the others.
+ */
+public class NodeExpiryService implements Service {
+  private final NodeRepository nodeRepository;
+  private final GraphModule.Config config;
+  private final AtomicBoolean running = new AtomicBoolean();
+  private int nextExpiry;
+  private ScheduledFuture<?> expiryTick;
+
+  @Inject
+  public NodeExpiryService(NodeRepository nodeRepository, GraphModule.Config config) {
+    this.nodeRepository = nodeRepository;
+    this.config = config;
+  }
+
+  @Override
+  public void onStart(StartEvent e) {
+    if (config.getExpiries().isEmpty()) {
+      return;
+    }
+    ExecController execController = Execution.current().getController();
+    long expiryInterval = config.getExpiryInterval().toMillis();
+    expiryTick = execController.getExecutor().scheduleWithFixedDelay(() -> {
+      if (running.compareAndSet(false, true)) {
+        execController.fork()
+            .onComplete(execution -> running.set(false))
+            .start(execution -> expire().operation().then());
+      }
+    }, expiryInterval, expiryInterval, TimeUnit.MILLISECONDS);
+  }
+
+  @Override
+  public void onStop(StopEvent e) {
+    if (expiryTick != null) {
+      expiryTick.cancel(false);
+    }
+  }
+
+  /**
+   * Runs a single tick of background expiry.
+   *
+   * @return a promise to the number of nodes that were expired
+   */
+  public Promise<Integer> expire() {
+    List<GraphModule.Expiry> expiries = config.getExpiries();
+    if (expiries.isEmpty()) {
+      return Promise.value(0);
+    }
+    int start = nextExpiry;
+    nextExpiry = (start + 1) % expiries.size();
+    return expire(expiries, start, 0, config.getMaxExpiriesPerTick());
+  }
+
+  private Promise<Integer> expire(List<GraphModule.Expiry> expiries, int start, int offset, int limit) {
+    if (offset >= expiries.size() || limit <= 0) {
+      return Promise.value(0);
+    }
+    GraphModule.Expiry expiry = expiries.get((start + offset) % expiries.size());
+    return nodeRepository.expire(expiry.getClassifier(), expiry.getTtl().toMillis(), limit)
+        .flatMap(expired -> expire(expiries, start, offset + 1, limit - expired).map(more -> expired + more));
+  }
+}
@@ -1,20 +1,29 @@
 package com.danveloper.ratpack.graph.rendering;
 
-import com.danveloper.ratpack.graph.Node;
-import com.danveloper.ratpack.graph.NodeConverter;
-import ratpack.exec.Promise;
+import com.danveloper.ratpack.graph.GraphModule;
+import com.danveloper.ratpack.graph.NodeConverterRegistry;
+import com.google.inject.Inject;
 import ratpack.handling.Context;
 import ratpack.render.Renderer;
-import ratpack.stream.Streams;
 
-import java.util.List;
-import java.util.Set;
-import java.util.stream.Collectors;
-
-import static com.danveloper.ratpack.graph.rendering.internal.NodeRenderingUtil.findConverter;
-import static ratpack.jackson.Jackson.json;
+import static com.danveloper.ratpack.graph.rendering.internal.NodeJsonChunks.chunks;
+import static ratpack.http.ResponseChunks.stringChunks;
 
+/**
+ * Renders a {@link NodeCollection} as a chunked JSON array.
+ * The collection is converted in batches of {@link GraphModule.Config#getRenderBatchSize()} nodes, with the nodes of each classifier in a batch going through a single {@link com.danveloper.ratpack.graph.NodeConverter#convertAll(java.util.List)} call.
+ * At most {@link GraphModule.Config#getRenderConcurrency()} batches are converted at once, and each batch is written as soon as it has been converted.
+ */
 public class NodeCollectionJsonRenderer implements Renderer<NodeCollection> {
+  private final NodeConverterRegistry converters;
+  private final GraphModule.Config config;
+
+  @Inject
+  public NodeCollectionJsonRenderer(NodeConverterRegistry converters, GraphModule.Config config) {
+    this.converters = converters;
+    this.config = config;
+  }
+
   @Override
   public Class<NodeCollection> getType() {
     return NodeCollection.class;
@@ -22,13 +31,8 @@ public class NodeCollectionJsonRenderer implements Renderer<NodeCollection> {
 
   @Override
   public void render(Context context, NodeCollection collection) throws Exception {
-    Set<Node> nodes = collection.getNodes();
-    List<Promise> promises = nodes.stream().map(node -> {
-      NodeConverter<?> converter = findConverter(context, node);
-      return converter.convert(node);
-    }).collect(Collectors.toList());
-    Streams.publish(promises).flatMap(p -> p).toList().then(o -> {
-      context.render(json(o));
-    });
+    // Fails before the response is committed if any node cannot be converted
+    collection.getNodes().forEach(converters::get);
+    context.render(stringChunks("application/json", chunks(context, converters, collection.getNodes(), config.getRenderBatchSize(), config.getRenderConcurrency())));
   }
 }
@@ -2,13 +2,14 @@ package com.danveloper.ratpack.graph.rendering;
 
 import com.danveloper.ratpack.graph.Node;
 import com.danveloper.ratpack.graph.NodeConverter;
+import com.danveloper.ratpack.graph.NodeConverterRegistry;
+import com.google.inject.Inject;
 import ratpack.handling.Context;
 import ratpack.render.Renderer;
 
 import java.util.HashMap;
 import java.util.Map;
 
-import static com.danveloper.ratpack.graph.rendering.internal.NodeRenderingUtil.findConverter;
 import static ratpack.jackson.Jackson.json;
 
 public class NodeJsonRenderer implements Renderer<Node> {
@@ -16,6 +17,13 @@ public class NodeJsonRenderer implements Renderer<Node> {
     put("status", "not_found");
   }};
 
+  private final NodeConverterRegistry converters;
+
+  @Inject
+  public NodeJsonRenderer(NodeConverterRegistry converters) {
+    this.converters = converters;
+  }
+
   @Override
   public Class<Node> getType() {
     return Node.class;
@@ -23,7 +31,7 @@ public class NodeJsonRenderer implements Renderer<Node> {
 
   @Override
   public void render(Context context, Node node) throws Exception {
-    NodeConverter<?> converter = findConverter(context, node);
+    NodeConverter<?> converter = converters.get(node);
     converter.convert(node).then(o -> {
       if (o != null) {
         context.render(json(o));
@@ -0,0 +1,142 @@
+package com.danveloper.ratpack.graph.rendering.internal;
+
+import com.danveloper.ratpack.graph.Node;
+import com.danveloper.ratpack.graph.NodeClassifier;
+import com.danveloper.ratpack.graph.NodeConverter;
+import com.danveloper.ratpack.graph.NodeConverterRegistry;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import org.reactivestreams.Publisher;
+import ratpack.exec.Execution;
+import ratpack.exec.Promise;
+import ratpack.exec.Throttle;
+import ratpack.handling.Context;
+import ratpack.stream.Streams;
+
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.stream.Collectors;
+
+import static ratpack.util.Exceptions.uncheck;
+
+/**
+ * Renders a collection of nodes as the chunks of a JSON array.
+ * The collection is cut into batches of at most {@code batchSize} consecutive nodes, and the nodes of each classifier in a batch are converted together with {@link NodeConverter#convertAll(List)}.
+ * Batches are converted in forked executions, with at most {@code concurrency} batches in flight, and each batch is written as one chunk as soon as it and every batch before it have been converted, so the array keeps the order of the collection.
+ * Each batch execution has a {@link Throttle} of {@code concurrency} in its registry, which the default {@link NodeConverter#convertAll(List)} uses to bound the nodes of the collection that are converted one at a time with {@link NodeConverter#convert(Node)}.
+ */
+public class NodeJsonChunks {
+
+  private NodeJsonChunks() {
+  }
+
+  /**
+   * @param context the context to render to
+   * @param converters the converters of the nodes
+   * @param nodes the nodes to render
+   * @param batchSize the maximum number of nodes per batch
+   * @param concurrency the maximum number of batches in flight, and of nodes converted one at a time
+   * @return a publisher of the chunks of the JSON array, which only converts nodes as the chunks are requested
+   */
+  public static Publisher<String> chunks(Context context, NodeConverterRegistry converters, Collection<Node> nodes, int batchSize, int concurrency) {
+    ObjectMapper mapper = context.get(ObjectMapper.class);
+    return Streams.transformable(subscriber -> {
+      Conversions conversions = new Conversions(converters, nodes.iterator(), Math.max(1, batchSize), Math.max(1, concurrency));
+      Streams.flatYield(request -> conversions.next().map(batch -> {
+        if (batch == Conversions.END) {
+          return request.getRequestNum() == 0 ? "[]" : "]";
+        } else if (batch == Conversions.DONE) {
+          return null;
+        }
+        StringBuilder chunk = new StringBuilder(request.getRequestNum() == 0 ? "[" : ",");
+        for (Object converted : batch) {
+          if (chunk.length() > 1) {
+            chunk.append(',');
+          }
+          chunk.append(uncheck(() -> mapper.writeValueAsString(converted)));
+        }
+        return chunk.toString();
+      })).subscribe(subscriber);
+    });
+  }
+
+  private static class Conversions {
+    private static final List<Object> END = new ArrayList<>(0);
+    private static final List<Object> DONE = new ArrayList<>(0);
+
+    private final NodeConverterRegistry converters;
+    private final Iterator<Node> nodes;
+    private final int batchSize;
+    private final int concurrency;
+    private final Throttle throttle;
+    private final Deque<CompletableFuture<List<Object>>> inFlight = new ArrayDeque<>();
+    private boolean ended;
+
+    private Conversions(NodeConverterRegistry converters, Iterator<Node> nodes, int batchSize, int concurrency) {
+      this.converters = converters;
+      this.nodes = nodes;
+      this.batchSize = batchSize;
+      this.concurrency = concurrency;
+      this.throttle = Throttle.ofSize(concurrency);
+    }
+
+    /**
+     * @return a promise to the next converted batch, then to {@link #END} once every batch has been provided, and to {@link #DONE} after that
+     */
+    Promise<List<Object>> next() {
+      while (inFlight.size() < concurrency && nodes.hasNext()) {
+        List<Node> batch = Lists.newArrayListWithCapacity(batchSize);
+        while (batch.size() < batchSize && nodes.hasNext()) {
+          batch.add(nodes.next());
+        }
+        inFlight.add(convert(batch));
+      }
+      CompletableFuture<List<Object>> head = inFlight.poll();
+      if (head == null) {
+        List<Object> batch = ended ? DONE : END;
+        ended = true;
+        return Promise.value(batch);
+      }
+      return Promise.async(d -> head.whenComplete((result, failure) -> {
+        if (failure == null) {
+          d.success(result);
+        } else {
+          d.error(failure);
+        }
+      }));
+    }
+
+    /**
+     * Converts the nodes of each classifier in the batch with a single call, and puts the results back in the order of the batch.
+     */
+    private CompletableFuture<List<Object>> convert(List<Node> batch) {
+      Object[] results = new Object[batch.size()];
+      Map<NodeClassifier, List<Integer>> positions = Maps.newLinkedHashMap();
+      for (int i = 0; i < batch.size(); i++) {
+        positions.computeIfAbsent(batch.get(i).getProperties().getClassifier(), classifier -> Lists.newArrayList()).add(i);
+      }
+      List<CompletableFuture<Void>> groups = Lists.newArrayListWithCapacity(positions.size());
+      positions.forEach((classifier, indexes) -> {
+        NodeConverter<?> converter = converters.get(classifier);
+        List<Node> group = indexes.stream().map(batch::get).collect(Collectors.toList());
+        CompletableFuture<Void> converted = new CompletableFuture<>();
+        Execution.fork()
+            .register(registry -> registry.add(Throttle.class, throttle))
+            .onError(converted::completeExceptionally)
+            .start(execution -> converter.convertAll(group).then(values -> {
+              if (values.size() != group.size()) {
+                throw new IllegalStateException(String.format("%s converted %d nodes into %d values",
+                    converter.getClass().getName(), group.size(), values.size()));
+              }
+              for (int i = 0; i < indexes.size(); i++) {
+                results[indexes.get(i)] = values.get(i);
+              }
+              converted.complete(null);
+            }));
+        groups.add(converted);
+      });
+      return CompletableFuture.allOf(groups.toArray(new CompletableFuture<?>[groups.size()])).thenApply(v -> Arrays.asList(results));
+    }
+  }
+}
@@ -0,0 +1,61 @@
+package com.danveloper.ratpack.graph
+
+import com.danveloper.ratpack.graph.internal.CompactNodeRepository
+
+class CompactNodeRepositorySpec extends NodeRepositorySpec {
+
+  @Override
+  NodeRepository createRepository() {
+    new CompactNodeRepository()
+  }
+
+  void "getting a node should buffer its access time instead of writing the node back"() {
+    setup:
+    def storedAccessTime = execControl.yieldSingle { repo.getOrCreate(PROPS) }.valueOrThrow.lastAccessTime
+    repo.lastAccessTimes[repo.ids[PROPS]] = 1L
+
+    when:
+    def accessTime = execControl.yieldSingle { repo.get(PROPS) }.valueOrThrow.lastAccessTime
+
+    then:
+    accessTime >= storedAccessTime
+    repo.lastAccessTimes[repo.ids[PROPS]] == 1L
+    execControl.yieldSingle { repo.read(PROPS) }.valueOrThrow.lastAccessTime == accessTime
+
+    when:
+    execControl.executeSingle { repo.expireAll(TEST_GEN, Long.MAX_VALUE) }
+
+    then:
+    repo.lastAccessTimes[repo.ids[PROPS]] == accessTime
+  }
+
+  void "removing a node should unlink it from its neighbours and free ids that are no longer referenced"() {
+    setup:
+    def node1 = new Node(new NodeProperties("id1", TEST_GEN))
+    def node2 = new Node(new NodeProperties("id2", TEST_GEN))
+    def dangling = new NodeProperties("dangling", TEST_GEN)
+
+    when:
+    node1.edge.addDependent(dangling)
+    execControl.executeSingle { repo.relate(node1, node2) }
+
+    then:
+    repo.ids.size() == 3
+
+    when:
+    execControl.executeSingle { repo.remove(node1.properties) }
+
+    then:
+    !execControl.yieldSingle { repo.read(node1.properties) }.valueOrThrow
+    execControl.yieldSingle { repo.read(node2.properties) }.valueOrThrow.edge.dependents().isEmpty()
+    repo.ids.keySet() == [node2.properties] as Set
+
+    when:
+    def node3 = new Node(new NodeProperties("id3", TEST_GEN))
+    execControl.executeSingle { repo.relate(node3, execControl.yieldSingle { repo.read(node2.properties) }.valueOrThrow) }
+
+    then:
+    repo.nextId == 3
+    execControl.yieldSingle { repo.read(node2.properties) }.valueOrThrow.edge.dependents() == [node3.properties] as Set
+  }
+}
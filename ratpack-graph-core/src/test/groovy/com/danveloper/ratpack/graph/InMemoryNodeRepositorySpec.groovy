@@ -0,0 +1,31 @@
+package com.danveloper.ratpack.graph
+
+import com.danveloper.ratpack.graph.internal.InMemoryNodeRepository
+
+class InMemoryNodeRepositorySpec extends NodeRepositorySpec {
+
+  @Override
+  NodeRepository createRepository() {
+    new InMemoryNodeRepository()
+  }
+
+  void "getting a node should buffer its access time instead of writing the node back"() {
+    setup:
+    def storedAccessTime = execControl.yieldSingle { repo.getOrCreate(PROPS) }.valueOrThrow.lastAccessTime
+    repo.nodePropertiesIndex[PROPS] = 1L
+
+    when:
+    def accessTime = execControl.yieldSingle { repo.get(PROPS) }.valueOrThrow.lastAccessTime
+
+    then:
+    accessTime >= storedAccessTime
+    repo.nodePropertiesIndex[PROPS] == 1L
+    execControl.yieldSingle { repo.read(PROPS) }.valueOrThrow.lastAccessTime == accessTime
+
+    when:
+    execControl.executeSingle { repo.expireAll(TEST_GEN, Long.MAX_VALUE) }
+
+    then:
+    repo.nodePropertiesIndex[PROPS] == accessTime
+  }
+}
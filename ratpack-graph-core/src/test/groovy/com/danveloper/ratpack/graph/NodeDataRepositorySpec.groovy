@@ -53,4 +53,24 @@ class NodeDataRepositorySpec extends Specification {
     then:
     !upd
   }
+
+  void "should be able to get, save and remove data objects in a single batch"() {
+    setup:
+    def props = (1..3).collect { new NodeProperties("id$it", PROPS.classifier) }
+
+    when:
+    execControl.executeSingle { repo.saveAll([(props[0]): [foo: "bar"], (props[1]): [foo: "baz"]]) }
+
+    and:
+    def data = execControl.yieldSingle { repo.<Map>getAll(props) }.valueOrThrow
+
+    then:
+    data == [(props[0]): [foo: "bar"], (props[1]): [foo: "baz"]]
+
+    when:
+    execControl.executeSingle { repo.removeAll(props) }
+
+    then:
+    execControl.yieldSingle { repo.getAll(props) }.valueOrThrow.isEmpty()
+  }
 }
@@ -0,0 +1,85 @@
+package com.danveloper.ratpack.graph
+
+import com.danveloper.ratpack.graph.internal.InMemoryNodeRepository
+import com.danveloper.ratpack.graph.internal.NodeExpiryService
+import ratpack.registry.Registry
+import ratpack.service.internal.DefaultEvent
+import ratpack.test.exec.ExecHarness
+import spock.lang.AutoCleanup
+import spock.lang.Specification
+
+import java.time.Duration
+
+class NodeExpiryServiceSpec extends Specification {
+
+  static NodeClassifier TEST_GEN = new NodeClassifier("test", "general")
+  static NodeClassifier TEST_OTHER = new NodeClassifier("test", "other")
+
+  @AutoCleanup
+  ExecHarness execControl = ExecHarness.harness()
+  GraphModule.Config config = new GraphModule.Config()
+  NodeRepository repo = new InMemoryNodeRepository(config)
+  NodeExpiryService service = new NodeExpiryService(repo, config)
+
+  def setup() {
+    execControl.run {
+      repo.onStart(new DefaultEvent(Registry.empty(), false))
+    }
+  }
+
+  def cleanup() {
+    service.onStop(new DefaultEvent(Registry.empty(), false))
+    repo.onStop(new DefaultEvent(Registry.empty(), false))
+  }
+
+  void "should share the per tick limit across classifiers, rotating which is expired first"() {
+    setup:
+    config.expire(TEST_GEN, Duration.ofMillis(50)).expire(TEST_OTHER, Duration.ofMillis(50))
+    config.maxExpiriesPerTick = 40
+    def gen = (1..30).collect { new Node(new NodeProperties("id$it", TEST_GEN)) }
+    def other = (1..30).collect { new Node(new NodeProperties("id$it", TEST_OTHER)) }
+
+    when:
+    (gen + other).each { n -> execControl.executeSingle { repo.save(n) } }
+
+    and:
+    Thread.sleep(100)
+    def expired = execControl.yieldSingle { service.expire() }.valueOrThrow
+
+    then:
+    40 == expired
+    execControl.yieldSingle { repo.lookup(TEST_GEN) }.valueOrThrow.isEmpty()
+    20 == execControl.yieldSingle { repo.lookup(TEST_OTHER) }.valueOrThrow.size()
+
+    when:
+    expired = execControl.yieldSingle { service.expire() }.valueOrThrow
+
+    then:
+    20 == expired
+    execControl.yieldSingle { repo.lookup(TEST_OTHER) }.valueOrThrow.isEmpty()
+  }
+
+  void "should expire configured classifiers in the background"() {
+    setup:
+    config.expire(TEST_GEN, Duration.ofMillis(50))
+    config.expiryInterval = Duration.ofMillis(50)
+    def node = new Node(new NodeProperties("id", TEST_GEN))
+    def other = new Node(new NodeProperties("id", TEST_OTHER))
+
+    when:
+    [node, other].each { n -> execControl.executeSingle { repo.save(n) } }
+    execControl.run {
+      service.onStart(new DefaultEvent(Registry.empty(), false))
+    }
+
+    and:
+    def deadline = System.currentTimeMillis() + 5000
+    while (execControl.yieldSingle { repo.lookup(TEST_GEN) }.valueOrThrow && System.currentTimeMillis() < deadline) {
+      Thread.sleep(50)
+    }
+
+    then:
+    execControl.yieldSingle { repo.lookup(TEST_GEN) }.valueOrThrow.isEmpty()
+    execControl.yieldSingle { repo.read(other.properties) }.valueOrThrow
+  }
+}
@@ -0,0 +1,41 @@
+package com.danveloper.ratpack.graph
+
+import spock.lang.Specification
+
+class NodePropertiesSpec extends Specification {
+
+  void "interning should provide one canonical instance per classifier"() {
+    setup:
+    def classifier = NodeClassifier.of("test", "general")
+
+    expect:
+    NodeClassifier.of("test", "general").is(classifier)
+    new NodeClassifier("test", "general").intern().is(classifier)
+    !NodeClassifier.of("test", "other").is(classifier)
+  }
+
+  void "interning should provide one canonical instance per id and classifier, with a canonical classifier"() {
+    setup:
+    def properties = NodeProperties.of("id", new NodeClassifier("test", "general"))
+
+    expect:
+    NodeProperties.of("id", new NodeClassifier("test", "general")).is(properties)
+    new NodeProperties("id", new NodeClassifier("test", "general")).intern().is(properties)
+    properties.classifier.is(NodeClassifier.of("test", "general"))
+    !NodeProperties.of("other", NodeClassifier.of("test", "general")).is(properties)
+  }
+
+  void "a classifier should reject a null #field"() {
+    when:
+    new NodeClassifier(type, category)
+
+    then:
+    def e = thrown(NullPointerException)
+    e.message == "The $field of a classifier must not be null"
+
+    where:
+    type   | category  | field
+    null   | "general" | "type"
+    "test" | null      | "category"
+  }
+}
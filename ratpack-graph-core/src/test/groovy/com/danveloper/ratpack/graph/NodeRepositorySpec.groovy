@@ -1,14 +1,17 @@
 package com.danveloper.ratpack.graph
 
-import com.danveloper.ratpack.graph.internal.InMemoryNodeRepository
 import ratpack.registry.Registry
 import ratpack.service.internal.DefaultEvent
 import ratpack.test.exec.ExecHarness
 import spock.lang.AutoCleanup
 import spock.lang.Ignore
 import spock.lang.Specification
+import spock.lang.Unroll
 
-class NodeRepositorySpec extends Specification {
+/**
+ * The contract of {@link NodeRepository}, which the spec of each engine extends with the features of that engine.
+ */
+abstract class NodeRepositorySpec extends Specification {
 
   static NodeClassifier TEST_GEN = new NodeClassifier("test", "general")
   static NodeProperties PROPS = new NodeProperties("id", TEST_GEN)
@@ -17,8 +20,10 @@ class NodeRepositorySpec extends Specification {
   ExecHarness execControl = ExecHarness.harness()
   NodeRepository repo
 
+  abstract NodeRepository createRepository()
+
   def setup() {
-    repo = new InMemoryNodeRepository()
+    repo = createRepository()
     execControl.run {
       repo.onStart(new DefaultEvent(Registry.empty(), false))
     }
@@ -102,6 +107,29 @@ class NodeRepositorySpec extends Specification {
     upd2.edge.hasDependent(node1.properties)
   }
 
+  void "relating nodes should persist the other leaves that were added to them"() {
+    setup:
+    def node1 = new Node(new NodeProperties("id1", TEST_GEN))
+    def node2 = new Node(new NodeProperties("id2", TEST_GEN))
+    def node3 = new Node(new NodeProperties("id3", TEST_GEN))
+    [node1, node2, node3].each { n -> execControl.executeSingle { repo.save(n) } }
+
+    when:
+    node1.edge.addDependent(node3.properties)
+    node2.edge.addRelationship(node3.properties)
+    execControl.executeSingle { repo.relate(node1, node2) }
+
+    and:
+    def upd1 = execControl.yieldSingle { repo.read(node1.properties) }.valueOrThrow
+    def upd2 = execControl.yieldSingle { repo.read(node2.properties) }.valueOrThrow
+
+    then:
+    upd1.edge.relationships() == [node2.properties] as Set
+    upd1.edge.dependents() == [node3.properties] as Set
+    upd2.edge.relationships() == [node3.properties] as Set
+    upd2.edge.dependents() == [node1.properties] as Set
+  }
+
   void "should be able to expire nodes by classifier and TTL"() {
     setup:
     def node1 = new Node(PROPS)
@@ -124,6 +152,76 @@ class NodeRepositorySpec extends Specification {
     nodes[0] == node2.properties
   }
 
+  void "should be able to get and read multiple nodes in a single batch"() {
+    setup:
+    def node1 = new Node(new NodeProperties("id1", TEST_GEN))
+    def node2 = new Node(new NodeProperties("id2", TEST_GEN))
+    def missing = new NodeProperties("missing", TEST_GEN)
+
+    when:
+    [node1, node2].each { n -> execControl.executeSingle { repo.save(n) } }
+
+    and:
+    execControl.executeSingle { repo.relate(node1, node2) }
+
+    and:
+    def nodes = execControl.yieldSingle { repo.getAll([node1.properties, node2.properties, missing]) }.valueOrThrow
+
+    then:
+    2 == nodes.size()
+    !nodes.containsKey(missing)
+    nodes[node1.properties].edge.hasRelationship(node2.properties)
+    nodes[node2.properties].edge.hasDependent(node1.properties)
+
+    when:
+    def read = execControl.yieldSingle { repo.readAll([node1.properties, node2.properties]) }.valueOrThrow
+
+    then:
+    2 == read.size()
+    read[node1.properties].lastAccessTime == nodes[node1.properties].lastAccessTime
+  }
+
+  void "should expire every stale node in the classifier, and only those"() {
+    setup:
+    def nodes = (1..250).collect { new Node(new NodeProperties("id$it", TEST_GEN)) }
+    def other = new Node(new NodeProperties("other", new NodeClassifier("foo", "bar")))
+
+    when:
+    (nodes + other).each { n -> execControl.executeSingle { repo.save(n) } }
+
+    and:
+    Thread.sleep(100)
+    execControl.executeSingle { repo.get(nodes[0].properties).operation() }
+    execControl.executeSingle { repo.expireAll(TEST_GEN, 50) }
+
+    then:
+    execControl.yieldSingle { repo.lookup(TEST_GEN) }.valueOrThrow as List == [nodes[0].properties]
+    execControl.yieldSingle { repo.read(other.properties) }.valueOrThrow
+  }
+
+  void "should expire no more than the limit"() {
+    setup:
+    def nodes = (1..150).collect { new Node(new NodeProperties("id$it", TEST_GEN)) }
+
+    when:
+    nodes.each { n -> execControl.executeSingle { repo.save(n) } }
+
+    and:
+    Thread.sleep(100)
+    def expired = execControl.yieldSingle { repo.expire(TEST_GEN, 50, 120) }.valueOrThrow
+
+    then:
+    120 == expired
+    30 == execControl.yieldSingle { repo.lookup(TEST_GEN) }.valueOrThrow.size()
+
+    when:
+    expired = execControl.yieldSingle { repo.expire(TEST_GEN, 50, 120) }.valueOrThrow
+
+    then:
+    30 == expired
+    execControl.yieldSingle { repo.lookup(TEST_GEN) }.valueOrThrow.isEmpty()
+  }
+
   void "should be able to read a node without updating its lastAccessTime"() {
     when:
     def lastAccessTime = execControl.yieldSingle {
@@ -215,4 +313,148 @@ class NodeRepositorySpec extends Specification {
     node.edge.dependents().size() == 1
     node.edge.dependents()[0].id == "foo"
   }
+
+  void "removing a leaf should take effect, unless the leaf was added again after the removal"() {
+    setup:
+    def node = new Node(PROPS)
+    def leaves = (1..1000).collect { new NodeProperties("leaf$it", TEST_GEN) }
+    leaves.each { node.edge.addDependent(it) }
+
+    when:
+    execControl.executeSingle { repo.save(node) }
+
+    and:
+    def stale = execControl.yieldSingle { repo.read(PROPS) }.valueOrThrow
+    stale.edge.removeDependent(new NodeProperties("leaf1", TEST_GEN))
+    Thread.sleep(5)
+    def fresh = execControl.yieldSingle { repo.read(PROPS) }.valueOrThrow
+    fresh.edge.addDependent(new NodeProperties("leaf1", TEST_GEN))
+    fresh.edge.removeDependent(new NodeProperties("leaf2", TEST_GEN))
+
+    and:
+    execControl.executeSingle { repo.save(fresh) }
+    execControl.executeSingle { repo.save(stale) }
+
+    then:
+    def dependents = execControl.yieldSingle { repo.read(PROPS) }.valueOrThrow.edge.dependents()
+    999 == dependents.size()
+    dependents.contains(new NodeProperties("leaf1", TEST_GEN))
+    !dependents.contains(new NodeProperties("leaf2", TEST_GEN))
+  }
+
+  void "should traverse the neighborhood of a node"() {
+    setup:
+    def other = new NodeClassifier("test", "other")
+    def (a, b, c, d) = ["a", "b", "c", "d"].collect { new Node(new NodeProperties(it, TEST_GEN)) }
+    def x = new Node(new NodeProperties("x", other))
+    [a, b, c, d, x].each { n -> execControl.executeSingle { repo.save(n) } }
+
+    when:
+    [[a, b], [b, c], [c, d], [a, x]].each { pair ->
+      def (left, right) = pair.collect { n -> execControl.yieldSingle { repo.read(n.properties) }.valueOrThrow }
+      execControl.executeSingle { repo.relate(left, right) }
+    }
+
+    and:
+    def twoHops = traverse(a, Traversal.of(Traversal.Direction.RELATIONSHIPS).maxDepth(2))
+
+    then:
+    twoHops[0] == a.properties
+    twoHops[1..2] as Set == [b, x]*.properties as Set
+    twoHops[3] == c.properties
+    traverse(a, Traversal.of(Traversal.Direction.RELATIONSHIPS).maxDepth(2).classifiers(TEST_GEN)) == [a, b, c]*.properties
+    traverse(a, Traversal.of(Traversal.Direction.RELATIONSHIPS).maxDepth(10).maxNodes(2)).size() == 2
+    traverse(d, Traversal.of(Traversal.Direction.DEPENDENTS).maxDepth(10)) == [d, c, b, a]*.properties
+    traverse(d, Traversal.of(Traversal.Direction.DEPENDENTS).maxDepth(10).order(Traversal.Order.DEPTH_FIRST)) == [d, c, b, a]*.properties
+    traverse(c, Traversal.of(Traversal.Direction.BOTH)) as Set == [b, c, d]*.properties as Set
+  }
+
+  @Unroll
+  void "a depth-first traversal should expand a node that is reached again at a shallower depth (#bId, #cId)"() {
+    setup: "A relates to B and C, C relates to B, and B relates to D, so D is two hops from A through B"
+    def (a, b, c, d) = ["a", bId, cId, "d"].collect { new Node(new NodeProperties(it, TEST_GEN)) }
+    [a, b, c, d].each { n -> execControl.executeSingle { repo.save(n) } }
+    [[a, b], [a, c], [c, b], [b, d]].each { pair ->
+      def (left, right) = pair.collect { n -> execControl.yieldSingle { repo.read(n.properties) }.valueOrThrow }
+      execControl.executeSingle { repo.relate(left, right) }
+    }
+
+    expect: "whichever of B and C is visited first"
+    traverse(a, Traversal.of(Traversal.Direction.RELATIONSHIPS).maxDepth(2).order(Traversal.Order.DEPTH_FIRST)) as Set == [a, b, c, d]*.properties as Set
+    traverse(a, Traversal.of(Traversal.Direction.RELATIONSHIPS).maxDepth(1).order(Traversal.Order.DEPTH_FIRST)) as Set == [a, b, c]*.properties as Set
+
+    where:
+    bId | cId
+    "b" | "c"
+    "c" | "b"
+  }
+
+  void "should page and stream through every node of a classifier"() {
+    setup:
+    def nodes = (1..250).collect { new Node(new NodeProperties("id$it", TEST_GEN)) }
+    nodes.each { n -> execControl.executeSingle { repo.save(n) } }
+    execControl.executeSingle { repo.save(new Node(new NodeProperties("other", new NodeClassifier("foo", "bar")))) }
+
+    when:
+    def paged = []
+    def page = execControl.yieldSingle { repo.page(TEST_GEN, null, 100) }.valueOrThrow
+    paged.addAll(page.properties)
+    while (!page.last) {
+      page = execControl.yieldSingle { repo.page(TEST_GEN, page.cursor, 100) }.valueOrThrow
+      paged.addAll(page.properties)
+    }
+
+    and:
+    def streamed = execControl.yieldSingle { repo.stream(TEST_GEN).toList() }.valueOrThrow
+
+    then:
+    paged as Set == nodes*.properties as Set
+    streamed as Set == nodes*.properties as Set
+  }
+
+  void "should resume paging after the last node of the previous page when nodes are removed"() {
+    setup:
+    def nodes = (1..9).collect { new Node(new NodeProperties("id$it", TEST_GEN)) }
+    nodes.each { n -> execControl.executeSingle { repo.save(n) } }
+
+    when:
+    def first = execControl.yieldSingle { repo.page(TEST_GEN, null, 3) }.valueOrThrow
+    first.properties.each { p -> execControl.executeSingle { repo.remove(p) } }
+
+    and:
+    def paged = []
+    def page = first
+    while (!page.last) {
+      page = execControl.yieldSingle { repo.page(TEST_GEN, page.cursor, 3) }.valueOrThrow
+      paged.addAll(page.properties)
+    }
+
+    then:
+    paged as Set == (nodes*.properties - first.properties) as Set
+  }
+
+  void "should find the shortest path between related nodes"() {
+    setup:
+    def (a, b, c, d, e) = ["a", "b", "c", "d", "e"].collect { new Node(new NodeProperties(it, TEST_GEN)) }
+    [a, b, c, d, e].each { n -> execControl.executeSingle { repo.save(n) } }
+
+    when:
+    [[a, b], [b, c], [c, d], [a, e], [e, d]].each { pair ->
+      def (left, right) = pair.collect { n -> execControl.yieldSingle { repo.read(n.properties) }.valueOrThrow }
+      execControl.executeSingle { repo.relate(left, right) }
+    }
+
+    then:
+    execControl.yieldSingle { repo.shortestPath(a.properties, d.properties) }.valueOrThrow == [a, e, d]*.properties
+    execControl.yieldSingle { repo.shortestPath(b.properties, d.properties) }.valueOrThrow == [b, c, d]*.properties
+    execControl.yieldSingle { repo.shortestPath(d.properties, a.properties) }.valueOrThrow.isEmpty()
+    execControl.yieldSingle { repo.shortestPath(a.properties, a.properties) }.valueOrThrow == [a.properties]
+    execControl.yieldSingle { repo.reachable(b.properties, d.properties, 2) }.valueOrThrow
+    !execControl.yieldSingle { repo.reachable(b.properties, d.properties, 1) }.valueOrThrow
+    !execControl.yieldSingle { repo.reachable(e.properties, c.properties, 10) }.valueOrThrow
+  }
+
+  List<NodeProperties> traverse(Node start, Traversal traversal) {
+    execControl.yieldSingle { repo.traverse(start.properties, traversal) }.valueOrThrow*.properties
+  }
 }
@@ -7,6 +7,7 @@ import com.danveloper.ratpack.graph.NodeConverter
 import com.danveloper.ratpack.graph.NodeProperties
 import com.fasterxml.jackson.databind.ObjectMapper
 import com.google.common.collect.Sets
+import ratpack.exec.Blocking
 import ratpack.exec.Promise
 import ratpack.func.Action
 import ratpack.guice.Guice
@@ -14,6 +15,8 @@ import ratpack.test.embed.EmbeddedApp
 import spock.lang.AutoCleanup
 import spock.lang.Specification
 
+import java.util.concurrent.atomic.AtomicInteger
+
 class NodeRenderingSpec extends Specification {
 
   static NodeClassifier TEST_GEN = new NodeClassifier("test", "general")
@@ -21,6 +24,10 @@ class NodeRenderingSpec extends Specification {
   static Node NODE_2 = new Node(new NodeProperties("id2", TEST_GEN))
   static Map NODE_DATA_1 = [foo: "bar"]
   static Map NODE_DATA_2 = [foo: "baz"]
+  static NodeClassifier TEST_SLOW = new NodeClassifier("test", "slow")
+  static List<Node> SLOW_NODES = (0..<50).collect { new Node(new NodeProperties("slow$it", TEST_SLOW)) }
+  static NodeClassifier TEST_BATCHED = new NodeClassifier("test", "batched")
+  static List<Node> BATCHED_NODES = (0..<3).collect { new Node(new NodeProperties("batched$it", TEST_BATCHED)) }
 
   def mapper = new ObjectMapper()
 
@@ -30,6 +37,8 @@ class NodeRenderingSpec extends Specification {
     spec.registry(Guice.registry { b ->
       b.module(GraphModule)
       b.bind(NodeConverter, TestNodeConverter)
+      b.bind(SlowNodeConverter)
+      b.bind(BatchedNodeConverter)
     })
     .handlers { chain ->
       chain.get { ctx ->
@@ -38,6 +47,18 @@ class NodeRenderingSpec extends Specification {
       chain.get("list") { ctx ->
         ctx.render(new NodeCollection(Sets.newLinkedHashSet([NODE_1, NODE_2])))
       }
+      chain.get("mixed") { ctx ->
+        ctx.render(new NodeCollection(Sets.newLinkedHashSet([BATCHED_NODES[0], NODE_1, BATCHED_NODES[1], NODE_2, BATCHED_NODES[2]])))
+      }
+      chain.get("unconvertible") { ctx ->
+        ctx.render(new NodeCollection(Sets.newLinkedHashSet([NODE_1, new Node(new NodeProperties("id3", new NodeClassifier("foo", "bar")))])))
+      }
+      chain.get("empty") { ctx ->
+        ctx.render(new NodeCollection(Sets.newLinkedHashSet()))
+      }
+      chain.get("slow") { ctx ->
+        ctx.render(new NodeCollection(Sets.newLinkedHashSet(SLOW_NODES)))
+      }
     }
   } as Action)
 
@@ -56,6 +77,57 @@ class NodeRenderingSpec extends Specification {
     l[1] == NODE_DATA_2
   }
 
+  void "should render an empty collection as an empty array"() {
+    expect:
+    list(httpClient.getText("empty")) == []
+  }
+
+  void "should keep the order of the collection while converting a bounded number of nodes at once"() {
+    when:
+    def l = list(httpClient.getText("slow"))
+
+    then:
+    l == SLOW_NODES.collect { [id: it.properties.id] }
+    SlowNodeConverter.MAX_IN_FLIGHT.get() > 1
+    SlowNodeConverter.MAX_IN_FLIGHT.get() <= new GraphModule.Config().renderConcurrency
+  }
+
+  void "should convert the nodes of each classifier in a batch with a single call"() {
+    when:
+    def l = list(httpClient.getText("mixed"))
+
+    then:
+    l == [[id: "batched0"], NODE_DATA_1, [id: "batched1"], NODE_DATA_2, [id: "batched2"]]
+    BatchedNodeConverter.BATCHES == [BATCHED_NODES*.properties*.id]
+  }
+
+  void "should fail to render a collection containing a node without a converter"() {
+    expect:
+    httpClient.get("unconvertible").statusCode == 500
+  }
+
+  void "should fail to start with more than one converter for a classifier"() {
+    setup:
+    def duplicated = EmbeddedApp.of({ spec ->
+      spec.registry(Guice.registry { b ->
+        b.module(GraphModule)
+        b.bind(NodeConverter, TestNodeConverter)
+        b.bind(DuplicateNodeConverter)
+      })
+      .handlers { chain -> chain.get { ctx -> ctx.render NODE_1 } }
+    } as Action)
+
+    when: "an embedded app is in development mode, so it serves the startup failure instead of throwing it"
+    def response = duplicated.httpClient.get()
+
+    then:
+    response.statusCode == 500
+    response.body.text.contains("registered as the NodeConverter for")
+
+    cleanup:
+    duplicated.close()
+  }
+
   private List list(String json) {
     mapper.readValue(json, List)
   }
@@ -77,4 +149,48 @@ class NodeRenderingSpec extends Specification {
       Promise.value(data)
     }
   }
+
+  static class DuplicateNodeConverter extends TestNodeConverter {
+  }
+
+  static class BatchedNodeConverter implements NodeConverter<Map> {
+    static final List<List<String>> BATCHES = [].asSynchronized()
+
+    @Override
+    NodeClassifier getClassifier() {
+      TEST_BATCHED
+    }
+
+    @Override
+    Promise<Map> convert(Node node) {
+      throw new UnsupportedOperationException()
+    }
+
+    @Override
+    Promise<List<Map>> convertAll(List<Node> nodes) {
+      BATCHES << nodes*.properties*.id
+      Promise.value(nodes.collect { [id: it.properties.id] })
+    }
+  }
+
+  static class SlowNodeConverter implements NodeConverter<Map> {
+    static final AtomicInteger IN_FLIGHT = new AtomicInteger()
+    static final AtomicInteger MAX_IN_FLIGHT = new AtomicInteger()
+
+    @Override
+    NodeClassifier getClassifier() {
+      TEST_SLOW
+    }
+
+    @Override
+    Promise<Map> convert(Node node) {
+      Blocking.get {
+        def inFlight = IN_FLIGHT.incrementAndGet()
+        MAX_IN_FLIGHT.accumulateAndGet(inFlight, Math.&max)
+        sleep(new Random().nextInt(10))
+        IN_FLIGHT.decrementAndGet()
+        [id: node.properties.id]
+      }
+    }
+  }
 }
@@ -0,0 +1,270 @@
+package com.danveloper.ratpack.graph.mmap;
+
+import com.google.common.base.Charsets;
+import com.google.common.collect.Lists;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.function.Consumer;
+import java.util.zip.CRC32;
+
+/**
+ * An append-only file that is memory mapped in segments of a fixed size.
+ * <p>
+ * Each record is framed by the length of its body and a CRC32 of the body, and frames are aligned to eight bytes so that bodies can be read in place as views of int and long values.
+ * A frame never spans two segments: when a segment has too little space left for a record, the rest of it is marked as padding and the record starts the next segment.
+ * When the log is opened, its records are checked up to the first frame that is empty or does not match its checksum, which is where a crash interrupted the last write, and anything after that frame is discarded.
+ * <p>
+ * This class is not thread safe, and the bodies that it provides are only valid until it is closed.
+ */
+class MappedLog implements Closeable {
+  private static final int HEADER = 8;
+  private static final int ALIGNMENT = 8;
+  private static final int PADDING = -1;
+
+  private final Path file;
+  private final FileChannel channel;
+  private final int segmentSize;
+  private final List<MappedByteBuffer> segments = Lists.newArrayList();
+  private long end;
+
+  private MappedLog(Path file, FileChannel channel, int segmentSize) {
+    this.file = file;
+    this.channel = channel;
+    this.segmentSize = segmentSize;
+  }
+
+  /**
+   * Opens the log, creating it if it does not exist, and discards anything that follows its last complete record.
+   *
+   * @param file the file of the log
+   * @param segmentSize the number of bytes that are mapped at a time, which bounds the size of a record
+   * @return the log, positioned to append after its last record
+   * @throws IOException if the file cannot be opened or mapped
+   */
+  static MappedLog open(Path file, int segmentSize) throws IOException {
+    if (segmentSize < HEADER || segmentSize % ALIGNMENT != 0) {
+      throw new IllegalArgumentException(String.format("The segment size must be a multiple of %d bytes, but was %d", ALIGNMENT, segmentSize));
+    }
+    FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+    try {
+      MappedLog log = new MappedLog(file, channel, segmentSize);
+      log.recover();
+      return log;
+    } catch (IOException | RuntimeException e) {
+      channel.close();
+      throw e;
+    }
+  }
+
+  /**
+   * Provides every record to the visitor, in the order they were appended.
+   *
+   * @param visitor the visitor of the records
+   * @throws IOException if the visitor cannot process a record
+   */
+  void forEach(RecordVisitor visitor) throws IOException {
+    forEach(0, visitor);
+  }
+
+  /**
+   * Provides every record from the provided offset onwards to the visitor, in the order they were appended.
+   *
+   * @param from the offset of a record, or the {@link #size()} of the log at some earlier point
+   * @param visitor the visitor of the records
+   * @throws IOException if the visitor cannot process a record
+   */
+  void forEach(long from, RecordVisitor visitor) throws IOException {
+    long offset = from;
+    while (offset < end) {
+      int position = position(offset);
+      int length = segments.get(segment(offset)).getInt(position);
+      if (length == PADDING) {
+        offset += segmentSize - position;
+      } else {
+        visitor.visit(offset, read(offset));
+        offset += frameSize(length);
+      }
+    }
+  }
+
+  /**
+   * Appends a record, whose body is written in place into the mapped file.
+   *
+   * @param length the length of the body
+   * @param writer writes the body into the provided buffer, which has exactly the length of the body
+   * @return the offset of the record
+   * @throws IOException if the file cannot be extended
+   */
+  long append(int length, Consumer<ByteBuffer> writer) throws IOException {
+    int frameSize = frameSize(length);
+    if (frameSize > segmentSize) {
+      throw new IllegalArgumentException(String.format("A record of %d bytes does not fit in a segment of %d bytes", length, segmentSize));
+    }
+    if (segmentSize - position(end) < frameSize) {
+      segments.get(segment(end)).putInt(position(end), PADDING);
+      end += segmentSize - position(end);
+    }
+    int segment = segment(end);
+    while (segments.size() <= segment) {
+      segments.add(channel.map(FileChannel.MapMode.READ_WRITE, (long) segments.size() * segmentSize, segmentSize));
+    }
+    int position = position(end);
+    ByteBuffer body = slice(segment, position + HEADER, length);
+    writer.accept(body);
+    body.rewind();
+    CRC32 crc = new CRC32();
+    crc.update(body);
+    MappedByteBuffer buffer = segments.get(segment);
+    buffer.putInt(position + 4, (int) crc.getValue());
+    buffer.putInt(position, length);
+
+    long offset = end;
+    end += frameSize;
+    return offset;
+  }
+
+  /**
+   * @param offset the offset of a record
+   * @return a read-only view of the body of the record, which is not copied out of the mapped file
+   */
+  ByteBuffer read(long offset) {
+    int segment = segment(offset);
+    int position = position(offset);
+    return slice(segment, position + HEADER, segments.get(segment).getInt(position)).asReadOnlyBuffer();
+  }
+
+  /**
+   * @param offset the offset of a record
+   * @return the number of bytes that the record takes up in the log
+   */
+  int frameSize(long offset) {
+    return frameSize(segments.get(segment(offset)).getInt(position(offset)));
+  }
+
+  Path getFile() {
+    return file;
+  }
+
+  /**
+   * @return the number of bytes up to the end of the last record
+   */
+  long size() {
+    return end;
+  }
+
+  /**
+   * Writes every change to the mapped file through to the storage device.
+   */
+  void force() {
+    segments.forEach(MappedByteBuffer::force);
+  }
+
+  @Override
+  public void close() throws IOException {
+    force();
+    segments.clear();
+    channel.close();
+  }
+
+  private void recover() throws IOException {
+    long length = channel.size();
+    for (long mapped = 0; mapped < length; mapped += segmentSize) {
+      segments.add(channel.map(FileChannel.MapMode.READ_WRITE, mapped, segmentSize));
+    }
+
+    long offset = 0;
+    CRC32 crc = new CRC32();
+    while (segment(offset) < segments.size()) {
+      int position = position(offset);
+      MappedByteBuffer buffer = segments.get(segment(offset));
+      int bodyLength = buffer.getInt(position);
+      if (bodyLength == PADDING) {
+        // the rest of the segment was too small for the next record
+        offset += segmentSize - position;
+        continue;
+      }
+      if (bodyLength <= 0 || frameSize(bodyLength) > segmentSize - position) {
+        break;
+      }
+      ByteBuffer body = slice(segment(offset), position + HEADER, bodyLength);
+      crc.reset();
+      crc.update(body);
+      if ((int) crc.getValue() != buffer.getInt(position + 4)) {
+        break;
+      }
+      offset += frameSize(bodyLength);
+    }
+    end = offset;
+    discardAfterEnd();
+  }
+
+  /**
+   * Clears what follows the last record, so that it cannot be mistaken for records once new records are appended before it.
+   */
+  private void discardAfterEnd() throws IOException {
+    int keep = (int) ((end + segmentSize - 1) / segmentSize);
+    if (position(end) > 0) {
+      MappedByteBuffer buffer = segments.get(segment(end));
+      for (int position = position(end); position < segmentSize; position += ALIGNMENT) {
+        // only pages that hold something are written, so that the unused part of the segment stays sparse
+        if (buffer.getLong(position) != 0L) {
+          buffer.putLong(position, 0L);
+        }
+      }
+    }
+    while (segments.size() > keep) {
+      segments.remove(segments.size() - 1);
+    }
+    channel.truncate((long) keep * segmentSize);
+  }
+
+  private ByteBuffer slice(int segment, int position, int length) {
+    ByteBuffer buffer = segments.get(segment).duplicate();
+    buffer.limit(position + length).position(position);
+    return buffer.slice();
+  }
+
+  private int segment(long offset) {
+    return (int) (offset / segmentSize);
+  }
+
+  private int position(long offset) {
+    return (int) (offset % segmentSize);
+  }
+
+  private static int frameSize(int length) {
+    return (HEADER + length + ALIGNMENT - 1) / ALIGNMENT * ALIGNMENT;
+  }
+
+  static int stringSize(String value) {
+    return 4 + value.getBytes(Charsets.UTF_8).length;
+  }
+
+  static void putString(ByteBuffer buffer, String value) {
+    byte[] bytes = value.getBytes(Charsets.UTF_8);
+    buffer.putInt(bytes.length).put(bytes);
+  }
+
+  static String getString(ByteBuffer buffer) {
+    byte[] bytes = new byte[buffer.getInt()];
+    buffer.get(bytes);
+    return new String(bytes, Charsets.UTF_8);
+  }
+
+  @FunctionalInterface
+  interface RecordVisitor {
+    /**
+     * @param offset the offset of the record
+     * @param body a read-only view of the body of the record
+     * @throws IOException if the record cannot be processed
+     */
+    void visit(long offset, ByteBuffer body) throws IOException;
+  }
+}
@@ -0,0 +1,123 @@
+package com.danveloper.ratpack.graph.mmap;
+
+import com.danveloper.ratpack.graph.GraphModule;
+import com.danveloper.ratpack.graph.NodeDataRepository;
+import com.danveloper.ratpack.graph.NodeRepository;
+import com.google.inject.AbstractModule;
+import com.google.inject.Scopes;
+import com.google.inject.util.Modules;
+import ratpack.guice.ConfigurableModule;
+
+import java.time.Duration;
+
+/**
+ * Stores the graph and its node data in memory-mapped files on the local disk, for an application that runs as a single process and keeps its graph across restarts.
+ */
+public class MmapGraphModule extends ConfigurableModule<MmapGraphModule.Config> {
+
+  @Override
+  protected void configure() {
+    install(Modules.override(new GraphModule()).with(new AbstractModule() {
+      @Override
+      protected void configure() {
+        binder().bind(NodeRepository.class).to(MmapNodeRepository.class).in(Scopes.SINGLETON);
+        binder().bind(NodeDataRepository.class).to(MmapNodeDataRepository.class).in(Scopes.SINGLETON);
+        binder().bind(GraphModule.Config.class).to(MmapGraphModule.Config.class);
+      }
+    }));
+  }
+
+  public static class Config extends GraphModule.Config {
+    private String directory;
+    private int segmentSize = 1 << 26;
+    private Duration compactionInterval = Duration.ofMinutes(1);
+    private double compactionThreshold = 0.5;
+
+    public Config() {
+    }
+
+    /**
+     * Convenience constructor most of the time not used if you are using Ratpack Config.
+     *
+     * @param directory the directory of the files
+     */
+    public Config(String directory) {
+      this.directory = directory;
+    }
+
+    /**
+     * The directory that the files of the graph and its node data are kept in, which is created if it does not exist.
+     * Only one process may use the directory at a time.
+     *
+     * @return the directory of the files
+     */
+    public String getDirectory() {
+      return directory;
+    }
+
+    /**
+     * Set the directory that the files of the graph and its node data are kept in.
+     *
+     * @param directory the directory of the files
+     */
+    public void setDirectory(String directory) {
+      this.directory = directory;
+    }
+
+    /**
+     * The number of bytes of a file that are mapped at a time.
+     * Files grow a segment at a time, and a single record, such as the relationships of one node or one data object, must fit in a segment, so the default of 64MB allows for a node with about five million relationships.
+     *
+     * @return the size of a segment, in bytes
+     */
+    public int getSegmentSize() {
+      return segmentSize;
+    }
+
+    /**
+     * Set the number of bytes of a file that are mapped at a time, which must be a multiple of 8.
+     *
+     * @param segmentSize the size of a segment, in bytes
+     */
+    public void setSegmentSize(int segmentSize) {
+      this.segmentSize = segmentSize;
+    }
+
+    /**
+     * The interval at which the files are checked for records that have been superseded, and compacted if there are enough of them.
+     *
+     * @return the interval at which the files are checked for compaction
+     */
+    public Duration getCompactionInterval() {
+      return compactionInterval;
+    }
+
+    /**
+     * Set the interval at which the files are checked for compaction.
+     *
+     * @param compactionInterval the interval at which the files are checked for compaction
+     */
+    public void setCompactionInterval(Duration compactionInterval) {
+      this.compactionInterval = compactionInterval;
+    }
+
+    /**
+     * The fraction of the bytes of the files that must belong to superseded records before the files are compacted.
+     * Every save of a node and every flush of its access time appends a new record, so a lower threshold uses less disk at the cost of compacting more often.
+     *
+     * @return the fraction of superseded bytes at which the files are compacted
+     */
+    public double getCompactionThreshold() {
+      return compactionThreshold;
+    }
+
+    /**
+     * Set the fraction of the bytes of the files that must belong to superseded records before the files are compacted.
+     *
+     * @param compactionThreshold the fraction of superseded bytes at which the files are compacted
+     */
+    public void setCompactionThreshold(double compactionThreshold) {
+      this.compactionThreshold = compactionThreshold;
+    }
+  }
+}
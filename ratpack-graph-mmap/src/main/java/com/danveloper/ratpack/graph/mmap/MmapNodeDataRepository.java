@@ -0,0 +1,267 @@
+package com.danveloper.ratpack.graph.mmap;
+
+import com.danveloper.ratpack.graph.NodeClassifier;
+import com.danveloper.ratpack.graph.NodeDataRepository;
+import com.danveloper.ratpack.graph.NodeProperties;
+import com.fasterxml.jackson.annotation.JsonTypeInfo;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.util.ByteBufferBackedInputStream;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.inject.Inject;
+import ratpack.exec.Operation;
+import ratpack.exec.Promise;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A {@link NodeDataRepository} that keeps node data as JSON in a memory-mapped file, alongside an {@link MmapNodeRepository}.
+ * Data is decoded straight from the mapped file when it is read, and only the offset of each object is kept on the heap.
+ */
+public class MmapNodeDataRepository extends MmapSupport implements NodeDataRepository {
+  private static final byte PUT = 1;
+  private static final byte DELETE = 2;
+
+  private final ObjectMapper mapper;
+  private final Map<NodeProperties, Long> offsets = Maps.newHashMap();
+  private MappedLog log;
+  private long garbage;
+
+  /**
+   * @param config the configuration of the files
+   * @param mapper the mapper whose modules and settings are used to encode the data
+   */
+  @Inject
+  public MmapNodeDataRepository(MmapGraphModule.Config config, ObjectMapper mapper) {
+    super(config, "data");
+    this.mapper = mapper.copy().enableDefaultTyping(ObjectMapper.DefaultTyping.NON_FINAL, JsonTypeInfo.As.PROPERTY);
+  }
+
+  @Override
+  List<String> getLogNames() {
+    return Collections.singletonList("objects");
+  }
+
+  @Override
+  void open(int generation) throws IOException {
+    offsets.clear();
+    garbage = 0;
+    log = openLog("objects", generation);
+    log.forEach((offset, body) -> {
+      byte type = body.get();
+      NodeProperties properties = getProperties(body);
+      Long previous = type == PUT ? offsets.put(properties, offset) : offsets.remove(properties);
+      if (previous != null) {
+        garbage += log.frameSize(previous);
+      }
+      if (type == DELETE) {
+        garbage += log.frameSize(offset);
+      }
+    });
+  }
+
+  @Override
+  Compaction copy(int generation) throws IOException {
+    MappedLog newLog = openLog("objects", generation);
+    try {
+      NextGeneration next = new NextGeneration(newLog, log.size());
+      for (Map.Entry<NodeProperties, Long> entry : offsets.entrySet()) {
+        next.put(entry.getKey(), log.read(entry.getValue()));
+      }
+      return next;
+    } catch (RuntimeException e) {
+      newLog.close();
+      throw e;
+    }
+  }
+
+  @Override
+  void close() throws IOException {
+    if (log != null) {
+      log.close();
+    }
+  }
+
+  @Override
+  long getGarbage() {
+    return garbage;
+  }
+
+  @Override
+  long getSize() {
+    return log != null ? log.size() : 0;
+  }
+
+  @Override
+  public <T> Promise<T> get(NodeProperties properties) {
+    lock.readLock().lock();
+    try {
+      Long offset = offsets.get(properties);
+      return Promise.value(offset != null ? decode(offset) : null);
+    } catch (IOException e) {
+      return Promise.error(new RuntimeException("Failed to read data for " + properties, e));
+    } finally {
+      lock.readLock().unlock();
+    }
+  }
+
+  @Override
+  public <T> Promise<Map<NodeProperties, T>> getAll(Collection<NodeProperties> properties) {
+    Map<NodeProperties, T> result = Maps.newHashMapWithExpectedSize(properties.size());
+    lock.readLock().lock();
+    try {
+      for (NodeProperties props : properties) {
+        Long offset = offsets.get(props);
+        if (offset != null) {
+          result.put(props, decode(offset));
+        }
+      }
+    } catch (IOException e) {
+      return Promise.error(new RuntimeException("Failed to read data", e));
+    } finally {
+      lock.readLock().unlock();
+    }
+    return Promise.value(result);
+  }
+
+  @Override
+  public Operation save(NodeProperties properties, Object object) {
+    return saveAll(Collections.singletonMap(properties, object));
+  }
+
+  @Override
+  public Operation saveAll(Map<NodeProperties, ?> objects) {
+    return Operation.of(() -> {
+      // encode outside of the lock, so that readers only wait for the data to be copied into the file
+      List<byte[]> encoded = Lists.newArrayListWithCapacity(objects.size());
+      for (Object object : objects.values()) {
+        encoded.add(mapper.writeValueAsBytes(object));
+      }
+      lock.writeLock().lock();
+      try {
+        int i = 0;
+        for (NodeProperties properties : objects.keySet()) {
+          byte[] bytes = encoded.get(i++);
+          long offset = append(log, 1 + propertiesSize(properties) + bytes.length, record -> {
+            record.put(PUT);
+            putProperties(record, properties);
+            record.put(bytes);
+          });
+          Long previous = offsets.put(properties, offset);
+          if (previous != null) {
+            garbage += log.frameSize(previous);
+          }
+        }
+      } finally {
+        lock.writeLock().unlock();
+      }
+    });
+  }
+
+  @Override
+  public Operation remove(NodeProperties properties) {
+    return removeAll(Collections.singletonList(properties));
+  }
+
+  @Override
+  public Operation removeAll(Collection<NodeProperties> properties) {
+    return Operation.of(() -> {
+      lock.writeLock().lock();
+      try {
+        for (NodeProperties props : properties) {
+          Long previous = offsets.remove(props);
+          if (previous != null) {
+            garbage += log.frameSize(previous);
+            long offset = append(log, 1 + propertiesSize(props), record -> {
+              record.put(DELETE);
+              putProperties(record, props);
+            });
+            garbage += log.frameSize(offset);
+          }
+        }
+      } finally {
+        lock.writeLock().unlock();
+      }
+    });
+  }
+
+  /**
+   * The objects log of the next generation, which every record of the current log up to {@code replayFrom} has been copied into.
+   */
+  private class NextGeneration implements Compaction {
+    private final MappedLog newLog;
+    private final long replayFrom;
+    private final Map<NodeProperties, Long> newOffsets = Maps.newHashMap();
+    private long newGarbage;
+
+    private NextGeneration(MappedLog newLog, long replayFrom) {
+      this.newLog = newLog;
+      this.replayFrom = replayFrom;
+    }
+
+    @Override
+    public void replayAndSwitch() throws IOException {
+      try {
+        log.forEach(replayFrom, (offset, record) -> {
+          NodeProperties properties = getProperties((ByteBuffer) record.duplicate().position(1));
+          if (record.get(0) == PUT) {
+            put(properties, record);
+          } else {
+            Long previous = newOffsets.remove(properties);
+            if (previous != null) {
+              newGarbage += newLog.frameSize(previous) + newLog.frameSize(append(newLog, record.remaining(), buffer -> buffer.put(record)));
+            }
+          }
+        });
+        newLog.force();
+      } catch (IOException | RuntimeException e) {
+        newLog.close();
+        throw e;
+      }
+
+      close();
+      log = newLog;
+      offsets.clear();
+      offsets.putAll(newOffsets);
+      garbage = newGarbage;
+    }
+
+    private void put(NodeProperties properties, ByteBuffer record) {
+      Long previous = newOffsets.put(properties, append(newLog, record.remaining(), buffer -> buffer.put(record)));
+      if (previous != null) {
+        newGarbage += newLog.frameSize(previous);
+      }
+    }
+  }
+
+  @SuppressWarnings("unchecked")
+  private <T> T decode(long offset) throws IOException {
+    ByteBuffer record = log.read(offset);
+    record.position(1);
+    getProperties(record);
+    return (T) mapper.readValue(new ByteBufferBackedInputStream(record), Object.class);
+  }
+
+  private static int propertiesSize(NodeProperties properties) {
+    NodeClassifier classifier = properties.getClassifier();
+    return MappedLog.stringSize(classifier.getType()) + MappedLog.stringSize(classifier.getCategory()) + MappedLog.stringSize(properties.getId());
+  }
+
+  private static void putProperties(ByteBuffer buffer, NodeProperties properties) {
+    NodeClassifier classifier = properties.getClassifier();
+    MappedLog.putString(buffer, classifier.getType());
+    MappedLog.putString(buffer, classifier.getCategory());
+    MappedLog.putString(buffer, properties.getId());
+  }
+
+  private static NodeProperties getProperties(ByteBuffer buffer) {
+    String type = MappedLog.getString(buffer);
+    String category = MappedLog.getString(buffer);
+    return new NodeProperties(MappedLog.getString(buffer), NodeClassifier.of(type, category));
+  }
+}
@@ -0,0 +1,949 @@
+package com.danveloper.ratpack.graph.mmap;
+
+import com.danveloper.ratpack.graph.*;
+import com.danveloper.ratpack.graph.internal.AccessTimeIndex;
+import com.danveloper.ratpack.graph.internal.AccessTimeTracker;
+import com.danveloper.ratpack.graph.internal.EdgeSet;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+import com.google.inject.Inject;
+import ratpack.exec.ExecController;
+import ratpack.exec.Operation;
+import ratpack.exec.Promise;
+import ratpack.service.StartEvent;
+import ratpack.service.StopEvent;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.util.*;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A {@link NodeRepository} that keeps its nodes in memory-mapped files, so that a single process can hold a graph that is larger than its heap and keep it across restarts.
+ * <p>
+ * Every {@link NodeProperties} is interned to an int id, as in the compact in-memory engine.
+ * The node table is a log of fixed-size records of a node's last access time and the offsets of its relationships and dependents, which are chains of records in a second log.
+ * A chain starts from a sorted array of leaf ids, followed by a record for every leaf that has since been added or removed, so that changing an edge appends a record of fixed size however many leaves the edge has.
+ * Once a chain holds more changes than its array has leaves, it is merged into a new array, and compaction merges every chain.
+ * Reading a node reads the leaf ids in place from the mapped file, and saving a node appends new records rather than updating old ones, so the files are compacted once enough of their records are superseded.
+ * Only the offsets of the node records, the interned properties and the classifier and access time indexes are kept on the heap, and they are rebuilt from the node table when the repository starts.
+ */
+public class MmapNodeRepository extends MmapSupport implements NodeRepository {
+  private static final int EXPIRE_BATCH_SIZE = 100;
+  private static final long ABSENT = -1;
+  private static final long NO_EDGES = -1;
+
+  private static final byte SYMBOL = 1;
+  private static final byte NODE = 2;
+  private static final byte REMOVE = 3;
+  private static final int NODE_RECORD_SIZE = 29;
+  private static final int LAST_ACCESS_TIME = 5;
+  private static final int RELATIONSHIPS = 13;
+  private static final int DEPENDENTS = 21;
+
+  private static final int DELTA = -1;
+  private static final int DELTA_RECORD_SIZE = 36;
+  private static final int DELTA_LEAF = 4;
+  private static final int DELTA_PREVIOUS = 8;
+  private static final int DELTA_MODIFY_TIME = 16;
+  private static final int DELTA_ADDED = 24;
+  private static final int DELTA_CHAIN_LENGTH = 28;
+  private static final int DELTA_BASE_COUNT = 32;
+  private static final int MIN_MERGED_DELTAS = 16;
+
+  private final AccessTimeTracker accessTimeTracker = new AccessTimeTracker();
+  private AccessTimeIndex accessTimeIndex = new AccessTimeIndex();
+  private ScheduledFuture<?> accessTimeFlush;
+
+  private MappedLog nodeLog;
+  private MappedLog edgeLog;
+  private long garbage;
+  private final Map<NodeProperties, Integer> ids = Maps.newHashMap();
+  private final Map<NodeClassifier, NavigableSet<NodeProperties>> classifiers = Maps.newHashMap();
+  private NodeProperties[] properties = new NodeProperties[16];
+  private long[] nodeOffsets = absentOffsets(16);
+  private int nextId;
+
+  @Inject
+  public MmapNodeRepository(MmapGraphModule.Config config) {
+    super(config, "graph");
+  }
+
+  @Override
+  public void onStart(StartEvent e) {
+    super.onStart(e);
+    ExecController.current().ifPresent(execController -> {
+      long flushInterval = config.getAccessTimeFlushInterval().toMillis();
+      accessTimeFlush = execController.getExecutor().scheduleWithFixedDelay(this::flushAccessTimes, flushInterval, flushInterval, TimeUnit.MILLISECONDS);
+    });
+  }
+
+  @Override
+  public void onStop(StopEvent e) {
+    if (accessTimeFlush != null) {
+      accessTimeFlush.cancel(false);
+    }
+    flushAccessTimes();
+    super.onStop(e);
+  }
+
+  @Override
+  List<String> getLogNames() {
+    return Lists.newArrayList("nodes", "edges");
+  }
+
+  @Override
+  void open(int generation) throws IOException {
+    ids.clear();
+    classifiers.clear();
+    accessTimeIndex = new AccessTimeIndex();
+    properties = new NodeProperties[16];
+    nodeOffsets = absentOffsets(16);
+    nextId = 0;
+    garbage = 0;
+
+    edgeLog = openLog("edges", generation);
+    nodeLog = openLog("nodes", generation);
+    nodeLog.forEach((offset, body) -> {
+      int id = body.getInt(1);
+      switch (body.get(0)) {
+        case SYMBOL:
+          body.position(LAST_ACCESS_TIME);
+          String type = MappedLog.getString(body);
+          String category = MappedLog.getString(body);
+          register(id, new NodeProperties(MappedLog.getString(body), NodeClassifier.of(type, category)));
+          break;
+        case NODE:
+          if (id >= nextId || properties[id] == null || body.getLong(RELATIONSHIPS) >= edgeLog.size() || body.getLong(DEPENDENTS) >= edgeLog.size()) {
+            // the node refers to a symbol or edges that were lost when the process stopped
+            garbage += nodeLog.frameSize(offset);
+          } else {
+            restore(id, offset);
+          }
+          break;
+        case REMOVE:
+          if (id < nextId && nodeOffsets[id] != ABSENT) {
+            unindex(id);
+            supersede(id, NO_EDGES, NO_EDGES);
+            nodeOffsets[id] = ABSENT;
+          }
+          garbage += nodeLog.frameSize(offset);
+          break;
+        default:
+          throw new IOException(String.format("Unknown record type %d at offset %d of %s", body.get(0), offset, nodeLog.getFile()));
+      }
+    });
+  }
+
+  @Override
+  Compaction copy(int generation) throws IOException {
+    MappedLog newNodeLog = openLog("nodes", generation);
+    MappedLog newEdgeLog = null;
+    try {
+      newEdgeLog = openLog("edges", generation);
+      NextGeneration next = new NextGeneration(newNodeLog, newEdgeLog, nodeLog.size());
+      // stored nodes take the lowest ids, followed by the leaves that are not stored themselves
+      for (int id = 0; id < nextId; id++) {
+        if (nodeOffsets[id] != ABSENT) {
+          next.idOf(id);
+        }
+      }
+      for (int id = 0; id < nextId; id++) {
+        if (nodeOffsets[id] != ABSENT) {
+          next.copyNode(id, nodeOffsets[id]);
+        }
+      }
+      return next;
+    } catch (IOException | RuntimeException e) {
+      newNodeLog.close();
+      if (newEdgeLog != null) {
+        newEdgeLog.close();
+      }
+      throw e;
+    }
+  }
+
+  @Override
+  void close() throws IOException {
+    if (nodeLog != null) {
+      nodeLog.close();
+    }
+    if (edgeLog != null) {
+      edgeLog.close();
+    }
+  }
+
+  @Override
+  long getGarbage() {
+    return garbage;
+  }
+
+  @Override
+  long getSize() {
+    return nodeLog != null ? nodeLog.size() + edgeLog.size() : 0;
+  }
+
+  @Override
+  public Operation save(Node node) {
+    return Operation.of(() -> {
+      lock.writeLock().lock();
+      try {
+        save0(node);
+      } finally {
+        lock.writeLock().unlock();
+      }
+    });
+  }
+
+  @Override
+  public Promise<Set<NodeProperties>> lookup(NodeClassifier classifier) {
+    lock.readLock().lock();
+    try {
+      Set<NodeProperties> nodes = classifiers.get(classifier);
+      return Promise.value(nodes != null ? ImmutableSet.copyOf(nodes) : null);
+    } finally {
+      lock.readLock().unlock();
+    }
+  }
+
+  @Override
+  public Promise<NodePage> page(NodeClassifier classifier, String cursor, int count) {
+    lock.readLock().lock();
+    try {
+      return Promise.value(NodePages.page(classifiers.getOrDefault(classifier, Collections.emptyNavigableSet()), cursor, count));
+    } finally {
+      lock.readLock().unlock();
+    }
+  }
+
+  @Override
+  public Promise<Node> get(NodeProperties nodeProperties) {
+    return Promise.value(get(nodeProperties, true));
+  }
+
+  @Override
+  public Promise<Node> read(NodeProperties nodeProperties) {
+    return Promise.value(get(nodeProperties, false));
+  }
+
+  @Override
+  public Promise<Map<NodeProperties, Node>> getAll(Collection<NodeProperties> properties) {
+    return Promise.value(getAll(properties, true));
+  }
+
+  @Override
+  public Promise<Map<NodeProperties, Node>> readAll(Collection<NodeProperties> properties) {
+    return Promise.value(getAll(properties, false));
+  }
+
+  @Override
+  public Promise<Node> getOrCreate(NodeProperties nodeProperties) {
+    lock.writeLock().lock();
+    try {
+      if (idOf(nodeProperties) < 0) {
+        save0(new Node(nodeProperties));
+      }
+    } finally {
+      lock.writeLock().unlock();
+    }
+    return get(nodeProperties);
+  }
+
+  @Override
+  public Operation relate(Node left, Node right) {
+    left.getEdge().addRelationship(right.getProperties());
+    right.getEdge().addDependent(left.getProperties());
+    return Operation.of(() -> {
+      lock.writeLock().lock();
+      try {
+        save0(left);
+        save0(right);
+      } finally {
+        lock.writeLock().unlock();
+      }
+    });
+  }
+
+  @Override
+  public Operation remove(NodeProperties nodeProperties) {
+    return Operation.of(() -> {
+      lock.writeLock().lock();
+      try {
+        remove0(nodeProperties);
+      } finally {
+        lock.writeLock().unlock();
+      }
+    });
+  }
+
+  @Override
+  public Operation expireAll(NodeClassifier classifier, Long ttl) {
+    return Operation.of(() -> expire0(classifier, ttl, Integer.MAX_VALUE));
+  }
+
+  @Override
+  public Promise<Integer> expire(NodeClassifier classifier, Long ttl, int limit) {
+    return Promise.value(expire0(classifier, ttl, limit));
+  }
+
+  @Override
+  public Promise<Set<Node>> traverse(NodeProperties nodeProperties, Traversal traversal) {
+    lock.readLock().lock();
+    try {
+      return Promise.value(Traversals.traverse(props -> get0(props, false), nodeProperties, traversal));
+    } finally {
+      lock.readLock().unlock();
+    }
+  }
+
+  @Override
+  public Promise<List<NodeProperties>> shortestPath(NodeProperties from, NodeProperties to, int maxDepth) {
+    lock.readLock().lock();
+    try {
+      return Promise.value(ShortestPaths.shortestPath(props -> get0(props, false), from, to, maxDepth));
+    } finally {
+      lock.readLock().unlock();
+    }
+  }
+
+  private void flushAccessTimes() {
+    Map<NodeProperties, Long> accessTimes = accessTimeTracker.drain();
+    if (accessTimes.isEmpty()) {
+      return;
+    }
+    lock.writeLock().lock();
+    try {
+      for (Map.Entry<NodeProperties, Long> entry : accessTimes.entrySet()) {
+        int id = idOf(entry.getKey());
+        if (id >= 0 && lastAccessTime(id) < entry.getValue()) {
+          accessTimeIndex.update(entry.getKey(), lastAccessTime(id), entry.getValue());
+          ByteBuffer node = nodeLog.read(nodeOffsets[id]);
+          store(id, entry.getValue(), node.getLong(RELATIONSHIPS), node.getLong(DEPENDENTS));
+        }
+      }
+    } finally {
+      lock.writeLock().unlock();
+    }
+  }
+
+  private int expire0(NodeClassifier classifier, Long ttl, int limit) {
+    flushAccessTimes();
+    long expiredBefore = System.currentTimeMillis() - ttl;
+    int expiredCount = 0;
+    lock.writeLock().lock();
+    try {
+      while (expiredCount < limit) {
+        List<AccessTimeIndex.Entry> expired = accessTimeIndex.expired(classifier, expiredBefore, Math.min(EXPIRE_BATCH_SIZE, limit - expiredCount));
+        if (expired.isEmpty()) {
+          break;
+        }
+        for (AccessTimeIndex.Entry entry : expired) {
+          int id = idOf(entry.getProperties());
+          if (id >= 0 && lastAccessTime(id) == entry.getAccessTime()) {
+            remove0(entry.getProperties());
+            expiredCount++;
+          } else {
+            accessTimeIndex.remove(entry.getProperties(), entry.getAccessTime());
+            if (id >= 0) {
+              accessTimeIndex.update(entry.getProperties(), null, lastAccessTime(id));
+            }
+          }
+        }
+      }
+    } finally {
+      lock.writeLock().unlock();
+    }
+    return expiredCount;
+  }
+
+  private void save0(Node node) {
+    if (node == null || node.getProperties() == null || node.getProperties().getId() == null) {
+      throw new IllegalStateException("Somebody tried to insert an empty node");
+    }
+    NodeProperties nodeProperties = node.getProperties();
+    int id = intern(nodeProperties);
+    long offset = nodeOffsets[id];
+    Long existingLastAccessTime = offset == ABSENT ? null : lastAccessTime(id);
+    long lastAccessTime = existingLastAccessTime != null ? Math.max(existingLastAccessTime, node.getLastAccessTime()) : node.getLastAccessTime();
+    long relationships = offset == ABSENT ? NO_EDGES : nodeLog.read(offset).getLong(RELATIONSHIPS);
+    long dependents = offset == ABSENT ? NO_EDGES : nodeLog.read(offset).getLong(DEPENDENTS);
+
+    relationships = applyEvents(relationships, node.getEdge().getRelationshipEvents());
+    dependents = applyEvents(dependents, node.getEdge().getDependentEvents());
+    store(id, lastAccessTime, relationships, dependents);
+
+    accessTimeIndex.update(nodeProperties, existingLastAccessTime, lastAccessTime);
+    if (existingLastAccessTime == null) {
+      classifiers.computeIfAbsent(nodeProperties.getClassifier(), c -> new TreeSet<>(NodePages.BY_ID)).add(properties[id]);
+    }
+  }
+
+  /**
+   * @return the offset of the edges with the events applied, which is the provided offset if the events change nothing
+   */
+  private long applyEvents(long edgesOffset, Collection<NodeEdge.ModifyEvent> events) {
+    if (events.isEmpty()) {
+      return edgesOffset;
+    }
+    EdgeSet edges = edges(edgesOffset);
+    List<EdgeChange> changes = Lists.newArrayList();
+    for (NodeEdge.ModifyEvent event : events) {
+      if (event.getEventType() == NodeEdge.ModifyEvent.EventType.ADD) {
+        int leafId = intern(event.getNodeProperties());
+        int index = indexOf(edges, leafId);
+        if (index < 0 || edges.getModifyTime(index) < event.getModifyTime()) {
+          edges.add(leafId, event.getModifyTime());
+          changes.add(new EdgeChange(leafId, event.getModifyTime(), true));
+        }
+      } else {
+        Integer leafId = ids.get(event.getNodeProperties());
+        if (leafId != null && edges.remove(leafId, event.getModifyTime())) {
+          changes.add(new EdgeChange(leafId, event.getModifyTime(), false));
+        }
+      }
+    }
+    return appendChanges(edgesOffset, changes, edges);
+  }
+
+  /**
+   * Appends a record for each change to the chain of edges, or merges the chain into a new array once it would hold more changes than the array it starts from has leaves.
+   *
+   * @param edgesOffset the head of the chain
+   * @param changes the changes, which have not been written yet
+   * @param edges the leaves of the chain with the changes applied
+   * @return the new head of the chain
+   */
+  private long appendChanges(long edgesOffset, List<EdgeChange> changes, EdgeSet edges) {
+    if (changes.isEmpty()) {
+      return edgesOffset;
+    }
+    if (edges.size() == 0) {
+      return NO_EDGES;
+    }
+    int chainLength = 0;
+    int baseCount = 0;
+    if (edgesOffset != NO_EDGES) {
+      ByteBuffer head = edgeLog.read(edgesOffset);
+      chainLength = head.getInt(0) == DELTA ? head.getInt(DELTA_CHAIN_LENGTH) : 0;
+      baseCount = head.getInt(0) == DELTA ? head.getInt(DELTA_BASE_COUNT) : head.getInt(0);
+    }
+    if (chainLength + changes.size() > Math.max(MIN_MERGED_DELTAS, baseCount)) {
+      return appendEdges(edgeLog, edges);
+    }
+    long offset = edgesOffset;
+    for (EdgeChange change : changes) {
+      long previous = offset;
+      int length = ++chainLength;
+      int count = baseCount;
+      offset = append(edgeLog, DELTA_RECORD_SIZE, record -> record.putInt(DELTA).putInt(change.leafId).putLong(previous)
+          .putLong(change.modifyTime).putInt(change.added ? 1 : 0).putInt(length).putInt(count));
+    }
+    return offset;
+  }
+
+  private void remove0(NodeProperties nodeProperties) {
+    int id = idOf(nodeProperties);
+    if (id < 0) {
+      return;
+    }
+    ByteBuffer node = nodeLog.read(nodeOffsets[id]);
+    unlink(id, node.getLong(RELATIONSHIPS), false);
+    unlink(id, node.getLong(DEPENDENTS), true);
+
+    unindex(id);
+    accessTimeTracker.discard(nodeProperties);
+    supersede(id, NO_EDGES, NO_EDGES);
+    long offset = append(nodeLog, 5, record -> record.put(REMOVE).putInt(id));
+    garbage += nodeLog.frameSize(offset);
+    nodeOffsets[id] = ABSENT;
+  }
+
+  /**
+   * Removes the node from the opposite side of the edges of each of its stored leaves.
+   *
+   * @param relationships true to remove the node from the relationships of its leaves, which are its dependents
+   */
+  private void unlink(int id, long edgesOffset, boolean relationships) {
+    if (edgesOffset == NO_EDGES) {
+      return;
+    }
+    EdgeSet leaves = edges(edgesOffset);
+    for (int i = 0; i < leaves.size(); i++) {
+      int leafId = leaves.get(i);
+      if (leafId == id || nodeOffsets[leafId] == ABSENT) {
+        continue;
+      }
+      ByteBuffer leaf = nodeLog.read(nodeOffsets[leafId]);
+      long oppositeOffset = leaf.getLong(relationships ? RELATIONSHIPS : DEPENDENTS);
+      EdgeSet opposite = edges(oppositeOffset);
+      if (opposite.remove(id, Long.MAX_VALUE)) {
+        long newOffset = appendChanges(oppositeOffset, Collections.singletonList(new EdgeChange(id, Long.MAX_VALUE, false)), opposite);
+        store(leafId, leaf.getLong(LAST_ACCESS_TIME),
+            relationships ? newOffset : leaf.getLong(RELATIONSHIPS),
+            relationships ? leaf.getLong(DEPENDENTS) : newOffset);
+      }
+    }
+  }
+
+  private Map<NodeProperties, Node> getAll(Collection<NodeProperties> properties, boolean updateAccessTime) {
+    Map<NodeProperties, Node> nodes = Maps.newLinkedHashMap();
+    lock.readLock().lock();
+    try {
+      for (NodeProperties nodeProperties : properties) {
+        Node node = get0(nodeProperties, updateAccessTime);
+        if (node != null) {
+          nodes.put(nodeProperties, node);
+        }
+      }
+    } finally {
+      lock.readLock().unlock();
+    }
+    return nodes;
+  }
+
+  private Node get(NodeProperties nodeProperties, boolean updateAccessTime) {
+    lock.readLock().lock();
+    try {
+      return get0(nodeProperties, updateAccessTime);
+    } finally {
+      lock.readLock().unlock();
+    }
+  }
+
+  private Node get0(NodeProperties nodeProperties, boolean updateAccessTime) {
+    int id = idOf(nodeProperties);
+    if (id < 0) {
+      return null;
+    }
+    ByteBuffer node = nodeLog.read(nodeOffsets[id]);
+    NodeEdge nodeEdge = new NodeEdge(leaves(node.getLong(RELATIONSHIPS)), leaves(node.getLong(DEPENDENTS)));
+    long lastAccessTime;
+    if (updateAccessTime) {
+      lastAccessTime = System.currentTimeMillis();
+      accessTimeTracker.touch(nodeProperties, lastAccessTime);
+    } else {
+      lastAccessTime = accessTimeTracker.withPending(nodeProperties, node.getLong(LAST_ACCESS_TIME));
+    }
+    return new Node(nodeProperties, nodeEdge, lastAccessTime);
+  }
+
+  private Set<NodeProperties> leaves(long edgesOffset) {
+    if (edgesOffset == NO_EDGES) {
+      return Sets.newHashSet();
+    }
+    if (edgeLog.read(edgesOffset).getInt(0) == DELTA) {
+      EdgeSet edges = edges(edgesOffset);
+      Set<NodeProperties> leaves = Sets.newHashSetWithExpectedSize(edges.size());
+      for (int i = 0; i < edges.size(); i++) {
+        leaves.add(properties[edges.get(i)]);
+      }
+      return leaves;
+    }
+    IntBuffer leafIds = leafIds(edgesOffset);
+    Set<NodeProperties> leaves = Sets.newHashSetWithExpectedSize(leafIds.limit());
+    for (int i = 0; i < leafIds.limit(); i++) {
+      NodeProperties leaf = properties[leafIds.get(i)];
+      if (leaf != null) {
+        leaves.add(leaf);
+      }
+    }
+    return leaves;
+  }
+
+  /**
+   * An array of edges is stored as its count, padding to keep the modify times aligned, the modify times and then the leaf ids, in the order of the ids.
+   *
+   * @param edgesOffset the offset of an array of edges, rather than of a change to one
+   * @return a view of the leaf ids of the edges, read in place from the mapped file
+   */
+  private IntBuffer leafIds(long edgesOffset) {
+    ByteBuffer record = edgeLog.read(edgesOffset);
+    int count = record.getInt(0);
+    record.position(8 + count * 8);
+    return record.slice().asIntBuffer();
+  }
+
+  private EdgeSet edges(long edgesOffset) {
+    return edges(edgeLog, edgesOffset);
+  }
+
+  /**
+   * Reads a chain of edges, applying the changes to each leaf in the order they were made, starting from the state of the leaf in the array that the chain starts from.
+   */
+  private EdgeSet edges(MappedLog log, long edgesOffset) {
+    List<ByteBuffer> deltas = Lists.newArrayList();
+    long offset = edgesOffset;
+    ByteBuffer base = null;
+    while (offset != NO_EDGES) {
+      ByteBuffer record = log.read(offset);
+      if (record.getInt(0) != DELTA) {
+        base = record;
+        break;
+      }
+      deltas.add(record);
+      offset = record.getLong(DELTA_PREVIOUS);
+    }
+    int count = base != null ? base.getInt(0) : 0;
+
+    // the latest modify time of each changed leaf, or null if it was removed
+    NavigableMap<Integer, Long> changed = Maps.newTreeMap();
+    for (int d = deltas.size() - 1; d >= 0; d--) {
+      ByteBuffer delta = deltas.get(d);
+      int leafId = delta.getInt(DELTA_LEAF);
+      long modifyTime = delta.getLong(DELTA_MODIFY_TIME);
+      if (!changed.containsKey(leafId)) {
+        int index = indexOf(base, count, leafId);
+        changed.put(leafId, index < 0 ? null : base.getLong(8 + index * 8));
+      }
+      Long current = changed.get(leafId);
+      if (delta.getInt(DELTA_ADDED) == 1) {
+        changed.put(leafId, current == null ? modifyTime : Math.max(current, modifyTime));
+      } else if (current != null && current <= modifyTime) {
+        changed.put(leafId, null);
+      }
+    }
+
+    EdgeSet edges = new EdgeSet();
+    int i = 0;
+    for (Map.Entry<Integer, Long> change : changed.entrySet()) {
+      for (; i < count && base.getInt(8 + count * 8 + i * 4) < change.getKey(); i++) {
+        edges.add(base.getInt(8 + count * 8 + i * 4), base.getLong(8 + i * 8));
+      }
+      if (i < count && base.getInt(8 + count * 8 + i * 4) == change.getKey()) {
+        i++;
+      }
+      if (change.getValue() != null) {
+        edges.add(change.getKey(), change.getValue());
+      }
+    }
+    for (; i < count; i++) {
+      edges.add(base.getInt(8 + count * 8 + i * 4), base.getLong(8 + i * 8));
+    }
+    return edges;
+  }
+
+  private long appendEdges(MappedLog log, EdgeSet edges) {
+    int count = edges.size();
+    if (count == 0) {
+      return NO_EDGES;
+    }
+    return append(log, 8 + count * 12, record -> {
+      record.putInt(count).putInt(0);
+      for (int i = 0; i < count; i++) {
+        record.putLong(edges.getModifyTime(i));
+      }
+      for (int i = 0; i < count; i++) {
+        record.putInt(edges.get(i));
+      }
+    });
+  }
+
+  private static int indexOf(EdgeSet edges, int id) {
+    int low = 0;
+    int high = edges.size() - 1;
+    while (low <= high) {
+      int mid = (low + high) >>> 1;
+      int midId = edges.get(mid);
+      if (midId < id) {
+        low = mid + 1;
+      } else if (midId > id) {
+        high = mid - 1;
+      } else {
+        return mid;
+      }
+    }
+    return -1;
+  }
+
+  /**
+   * @return the position of the leaf in an array of edges, or -1 if it is not there
+   */
+  private static int indexOf(ByteBuffer edges, int count, int id) {
+    int low = 0;
+    int high = count - 1;
+    while (low <= high) {
+      int mid = (low + high) >>> 1;
+      int midId = edges.getInt(8 + count * 8 + mid * 4);
+      if (midId < id) {
+        low = mid + 1;
+      } else if (midId > id) {
+        high = mid - 1;
+      } else {
+        return mid;
+      }
+    }
+    return -1;
+  }
+
+  /**
+   * Appends a new record for the node, superseding its previous record.
+   */
+  private void store(int id, long lastAccessTime, long relationships, long dependents) {
+    supersede(id, relationships, dependents);
+    nodeOffsets[id] = appendNode(nodeLog, id, lastAccessTime, relationships, dependents);
+  }
+
+  private long appendNode(MappedLog log, int id, long lastAccessTime, long relationships, long dependents) {
+    return append(log, NODE_RECORD_SIZE, record -> record.put(NODE).putInt(id).putLong(lastAccessTime).putLong(relationships).putLong(dependents));
+  }
+
+  private void appendSymbol(MappedLog log, int id, NodeProperties nodeProperties) {
+    NodeClassifier classifier = nodeProperties.getClassifier();
+    int length = 5 + MappedLog.stringSize(classifier.getType()) + MappedLog.stringSize(classifier.getCategory()) + MappedLog.stringSize(nodeProperties.getId());
+    append(log, length, record -> {
+      record.put(SYMBOL).putInt(id);
+      MappedLog.putString(record, classifier.getType());
+      MappedLog.putString(record, classifier.getCategory());
+      MappedLog.putString(record, nodeProperties.getId());
+    });
+  }
+
+  /**
+   * Counts the previous record of the node as garbage, along with any of its chains of edges that the new record does not continue.
+   */
+  private void supersede(int id, long relationships, long dependents) {
+    long offset = nodeOffsets[id];
+    if (offset == ABSENT) {
+      return;
+    }
+    ByteBuffer previous = nodeLog.read(offset);
+    garbage += nodeLog.frameSize(offset);
+    garbage += supersededEdges(previous.getLong(RELATIONSHIPS), relationships);
+    garbage += supersededEdges(previous.getLong(DEPENDENTS), dependents);
+  }
+
+  /**
+   * @return the number of bytes of the previous chain of edges, unless the current chain continues it
+   */
+  private long supersededEdges(long previous, long current) {
+    if (previous == NO_EDGES) {
+      return 0;
+    }
+    long offset = current;
+    while (offset > previous && edgeLog.read(offset).getInt(0) == DELTA) {
+      offset = edgeLog.read(offset).getLong(DELTA_PREVIOUS);
+    }
+    if (offset == previous) {
+      return 0;
+    }
+    long size = 0;
+    for (offset = previous; offset != NO_EDGES; ) {
+      ByteBuffer record = edgeLog.read(offset);
+      size += edgeLog.frameSize(offset);
+      offset = record.getInt(0) == DELTA ? record.getLong(DELTA_PREVIOUS) : NO_EDGES;
+    }
+    return size;
+  }
+
+  /**
+   * Applies a node record that is replayed when the repository starts.
+   */
+  private void restore(int id, long offset) {
+    ByteBuffer node = nodeLog.read(offset);
+    Long previousLastAccessTime = nodeOffsets[id] == ABSENT ? null : lastAccessTime(id);
+    supersede(id, node.getLong(RELATIONSHIPS), node.getLong(DEPENDENTS));
+    nodeOffsets[id] = offset;
+    if (previousLastAccessTime == null) {
+      classifiers.computeIfAbsent(properties[id].getClassifier(), c -> new TreeSet<>(NodePages.BY_ID)).add(properties[id]);
+    }
+    accessTimeIndex.update(properties[id], previousLastAccessTime, node.getLong(LAST_ACCESS_TIME));
+  }
+
+  private void unindex(int id) {
+    Set<NodeProperties> classified = classifiers.get(properties[id].getClassifier());
+    if (classified != null) {
+      classified.remove(properties[id]);
+    }
+    accessTimeIndex.remove(properties[id], lastAccessTime(id));
+  }
+
+  private long lastAccessTime(int id) {
+    return nodeLog.read(nodeOffsets[id]).getLong(LAST_ACCESS_TIME);
+  }
+
+  /**
+   * @return the id of the stored node, or -1 if the node is not stored
+   */
+  private int idOf(NodeProperties nodeProperties) {
+    Integer id = ids.get(nodeProperties);
+    return id != null && nodeOffsets[id] != ABSENT ? id : -1;
+  }
+
+  private int intern(NodeProperties nodeProperties) {
+    Integer existing = ids.get(nodeProperties);
+    if (existing != null) {
+      return existing;
+    }
+    int id = nextId;
+    NodeProperties canonical = nodeProperties.intern();
+    appendSymbol(nodeLog, id, canonical);
+    register(id, canonical);
+    return id;
+  }
+
+  private void register(int id, NodeProperties nodeProperties) {
+    if (id >= properties.length) {
+      int capacity = Math.max(id + 1, properties.length + (properties.length >> 1));
+      long[] offsets = absentOffsets(capacity);
+      System.arraycopy(nodeOffsets, 0, offsets, 0, nodeOffsets.length);
+      nodeOffsets = offsets;
+      properties = Arrays.copyOf(properties, capacity);
+    }
+    properties[id] = nodeProperties;
+    ids.put(nodeProperties, id);
+    nextId = Math.max(nextId, id + 1);
+  }
+
+  private static long[] absentOffsets(int capacity) {
+    long[] offsets = new long[capacity];
+    Arrays.fill(offsets, ABSENT);
+    return offsets;
+  }
+
+  /**
+   * A leaf that was added to or removed from an edge, which is appended to the chain of the edge.
+   */
+  private static class EdgeChange {
+    private final int leafId;
+    private final long modifyTime;
+    private final boolean added;
+
+    private EdgeChange(int leafId, long modifyTime, boolean added) {
+      this.leafId = leafId;
+      this.modifyTime = modifyTime;
+      this.added = added;
+    }
+  }
+
+  /**
+   * The logs of the next generation, which the nodes are copied into with new ids and with every chain of edges merged into an array.
+   * Every record of the current node log up to {@code replayFrom} has been copied, and the records that follow it are replayed once the write lock is held.
+   */
+  private class NextGeneration implements Compaction {
+    private final MappedLog newNodeLog;
+    private final MappedLog newEdgeLog;
+    private final long replayFrom;
+    private int[] newIds = new int[0];
+    private NodeProperties[] newProperties = new NodeProperties[16];
+    private long[] newNodeOffsets = absentOffsets(16);
+    private int count;
+    private long newGarbage;
+
+    private NextGeneration(MappedLog newNodeLog, MappedLog newEdgeLog, long replayFrom) {
+      this.newNodeLog = newNodeLog;
+      this.newEdgeLog = newEdgeLog;
+      this.replayFrom = replayFrom;
+    }
+
+    @Override
+    public void replayAndSwitch() throws IOException {
+      try {
+        nodeLog.forEach(replayFrom, (offset, body) -> {
+          // symbols are copied once a node refers to them
+          if (body.get(0) == NODE) {
+            copyNode(body.getInt(1), offset);
+          } else if (body.get(0) == REMOVE) {
+            removeNode(body.getInt(1));
+          }
+        });
+        newNodeLog.force();
+        newEdgeLog.force();
+      } catch (IOException | RuntimeException e) {
+        newNodeLog.close();
+        newEdgeLog.close();
+        throw e;
+      }
+
+      close();
+      nodeLog = newNodeLog;
+      edgeLog = newEdgeLog;
+      ids.clear();
+      for (int id = 0; id < count; id++) {
+        ids.put(newProperties[id], id);
+      }
+      properties = newProperties;
+      nodeOffsets = newNodeOffsets;
+      nextId = count;
+      garbage = newGarbage;
+    }
+
+    /**
+     * @return the id of the node in the next generation, which is assigned the first time that it is asked for
+     */
+    private int idOf(int id) {
+      if (id >= newIds.length) {
+        int length = newIds.length;
+        newIds = Arrays.copyOf(newIds, Math.max(id + 1, nextId));
+        Arrays.fill(newIds, length, newIds.length, -1);
+      }
+      if (newIds[id] < 0) {
+        int newId = count++;
+        if (newId == newProperties.length) {
+          newProperties = Arrays.copyOf(newProperties, newId + (newId >> 1));
+          long[] offsets = absentOffsets(newProperties.length);
+          System.arraycopy(newNodeOffsets, 0, offsets, 0, newId);
+          newNodeOffsets = offsets;
+        }
+        newProperties[newId] = properties[id];
+        appendSymbol(newNodeLog, newId, properties[id]);
+        newIds[id] = newId;
+      }
+      return newIds[id];
+    }
+
+    private void copyNode(int id, long offset) {
+      ByteBuffer node = nodeLog.read(offset);
+      int newId = idOf(id);
+      long relationships = copyEdges(node.getLong(RELATIONSHIPS));
+      long dependents = copyEdges(node.getLong(DEPENDENTS));
+      supersede(newId);
+      newNodeOffsets[newId] = appendNode(newNodeLog, newId, node.getLong(LAST_ACCESS_TIME), relationships, dependents);
+    }
+
+    private void removeNode(int id) {
+      if (id >= newIds.length || newIds[id] < 0 || newNodeOffsets[newIds[id]] == ABSENT) {
+        return;
+      }
+      int newId = newIds[id];
+      supersede(newId);
+      newGarbage += newNodeLog.frameSize(append(newNodeLog, 5, record -> record.put(REMOVE).putInt(newId)));
+      newNodeOffsets[newId] = ABSENT;
+    }
+
+    /**
+     * Merges a chain of edges of the current generation into an array of the ids of the next generation.
+     */
+    private long copyEdges(long edgesOffset) {
+      EdgeSet edges = edges(edgesOffset);
+      long[] leaves = new long[edges.size()];
+      for (int i = 0; i < edges.size(); i++) {
+        leaves[i] = (long) idOf(edges.get(i)) << 32 | i;
+      }
+      // adding the leaves in the order of their new ids keeps each addition at the end of the array
+      Arrays.sort(leaves);
+      EdgeSet copied = new EdgeSet();
+      for (long leaf : leaves) {
+        copied.add((int) (leaf >>> 32), edges.getModifyTime((int) leaf));
+      }
+      return appendEdges(newEdgeLog, copied);
+    }
+
+    private void supersede(int newId) {
+      long offset = newNodeOffsets[newId];
+      if (offset == ABSENT) {
+        return;
+      }
+      ByteBuffer previous = newNodeLog.read(offset);
+      newGarbage += newNodeLog.frameSize(offset);
+      for (long edgesOffset : new long[]{previous.getLong(RELATIONSHIPS), previous.getLong(DEPENDENTS)}) {
+        if (edgesOffset != NO_EDGES) {
+          newGarbage += newEdgeLog.frameSize(edgesOffset);
+        }
+      }
+    }
+  }
+}
@@ -0,0 +1,254 @@
+package com.danveloper.ratpack.graph.mmap;
+
+import com.google.common.base.Charsets;
+import ratpack.exec.Blocking;
+import ratpack.exec.ExecController;
+import ratpack.exec.Operation;
+import ratpack.service.Service;
+import ratpack.service.StartEvent;
+import ratpack.service.StopEvent;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.List;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Consumer;
+
+/**
+ * The lifecycle of a store that is kept in {@link MappedLog}s.
+ * <p>
+ * The logs of a store belong to a generation, which is recorded in a file of its own, and compaction rewrites the live records of every log into the next generation before switching the generation file over to it.
+ * The live records are copied under the read lock, so reads carry on while they are copied, and the write lock is only held to copy the records that were appended in the meantime and switch the store over.
+ * If the process stops while compacting, the store is opened at the generation it was compacting from, and the partial files of the next generation are deleted.
+ * <p>
+ * Writes reach the operating system as soon as they are made, so they survive the process crashing, but they are only forced to the storage device when the store is compacted or stopped.
+ */
+public abstract class MmapSupport implements Service {
+  protected final MmapGraphModule.Config config;
+  protected final ReadWriteLock lock = new ReentrantReadWriteLock();
+  private final String name;
+  private final AtomicBoolean compacting = new AtomicBoolean();
+  private final Object compaction = new Object();
+  private ScheduledFuture<?> compactionTick;
+  private Path directory;
+  private int generation;
+
+  /**
+   * @param config the configuration of the files
+   * @param name the name of the store, which prefixes the names of its files
+   */
+  protected MmapSupport(MmapGraphModule.Config config, String name) {
+    this.config = config;
+    this.name = name;
+  }
+
+  @Override
+  public void onStart(StartEvent e) {
+    if (config.getDirectory() == null) {
+      throw new IllegalStateException("The directory of the memory-mapped graph must be configured");
+    }
+    directory = Paths.get(config.getDirectory());
+    lock.writeLock().lock();
+    try {
+      Files.createDirectories(directory);
+      Path generationFile = directory.resolve(name + ".generation");
+      generation = Files.exists(generationFile) ? Integer.parseInt(new String(Files.readAllBytes(generationFile), Charsets.UTF_8).trim()) : 0;
+      deleteOtherGenerations();
+      open(generation);
+    } catch (IOException ex) {
+      throw new RuntimeException("Failed to open the " + name + " files in " + directory, ex);
+    } finally {
+      lock.writeLock().unlock();
+    }
+
+    ExecController.current().ifPresent(execController -> {
+      long compactionInterval = config.getCompactionInterval().toMillis();
+      compactionTick = execController.getExecutor().scheduleWithFixedDelay(() -> {
+        if (getGarbageRatio() >= config.getCompactionThreshold() && compacting.compareAndSet(false, true)) {
+          execController.fork()
+              .onComplete(execution -> compacting.set(false))
+              .start(execution -> compact().then());
+        }
+      }, compactionInterval, compactionInterval, TimeUnit.MILLISECONDS);
+    });
+  }
+
+  @Override
+  public void onStop(StopEvent e) {
+    if (compactionTick != null) {
+      compactionTick.cancel(false);
+    }
+    lock.writeLock().lock();
+    try {
+      close();
+    } catch (IOException ex) {
+      throw new RuntimeException("Failed to close the " + name + " files in " + directory, ex);
+    } finally {
+      lock.writeLock().unlock();
+    }
+  }
+
+  /**
+   * Rewrites the live records of the store into new files, and deletes the old ones.
+   * Writes wait while the live records are copied, but reads do not, and both only wait for the records that were appended since to be copied before the store switches over to the new files.
+   *
+   * @return an operation that compacts the store on a blocking thread
+   */
+  public Operation compact() {
+    return Blocking.get(() -> {
+      compact0();
+      return true;
+    }).operation();
+  }
+
+  /**
+   * @return the fraction of the bytes of the files that belong to superseded records
+   */
+  public double getGarbageRatio() {
+    lock.readLock().lock();
+    try {
+      long size = getSize();
+      return size == 0 ? 0 : (double) getGarbage() / size;
+    } finally {
+      lock.readLock().unlock();
+    }
+  }
+
+  private void compact0() throws IOException {
+    // a scheduled compaction and a requested one must not write the same generation at once
+    synchronized (compaction) {
+      int next = generation + 1;
+      Compaction copied;
+      lock.readLock().lock();
+      try {
+        for (String log : getLogNames()) {
+          Files.deleteIfExists(file(log, next));
+        }
+        copied = copy(next);
+      } finally {
+        lock.readLock().unlock();
+      }
+      lock.writeLock().lock();
+      try {
+        copied.replayAndSwitch();
+        switchGeneration(next);
+      } finally {
+        lock.writeLock().unlock();
+      }
+    }
+  }
+
+  /**
+   * Records the provided generation as the one to open the store at, and deletes the files of the others.
+   * Called with the write lock held, once the store has switched over to the logs of that generation.
+   */
+  void switchGeneration(int next) throws IOException {
+    Path generationFile = directory.resolve(name + ".generation");
+    Path tmp = directory.resolve(name + ".generation.tmp");
+    Files.write(tmp, Integer.toString(next).getBytes(Charsets.UTF_8));
+    Files.move(tmp, generationFile, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+    generation = next;
+    deleteOtherGenerations();
+  }
+
+  private void deleteOtherGenerations() throws IOException {
+    for (String log : getLogNames()) {
+      try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, name + "-" + log + ".*.log")) {
+        for (Path file : files) {
+          if (!file.equals(file(log, generation))) {
+            Files.delete(file);
+          }
+        }
+      }
+    }
+  }
+
+  /**
+   * Opens a log of the store.
+   *
+   * @param log the name of the log
+   * @param generation the generation of the log
+   * @return the opened log
+   * @throws IOException if the log cannot be opened
+   */
+  MappedLog openLog(String log, int generation) throws IOException {
+    return MappedLog.open(file(log, generation), config.getSegmentSize());
+  }
+
+  /**
+   * Appends a record to a log of the store.
+   *
+   * @param log the log to append to
+   * @param length the length of the record
+   * @param writer writes the record in place
+   * @return the offset of the record
+   */
+  long append(MappedLog log, int length, Consumer<ByteBuffer> writer) {
+    try {
+      return log.append(length, writer);
+    } catch (IOException e) {
+      throw new RuntimeException("Failed to append to " + log.getFile(), e);
+    }
+  }
+
+  private Path file(String log, int generation) {
+    return directory.resolve(String.format("%s-%s.%d.log", name, log, generation));
+  }
+
+  /**
+   * @return the names of the logs of the store
+   */
+  abstract List<String> getLogNames();
+
+  /**
+   * Opens the logs of the provided generation and rebuilds the state of the store from them.
+   * Called with the write lock held.
+   */
+  abstract void open(int generation) throws IOException;
+
+  /**
+   * Writes the live records of the store into the logs of the provided generation, as of the records that have been appended so far.
+   * If this fails, the logs of the provided generation must be closed.
+   * Called with the read lock held, so it must not change the store.
+   *
+   * @return the compaction, which is completed once the write lock is held
+   */
+  abstract Compaction copy(int generation) throws IOException;
+
+  /**
+   * Forces and closes the logs of the store.
+   * Called with the write lock held.
+   */
+  abstract void close() throws IOException;
+
+  /**
+   * @return the number of bytes of the logs that belong to superseded records
+   */
+  abstract long getGarbage();
+
+  /**
+   * @return the number of bytes of the logs
+   */
+  abstract long getSize();
+
+  /**
+   * The logs of the next generation of a store, into which the live records have been copied.
+   */
+  interface Compaction {
+    /**
+     * Copies the records that were appended to the store after its live records were copied, and switches the store over to the logs of the next generation.
+     * If this fails, the logs of the next generation must be closed, and the store must keep using the logs that it had.
+     * Called with the write lock held.
+     */
+    void replayAndSwitch() throws IOException;
+  }
+}
@@ -0,0 +1,90 @@
+package com.danveloper.ratpack.graph.mmap
+
+import com.danveloper.ratpack.graph.NodeDataRepositorySpec
+import com.danveloper.ratpack.graph.NodeProperties
+import com.fasterxml.jackson.databind.ObjectMapper
+import ratpack.registry.Registry
+import ratpack.service.internal.DefaultEvent
+
+import java.nio.file.Files
+
+class MmapNodeDataRepositorySpec extends NodeDataRepositorySpec {
+
+  def directory = Files.createTempDirectory("ratpack-graph")
+  def config = new MmapGraphModule.Config(directory.toString())
+
+  def setup() {
+    repo = start()
+  }
+
+  def cleanup() {
+    repo.onStop(new DefaultEvent(Registry.empty(), false))
+    directory.toFile().deleteDir()
+  }
+
+  MmapNodeDataRepository start() {
+    def repo = new MmapNodeDataRepository(config, new ObjectMapper())
+    repo.onStart(new DefaultEvent(Registry.empty(), false))
+    repo
+  }
+
+  void "should keep data across a restart and compaction"() {
+    setup:
+    def props = (1..3).collect { new NodeProperties("id$it", PROPS.classifier) }
+    execControl.executeSingle { repo.saveAll([(props[0]): [foo: "bar"], (props[1]): new TestData(foo: "baz"), (props[2]): [foo: "qux"]]) }
+    execControl.executeSingle { repo.save(props[0], [foo: "updated"]) }
+    execControl.executeSingle { repo.remove(props[2]) }
+
+    when:
+    repo.onStop(new DefaultEvent(Registry.empty(), false))
+    repo = start()
+
+    then:
+    repo.garbageRatio > 0
+    execControl.yieldSingle { repo.<Map>get(props[0]) }.valueOrThrow == [foo: "updated"]
+    execControl.yieldSingle { repo.<TestData>get(props[1]) }.valueOrThrow.foo == "baz"
+    !execControl.yieldSingle { repo.get(props[2]) }.valueOrThrow
+
+    when:
+    execControl.executeSingle { repo.compact() }
+    repo.onStop(new DefaultEvent(Registry.empty(), false))
+    repo = start()
+
+    then:
+    repo.garbageRatio == 0
+    execControl.yieldSingle { repo.<Map>getAll(props) }.valueOrThrow == [(props[0]): [foo: "updated"], (props[1]): new TestData(foo: "baz")]
+  }
+
+  void "compaction should keep the data that was written while the live records were copied"() {
+    setup:
+    def props = (1..3).collect { new NodeProperties("id$it", PROPS.classifier) }
+    execControl.executeSingle { repo.saveAll([(props[0]): [foo: "bar"], (props[1]): [foo: "baz"]]) }
+
+    when: "data is written after the copy, before the write lock is taken to switch generations"
+    def compaction = repo.copy(1)
+    execControl.executeSingle { repo.save(props[0], [foo: "updated"]) }
+    execControl.executeSingle { repo.remove(props[1]) }
+    execControl.executeSingle { repo.save(props[2], [foo: "added"]) }
+    compaction.replayAndSwitch()
+    repo.switchGeneration(1)
+    repo.onStop(new DefaultEvent(Registry.empty(), false))
+    repo = start()
+
+    then:
+    execControl.yieldSingle { repo.<Map>getAll(props) }.valueOrThrow == [(props[0]): [foo: "updated"], (props[2]): [foo: "added"]]
+  }
+
+  static class TestData {
+    String foo
+
+    @Override
+    boolean equals(Object o) {
+      o instanceof TestData && o.foo == foo
+    }
+
+    @Override
+    int hashCode() {
+      foo.hashCode()
+    }
+  }
+}
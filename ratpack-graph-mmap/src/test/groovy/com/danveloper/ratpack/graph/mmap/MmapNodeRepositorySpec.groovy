@@ -0,0 +1,195 @@
+package com.danveloper.ratpack.graph.mmap
+
+import com.danveloper.ratpack.graph.Node
+import com.danveloper.ratpack.graph.NodeProperties
+import com.danveloper.ratpack.graph.NodeRepository
+import com.danveloper.ratpack.graph.NodeRepositorySpec
+import ratpack.registry.Registry
+import ratpack.service.internal.DefaultEvent
+
+import java.nio.file.Files
+
+class MmapNodeRepositorySpec extends NodeRepositorySpec {
+
+  def directory = Files.createTempDirectory("ratpack-graph")
+  def config = new MmapGraphModule.Config(directory.toString())
+
+  @Override
+  NodeRepository createRepository() {
+    new MmapNodeRepository(config)
+  }
+
+  def cleanup() {
+    repo.onStop(new DefaultEvent(Registry.empty(), false))
+    directory.toFile().deleteDir()
+  }
+
+  void "getting a node should buffer its access time instead of writing the node back"() {
+    setup:
+    def storedAccessTime = execControl.yieldSingle { repo.getOrCreate(PROPS) }.valueOrThrow.lastAccessTime
+    def id = repo.ids[PROPS]
+    def stored = repo.nodeLog.read(repo.nodeOffsets[id])
+    repo.store(id, 1L, stored.getLong(MmapNodeRepository.RELATIONSHIPS), stored.getLong(MmapNodeRepository.DEPENDENTS))
+
+    when:
+    def accessTime = execControl.yieldSingle { repo.get(PROPS) }.valueOrThrow.lastAccessTime
+
+    then:
+    accessTime >= storedAccessTime
+    repo.lastAccessTime(id) == 1L
+    execControl.yieldSingle { repo.read(PROPS) }.valueOrThrow.lastAccessTime == accessTime
+
+    when:
+    execControl.executeSingle { repo.expireAll(TEST_GEN, Long.MAX_VALUE) }
+
+    then:
+    repo.lastAccessTime(id) == accessTime
+  }
+
+  void "should keep nodes, edges and access times across a restart"() {
+    setup:
+    def node1 = new Node(new NodeProperties("id1", TEST_GEN))
+    def node2 = new Node(new NodeProperties("id2", TEST_GEN))
+    def dangling = new NodeProperties("dangling", TEST_GEN)
+    node1.edge.addDependent(dangling)
+    execControl.executeSingle { repo.relate(node1, node2) }
+    def accessTime = execControl.yieldSingle { repo.get(node1.properties) }.valueOrThrow.lastAccessTime
+
+    when:
+    repo.onStop(new DefaultEvent(Registry.empty(), false))
+    repo = createRepository()
+    execControl.run { repo.onStart(new DefaultEvent(Registry.empty(), false)) }
+
+    and:
+    def restored = execControl.yieldSingle { repo.read(node1.properties) }.valueOrThrow
+
+    then:
+    restored.edge.relationships() == [node2.properties] as Set
+    restored.edge.dependents() == [dangling] as Set
+    restored.lastAccessTime == accessTime
+    execControl.yieldSingle { repo.read(node2.properties) }.valueOrThrow.edge.dependents() == [node1.properties] as Set
+    execControl.yieldSingle { repo.lookup(TEST_GEN) }.valueOrThrow == [node1.properties, node2.properties] as Set
+  }
+
+  void "should ignore a record that was only partly written when the process stopped"() {
+    setup:
+    def props = new NodeProperties("id1", TEST_GEN)
+    execControl.executeSingle { repo.save(new Node(props)) }
+    def nodeLog = repo.nodeLog
+    def end = nodeLog.size()
+    execControl.executeSingle { repo.save(new Node(new NodeProperties("id2", TEST_GEN))) }
+
+    when: "the process stops before the checksum of the last record is written"
+    nodeLog.segments[0].putInt((int) end + 4, 0)
+    repo.onStop(new DefaultEvent(Registry.empty(), false))
+    repo = createRepository()
+    execControl.run { repo.onStart(new DefaultEvent(Registry.empty(), false)) }
+
+    then:
+    execControl.yieldSingle { repo.lookup(TEST_GEN) }.valueOrThrow == [props] as Set
+
+    when:
+    execControl.executeSingle { repo.save(new Node(new NodeProperties("id3", TEST_GEN))) }
+
+    then:
+    execControl.yieldSingle { repo.lookup(TEST_GEN) }.valueOrThrow.size() == 2
+  }
+
+  void "compaction should drop superseded records and renumber ids, and survive a restart"() {
+    setup:
+    def node1 = new Node(new NodeProperties("id1", TEST_GEN))
+    def node2 = new Node(new NodeProperties("id2", TEST_GEN))
+    def removed = new Node(new NodeProperties("removed", TEST_GEN))
+    execControl.executeSingle { repo.relate(removed, node1) }
+    execControl.executeSingle { repo.relate(node1, node2) }
+    10.times { execControl.executeSingle { repo.save(node1) } }
+    execControl.executeSingle { repo.remove(removed.properties) }
+    def sizeBefore = repo.size
+
+    expect:
+    repo.garbageRatio > 0.5
+
+    when:
+    execControl.executeSingle { repo.compact() }
+
+    then:
+    repo.garbageRatio == 0
+    repo.size < sizeBefore
+    repo.nextId == 2
+    Files.list(directory).collect { it.fileName.toString() }.findAll { it.startsWith("graph-") }.sort() == ["graph-edges.1.log", "graph-nodes.1.log"]
+
+    when:
+    repo.onStop(new DefaultEvent(Registry.empty(), false))
+    repo = createRepository()
+    execControl.run { repo.onStart(new DefaultEvent(Registry.empty(), false)) }
+
+    then:
+    execControl.yieldSingle { repo.read(node1.properties) }.valueOrThrow.edge.relationships() == [node2.properties] as Set
+    execControl.yieldSingle { repo.read(node1.properties) }.valueOrThrow.edge.dependents().isEmpty()
+    execControl.yieldSingle { repo.read(node2.properties) }.valueOrThrow.edge.dependents() == [node1.properties] as Set
+    !execControl.yieldSingle { repo.read(removed.properties) }.valueOrThrow
+  }
+
+  void "relating a node to one leaf at a time should append a record per leaf rather than rewriting its edges"() {
+    setup:
+    def hub = new Node(new NodeProperties("hub", TEST_GEN))
+    def leaves = (0..<200).collect { new Node(new NodeProperties("leaf$it", TEST_GEN)) }
+
+    when:
+    leaves.each { leaf -> execControl.executeSingle { repo.relate(hub, leaf) } }
+
+    then: "rewriting the relationships of the hub on every relate would append about 240KB of arrays"
+    repo.edgeLog.size() < 64 * 1024
+    execControl.yieldSingle { repo.read(hub.properties) }.valueOrThrow.edge.relationships() == leaves*.properties as Set
+
+    when:
+    execControl.executeSingle { repo.remove(leaves[0].properties) }
+    repo.onStop(new DefaultEvent(Registry.empty(), false))
+    repo = createRepository()
+    execControl.run { repo.onStart(new DefaultEvent(Registry.empty(), false)) }
+
+    then:
+    execControl.yieldSingle { repo.read(hub.properties) }.valueOrThrow.edge.relationships() == leaves.drop(1)*.properties as Set
+    execControl.yieldSingle { repo.read(leaves[1].properties) }.valueOrThrow.edge.dependents() == [hub.properties] as Set
+
+    when:
+    execControl.executeSingle { repo.compact() }
+
+    then:
+    execControl.yieldSingle { repo.read(hub.properties) }.valueOrThrow.edge.relationships() == leaves.drop(1)*.properties as Set
+  }
+
+  void "compaction should keep the writes that were made while the live records were copied"() {
+    setup:
+    def node1 = new Node(new NodeProperties("id1", TEST_GEN))
+    def node2 = new Node(new NodeProperties("id2", TEST_GEN))
+    def node3 = new Node(new NodeProperties("id3", TEST_GEN))
+    def added = new NodeProperties("added", TEST_GEN)
+    execControl.executeSingle { repo.relate(node1, node2) }
+    5.times { execControl.executeSingle { repo.save(node1) } }
+
+    when: "nodes are written after the copy, before the write lock is taken to switch generations"
+    def compaction = repo.copy(1)
+    execControl.executeSingle { repo.relate(node1, node3) }
+    execControl.executeSingle { repo.remove(node2.properties) }
+    execControl.executeSingle { repo.save(new Node(added)) }
+    compaction.replayAndSwitch()
+    repo.switchGeneration(1)
+
+    then:
+    execControl.yieldSingle { repo.read(node1.properties) }.valueOrThrow.edge.relationships() == [node3.properties] as Set
+    !execControl.yieldSingle { repo.read(node2.properties) }.valueOrThrow
+    execControl.yieldSingle { repo.lookup(TEST_GEN) }.valueOrThrow == [node1.properties, node3.properties, added] as Set
+
+    when:
+    repo.onStop(new DefaultEvent(Registry.empty(), false))
+    repo = createRepository()
+    execControl.run { repo.onStart(new DefaultEvent(Registry.empty(), false)) }
+
+    then:
+    execControl.yieldSingle { repo.read(node1.properties) }.valueOrThrow.edge.relationships() == [node3.properties] as Set
+    execControl.yieldSingle { repo.read(node3.properties) }.valueOrThrow.edge.dependents() == [node1.properties] as Set
+    !execControl.yieldSingle { repo.read(node2.properties) }.valueOrThrow
+    execControl.yieldSingle { repo.lookup(TEST_GEN) }.valueOrThrow == [node1.properties, node3.properties, added] as Set
+  }
+}
@@ -0,0 +1,186 @@
+package com.danveloper.ratpack.graph.redis;
+
+import com.google.common.collect.Lists;
+import com.lambdaworks.redis.ScanCursor;
+import com.lambdaworks.redis.ScriptOutputType;
+import ratpack.exec.Execution;
+import ratpack.exec.Promise;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Function;
+
+/**
+ * Moves the nodes and node data that are stored in {@code node:all} and {@code data:all} into {@link RedisGraphModule.Config#getBuckets() buckets}, and reports how many of the buckets Redis keeps in its compact encoding.
+ * Like the repositories, the migration must be started with {@link #onStart} before it is used, and it must run while no application instance is using the Redis server.
+ * It can be run again if it is interrupted, as nodes and data that have already been moved are no longer in {@code node:all} and {@code data:all}.
+ */
+public class BucketMigration extends RedisSupport {
+  private static final RedisScript BUCKET_SCRIPT = RedisScript.load("bucket.lua");
+  private static final RedisScript MOVE_SCRIPT = RedisScript.load("move.lua");
+  private static final RedisKeys UNTAGGED_KEYS = RedisKeys.untagged();
+  private static final int SCAN_COUNT = 100;
+
+  /**
+   * @param config the Redis configuration, which must have more than one bucket, and must be for a single Redis server rather than a cluster
+   */
+  public BucketMigration(RedisGraphModule.Config config) {
+    super(config);
+    if (!keys.isTagged()) {
+      throw new IllegalArgumentException("More than one bucket must be configured to migrate to buckets");
+    }
+    if (!config.getClusterNodes().isEmpty()) {
+      throw new IllegalArgumentException("Nodes can only be migrated to buckets on a single Redis server, before it is moved to a cluster");
+    }
+  }
+
+  @Override
+  protected List<RedisScript> getScripts() {
+    return Lists.newArrayList(BUCKET_SCRIPT, MOVE_SCRIPT);
+  }
+
+  /**
+   * The scripts of the migration read {@code node:all} and write to the buckets, which are in different cluster slots, so it only runs on a single Redis server.
+   */
+  @Override
+  protected boolean isSingleSlotRequired() {
+    return false;
+  }
+
+  /**
+   * Moves every node in {@code node:all} and every object in {@code data:all}, along with the classifier codes of {@link RedisGraphModule.Config#isCompactIds() compact ids}.
+   *
+   * @return a promise to the report of the migration
+   */
+  public Promise<Report> migrate() {
+    return rename("classifier:codes", keys.classifierCodes()).flatMap(codes ->
+        rename("classifier:names", keys.classifierNames()).flatMap(names ->
+            migrateNodes(ScanCursor.of("0"), 0).flatMap(nodes ->
+                migrateData(ScanCursor.of("0"), 0).flatMap(data ->
+                    countCompact(keys::nodes).flatMap(compactNodeBuckets ->
+                        countCompact(keys::data).map(compactDataBuckets ->
+                            new Report(nodes, data, keys.buckets().size(), compactNodeBuckets, compactDataBuckets)
+                        )
+                    )
+                )
+            )
+        )
+    );
+  }
+
+  private Promise<Integer> migrateNodes(ScanCursor cursor, int migrated) {
+    return hscan("node:all", cursor, SCAN_COUNT).flatMap(scan -> {
+      Promise<Integer> batch = Promise.value(0);
+      for (Map.Entry<Integer, List<String>> bucket : keys.byBucket(scan.getMap().keySet(), id -> id).entrySet()) {
+        List<String> bucketKeys = Lists.newArrayListWithCapacity(2 + bucket.getValue().size() * 8);
+        bucketKeys.add("node:all");
+        bucketKeys.add(keys.nodes(bucket.getKey()));
+        bucket.getValue().forEach(compositeId -> {
+          bucketKeys.addAll(UNTAGGED_KEYS.node(compositeId));
+          bucketKeys.addAll(keys.node(compositeId));
+        });
+        String[] ids = bucket.getValue().toArray(new String[bucket.getValue().size()]);
+        batch = batch.flatMap(count -> this.<Long>eval(BUCKET_SCRIPT, ScriptOutputType.INTEGER, bucketKeys.toArray(new String[bucketKeys.size()]), ids).map(moved -> count + moved.intValue()));
+      }
+      return batch.flatMap(count -> scan.isFinished() ? Promise.value(migrated + count) : migrateNodes(scan, migrated + count));
+    });
+  }
+
+  private Promise<Integer> migrateData(ScanCursor cursor, int migrated) {
+    return hscan("data:all", cursor, SCAN_COUNT).flatMap(scan -> {
+      Promise<Integer> batch = Promise.value(0);
+      for (Map.Entry<Integer, List<String>> bucket : keys.byBucket(scan.getMap().keySet(), id -> id).entrySet()) {
+        String[] moveKeys = {"data:all", keys.data(bucket.getKey())};
+        String[] ids = bucket.getValue().toArray(new String[bucket.getValue().size()]);
+        batch = batch.flatMap(count -> this.<Long>eval(MOVE_SCRIPT, ScriptOutputType.INTEGER, moveKeys, ids).map(moved -> count + moved.intValue()));
+      }
+      return batch.flatMap(count -> scan.isFinished() ? Promise.value(migrated + count) : migrateData(scan, migrated + count));
+    });
+  }
+
+  /**
+   * Counts the buckets that Redis stores as a ziplist or listpack, which it does for hashes with no more than {@code hash-max-ziplist-entries} fields whose values are no longer than {@code hash-max-ziplist-value} bytes.
+   */
+  private Promise<Integer> countCompact(Function<Integer, String> bucketKey) {
+    return forEachBucket(keys.buckets(), bucket -> connection().objectEncoding(bucketKey.apply(bucket)), "read bucket encodings")
+        .map(encodings -> (int) encodings.stream().filter(encoding -> "ziplist".equals(encoding) || "listpack".equals(encoding)).count());
+  }
+
+  /**
+   * Renames a key of the untagged layout, unless it does not exist or the key of the tagged layout already does.
+   */
+  private Promise<Boolean> rename(String key, String newKey) {
+    return Promise.<Boolean>async(d ->
+        connection().exists(key).thenCompose(exists -> exists ? connection().renamenx(key, newKey) : CompletableFuture.completedFuture(false))
+            .handleAsync((result, failure) -> {
+              if (failure == null) {
+                d.success(result);
+              } else {
+                d.error(new RuntimeException("Failed to rename " + key, failure));
+              }
+              return null;
+            }, Execution.current().getEventLoop())
+    );
+  }
+
+  /**
+   * The outcome of a migration.
+   */
+  public static class Report {
+    private final int nodes;
+    private final int data;
+    private final int buckets;
+    private final int compactNodeBuckets;
+    private final int compactDataBuckets;
+
+    Report(int nodes, int data, int buckets, int compactNodeBuckets, int compactDataBuckets) {
+      this.nodes = nodes;
+      this.data = data;
+      this.buckets = buckets;
+      this.compactNodeBuckets = compactNodeBuckets;
+      this.compactDataBuckets = compactDataBuckets;
+    }
+
+    /**
+     * @return the number of nodes that were moved
+     */
+    public int getNodes() {
+      return nodes;
+    }
+
+    /**
+     * @return the number of data objects that were moved
+     */
+    public int getData() {
+      return data;
+    }
+
+    /**
+     * @return the number of buckets
+     */
+    public int getBuckets() {
+      return buckets;
+    }
+
+    /**
+     * @return the number of node buckets that Redis keeps in its compact encoding
+     */
+    public int getCompactNodeBuckets() {
+      return compactNodeBuckets;
+    }
+
+    /**
+     * @return the number of data buckets that Redis keeps in its compact encoding, which needs {@code hash-max-ziplist-value} to exceed the size of the data
+     */
+    public int getCompactDataBuckets() {
+      return compactDataBuckets;
+    }
+
+    @Override
+    public String toString() {
+      return String.format("Moved %d nodes and %d data objects to %d buckets, of which %d node and %d data buckets are compact",
+          nodes, data, buckets, compactNodeBuckets, compactDataBuckets);
+    }
+  }
+}
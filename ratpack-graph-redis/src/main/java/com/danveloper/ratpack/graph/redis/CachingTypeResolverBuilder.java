@@ -0,0 +1,61 @@
+package com.danveloper.ratpack.graph.redis;
+
+import com.fasterxml.jackson.annotation.JsonTypeInfo;
+import com.fasterxml.jackson.databind.DatabindContext;
+import com.fasterxml.jackson.databind.JavaType;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.cfg.MapperConfig;
+import com.fasterxml.jackson.databind.jsontype.NamedType;
+import com.fasterxml.jackson.databind.jsontype.TypeIdResolver;
+import com.fasterxml.jackson.databind.jsontype.impl.ClassNameIdResolver;
+import com.fasterxml.jackson.databind.type.TypeFactory;
+
+import java.util.Collection;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Default typing that writes the class name of the data as its type id, like {@link ObjectMapper#enableDefaultTyping(ObjectMapper.DefaultTyping, JsonTypeInfo.As)}, but resolves each class name through the class loader only once.
+ */
+class CachingTypeResolverBuilder extends ObjectMapper.DefaultTypeResolverBuilder {
+  private static final long serialVersionUID = 1L;
+
+  private final Map<String, Class<?>> classes = new ConcurrentHashMap<>();
+
+  CachingTypeResolverBuilder(ObjectMapper.DefaultTyping typing, JsonTypeInfo.As inclusion) {
+    super(typing);
+    init(JsonTypeInfo.Id.CLASS, null);
+    inclusion(inclusion);
+  }
+
+  @Override
+  protected TypeIdResolver idResolver(MapperConfig<?> config, JavaType baseType, Collection<NamedType> subtypes, boolean forSer, boolean forDeser) {
+    if (_idType == JsonTypeInfo.Id.CLASS) {
+      return new CachingClassNameIdResolver(baseType, config.getTypeFactory(), classes);
+    }
+    return super.idResolver(config, baseType, subtypes, forSer, forDeser);
+  }
+
+  private static class CachingClassNameIdResolver extends ClassNameIdResolver {
+    private final Map<String, Class<?>> classes;
+
+    private CachingClassNameIdResolver(JavaType baseType, TypeFactory typeFactory, Map<String, Class<?>> classes) {
+      super(baseType, typeFactory);
+      this.classes = classes;
+    }
+
+    @Override
+    protected JavaType _typeFromId(String id, DatabindContext ctxt) {
+      Class<?> cls = classes.get(id);
+      if (cls != null) {
+        return ctxt.getTypeFactory().constructSpecializedType(_baseType, cls);
+      }
+      JavaType type = super._typeFromId(id, ctxt);
+      // Generic type ids are left to the type factory, as the raw class would lose their type parameters
+      if (type != null && id.indexOf('<') < 0) {
+        classes.put(id, type.getRawClass());
+      }
+      return type;
+    }
+  }
+}
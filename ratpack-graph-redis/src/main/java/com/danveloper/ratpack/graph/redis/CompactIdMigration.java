@@ -0,0 +1,213 @@
+package com.danveloper.ratpack.graph.redis;
+
+import com.danveloper.ratpack.graph.NodeClassifier;
+import com.danveloper.ratpack.graph.NodeProperties;
+import com.google.common.collect.Iterables;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
+import com.lambdaworks.redis.ScanCursor;
+import com.lambdaworks.redis.ScriptOutputType;
+import ratpack.exec.Execution;
+import ratpack.exec.Promise;
+
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+/**
+ * Converts the nodes and node data that are stored with the default {@code id:type:category} ids to {@link RedisGraphModule.Config#isCompactIds() compact ids}, and reports how much memory Redis saved.
+ * Like the repositories, the migration must be started with {@link #onStart} before it is used, and it must run while no application instance is using the Redis server.
+ * It can be run again if it is interrupted, as nodes and data that have already been converted are skipped.
+ */
+public class CompactIdMigration extends RedisSupport {
+  private static final RedisScript MIGRATE_SCRIPT = RedisScript.load("migrate.lua");
+  private static final RedisScript RENAME_SCRIPT = RedisScript.load("rename.lua");
+  private static final int SCAN_COUNT = 100;
+
+  /**
+   * @param config the Redis configuration, which must have compact ids enabled
+   */
+  public CompactIdMigration(RedisGraphModule.Config config) {
+    super(config);
+    if (!config.isCompactIds()) {
+      throw new IllegalArgumentException("Compact ids must be enabled to migrate to them");
+    }
+    if (keys.isTagged()) {
+      throw new IllegalArgumentException("Only nodes that are stored in node:all can be migrated to compact ids");
+    }
+  }
+
+  @Override
+  protected List<RedisScript> getScripts() {
+    return Lists.newArrayList(MIGRATE_SCRIPT, RENAME_SCRIPT);
+  }
+
+  /**
+   * Converts every node in {@code node:all} and every object in {@code data:all}.
+   *
+   * @return a promise to the report of the migration
+   */
+  public Promise<Report> migrate() {
+    return usedMemory().flatMap(before ->
+        migrateNodes(ScanCursor.of("0"), 0).flatMap(nodes ->
+            migrateData(ScanCursor.of("0"), 0).flatMap(data ->
+                usedMemory().map(after -> new Report(nodes, data, before, after))
+            )
+        )
+    );
+  }
+
+  private Promise<Integer> migrateNodes(ScanCursor cursor, int migrated) {
+    return hscan("node:all", cursor, SCAN_COUNT).flatMap(scan -> {
+      List<String> compositeIds = scan.getMap().keySet().stream().filter(id -> !isCompactId(id)).collect(Collectors.toList());
+      Promise<Integer> batch = compositeIds.isEmpty() ? Promise.value(0) : migrateNodes(compositeIds);
+      return batch.flatMap(count -> scan.isFinished() ? Promise.value(migrated + count) : migrateNodes(scan, migrated + count));
+    });
+  }
+
+  private Promise<Integer> migrateNodes(List<String> compositeIds) {
+    List<String> leafKeys = Lists.newArrayListWithCapacity(compositeIds.size() * 2);
+    compositeIds.forEach(compositeId -> {
+      leafKeys.add(String.format("dependents:%s", compositeId));
+      leafKeys.add(String.format("relationships:%s", compositeId));
+    });
+    return smembers(connection(), leafKeys).flatMap(leaves -> resolve(Sets.newHashSet(Iterables.concat(leaves))).flatMap(resolved -> {
+      Set<NodeClassifier> classifiers = Sets.newHashSet();
+      compositeIds.forEach(compositeId -> classifiers.add(destructureCompositeId(compositeId).getClassifier()));
+      leaves.forEach(members -> members.forEach(member -> classifiers.add(destructureCompositeId(member).getClassifier())));
+      return intern(classifiers).flatMap(interned -> {
+        Promise<Integer> migrated = Promise.value(0);
+        for (int i = 0; i < compositeIds.size(); i++) {
+          String compositeId = compositeIds.get(i);
+          Set<String> dependents = leaves.get(i * 2);
+          Set<String> relationships = leaves.get(i * 2 + 1);
+          migrated = migrated.flatMap(count -> migrateNode(compositeId, dependents, relationships).map(moved -> count + moved.intValue()));
+        }
+        return migrated;
+      });
+    }));
+  }
+
+  private Promise<Long> migrateNode(String compositeId, Set<String> dependents, Set<String> relationships) {
+    NodeProperties properties = destructureCompositeId(compositeId);
+    NodeClassifier classifier = properties.getClassifier();
+    String compactId = getCompositeId(properties);
+    String classifierName = String.format("%s:%s", classifier.getType(), classifier.getCategory());
+    String[] keys = {
+        "node:all",
+        String.format("classifier:%s", classifierName),
+        String.format("lastaccess:%s", classifierName),
+        String.format("dependents:%s", compositeId),
+        String.format("relationships:%s", compositeId),
+        String.format("classifier:%s", getClassifierSuffix(classifier)),
+        String.format("lastaccess:%s", getClassifierSuffix(classifier)),
+        String.format("dependents:%s", compactId),
+        String.format("relationships:%s", compactId)
+    };
+    List<String> args = Lists.newArrayListWithCapacity(3 + dependents.size() + relationships.size());
+    args.add(compositeId);
+    args.add(compactId);
+    args.add(Integer.toString(dependents.size()));
+    dependents.forEach(leaf -> args.add(getCompositeId(destructureCompositeId(leaf))));
+    relationships.forEach(leaf -> args.add(getCompositeId(destructureCompositeId(leaf))));
+    return eval(MIGRATE_SCRIPT, ScriptOutputType.INTEGER, keys, args.toArray(new String[args.size()]));
+  }
+
+  private Promise<Integer> migrateData(ScanCursor cursor, int migrated) {
+    return hscan("data:all", cursor, SCAN_COUNT).flatMap(scan -> {
+      List<String> compositeIds = scan.getMap().keySet().stream().filter(id -> !isCompactId(id)).collect(Collectors.toList());
+      Promise<Integer> batch = compositeIds.isEmpty() ? Promise.value(0) : renameData(compositeIds);
+      return batch.flatMap(count -> scan.isFinished() ? Promise.value(migrated + count) : migrateData(scan, migrated + count));
+    });
+  }
+
+  private Promise<Integer> renameData(List<String> compositeIds) {
+    Set<NodeClassifier> classifiers = compositeIds.stream().map(id -> destructureCompositeId(id).getClassifier()).collect(Collectors.toSet());
+    return intern(classifiers).flatMap(interned -> {
+      List<String> args = Lists.newArrayListWithCapacity(compositeIds.size() * 2);
+      compositeIds.forEach(compositeId -> {
+        args.add(compositeId);
+        args.add(getCompositeId(destructureCompositeId(compositeId)));
+      });
+      return this.<Long>eval(RENAME_SCRIPT, ScriptOutputType.INTEGER, new String[]{"data:all"}, args.toArray(new String[args.size()]));
+    }).map(Long::intValue);
+  }
+
+  private Promise<Long> usedMemory() {
+    return Promise.<String>async(d ->
+        connection().info("memory").handleAsync((result, failure) -> {
+          if (failure == null) {
+            d.success(result);
+          } else {
+            d.error(new RuntimeException("Failed to read memory info", failure));
+          }
+          return null;
+        }, Execution.current().getEventLoop())
+    ).map(info -> {
+      for (String line : info.split("\r?\n")) {
+        if (line.startsWith("used_memory:")) {
+          return Long.valueOf(line.substring("used_memory:".length()).trim());
+        }
+      }
+      throw new IllegalStateException("Redis did not report its used memory");
+    });
+  }
+
+  /**
+   * The outcome of a migration.
+   */
+  public static class Report {
+    private final int nodes;
+    private final int data;
+    private final long usedMemoryBefore;
+    private final long usedMemoryAfter;
+
+    Report(int nodes, int data, long usedMemoryBefore, long usedMemoryAfter) {
+      this.nodes = nodes;
+      this.data = data;
+      this.usedMemoryBefore = usedMemoryBefore;
+      this.usedMemoryAfter = usedMemoryAfter;
+    }
+
+    /**
+     * @return the number of nodes that were converted
+     */
+    public int getNodes() {
+      return nodes;
+    }
+
+    /**
+     * @return the number of data objects that were converted
+     */
+    public int getData() {
+      return data;
+    }
+
+    /**
+     * @return the memory that Redis used before the migration, in bytes
+     */
+    public long getUsedMemoryBefore() {
+      return usedMemoryBefore;
+    }
+
+    /**
+     * @return the memory that Redis used after the migration, in bytes
+     */
+    public long getUsedMemoryAfter() {
+      return usedMemoryAfter;
+    }
+
+    /**
+     * @return the memory that the migration saved, in bytes, which also reflects any other change to Redis while the migration ran
+     */
+    public long getSavedMemory() {
+      return usedMemoryBefore - usedMemoryAfter;
+    }
+
+    @Override
+    public String toString() {
+      return String.format("Migrated %d nodes and %d data objects to compact ids, saving %d bytes (%d to %d bytes used)",
+          nodes, data, getSavedMemory(), usedMemoryBefore, usedMemoryAfter);
+    }
+  }
+}
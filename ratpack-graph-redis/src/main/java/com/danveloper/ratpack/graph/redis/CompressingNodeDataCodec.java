@@ -0,0 +1,71 @@
+package com.danveloper.ratpack.graph.redis;
+
+import java.io.ByteArrayOutputStream;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Deflates the data encoded by another codec once it reaches a size threshold.
+ * Compressed data is prefixed with a marker byte that neither JSON nor Smile can start with, so data that was stored before compression was enabled is passed to the wrapped codec as it is.
+ */
+class CompressingNodeDataCodec implements NodeDataCodec {
+  static final byte DEFLATED = 0x01;
+
+  private final NodeDataCodec codec;
+  private final int threshold;
+
+  CompressingNodeDataCodec(NodeDataCodec codec, int threshold) {
+    this.codec = codec;
+    this.threshold = threshold;
+  }
+
+  @Override
+  public byte[] encode(Object data) throws Exception {
+    byte[] bytes = codec.encode(data);
+    if (bytes.length < threshold) {
+      return bytes;
+    }
+    Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+    try {
+      deflater.setInput(bytes);
+      deflater.finish();
+      ByteArrayOutputStream out = new ByteArrayOutputStream(bytes.length / 2 + 16);
+      out.write(DEFLATED);
+      byte[] buffer = new byte[4096];
+      while (!deflater.finished()) {
+        out.write(buffer, 0, deflater.deflate(buffer));
+      }
+      return out.size() < bytes.length ? out.toByteArray() : bytes;
+    } finally {
+      deflater.end();
+    }
+  }
+
+  @Override
+  public Object decode(byte[] bytes) throws Exception {
+    if (bytes.length == 0 || bytes[0] != DEFLATED) {
+      return codec.decode(bytes);
+    }
+    return codec.decode(inflate(bytes));
+  }
+
+  private static byte[] inflate(byte[] bytes) throws DataFormatException {
+    Inflater inflater = new Inflater();
+    try {
+      inflater.setInput(bytes, 1, bytes.length - 1);
+      ByteArrayOutputStream out = new ByteArrayOutputStream(bytes.length * 3);
+      byte[] buffer = new byte[4096];
+      while (!inflater.finished()) {
+        int inflated = inflater.inflate(buffer);
+        if (inflated == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+          throw new DataFormatException("Compressed node data is truncated");
+        }
+        out.write(buffer, 0, inflated);
+      }
+      return out.toByteArray();
+    } finally {
+      inflater.end();
+    }
+  }
+}
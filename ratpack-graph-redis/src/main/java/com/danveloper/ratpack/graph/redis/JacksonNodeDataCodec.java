@@ -0,0 +1,48 @@
+package com.danveloper.ratpack.graph.redis;
+
+import com.fasterxml.jackson.annotation.JsonTypeInfo;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.smile.SmileConstants;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
+
+/**
+ * Encodes data with a Jackson mapper, with the class name of the data as its "@class" property so that it can be decoded in a single pass.
+ */
+class JacksonNodeDataCodec implements NodeDataCodec {
+  private final ObjectMapper mapper;
+
+  JacksonNodeDataCodec(ObjectMapper mapper) {
+    this.mapper = mapper.copy().setDefaultTyping(new CachingTypeResolverBuilder(ObjectMapper.DefaultTyping.NON_FINAL, JsonTypeInfo.As.PROPERTY));
+  }
+
+  @Override
+  public byte[] encode(Object data) throws Exception {
+    return mapper.writeValueAsBytes(data);
+  }
+
+  @Override
+  public Object decode(byte[] bytes) throws Exception {
+    return mapper.readValue(bytes, Object.class);
+  }
+
+  /**
+   * Encodes data as Smile, and decodes anything that does not start with the Smile header as JSON.
+   */
+  static class Smile extends JacksonNodeDataCodec {
+    private final JacksonNodeDataCodec json;
+
+    Smile(ObjectMapper jsonMapper) {
+      super(new ObjectMapper(new SmileFactory()).findAndRegisterModules());
+      this.json = new JacksonNodeDataCodec(jsonMapper);
+    }
+
+    @Override
+    public Object decode(byte[] bytes) throws Exception {
+      boolean smile = bytes.length >= 3
+          && bytes[0] == SmileConstants.HEADER_BYTE_1
+          && bytes[1] == SmileConstants.HEADER_BYTE_2
+          && bytes[2] == SmileConstants.HEADER_BYTE_3;
+      return smile ? super.decode(bytes) : json.decode(bytes);
+    }
+  }
+}
@@ -0,0 +1,56 @@
+package com.danveloper.ratpack.graph.redis;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/**
+ * Converts node data objects to and from the bytes that {@link RedisNodeDataRepository} stores in Redis.
+ * Encoded data must carry enough type information to be decoded without knowing its type up front.
+ */
+public interface NodeDataCodec {
+
+  /**
+   * @param data the data object to encode
+   * @return the encoded data
+   * @throws Exception if the data cannot be encoded
+   */
+  byte[] encode(Object data) throws Exception;
+
+  /**
+   * @param bytes the encoded data
+   * @return the data object
+   * @throws Exception if the bytes cannot be decoded
+   */
+  Object decode(byte[] bytes) throws Exception;
+
+  /**
+   * Provides a codec that stores data as JSON text, which is how data has always been stored.
+   *
+   * @param mapper the mapper whose modules and settings are used to encode the data
+   * @return the JSON codec
+   */
+  static NodeDataCodec json(ObjectMapper mapper) {
+    return new JacksonNodeDataCodec(mapper);
+  }
+
+  /**
+   * Provides a codec that stores data in the binary Smile format, which is smaller than JSON and faster to parse.
+   * Data that was stored as JSON, before switching to Smile, is still decoded.
+   *
+   * @param mapper the mapper used to decode data stored as JSON
+   * @return the Smile codec
+   */
+  static NodeDataCodec smile(ObjectMapper mapper) {
+    return new JacksonNodeDataCodec.Smile(mapper);
+  }
+
+  /**
+   * Provides a codec that deflates the data encoded by this codec, if it is at least the provided number of bytes.
+   * Data that was stored without compression is still decoded.
+   *
+   * @param threshold the minimum number of encoded bytes to compress
+   * @return the compressing codec
+   */
+  default NodeDataCodec compressAbove(int threshold) {
+    return new CompressingNodeDataCodec(this, threshold);
+  }
+}
@@ -0,0 +1,231 @@
+package com.danveloper.ratpack.graph.redis;
+
+import com.google.common.collect.Lists;
+import com.google.inject.Inject;
+import com.lambdaworks.redis.AbstractRedisClient;
+import com.lambdaworks.redis.RedisClient;
+import com.lambdaworks.redis.RedisURI;
+import com.lambdaworks.redis.api.StatefulConnection;
+import com.lambdaworks.redis.cluster.RedisClusterClient;
+import com.lambdaworks.redis.cluster.api.async.RedisClusterAsyncCommands;
+import com.lambdaworks.redis.codec.Utf8StringCodec;
+import com.lambdaworks.redis.pubsub.StatefulRedisPubSubConnection;
+import ratpack.exec.Blocking;
+import ratpack.exec.Execution;
+import ratpack.exec.UnmanagedThreadException;
+import ratpack.service.Service;
+import ratpack.service.StartEvent;
+import ratpack.service.StopEvent;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+/**
+ * Provides the Redis connections that are shared by the Redis repositories.
+ * <p>
+ * Commands are multiplexed over {@link RedisGraphModule.Config#getConnections()} connections to the Redis server, and each execution is assigned one of them in turn, so that a large pipelined write only delays the executions that share its connection.
+ * Reads that can tolerate replication lag use the same number of connections to each of the {@link RedisGraphModule.Config#getReplicas() replicas}, when there are any.
+ * With {@link RedisGraphModule.Config#getClusterNodes() Redis Cluster}, each connection is a cluster connection, which routes every command to the master of its slot and pipelines the commands to each master.
+ * Connections are opened on a blocking thread when the provider starts, as opening one blocks until it is established, and closed when the application stops.
+ */
+public class RedisConnectionProvider implements Service {
+  private static final Utf8StringCodec STRING_CODEC = new Utf8StringCodec();
+  private static final StringByteArrayCodec DATA_CODEC = new StringByteArrayCodec();
+
+  private final RedisGraphModule.Config config;
+  private final AbstractRedisClient client;
+  private final RedisClient pubSubClient;
+  private final AtomicInteger executions = new AtomicInteger();
+  private final List<StatefulConnection<?, ?>> opened = Lists.newArrayList();
+  private final Pool<String> commands;
+  private final Pool<String> readCommands;
+  private final Pool<byte[]> dataCommands;
+
+  @Inject
+  public RedisConnectionProvider(RedisGraphModule.Config config) {
+    this.config = config;
+    if (!config.getClusterNodes().isEmpty()) {
+      if (config.getBuckets() <= 1) {
+        // every key would carry the same hash tag, and so be stored in a single slot of a single master
+        throw new IllegalStateException(String.format("With Redis Cluster, nodes must be spread over several buckets for every cluster master, but %d bucket was configured", config.getBuckets()));
+      }
+      List<RedisURI> seeds = config.getClusterNodes().stream().map(this::getNodeURI).collect(Collectors.toList());
+      RedisClusterClient clusterClient = RedisClusterClient.create(seeds);
+      this.client = clusterClient;
+      this.pubSubClient = RedisClient.create(seeds.get(0));
+      this.commands = new Pool<>(seeds.subList(0, 1), uri -> opened(clusterClient.connect(STRING_CODEC)).async());
+      this.readCommands = commands;
+      this.dataCommands = new Pool<>(seeds.subList(0, 1), uri -> opened(clusterClient.connect(DATA_CODEC)).async());
+    } else {
+      RedisClient redisClient = RedisClient.create(getRedisURI());
+      List<RedisURI> primary = Collections.singletonList(getRedisURI());
+      List<RedisURI> replicas = config.getReplicas().stream().map(this::getNodeURI).collect(Collectors.toList());
+      this.client = redisClient;
+      this.pubSubClient = redisClient;
+      this.commands = new Pool<>(primary, uri -> opened(redisClient.connect(STRING_CODEC, uri)).async());
+      this.readCommands = replicas.isEmpty() ? commands : new Pool<>(replicas, uri -> opened(redisClient.connect(STRING_CODEC, uri)).async());
+      this.dataCommands = new Pool<>(primary, uri -> opened(redisClient.connect(DATA_CODEC, uri)).async());
+    }
+  }
+
+  /**
+   * @return the connection of the current execution to the Redis server
+   */
+  public RedisClusterAsyncCommands<String, String> commands() {
+    return commands.get();
+  }
+
+  /**
+   * Provides a connection for reads that may return data that is slightly behind the Redis server.
+   *
+   * @return the connection of the current execution to a replica, or to the Redis server if there are no replicas
+   */
+  public RedisClusterAsyncCommands<String, String> readCommands() {
+    return readCommands.get();
+  }
+
+  /**
+   * @return the connection of the current execution to the Redis server, for values that are stored as bytes
+   */
+  public RedisClusterAsyncCommands<String, byte[]> dataCommands() {
+    return dataCommands.get();
+  }
+
+  /**
+   * Opens a connection for subscriptions, which is to the first of the cluster nodes with Redis Cluster, as messages are published to every node of a cluster.
+   *
+   * @return a new connection for subscriptions, which is not shared and must be closed by the caller
+   */
+  public StatefulRedisPubSubConnection<String, String> connectPubSub() {
+    return pubSubClient.connectPubSub();
+  }
+
+  public RedisURI getRedisURI() {
+    RedisURI.Builder builder = RedisURI.Builder.redis(config.getHost());
+
+    if (config.getPassword() != null) {
+      builder.withPassword(config.getPassword());
+    }
+
+    if (config.getPort() != null) {
+      builder.withPort(config.getPort());
+    }
+
+    return builder.build();
+  }
+
+  private RedisURI getNodeURI(String address) {
+    int portStart = address.lastIndexOf(':');
+    RedisURI.Builder builder = portStart < 0
+        ? RedisURI.Builder.redis(address)
+        : RedisURI.Builder.redis(address.substring(0, portStart), Integer.parseInt(address.substring(portStart + 1)));
+
+    if (config.getPassword() != null) {
+      builder.withPassword(config.getPassword());
+    }
+
+    return builder.build();
+  }
+
+  @Override
+  public void onStart(StartEvent e) {
+    if (Execution.isManagedThread()) {
+      Blocking.op(this::connect).then();
+    } else {
+      connect();
+    }
+  }
+
+  @Override
+  public void onStop(StopEvent e) {
+    close();
+  }
+
+  /**
+   * Opens every connection of every pool that is not open yet.
+   * This blocks until the connections are established, so it must not be called from a compute thread.
+   */
+  public void connect() {
+    commands.connect();
+    readCommands.connect();
+    dataCommands.connect();
+  }
+
+  /**
+   * Closes every connection that has been opened, and releases the resources of the client.
+   */
+  public void close() {
+    synchronized (opened) {
+      opened.forEach(StatefulConnection::close);
+      opened.clear();
+    }
+    client.shutdown();
+    if (pubSubClient != client) {
+      pubSubClient.shutdown();
+    }
+  }
+
+  /**
+   * Every execution is assigned the next slot the first time that it uses Redis, and keeps it, so that its commands stay in order.
+   * Commands that are issued outside of an execution use the first slot.
+   */
+  private int slot() {
+    try {
+      Execution execution = Execution.current();
+      return execution.maybeGet(Slot.class).orElseGet(() -> {
+        Slot slot = new Slot(executions.getAndIncrement() & Integer.MAX_VALUE);
+        execution.add(slot);
+        return slot;
+      }).index;
+    } catch (UnmanagedThreadException e) {
+      return 0;
+    }
+  }
+
+  private <C extends StatefulConnection<?, ?>> C opened(C connection) {
+    synchronized (opened) {
+      opened.add(connection);
+    }
+    return connection;
+  }
+
+  private static class Slot {
+    private final int index;
+
+    private Slot(int index) {
+      this.index = index;
+    }
+  }
+
+  private class Pool<V> {
+    private final List<RedisURI> uris;
+    private final Function<RedisURI, RedisClusterAsyncCommands<String, V>> connector;
+    private final AtomicReferenceArray<RedisClusterAsyncCommands<String, V>> connections;
+
+    private Pool(List<RedisURI> uris, Function<RedisURI, RedisClusterAsyncCommands<String, V>> connector) {
+      this.uris = uris;
+      this.connector = connector;
+      this.connections = new AtomicReferenceArray<>(uris.size() * Math.max(1, config.getConnections()));
+    }
+
+    private RedisClusterAsyncCommands<String, V> get() {
+      RedisClusterAsyncCommands<String, V> connection = connections.get(slot() % connections.length());
+      if (connection == null) {
+        throw new IllegalStateException("The Redis connections have not been opened, as the RedisConnectionProvider has not been started");
+      }
+      return connection;
+    }
+
+    private synchronized void connect() {
+      for (int i = 0; i < connections.length(); i++) {
+        if (connections.get(i) == null) {
+          connections.set(i, connector.apply(uris.get(i % uris.size())));
+        }
+      }
+    }
+  }
+}
@@ -3,11 +3,18 @@ package com.danveloper.ratpack.graph.redis;
 import com.danveloper.ratpack.graph.GraphModule;
 import com.danveloper.ratpack.graph.NodeDataRepository;
 import com.danveloper.ratpack.graph.NodeRepository;
+import com.fasterxml.jackson.databind.ObjectMapper;
 import com.google.inject.AbstractModule;
+import com.google.inject.Provides;
 import com.google.inject.Scopes;
+import com.google.inject.Singleton;
 import com.google.inject.util.Modules;
 import ratpack.guice.ConfigurableModule;
 
+import java.time.Duration;
+import java.util.Collections;
+import java.util.List;
+
 public class RedisGraphModule extends ConfigurableModule<RedisGraphModule.Config> {
 
   @Override
@@ -17,14 +24,51 @@ public class RedisGraphModule extends ConfigurableModule<RedisGraphModule.Config
       protected void configure() {
         binder().bind(NodeRepository.class).to(RedisNodeRepository.class).in(Scopes.SINGLETON);
         binder().bind(NodeDataRepository.class).to(RedisNodeDataRepository.class).in(Scopes.SINGLETON);
+        binder().bind(GraphModule.Config.class).to(RedisGraphModule.Config.class);
+        binder().bind(RedisConnectionProvider.class).in(Scopes.SINGLETON);
       }
     }));
   }
 
-  public static class Config {
+  @Provides
+  @Singleton
+  NodeDataCodec nodeDataCodec(Config config, ObjectMapper mapper) {
+    return createNodeDataCodec(config, mapper);
+  }
+
+  static NodeDataCodec createNodeDataCodec(Config config, ObjectMapper mapper) {
+    NodeDataCodec codec = config.getDataFormat() == DataFormat.SMILE ? NodeDataCodec.smile(mapper) : NodeDataCodec.json(mapper);
+    return config.getCompressionThreshold() > 0 ? codec.compressAbove(config.getCompressionThreshold()) : codec;
+  }
+
+  /**
+   * The formats that node data can be stored in.
+   */
+  public enum DataFormat {
+    /**
+     * JSON text, which is how node data has always been stored.
+     */
+    JSON,
+
+    /**
+     * The binary Smile format, which is smaller and faster to parse than JSON.
+     * Data that was stored as JSON is still read after switching to Smile.
+     */
+    SMILE
+  }
+
+  public static class Config extends GraphModule.Config {
     private String password;
     private String host;
     private Integer port;
+    private NearCache nearCache = new NearCache();
+    private DataFormat dataFormat = DataFormat.JSON;
+    private int compressionThreshold;
+    private boolean compactIds;
+    private int connections = 1;
+    private List<String> replicas = Collections.emptyList();
+    private List<String> clusterNodes = Collections.emptyList();
+    private int buckets = 1;
 
     public Config() {
       host = "127.0.0.1";
@@ -96,5 +140,225 @@ public class RedisGraphModule extends ConfigurableModule<RedisGraphModule.Config
     public void setPort(Integer port) {
       this.port = port;
     }
+
+    /**
+     * The settings of the local cache of node data in front of Redis.
+     *
+     * @return the near cache settings
+     */
+    public NearCache getNearCache() {
+      return nearCache;
+    }
+
+    /**
+     * Set the settings of the local cache of node data in front of Redis.
+     *
+     * @param nearCache the near cache settings
+     */
+    public void setNearCache(NearCache nearCache) {
+      this.nearCache = nearCache;
+    }
+
+    /**
+     * The format that node data is stored in.
+     * Override the binding of {@link NodeDataCodec} to store node data in any other format.
+     *
+     * @return the format of stored node data
+     */
+    public DataFormat getDataFormat() {
+      return dataFormat;
+    }
+
+    /**
+     * Set the format that node data is stored in.
+     *
+     * @param dataFormat the format of stored node data
+     */
+    public void setDataFormat(DataFormat dataFormat) {
+      this.dataFormat = dataFormat;
+    }
+
+    /**
+     * The size in bytes from which encoded node data is compressed before it is stored, or 0 to never compress it.
+     *
+     * @return the size from which node data is compressed
+     */
+    public int getCompressionThreshold() {
+      return compressionThreshold;
+    }
+
+    /**
+     * Set the size in bytes from which encoded node data is compressed before it is stored.
+     *
+     * @param compressionThreshold the size from which node data is compressed, or 0 to never compress it
+     */
+    public void setCompressionThreshold(int compressionThreshold) {
+      this.compressionThreshold = compressionThreshold;
+    }
+
+    /**
+     * Whether nodes are identified in Redis by compact ids, in which the classifier is replaced by a short code that is interned in the {@code classifier:codes} hash.
+     * Compact ids take less memory and allow node ids to contain any character, but every application instance that shares the Redis server must use the same setting.
+     * Data stored with the default ids is converted with {@link CompactIdMigration}.
+     *
+     * @return true if nodes are identified by compact ids
+     */
+    public boolean isCompactIds() {
+      return compactIds;
+    }
+
+    /**
+     * Set whether nodes are identified in Redis by compact ids.
+     *
+     * @param compactIds true to identify nodes by compact ids
+     */
+    public void setCompactIds(boolean compactIds) {
+      this.compactIds = compactIds;
+    }
+
+    /**
+     * The number of connections to Redis, and to each replica, that executions are spread over.
+     *
+     * @return the number of connections
+     */
+    public int getConnections() {
+      return connections;
+    }
+
+    /**
+     * Set the number of connections to Redis, and to each replica, that executions are spread over.
+     *
+     * @param connections the number of connections
+     */
+    public void setConnections(int connections) {
+      this.connections = connections;
+    }
+
+    /**
+     * The {@code host:port} addresses of the replicas of Redis that serve the reads which may lag behind writes, which are the node reads that do not update the access time of the nodes, lookups and path searches.
+     * Every read is served by Redis itself if there are no replicas.
+     *
+     * @return the addresses of the replicas
+     */
+    public List<String> getReplicas() {
+      return replicas;
+    }
+
+    /**
+     * Set the {@code host:port} addresses of the replicas of Redis.
+     *
+     * @param replicas the addresses of the replicas
+     */
+    public void setReplicas(List<String> replicas) {
+      this.replicas = replicas;
+    }
+
+    /**
+     * The {@code host:port} addresses of the nodes of a Redis Cluster to connect to, instead of a single Redis server at {@link #getHost()}.
+     * Any number of the nodes can be listed, as the rest of the cluster is discovered from them.
+     * With a cluster, nodes are always stored in {@link #getBuckets() buckets}, and {@link #getReplicas() replicas} are not used.
+     *
+     * @return the addresses of the cluster nodes, which are empty if Redis is not a cluster
+     */
+    public List<String> getClusterNodes() {
+      return clusterNodes;
+    }
+
+    /**
+     * Set the {@code host:port} addresses of the nodes of a Redis Cluster to connect to.
+     *
+     * @param clusterNodes the addresses of the cluster nodes
+     */
+    public void setClusterNodes(List<String> clusterNodes) {
+      this.clusterNodes = clusterNodes;
+    }
+
+    /**
+     * The number of buckets that nodes and their data are spread over by a hash of their id.
+     * Every key of a bucket is hash tagged with the bucket, so with a cluster, buckets are spread over the cluster slots, and should outnumber the cluster masters several times over.
+     * A cluster therefore requires more than one bucket, and the connections fail to be created otherwise.
+     * Without a cluster, buckets keep any one hash from growing so large that deleting, rehashing or migrating it stalls Redis.
+     * Redis keeps a hash in its compact ziplist or listpack encoding while it has no more than {@code hash-max-ziplist-entries} fields, 128 by default, so about one bucket for every hundred nodes keeps every node bucket compact.
+     * Data buckets are only compact if the encoded data also fits in {@code hash-max-ziplist-value} bytes.
+     * Lookups and expiry visit every bucket, so buckets should not greatly outnumber the nodes of a classifier either.
+     * Every application instance that shares Redis must use the same number of buckets, and nodes that are already stored are moved into buckets with {@link BucketMigration}.
+     *
+     * @return the number of buckets, where 1 keeps every node in {@code node:all}
+     */
+    public int getBuckets() {
+      return buckets;
+    }
+
+    /**
+     * Set the number of buckets that nodes and their data are spread over.
+     *
+     * @param buckets the number of buckets
+     */
+    public void setBuckets(int buckets) {
+      this.buckets = buckets;
+    }
+  }
+
+  /**
+   * Settings for the local cache of deserialized node data that {@link RedisNodeDataRepository} keeps in front of Redis.
+   * Writes invalidate the cached data of every application instance through Redis pub/sub, so every instance that shares the Redis server must enable the near cache for the data to stay coherent.
+   * Cached objects are shared between callers, and must not be modified.
+   */
+  public static class NearCache {
+    private boolean enabled;
+    private long maximumSize = 10000;
+    private long maximumWeight;
+    private Duration expireAfterWrite = Duration.ofMinutes(5);
+
+    /**
+     * @return true if node data is cached locally
+     */
+    public boolean isEnabled() {
+      return enabled;
+    }
+
+    public void setEnabled(boolean enabled) {
+      this.enabled = enabled;
+    }
+
+    /**
+     * The maximum number of cached data objects, which only applies when no maximum weight is set.
+     *
+     * @return the maximum number of cached data objects
+     */
+    public long getMaximumSize() {
+      return maximumSize;
+    }
+
+    public void setMaximumSize(long maximumSize) {
+      this.maximumSize = maximumSize;
+    }
+
+    /**
+     * The maximum total number of bytes that the cached data objects take up in Redis, or 0 to bound the cache by {@link #getMaximumSize()} instead.
+     * Each object weighs as much as its encoded form, so it is lighter when it is stored as {@link DataFormat#SMILE} or compressed than when it is stored as plain JSON.
+     *
+     * @return the maximum weight of the cache
+     */
+    public long getMaximumWeight() {
+      return maximumWeight;
+    }
+
+    public void setMaximumWeight(long maximumWeight) {
+      this.maximumWeight = maximumWeight;
+    }
+
+    /**
+     * The time after which a cached data object is read from Redis again, which bounds how stale the cache can be if an invalidation is missed.
+     *
+     * @return the Time-to-Live of cached data objects
+     */
+    public Duration getExpireAfterWrite() {
+      return expireAfterWrite;
+    }
+
+    public void setExpireAfterWrite(Duration expireAfterWrite) {
+      this.expireAfterWrite = expireAfterWrite;
+    }
   }
 }
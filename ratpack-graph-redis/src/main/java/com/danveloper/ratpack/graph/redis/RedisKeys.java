@@ -0,0 +1,137 @@
+package com.danveloper.ratpack.graph.redis;
+
+import com.google.common.base.Charsets;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hashing;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+/**
+ * The names of the Redis keys that the repositories store nodes and data in.
+ * <p>
+ * By default every node is stored in the {@code node:all} hash, its data in {@code data:all}, and the nodes of a classifier are indexed in a single {@code classifier:} set and {@code lastaccess:} sorted set.
+ * In the tagged layout, which is always used with Redis Cluster, nodes are spread over {@link RedisGraphModule.Config#getBuckets()} buckets by a hash of their composite id.
+ * Every key of a bucket carries the bucket as a hash tag, such as {@code node:{3}} and {@code classifier:{3}:type:category}, so that every key that a script touches for a node is in the same cluster slot.
+ */
+class RedisKeys {
+  private static final HashFunction BUCKET_HASH = Hashing.murmur3_32();
+
+  private final boolean tagged;
+  private final int buckets;
+
+  RedisKeys(RedisGraphModule.Config config) {
+    this(!config.getClusterNodes().isEmpty() || config.getBuckets() > 1, Math.max(1, config.getBuckets()));
+  }
+
+  private RedisKeys(boolean tagged, int buckets) {
+    this.tagged = tagged;
+    this.buckets = buckets;
+  }
+
+  /**
+   * @return the keys of the default layout, which nodes are moved out of when they are migrated to buckets
+   */
+  static RedisKeys untagged() {
+    return new RedisKeys(false, 1);
+  }
+
+  /**
+   * @return true if keys carry the bucket as a hash tag
+   */
+  boolean isTagged() {
+    return tagged;
+  }
+
+  /**
+   * @return every bucket
+   */
+  List<Integer> buckets() {
+    return IntStream.range(0, buckets).boxed().collect(Collectors.toList());
+  }
+
+  int bucket(String compositeId) {
+    return buckets == 1 ? 0 : Math.floorMod(BUCKET_HASH.hashString(compositeId, Charsets.UTF_8).asInt(), buckets);
+  }
+
+  /**
+   * Groups values by the bucket of their composite id, keeping their order within each bucket.
+   */
+  <T> Map<Integer, List<T>> byBucket(Collection<T> values, Function<T, String> compositeId) {
+    if (buckets == 1) {
+      Map<Integer, List<T>> all = Maps.newHashMap();
+      if (!values.isEmpty()) {
+        all.put(0, Lists.newArrayList(values));
+      }
+      return all;
+    }
+    return values.stream().collect(Collectors.groupingBy(value -> bucket(compositeId.apply(value)), Maps::newLinkedHashMap, Collectors.toList()));
+  }
+
+  /**
+   * @return the part of the key of a bucket that follows the key prefix
+   */
+  private String tag(int bucket) {
+    return tagged ? "{" + bucket + "}:" : "";
+  }
+
+  String nodes(int bucket) {
+    return tagged ? "node:{" + bucket + "}" : "node:all";
+  }
+
+  String data(int bucket) {
+    return tagged ? "data:{" + bucket + "}" : "data:all";
+  }
+
+  String classifier(int bucket, String classifierSuffix) {
+    return "classifier:" + tag(bucket) + classifierSuffix;
+  }
+
+  String accessIndex(int bucket, String classifierSuffix) {
+    return "lastaccess:" + tag(bucket) + classifierSuffix;
+  }
+
+  String dependents(String compositeId) {
+    return "dependents:" + tag(bucket(compositeId)) + compositeId;
+  }
+
+  String relationships(String compositeId) {
+    return "relationships:" + tag(bucket(compositeId)) + compositeId;
+  }
+
+  /**
+   * Scripts are given these keys rather than building them, so that every key they touch is declared to Redis, and so checked to be in the slot of the bucket.
+   *
+   * @return the keys that a script updates along with the node hash when it moves or removes a node: its classifier index set, its last access index, its dependents set and its relationships set
+   */
+  List<String> node(String compositeId) {
+    int bucket = bucket(compositeId);
+    String classifierSuffix = classifierSuffix(compositeId);
+    return Lists.newArrayList(classifier(bucket, classifierSuffix), accessIndex(bucket, classifierSuffix), dependents(compositeId), relationships(compositeId));
+  }
+
+  /**
+   * Reads the classifier of a composite id as it appears in the per-classifier keys, which does not need the classifier of a compact id to be known locally.
+   */
+  static String classifierSuffix(String compositeId) {
+    if (RedisSupport.isCompactId(compositeId)) {
+      return RedisSupport.getClassifierCode(compositeId);
+    }
+    int categoryStart = compositeId.lastIndexOf(':');
+    return compositeId.substring(compositeId.lastIndexOf(':', categoryStart - 1) + 1);
+  }
+
+  String classifierCodes() {
+    return tagged ? "{classifier}:codes" : "classifier:codes";
+  }
+
+  String classifierNames() {
+    return tagged ? "{classifier}:names" : "classifier:names";
+  }
+}
@@ -1,62 +1,298 @@
 package com.danveloper.ratpack.graph.redis;
 
+import com.danveloper.ratpack.graph.NodeClassifier;
 import com.danveloper.ratpack.graph.NodeDataRepository;
 import com.danveloper.ratpack.graph.NodeProperties;
-import com.fasterxml.jackson.annotation.JsonTypeInfo;
-import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
-import com.google.common.util.concurrent.FutureCallback;
-import com.google.common.util.concurrent.Futures;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.stats.CacheStats;
+import com.google.common.base.Joiner;
+import com.google.common.base.Splitter;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
 import com.google.inject.Inject;
+import com.lambdaworks.redis.pubsub.RedisPubSubAdapter;
+import com.lambdaworks.redis.pubsub.StatefulRedisPubSubConnection;
+import ratpack.exec.Blocking;
 import ratpack.exec.Execution;
 import ratpack.exec.Operation;
 import ratpack.exec.Promise;
+import ratpack.service.DependsOn;
+import ratpack.service.StartEvent;
+import ratpack.service.StopEvent;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
 
 import static ratpack.util.Exceptions.uncheck;
 
+/**
+ * Stores node data in Redis, optionally behind a near cache that is kept coherent across application instances.
+ * It depends on the {@link RedisConnectionProvider} that it shares connections with, so that they are opened before it starts and closed after it stops.
+ */
+@DependsOn(RedisConnectionProvider.class)
 public class RedisNodeDataRepository extends RedisSupport implements NodeDataRepository {
+  static final String INVALIDATION_CHANNEL = "data:invalidations";
+  static final int INVALIDATION_BATCH_SIZE = 1000;
+  private static final Splitter INVALIDATION_SPLITTER = Splitter.on('\n');
+  private static final Joiner INVALIDATION_JOINER = Joiner.on('\n');
 
-  private final ObjectMapper mapper;
+  private final NodeDataCodec codec;
+  private final Cache<NodeProperties, CachedData> nearCache;
+  private final AtomicLong invalidations = new AtomicLong();
+  private StatefulRedisPubSubConnection<String, String> invalidationConnection;
 
-  @Inject
+  /**
+   * Creates a repository that stores data with the codec selected by {@link RedisGraphModule.Config#getDataFormat()}.
+   *
+   * @param config the Redis configuration
+   * @param mapper the mapper whose modules and settings are used to encode the data
+   */
   public RedisNodeDataRepository(RedisGraphModule.Config config, ObjectMapper mapper) {
+    this(config, RedisGraphModule.createNodeDataCodec(config, mapper));
+  }
+
+  public RedisNodeDataRepository(RedisGraphModule.Config config, NodeDataCodec codec) {
     super(config);
-    this.mapper = mapper.copy().enableDefaultTyping(ObjectMapper.DefaultTyping.NON_FINAL, JsonTypeInfo.As.PROPERTY);
+    this.codec = codec;
+    this.nearCache = config.getNearCache().isEnabled() ? buildNearCache(config.getNearCache()) : null;
   }
 
+  @Inject
+  public RedisNodeDataRepository(RedisGraphModule.Config config, NodeDataCodec codec, RedisConnectionProvider connections) {
+    super(config, connections);
+    this.codec = codec;
+    this.nearCache = config.getNearCache().isEnabled() ? buildNearCache(config.getNearCache()) : null;
+  }
+
+  /**
+   * With the near cache enabled, subscribes to the invalidations that other application instances publish.
+   * When started in an execution, the connection is opened on a blocking thread and the subscription completes asynchronously, and the application starts once it has.
+   */
   @Override
-  public <T> Promise<T> get(NodeProperties properties) {
-    return hget("data:all", getCompositeId(properties)).map(json -> {
-      if (json != null) {
-        JsonNode jsonNode = mapper.readTree(json);
-        JsonNode classNode = jsonNode.get("@class");
-        if (classNode.isNull()) {
-          throw new RuntimeException("Could not extract @class property from stored json");
-        } else {
-          String className = classNode.asText();
-          Class clazz = Class.forName(className);
-          return (T) mapper.readValue(json, clazz);
+  public void onStart(StartEvent e) {
+    super.onStart(e);
+    if (nearCache == null) {
+      return;
+    }
+    if (Execution.isManagedThread()) {
+      Blocking.get(connections::connectPubSub)
+          .flatMap(connection -> {
+            listen(connection);
+            return subscribe(connection);
+          })
+          .operation()
+          .then();
+    } else {
+      listen(connections.connectPubSub());
+      invalidationConnection.sync().subscribe(INVALIDATION_CHANNEL);
+    }
+  }
+
+  private void listen(StatefulRedisPubSubConnection<String, String> connection) {
+    invalidationConnection = connection;
+    connection.addListener(new RedisPubSubAdapter<String, String>() {
+      @Override
+      public void message(String channel, String message) {
+        invalidations.incrementAndGet();
+        for (String compositeId : INVALIDATION_SPLITTER.split(message)) {
+          // data can only have been cached for classifiers that this instance has interned
+          if (isResolved(compositeId)) {
+            nearCache.invalidate(destructureCompositeId(compositeId));
+          }
         }
+      }
+    });
+  }
+
+  private Promise<Void> subscribe(StatefulRedisPubSubConnection<String, String> connection) {
+    return Promise.<Void>async(d ->
+        connection.async().subscribe(INVALIDATION_CHANNEL).handleAsync((result, failure) -> {
+          if (failure == null) {
+            d.success(null);
+          } else {
+            d.error(new RuntimeException("Failed to subscribe to " + INVALIDATION_CHANNEL, failure));
+          }
+          return null;
+        }, Execution.current().getEventLoop())
+    );
+  }
+
+  @Override
+  public void onStop(StopEvent e) {
+    if (invalidationConnection != null) {
+      invalidationConnection.close();
+    }
+    super.onStop(e);
+  }
+
+  /**
+   * @return the hit and miss counts of the near cache, which are all zero if the near cache is disabled
+   */
+  public CacheStats getNearCacheStats() {
+    return nearCache != null ? nearCache.stats() : CacheStats.empty();
+  }
+
+  @Override
+  public <T> Promise<T> get(NodeProperties properties) {
+    if (nearCache != null) {
+      CachedData cached = nearCache.getIfPresent(properties);
+      if (cached != null) {
+        return Promise.value((T) cached.value);
+      }
+    }
+    long generation = invalidations.get();
+    return intern(properties.getClassifier()).flatMap(v -> hget(getCompositeId(properties))).map(bytes -> bytes != null ? decode(properties, bytes, generation) : null);
+  }
+
+  @Override
+  public <T> Promise<Map<NodeProperties, T>> getAll(Collection<NodeProperties> properties) {
+    Map<NodeProperties, T> result = Maps.newHashMapWithExpectedSize(properties.size());
+    List<NodeProperties> misses = Lists.newArrayListWithCapacity(properties.size());
+    for (NodeProperties props : properties) {
+      CachedData cached = nearCache != null ? nearCache.getIfPresent(props) : null;
+      if (cached != null) {
+        result.put(props, (T) cached.value);
       } else {
-        return null;
+        misses.add(props);
       }
+    }
+    if (misses.isEmpty()) {
+      return Promise.value(result);
+    }
+    long generation = invalidations.get();
+    return intern(getClassifiers(misses)).flatMap(v -> {
+      List<List<NodeProperties>> buckets = Lists.newArrayList(keys.byBucket(misses, this::getCompositeId).values());
+      return forEachBucket(buckets, bucket -> connections.dataCommands().hmget(keys.data(keys.bucket(getCompositeId(bucket.get(0)))), getCompositeIds(bucket)), "hmget data").map(values -> {
+        for (int i = 0; i < buckets.size(); i++) {
+          List<NodeProperties> bucket = buckets.get(i);
+          for (int j = 0; j < bucket.size(); j++) {
+            byte[] bytes = values.get(i).get(j);
+            if (bytes != null) {
+              result.put(bucket.get(j), decode(bucket.get(j), bytes, generation));
+            }
+          }
+        }
+        return result;
+      });
     });
   }
 
   @Override
   public Operation save(NodeProperties properties, Object object) {
-    String json = uncheck(() -> mapper.writeValueAsString(object));
-    return hset("data:all", getCompositeId(properties), json);
+    byte[] bytes = uncheck(() -> codec.encode(object));
+    return intern(properties.getClassifier())
+        .flatMap(v -> hset(getCompositeId(properties), bytes))
+        .operation()
+        .next(invalidate(Collections.singleton(properties)));
+  }
+
+  @Override
+  public Operation saveAll(Map<NodeProperties, ?> objects) {
+    if (objects.isEmpty()) {
+      return Operation.noop();
+    }
+    Map<NodeProperties, byte[]> encoded = Maps.newHashMapWithExpectedSize(objects.size());
+    objects.forEach((properties, object) -> encoded.put(properties, uncheck(() -> codec.encode(object))));
+    return intern(getClassifiers(encoded.keySet())).flatMap(v -> {
+      Map<Integer, Map<String, byte[]>> buckets = Maps.newHashMap();
+      encoded.forEach((properties, bytes) -> {
+        String compositeId = getCompositeId(properties);
+        buckets.computeIfAbsent(keys.bucket(compositeId), b -> Maps.newHashMap()).put(compositeId, bytes);
+      });
+      return forEachBucket(Lists.newArrayList(buckets.entrySet()), bucket -> connections.dataCommands().hmset(keys.data(bucket.getKey()), bucket.getValue()), "hmset data");
+    }).operation().next(invalidate(objects.keySet()));
   }
 
   @Override
   public Operation remove(NodeProperties properties) {
-    return hdel("data:all", getCompositeId(properties)).operation();
+    return intern(properties.getClassifier())
+        .flatMap(v -> hdel(getCompositeId(properties)))
+        .operation()
+        .next(invalidate(Collections.singleton(properties)));
+  }
+
+  @Override
+  public Operation removeAll(Collection<NodeProperties> properties) {
+    if (properties.isEmpty()) {
+      return Operation.noop();
+    }
+    return intern(getClassifiers(properties))
+        .flatMap(v -> forEachBucket(Lists.newArrayList(keys.byBucket(properties, this::getCompositeId).values()), bucket -> connections.dataCommands().hdel(keys.data(keys.bucket(getCompositeId(bucket.get(0)))), getCompositeIds(bucket)), "hdel data"))
+        .operation()
+        .next(invalidate(properties));
+  }
+
+  private String[] getCompositeIds(List<NodeProperties> properties) {
+    return properties.stream().map(this::getCompositeId).toArray(String[]::new);
+  }
+
+  private static Set<NodeClassifier> getClassifiers(Collection<NodeProperties> properties) {
+    return properties.stream().map(NodeProperties::getClassifier).collect(Collectors.toSet());
+  }
+
+  private static Cache<NodeProperties, CachedData> buildNearCache(RedisGraphModule.NearCache config) {
+    Caffeine<Object, Object> builder = Caffeine.newBuilder()
+        .expireAfterWrite(config.getExpireAfterWrite().toMillis(), TimeUnit.MILLISECONDS)
+        .recordStats();
+    if (config.getMaximumWeight() > 0) {
+      return builder.maximumWeight(config.getMaximumWeight()).weigher((NodeProperties properties, CachedData cached) -> cached.weight).build();
+    }
+    return builder.maximumSize(config.getMaximumSize()).build();
+  }
+
+  /**
+   * Drops the data of the provided nodes from the near cache of this and every other application instance, once it has been written to Redis.
+   * Bumping the invalidation count keeps reads that were already in flight from caching the data they read before the write.
+   * The composite ids are published as newline-separated messages of at most {@link #INVALIDATION_BATCH_SIZE} ids, so a bulk write costs a few messages rather than one per node.
+   */
+  private Operation invalidate(Collection<NodeProperties> properties) {
+    if (nearCache == null) {
+      return Operation.noop();
+    }
+    return Promise.<Void>async(d -> {
+      invalidations.incrementAndGet();
+      nearCache.invalidateAll(properties);
+      List<String> compositeIds = properties.stream().map(this::getCompositeId).collect(Collectors.toList());
+      CompletableFuture<?>[] published = Lists.partition(compositeIds, INVALIDATION_BATCH_SIZE).stream()
+          .map(batch -> connection().publish(INVALIDATION_CHANNEL, INVALIDATION_JOINER.join(batch)).toCompletableFuture())
+          .toArray(CompletableFuture<?>[]::new);
+      CompletableFuture.allOf(published).handleAsync((result, failure) -> {
+        if (failure == null) {
+          d.success(null);
+        } else {
+          d.error(new RuntimeException("Failed to publish data invalidations", failure));
+        }
+        return null;
+      }, Execution.current().getEventLoop());
+    }).operation();
   }
 
-  private Promise<String> hget(String key, String id) {
-    return Promise.<String>async(d ->
-        connection.hget(key, id).handleAsync((result, failure) -> {
+  /**
+   * Decodes data that was read from Redis, and caches it unless it was invalidated since the read began.
+   */
+  private <T> T decode(NodeProperties properties, byte[] bytes, long generation) throws Exception {
+    T value = (T) codec.decode(bytes);
+    if (nearCache != null && value != null && invalidations.get() == generation) {
+      nearCache.put(properties, new CachedData(value, bytes.length));
+      if (invalidations.get() != generation) {
+        nearCache.invalidate(properties);
+      }
+    }
+    return value;
+  }
+
+  private Promise<byte[]> hget(String id) {
+    return Promise.<byte[]>async(d ->
+        connections.dataCommands().hget(keys.data(keys.bucket(id)), id).handleAsync((result, failure) -> {
           if (failure == null) {
             if (result != null) {
               d.success(result);
@@ -71,9 +307,9 @@ public class RedisNodeDataRepository extends RedisSupport implements NodeDataRep
     );
   }
 
-  private Operation hset(String key, String id, String val) {
+  private Promise<Boolean> hset(String id, byte[] val) {
     return Promise.<Boolean>async(d ->
-        connection.hset(key, id, val).handleAsync((result, failure) -> {
+        connections.dataCommands().hset(keys.data(keys.bucket(id)), id, val).handleAsync((result, failure) -> {
           if (failure == null) {
             d.success(result);
           } else {
@@ -81,16 +317,14 @@ public class RedisNodeDataRepository extends RedisSupport implements NodeDataRep
           }
           return null;
         }, Execution.current().getEventLoop())
-    ).operation();
+    );
   }
 
-  private Promise<Boolean> hdel(String key, String id) {
+  private Promise<Boolean> hdel(String id) {
     return Promise.<Boolean>async(d ->
-        connection.hdel(key, id).handleAsync( (result, failure) -> {
+        connections.dataCommands().hdel(keys.data(keys.bucket(id)), id).handleAsync( (result, failure) -> {
           if (failure == null) {
-            if (result > 0) {
-              d.success(true);
-            }
+            d.success(result > 0);
           } else {
             d.error(new RuntimeException("Failed to hdel data", failure));
           }
@@ -98,4 +332,14 @@ public class RedisNodeDataRepository extends RedisSupport implements NodeDataRep
         }, Execution.current().getEventLoop())
     );
   }
+
+  private static class CachedData {
+    private final Object value;
+    private final int weight;
+
+    private CachedData(Object value, int weight) {
+      this.value = value;
+      this.weight = weight;
+    }
+  }
 }
@@ -1,25 +1,104 @@
 package com.danveloper.ratpack.graph.redis;
 
 import com.danveloper.ratpack.graph.*;
+import com.danveloper.ratpack.graph.internal.AccessTimeTracker;
+import com.google.common.collect.Iterables;
 import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
 import com.google.common.collect.Sets;
 import com.google.inject.Inject;
+import com.lambdaworks.redis.ScanArgs;
+import com.lambdaworks.redis.ScanCursor;
+import com.lambdaworks.redis.ScriptOutputType;
+import com.lambdaworks.redis.ValueScanCursor;
+import com.lambdaworks.redis.cluster.api.async.RedisClusterAsyncCommands;
+import ratpack.exec.ExecController;
 import ratpack.exec.Execution;
 import ratpack.exec.Operation;
 import ratpack.exec.Promise;
-import ratpack.stream.Streams;
+import ratpack.service.DependsOn;
+import ratpack.service.StartEvent;
+import ratpack.service.StopEvent;
 
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
 import java.util.stream.Collectors;
+import java.util.stream.IntStream;
 
+import static ratpack.util.Exceptions.uncheck;
+
+/**
+ * Stores nodes in Redis.
+ * It depends on the {@link RedisConnectionProvider} that it shares connections with, so that its connections are still open while it flushes buffered access times on stop.
+ */
+@DependsOn(RedisConnectionProvider.class)
 public class RedisNodeRepository extends RedisSupport implements NodeRepository {
+  private static final RedisScript SAVE_SCRIPT = RedisScript.load("save.lua");
+  private static final RedisScript RELATE_SCRIPT = RedisScript.load("relate.lua");
+  private static final RedisScript REMOVE_SCRIPT = RedisScript.load("remove.lua");
+  private static final RedisScript TOUCH_SCRIPT = RedisScript.load("touch.lua");
+  private static final RedisScript INDEX_SCRIPT = RedisScript.load("index.lua");
+  private static final RedisScript UNLINK_SCRIPT = RedisScript.load("unlink.lua");
+  private static final int EXPIRE_BATCH_SIZE = 100;
+  private static final int MAX_REMOVE_ATTEMPTS = 10;
+
+  private final AccessTimeTracker accessTimeTracker = new AccessTimeTracker();
+  private ScheduledFuture<?> accessTimeFlush;
 
-  @Inject
   public RedisNodeRepository(RedisGraphModule.Config config) {
     super(config);
   }
 
+  @Inject
+  public RedisNodeRepository(RedisGraphModule.Config config, RedisConnectionProvider connections) {
+    super(config, connections);
+  }
+
+  @Override
+  protected List<RedisScript> getScripts() {
+    return Lists.newArrayList(SAVE_SCRIPT, RELATE_SCRIPT, REMOVE_SCRIPT, TOUCH_SCRIPT, INDEX_SCRIPT, UNLINK_SCRIPT);
+  }
+
+  @Override
+  public void onStart(StartEvent e) {
+    super.onStart(e);
+    ExecController.current().ifPresent(execController -> {
+      long flushInterval = config.getAccessTimeFlushInterval().toMillis();
+      accessTimeFlush = execController.getExecutor().scheduleWithFixedDelay(() ->
+          execController.fork().start(execution -> flushAccessTimes().then()), flushInterval, flushInterval, TimeUnit.MILLISECONDS
+      );
+    });
+  }
+
+  /**
+   * Persists the access times that are still buffered before closing the connections.
+   * Outside of an execution there is no way to talk to Redis asynchronously, so the buffered access times are dropped.
+   */
+  @Override
+  public void onStop(StopEvent e) {
+    if (accessTimeFlush != null) {
+      accessTimeFlush.cancel(false);
+    }
+    if (Execution.isManagedThread()) {
+      // the execution that stops the service is not complete until the flush is, so this holds up the server stopping
+      flushAccessTimes()
+          .onError(t -> {
+            super.onStop(e);
+            throw uncheck(t);
+          })
+          .then(() -> super.onStop(e));
+    } else {
+      super.onStop(e);
+    }
+  }
+
   @Override
   public Operation save(Node node) {
     return save(node, true);
@@ -27,9 +106,42 @@ public class RedisNodeRepository extends RedisSupport implements NodeRepository
 
   @Override
   public Promise<Set<NodeProperties>> lookup(NodeClassifier classifier) {
-    return smembers(String.format("classifier:%s:%s", classifier.getType(), classifier.getCategory())).flatMap(compositeIds ->
-        Promise.value(compositeIds.stream().map(this::destructureCompositeId).collect(Collectors.toSet()))
-    );
+    return intern(classifier)
+        .flatMap(v -> smembers(readConnection(), keys.buckets().stream().map(bucket -> getClassifierId(bucket, classifier)).collect(Collectors.toList())))
+        .flatMap(members -> {
+          Set<String> compositeIds = Sets.newHashSet(Iterables.concat(members));
+          return resolve(compositeIds).map(v -> destructureCompositeIds(compositeIds));
+        });
+  }
+
+  /**
+   * With nodes that are spread over buckets, the cursor of a page is the bucket that is being scanned and the SSCAN cursor within it, such as {@code 2:17}, and the buckets are scanned one after another.
+   * Pages are always read from Redis itself rather than a replica, because an SSCAN cursor is only meaningful to the server that issued it, and consecutive pages could otherwise be read from different replicas.
+   */
+  @Override
+  public Promise<NodePage> page(NodeClassifier classifier, String cursor, int count) {
+    int separator = keys.isTagged() && cursor != null ? cursor.indexOf(':') : -1;
+    int bucket;
+    try {
+      bucket = separator < 0 ? 0 : Integer.parseInt(cursor.substring(0, separator));
+    } catch (NumberFormatException e) {
+      return Promise.error(new IllegalArgumentException(String.format("'%s' is not a cursor of the nodes of %s", cursor, classifier), e));
+    }
+    if (bucket < 0 || bucket >= keys.buckets().size()) {
+      return Promise.error(new IllegalArgumentException(String.format("'%s' is not a cursor of the nodes of %s", cursor, classifier)));
+    }
+    String bucketCursor = separator < 0 ? cursor : cursor.substring(separator + 1);
+    return intern(classifier).flatMap(v -> sscan(connection(), getClassifierId(bucket, classifier), bucketCursor, count)).map(scan -> {
+      String next;
+      if (!keys.isTagged()) {
+        next = scan.isFinished() ? null : scan.getCursor();
+      } else if (!scan.isFinished()) {
+        next = bucket + ":" + scan.getCursor();
+      } else {
+        next = bucket + 1 < keys.buckets().size() ? (bucket + 1) + ":0" : null;
+      }
+      return new NodePage(scan.getValues().stream().map(this::destructureCompositeId).collect(Collectors.toList()), next);
+    });
   }
 
   @Override
@@ -43,29 +155,126 @@ public class RedisNodeRepository extends RedisSupport implements NodeRepository
   }
 
   private Promise<Node> get(NodeProperties properties, boolean updateAccessTime) {
-    String compositeId = getCompositeId(properties);
-    return hget("node:all", compositeId).flatMap(lastAccessTime -> {
-      if (lastAccessTime != null) {
-        Promise<Set<String>> dependentMembersPromise = smembers(String.format("dependents:%s", compositeId));
-        Promise<Set<String>> relatedMembersPromise = smembers(String.format("relationships:%s", compositeId));
-
-        return dependentMembersPromise.flatMap(compositeIds ->
-            Promise.value(compositeIds.stream().map(this::destructureCompositeId).collect(Collectors.toSet()))
-        ).flatMap(dependentNodeProperties ->
-            relatedMembersPromise.flatMap(compositeIds ->
-                Promise.value(compositeIds.stream().map(this::destructureCompositeId).collect(Collectors.toSet()))
-            ).flatMap(relatedNodeProperties -> {
-              NodeEdge edge = new NodeEdge(relatedNodeProperties, dependentNodeProperties);
-              Node upd = new Node(properties, edge, updateAccessTime ? System.currentTimeMillis() : lastAccessTime);
-              return save(upd).map(() -> upd);
-            })
-        );
-      } else {
-        return Promise.value(null);
+    return intern(properties.getClassifier()).flatMap(v -> {
+      String compositeId = getCompositeId(properties);
+      RedisClusterAsyncCommands<String, String> connection = getReadConnection(updateAccessTime);
+      return hget(connection, keys.nodes(keys.bucket(compositeId)), compositeId).flatMap(lastAccessTime -> {
+        if (lastAccessTime != null) {
+          Promise<Set<String>> dependentMembersPromise = smembers(connection, keys.dependents(compositeId));
+          Promise<Set<String>> relatedMembersPromise = smembers(connection, keys.relationships(compositeId));
+
+          return dependentMembersPromise.flatMap(dependentIds ->
+              relatedMembersPromise.flatMap(relatedIds ->
+                  resolve(Sets.union(dependentIds, relatedIds)).map(resolved -> {
+                    NodeEdge edge = new NodeEdge(destructureCompositeIds(relatedIds), destructureCompositeIds(dependentIds));
+                    return new Node(properties, edge, accessTime(properties, lastAccessTime, updateAccessTime));
+                  })
+              )
+          );
+        } else {
+          return Promise.value(null);
+        }
+      });
+    });
+  }
+
+  @Override
+  public Promise<Map<NodeProperties, Node>> getAll(Collection<NodeProperties> properties) {
+    return getAll(properties, true);
+  }
+
+  @Override
+  public Promise<Map<NodeProperties, Node>> readAll(Collection<NodeProperties> properties) {
+    return getAll(properties, false);
+  }
+
+  private Promise<Map<NodeProperties, Node>> getAll(Collection<NodeProperties> properties, boolean updateAccessTime) {
+    List<NodeProperties> propsList = Lists.newArrayList(Sets.newLinkedHashSet(properties));
+    if (propsList.isEmpty()) {
+      return Promise.value(Maps.newLinkedHashMap());
+    }
+    return intern(propsList.stream().map(NodeProperties::getClassifier).collect(Collectors.toSet()))
+        .flatMap(v -> getAll(propsList, propsList.stream().map(this::getCompositeId).toArray(String[]::new), updateAccessTime));
+  }
+
+  private Promise<Map<NodeProperties, Node>> getAll(List<NodeProperties> propsList, String[] compositeIds, boolean updateAccessTime) {
+    RedisClusterAsyncCommands<String, String> connection = getReadConnection(updateAccessTime);
+    List<List<Integer>> buckets = Lists.newArrayList(keys.byBucket(
+        IntStream.range(0, compositeIds.length).boxed().collect(Collectors.toList()), index -> compositeIds[index]
+    ).values());
+    return forEachBucket(buckets, bucket -> connection.hmget(
+        keys.nodes(keys.bucket(compositeIds[bucket.get(0)])), bucket.stream().map(index -> compositeIds[index]).toArray(String[]::new)
+    ), "hmget nodes").flatMap(bucketAccessTimes -> {
+      String[] lastAccessTimes = new String[compositeIds.length];
+      for (int i = 0; i < buckets.size(); i++) {
+        for (int j = 0; j < buckets.get(i).size(); j++) {
+          lastAccessTimes[buckets.get(i).get(j)] = bucketAccessTimes.get(i).get(j);
+        }
+      }
+      List<Integer> found = Lists.newArrayList();
+      List<String> leafKeys = Lists.newArrayList();
+      for (int i = 0; i < compositeIds.length; i++) {
+        if (lastAccessTimes[i] != null) {
+          found.add(i);
+          leafKeys.add(keys.dependents(compositeIds[i]));
+          leafKeys.add(keys.relationships(compositeIds[i]));
+        }
       }
+
+      return smembers(connection, leafKeys).flatMap(leaves -> resolve(Sets.newHashSet(Iterables.concat(leaves))).map(resolved -> {
+        Map<NodeProperties, Node> nodes = Maps.newLinkedHashMap();
+        for (int i = 0; i < found.size(); i++) {
+          int index = found.get(i);
+          NodeProperties props = propsList.get(index);
+          Set<NodeProperties> dependents = destructureCompositeIds(leaves.get(i * 2));
+          Set<NodeProperties> relationships = destructureCompositeIds(leaves.get(i * 2 + 1));
+          Long lastAccessTime = accessTime(props, Long.valueOf(lastAccessTimes[index]), updateAccessTime);
+          nodes.put(props, new Node(props, new NodeEdge(relationships, dependents), lastAccessTime));
+        }
+        return nodes;
+      }));
     });
   }
 
+  private Long accessTime(NodeProperties properties, Long lastAccessTime, boolean updateAccessTime) {
+    if (updateAccessTime) {
+      long now = System.currentTimeMillis();
+      accessTimeTracker.touch(properties, now);
+      return now;
+    } else {
+      return accessTimeTracker.withPending(properties, lastAccessTime);
+    }
+  }
+
+  private Operation flushAccessTimes() {
+    Map<NodeProperties, Long> accessTimes = accessTimeTracker.drain();
+    if (accessTimes.isEmpty()) {
+      return Operation.noop();
+    }
+    return intern(accessTimes.keySet().stream().map(NodeProperties::getClassifier).collect(Collectors.toSet()))
+        .flatMap(v -> {
+          Map<Integer, List<Map.Entry<NodeProperties, Long>>> buckets = keys.byBucket(accessTimes.entrySet(), entry -> getCompositeId(entry.getKey()));
+          Promise<Long> touched = Promise.value(0L);
+          for (Map.Entry<Integer, List<Map.Entry<NodeProperties, Long>>> bucket : buckets.entrySet()) {
+            List<String> touchKeys = Lists.newArrayListWithCapacity(1 + bucket.getValue().size());
+            List<String> args = Lists.newArrayListWithCapacity(bucket.getValue().size() * 2);
+            touchKeys.add(keys.nodes(bucket.getKey()));
+            bucket.getValue().forEach(entry -> {
+              touchKeys.add(getAccessIndexId(bucket.getKey(), entry.getKey().getClassifier()));
+              args.add(getCompositeId(entry.getKey()));
+              args.add(Long.toString(entry.getValue()));
+            });
+            touched = touched.flatMap(count -> this.<Long>eval(TOUCH_SCRIPT, ScriptOutputType.INTEGER, touchKeys.toArray(new String[touchKeys.size()]), args.toArray(new String[args.size()])).map(more -> count + more));
+          }
+          return touched;
+        })
+        .mapError(t -> {
+          accessTimeTracker.restore(accessTimes);
+          throw uncheck(t);
+        })
+        .operation();
+  }
+
   @Override
   public Promise<Node> getOrCreate(NodeProperties properties) {
     return get(properties).flatMap(n -> {
@@ -78,213 +287,306 @@ public class RedisNodeRepository extends RedisSupport implements NodeRepository
     });
   }
 
+  /**
+   * Both nodes are stored with every leaf that they have, as {@link #save(Node)} would store them without removing stale leaves, so edges that were added to them before they were related are kept too.
+   */
   @Override
   public Operation relate(Node left, Node right) {
     left.getEdge().addRelationship(right.getProperties());
     right.getEdge().addDependent(left.getProperties());
-    return save(left, false).flatMap(() -> save(right, false).promise()).operation();
+
+    Set<NodeClassifier> classifiers = getClassifiers(left);
+    classifiers.addAll(getClassifiers(right));
+    return intern(classifiers).flatMap(v -> storeRelated(left, right)).operation();
+  }
+
+  /**
+   * Nodes in different buckets are stored one after the other, as the keys of the two sides of the edge are in different cluster slots.
+   */
+  private Promise<String> storeRelated(Node left, Node right) {
+    String leftId = getCompositeId(left.getProperties());
+    String rightId = getCompositeId(right.getProperties());
+    int bucket = keys.bucket(leftId);
+    if (bucket != keys.bucket(rightId)) {
+      return store(left, false).flatMap(ok -> store(right, false));
+    }
+    List<String> relateKeys = Lists.newArrayListWithCapacity(9);
+    List<String> args = Lists.newArrayList(Long.toString(System.currentTimeMillis()));
+    relateKeys.add(keys.nodes(bucket));
+    for (Node node : Arrays.asList(left, right)) {
+      String compositeId = getCompositeId(node.getProperties());
+      NodeClassifier classifier = node.getProperties().getClassifier();
+      Collections.addAll(relateKeys, getClassifierId(bucket, classifier), keys.dependents(compositeId), keys.relationships(compositeId), getAccessIndexId(bucket, classifier));
+      args.add(compositeId);
+      args.add(Integer.toString(node.getEdge().dependents().size()));
+      args.add(Integer.toString(node.getEdge().relationships().size()));
+      node.getEdge().dependents().forEach(props -> args.add(getCompositeId(props)));
+      node.getEdge().relationships().forEach(props -> args.add(getCompositeId(props)));
+    }
+    return eval(RELATE_SCRIPT, ScriptOutputType.STATUS, relateKeys.toArray(new String[relateKeys.size()]), args.toArray(new String[args.size()]));
   }
 
+  /**
+   * Searches for the path with the leaf sets alone, as the nodes themselves are never needed.
+   * Each hop of the search is a single pipelined batch of SMEMBERS against the relationships or dependents of its frontier.
+   */
   @Override
-  public Operation remove(NodeProperties properties) {
-    return get(properties).flatMap(node -> {
-      if (node != null) {
-        List<Operation> updateDepOps = node.getEdge().dependents().stream()
-            .map(dependent ->
-                get(dependent).flatMap(depNode -> {
-                  if (depNode != null) {
-                    depNode.getEdge().removeRelationship(properties);
-                    return save(depNode).promise();
-                  } else {
-                    return purgeNode(dependent).operation().promise();
-                  }
-                }).operation()
-            )
-            .collect(Collectors.toList());
-        List<Operation> updateRelOps = node.getEdge().relationships().stream()
-            .map(related ->
-                get(related).flatMap(relNode -> {
-                  if (relNode != null) {
-                    relNode.getEdge().removeDependent(properties);
-                    return save(relNode).promise();
-                  } else {
-                    return purgeNode(related).operation().promise();
-                  }
-                }).operation()
-            )
-            .collect(Collectors.toList());
-
-        Promise<Void> updateDepsPromise = mapListOpsToPromise(updateDepOps);
-        Promise<Void> updateRelsPromise = mapListOpsToPromise(updateRelOps);
-
-        return updateDepsPromise
-            .flatMap(v -> updateRelsPromise)
-            .flatMap(v -> purgeNode(properties));
-      } else {
-        return purgeNode(properties);
-      }
-    }).operation();
+  public Promise<List<NodeProperties>> shortestPath(NodeProperties from, NodeProperties to, int maxDepth) {
+    return ShortestPaths.shortestPath(frontier -> leaves(keys::relationships, frontier), frontier -> leaves(keys::dependents, frontier), from, to, maxDepth);
   }
 
-  private Promise<Boolean> purgeNode(NodeProperties properties) {
-    String compositeId = getCompositeId(properties);
-    return removeIndexClassifier(properties.getClassifier(), properties.getId()).flatMap(() ->
-        hdel("node:all", compositeId)
-    ).flatMap(v ->
-        del(String.format("dependents:%s", compositeId))
-    ).flatMap(v ->
-        del(String.format("relationships:%s", compositeId))
-    );
+  @Override
+  public Operation remove(NodeProperties properties) {
+    accessTimeTracker.discard(properties);
+    return intern(properties.getClassifier())
+        .flatMap(v -> {
+          String compositeId = getCompositeId(properties);
+          return remove(keys.bucket(compositeId), Collections.singletonList(compositeId));
+        })
+        .operation();
   }
 
   @Override
   public Operation expireAll(NodeClassifier classifier, Long ttl) {
-    return lookup(classifier).flatMap(props -> {
-      List<NodeProperties> propsList = Lists.newArrayList(props);
-      return Streams.flatYield(r -> {
-        int reqNum = new Long(r.getRequestNum()).intValue();
-        if (reqNum < propsList.size()) {
-          return get(propsList.get(reqNum), false);
-        } else {
-          return Promise.value(null);
-        }
-      }).toList();
-    }).map(nodes ->
-        nodes.stream().filter(n -> System.currentTimeMillis() - n.getLastAccessTime() > ttl).collect(Collectors.toList())
-    ).flatMap(expiredNodes ->
-        Streams.flatYield(r -> {
-          int reqNum = new Long(r.getRequestNum()).intValue();
-          if (reqNum < expiredNodes.size()) {
-            return remove(expiredNodes.get(reqNum).getProperties()).promise();
-          } else {
-            return Promise.value(null);
-          }
-        }).toList()
-    ).operation();
+    return expire(classifier, ttl, Integer.MAX_VALUE).operation();
   }
 
-  private Operation save(Node node, boolean cleanupLeaves) {
-    String compositeId = getCompositeId(node.getProperties());
-    Operation storeOp = hset("node:all", compositeId, Long.toString(System.currentTimeMillis()));
-    Operation indexOp = indexClassifier(node.getProperties().getClassifier(), compositeId);
-    Promise<Set<String>> dependentMembersPromise = smembers(String.format("dependents:%s", compositeId));
-    Promise<Set<String>> relatedMembersPromise = smembers(String.format("relationships:%s", compositeId));
-    Promise<List<Operation>> addDependentsOpsPromise = dependentMembersPromise.flatMap(dependents ->
-        saddLeaf(compositeId, node.getEdge().dependents(), dependents, "dependents")
-    );
-    Promise<List<Operation>> addRelationshipOpsPromise = relatedMembersPromise.flatMap(relateds ->
-        saddLeaf(compositeId, node.getEdge().relationships(), relateds, "relationships")
-    );
-    Promise<List<Operation>> remDependentsOpsPromise = dependentMembersPromise.flatMap(dependents ->
-        sremLeaf(compositeId, node.getEdge().dependents(), dependents, "dependents")
-    );
-    Promise<List<Operation>> remRelationshipOpsPromise = relatedMembersPromise.flatMap(relateds ->
-        sremLeaf(compositeId, node.getEdge().relationships(), relateds, "relationships")
+  @Override
+  public Promise<Integer> expire(NodeClassifier classifier, Long ttl, int limit) {
+    long expiredBefore = System.currentTimeMillis() - ttl;
+    return intern(classifier)
+        .flatMap(v -> flushAccessTimes().flatMap(index(classifier, keys.buckets())))
+        .flatMap(indexed -> expire(classifier, keys.buckets(), expiredBefore, limit))
+        .map(Long::intValue);
+  }
+
+  private Promise<Long> index(NodeClassifier classifier, List<Integer> buckets) {
+    if (buckets.isEmpty()) {
+      return Promise.value(0L);
+    }
+    int bucket = buckets.get(0);
+    String[] indexKeys = {keys.nodes(bucket), getClassifierId(bucket, classifier), getAccessIndexId(bucket, classifier)};
+    return this.<Long>eval(INDEX_SCRIPT, ScriptOutputType.INTEGER, indexKeys)
+        .flatMap(indexed -> index(classifier, buckets.subList(1, buckets.size())).map(more -> indexed + more));
+  }
+
+  /**
+   * Nodes are expired oldest first within each bucket, and the buckets are expired one after another until the limit is reached.
+   */
+  private Promise<Long> expire(NodeClassifier classifier, List<Integer> buckets, long expiredBefore, long limit) {
+    if (buckets.isEmpty()) {
+      return Promise.value(0L);
+    }
+    return expire(buckets.get(0), getAccessIndexId(buckets.get(0), classifier), expiredBefore, limit).flatMap(removed ->
+        expire(classifier, buckets.subList(1, buckets.size()), expiredBefore, limit - removed).map(more -> removed + more)
     );
+  }
 
-    return storeOp.flatMap(indexOp.promise()).flatMap(o ->
-        addDependentsOpsPromise.flatMap(this::mapListOpsToPromise)
-    ).flatMap(o ->
-        addRelationshipOpsPromise.flatMap(this::mapListOpsToPromise)
-    ).flatMap(o -> {
-      if (cleanupLeaves) {
-        return remDependentsOpsPromise.flatMap(this::mapListOpsToPromise);
-      } else {
-        return Promise.value(null);
+  private Promise<Long> expire(int bucket, String accessIndexId, long expiredBefore, long limit) {
+    if (limit <= 0) {
+      return Promise.value(0L);
+    }
+    return zrangebyscore(accessIndexId, "-inf", String.format("(%d", expiredBefore), Math.min(EXPIRE_BATCH_SIZE, limit)).flatMap(compositeIds -> {
+      if (compositeIds.isEmpty()) {
+        return Promise.value(0L);
       }
-    }).flatMap(o -> {
-      if (cleanupLeaves) {
-        return remRelationshipOpsPromise.flatMap(this::mapListOpsToPromise);
-      } else {
-        return Promise.value(null);
+      compositeIds.forEach(compositeId -> accessTimeTracker.discard(destructureCompositeId(compositeId)));
+      return remove(bucket, compositeIds)
+          .flatMap(removed -> expire(bucket, accessIndexId, expiredBefore, limit - compositeIds.size()).map(more -> removed + more));
+    });
+  }
+
+  /**
+   * Removes nodes of a single bucket.
+   * When nodes are spread over buckets their leaves are unlinked first, a bucket at a time, as the leaves may be stored in any bucket, so the removal is not atomic across buckets.
+   */
+  private Promise<Long> remove(int bucket, List<String> compositeIds) {
+    if (keys.isTagged()) {
+      return unlink(compositeIds).flatMap(purged -> remove(bucket, compositeIds, Collections.emptySet(), 1));
+    }
+    return leaves(compositeIds).flatMap(leaves -> remove(bucket, compositeIds, leaves, 1));
+  }
+
+  /**
+   * Removes nodes along with the references of the provided leaves to them.
+   * The script declares the keys of the leaves that were read beforehand, so if a node gains a leaf in the meantime it removes nothing, and the leaves are read again.
+   */
+  private Promise<Long> remove(int bucket, List<String> compositeIds, Set<String> leaves, int attempt) {
+    Set<String> ids = Sets.newLinkedHashSet(compositeIds);
+    ids.addAll(leaves);
+    List<String> removeKeys = Lists.newArrayListWithCapacity(1 + ids.size() * 4);
+    removeKeys.add(keys.nodes(bucket));
+    ids.forEach(id -> removeKeys.addAll(keys.node(id)));
+    List<String> args = Lists.newArrayListWithCapacity(2 + ids.size());
+    args.add(keys.isTagged() ? "0" : "1");
+    args.add(Integer.toString(compositeIds.size()));
+    args.addAll(ids);
+    return this.<Long>eval(REMOVE_SCRIPT, ScriptOutputType.INTEGER, removeKeys.toArray(new String[removeKeys.size()]), args.toArray(new String[args.size()])).flatMap(removed -> {
+      if (removed >= 0) {
+        return Promise.value(removed);
+      }
+      if (attempt == MAX_REMOVE_ATTEMPTS) {
+        throw new IllegalStateException(String.format("Failed to remove nodes whose leaves changed on each of %d attempts", attempt));
       }
-    }).operation();
+      return leaves(compositeIds).flatMap(current -> remove(bucket, compositeIds, current, attempt + 1));
+    });
   }
 
-  private Promise<List<Operation>> saddLeaf(String compositeId, Set<NodeProperties> edges, Set<String> relateds, String prefix) {
-    return Promise.value(edges.stream()
-        .filter(props -> !relateds.contains(getCompositeId(props)))
-        .map(props -> sadd(String.format("%s:%s", prefix, compositeId), getCompositeId(props)))
-        .collect(Collectors.toList()));
+  /**
+   * @return the composite ids of the dependents and relationships of the provided nodes
+   */
+  private Promise<Set<String>> leaves(List<String> compositeIds) {
+    return smembers(connection(), leafKeys(compositeIds)).map(leaves -> {
+      Set<String> all = Sets.newLinkedHashSet();
+      leaves.forEach(all::addAll);
+      return all;
+    });
   }
 
-  private Promise<List<Operation>> sremLeaf(String compositeId, Set<NodeProperties> edges, Set<String> relateds, String prefix) {
-    Set<String> edgeIds = edges.stream().map(this::getCompositeId).collect(Collectors.toSet());
-    return Promise.value(relateds.stream()
-        .filter(relatedCompositeId -> !edgeIds.contains(relatedCompositeId))
-        .map(relatedCompositeId -> srem(String.format("%s:%s", prefix, compositeId), relatedCompositeId))
-        .collect(Collectors.toList()));
+  private Promise<Long> unlink(List<String> compositeIds) {
+    return smembers(connection(), leafKeys(compositeIds)).flatMap(leaves -> {
+      // the dependents of a node refer to it from their relationships, and its relationships from their dependents
+      List<String[]> references = Lists.newArrayList();
+      for (int i = 0; i < compositeIds.size(); i++) {
+        String compositeId = compositeIds.get(i);
+        leaves.get(i * 2).forEach(leaf -> references.add(new String[]{leaf, keys.relationships(leaf), compositeId}));
+        leaves.get(i * 2 + 1).forEach(leaf -> references.add(new String[]{leaf, keys.dependents(leaf), compositeId}));
+      }
+      Promise<Long> purged = Promise.value(0L);
+      for (Map.Entry<Integer, List<String[]>> bucket : keys.byBucket(references, reference -> reference[0]).entrySet()) {
+        List<String> unlinkKeys = Lists.newArrayListWithCapacity(1 + bucket.getValue().size() * 5);
+        List<String> args = Lists.newArrayListWithCapacity(bucket.getValue().size() * 2);
+        unlinkKeys.add(keys.nodes(bucket.getKey()));
+        bucket.getValue().forEach(reference -> {
+          unlinkKeys.add(reference[1]);
+          unlinkKeys.addAll(keys.node(reference[0]));
+          args.add(reference[0]);
+          args.add(reference[2]);
+        });
+        purged = purged.flatMap(count -> this.<Long>eval(UNLINK_SCRIPT, ScriptOutputType.INTEGER, unlinkKeys.toArray(new String[unlinkKeys.size()]), args.toArray(new String[args.size()])).map(more -> count + more));
+      }
+      return purged;
+    });
   }
 
-  private Promise<Void> mapListOpsToPromise(List<Operation> ops) {
-    return Streams.publish(ops).flatMap(Operation::promise).toList().operation().promise();
+  private List<String> leafKeys(List<String> compositeIds) {
+    List<String> leafKeys = Lists.newArrayListWithCapacity(compositeIds.size() * 2);
+    compositeIds.forEach(compositeId -> {
+      leafKeys.add(keys.dependents(compositeId));
+      leafKeys.add(keys.relationships(compositeId));
+    });
+    return leafKeys;
   }
 
-  private Operation indexClassifier(NodeClassifier classifier, String id) {
-    return sadd(getClassifierId(classifier), id);
+  private Operation save(Node node, boolean cleanupLeaves) {
+    return intern(getClassifiers(node)).flatMap(v -> store(node, cleanupLeaves)).operation();
   }
 
-  private Operation removeIndexClassifier(NodeClassifier classifier, String id) {
-    return srem(getClassifierId(classifier), String.format("%s:%s:%s", id, classifier.getType(), classifier.getCategory()));
+  /**
+   * @return the classifiers of a node and its leaves, which must be interned before the node is stored
+   */
+  private Set<NodeClassifier> getClassifiers(Node node) {
+    Set<NodeClassifier> classifiers = Sets.newHashSet(node.getProperties().getClassifier());
+    node.getEdge().dependents().forEach(props -> classifiers.add(props.getClassifier()));
+    node.getEdge().relationships().forEach(props -> classifiers.add(props.getClassifier()));
+    return classifiers;
   }
 
-  private String getClassifierId(NodeClassifier classifier) {
-    return String.format("classifier:%s:%s", classifier.getType(), classifier.getCategory());
+  private Promise<String> store(Node node, boolean cleanupLeaves) {
+    String compositeId = getCompositeId(node.getProperties());
+    Set<NodeProperties> dependents = node.getEdge().dependents();
+    Set<NodeProperties> relationships = node.getEdge().relationships();
+
+    List<String> args = Lists.newArrayListWithCapacity(4 + dependents.size() + relationships.size());
+    args.add(compositeId);
+    args.add(Long.toString(System.currentTimeMillis()));
+    args.add(cleanupLeaves ? "1" : "0");
+    args.add(Integer.toString(dependents.size()));
+    dependents.forEach(props -> args.add(getCompositeId(props)));
+    relationships.forEach(props -> args.add(getCompositeId(props)));
+
+    int bucket = keys.bucket(compositeId);
+    String[] saveKeys = {
+        keys.nodes(bucket),
+        getClassifierId(bucket, node.getProperties().getClassifier()),
+        keys.dependents(compositeId),
+        keys.relationships(compositeId),
+        getAccessIndexId(bucket, node.getProperties().getClassifier())
+    };
+    return eval(SAVE_SCRIPT, ScriptOutputType.STATUS, saveKeys, args.toArray(new String[args.size()]));
   }
 
-  private Promise<Set<String>> smembers(String key) {
-    return Promise.<Set<String>>async(d ->
-        connection.smembers(key).handleAsync((result, failure) -> {
+  private String getClassifierId(int bucket, NodeClassifier classifier) {
+    return keys.classifier(bucket, getClassifierSuffix(classifier));
+  }
+
+  private String getAccessIndexId(int bucket, NodeClassifier classifier) {
+    return keys.accessIndex(bucket, getClassifierSuffix(classifier));
+  }
+
+  /**
+   * Reads that update the access time of the nodes go to Redis itself, so that a node that was just saved is always found.
+   */
+  private RedisClusterAsyncCommands<String, String> getReadConnection(boolean updateAccessTime) {
+    return updateAccessTime ? connection() : readConnection();
+  }
+
+  private Set<NodeProperties> destructureCompositeIds(Collection<String> compositeIds) {
+    return compositeIds.stream().map(this::destructureCompositeId).collect(Collectors.toSet());
+  }
+
+  private Promise<List<String>> zrangebyscore(String key, String min, String max, long count) {
+    return Promise.<List<String>>async(d ->
+        connection().zrangebyscore(key, min, max, 0, count).handleAsync((result, failure) -> {
           if (failure == null) {
-            d.success(result != null ? result : Sets.<String>newHashSet());
+            d.success(result);
           } else {
-            d.error(new RuntimeException("Failed to smembers", failure));
+            d.error(new RuntimeException("Failed to zrangebyscore", failure));
           }
           return null;
         }, Execution.current().getEventLoop())
     );
   }
 
-  private Operation sadd(String key, String id) {
-    return Promise.<Boolean>async(d ->
-        connection.sadd(key, id).handleAsync((result, failure) -> {
-          if (failure == null) {
-            d.success(true);
-          } else {
-            d.error(new RuntimeException("Failed to sadd data", failure));
+  private Promise<Map<NodeProperties, Set<NodeProperties>>> leaves(Function<String, String> leavesKey, List<NodeProperties> nodes) {
+    return intern(nodes.stream().map(NodeProperties::getClassifier).collect(Collectors.toSet()))
+        .flatMap(v -> smembers(readConnection(), nodes.stream().map(props -> leavesKey.apply(getCompositeId(props))).collect(Collectors.toList())))
+        .flatMap(members -> resolve(Sets.newHashSet(Iterables.concat(members))).map(resolved -> {
+          Map<NodeProperties, Set<NodeProperties>> leaves = Maps.newHashMap();
+          for (int i = 0; i < nodes.size(); i++) {
+            leaves.put(nodes.get(i), destructureCompositeIds(members.get(i)));
           }
-          return null;
-        }, Execution.current().getEventLoop())
-    ).operation();
+          return leaves;
+        }));
   }
 
-  private Operation srem(String key, String id) {
-    return Promise.<Boolean>async(d ->
-        connection.srem(key, id).handleAsync((result, failure) -> {
+  private Promise<Set<String>> smembers(RedisClusterAsyncCommands<String, String> connection, String key) {
+    return Promise.<Set<String>>async(d ->
+        connection.smembers(key).handleAsync((result, failure) -> {
           if (failure == null) {
-            d.success(true);
+            d.success(result != null ? result : Sets.<String>newHashSet());
           } else {
-            d.error(new RuntimeException("Failed to srem data", failure));
+            d.error(new RuntimeException("Failed to smembers", failure));
           }
           return null;
         }, Execution.current().getEventLoop())
-    ).operation();
+    );
   }
 
-  private Operation hset(String key, String id, String val) {
-    return Promise.<Boolean>async(d ->
-        connection.hset(key, id, val).handleAsync((result, failure) -> {
+  private Promise<ValueScanCursor<String>> sscan(RedisClusterAsyncCommands<String, String> connection, String key, String cursor, int count) {
+    return Promise.<ValueScanCursor<String>>async(d ->
+        connection.sscan(key, ScanCursor.of(cursor == null ? "0" : cursor), new ScanArgs().limit(count)).handleAsync((result, failure) -> {
           if (failure == null) {
-            d.success(true);
+            d.success(result);
           } else {
-            d.error(new RuntimeException("Failed to hset data", failure));
+            d.error(new RuntimeException("Failed to sscan", failure));
           }
           return null;
         }, Execution.current().getEventLoop())
-    ).operation();
+    );
   }
 
-  private Promise<Long> hget(String key, String id) {
+  private Promise<Long> hget(RedisClusterAsyncCommands<String, String> connection, String key, String id) {
     return Promise.<Long>async(d ->
         connection.hget(key, id).handleAsync((result, failure) -> {
           if (failure == null) {
@@ -300,26 +602,4 @@ public class RedisNodeRepository extends RedisSupport implements NodeRepository
         }, Execution.current().getEventLoop())
     );
   }
-
-  private Promise<Boolean> hdel(String key, String id) {
-    return Promise.<Boolean>async(d ->
-        connection.hdel(key, id).handleAsync((result, failure) -> {
-          if (failure == null) {
-            d.success(true);
-          }
-          return null;
-        }, Execution.current().getEventLoop())
-    );
-  }
-
-  private Promise<Boolean> del(String key) {
-    return Promise.<Boolean>async(d ->
-        connection.del(key).handleAsync((result, failure) -> {
-          if (failure == null) {
-            d.success(true);
-          }
-          return null;
-        }, Execution.current().getEventLoop())
-    );
-  }
 }
@@ -0,0 +1,55 @@
+package com.danveloper.ratpack.graph.redis;
+
+import com.google.common.base.Charsets;
+import com.google.common.hash.Hashing;
+import com.google.common.io.Resources;
+
+import static ratpack.util.Exceptions.uncheck;
+
+/**
+ * A Lua script that is executed server-side by Redis.
+ * The script source is loaded from the classpath, relative to this class, and its SHA1 digest is computed up front so that it can be invoked with EVALSHA.
+ */
+public class RedisScript {
+  private final String name;
+  private final String source;
+  private final String sha;
+
+  private RedisScript(String name, String source) {
+    this.name = name;
+    this.source = source;
+    this.sha = Hashing.sha1().hashString(source, Charsets.UTF_8).toString();
+  }
+
+  /**
+   * Loads the script with the provided resource name.
+   *
+   * @param name the name of the script resource, relative to this class
+   * @return the loaded script
+   */
+  public static RedisScript load(String name) {
+    String source = uncheck(() -> Resources.toString(Resources.getResource(RedisScript.class, name), Charsets.UTF_8));
+    return new RedisScript(name, source);
+  }
+
+  /**
+   * @return the resource name of this script
+   */
+  public String getName() {
+    return name;
+  }
+
+  /**
+   * @return the Lua source of this script
+   */
+  public String getSource() {
+    return source;
+  }
+
+  /**
+   * @return the SHA1 digest of the script source, as used by EVALSHA
+   */
+  public String getSha() {
+    return sha;
+  }
+}
@@ -2,47 +2,372 @@ package com.danveloper.ratpack.graph.redis;
 
 import com.danveloper.ratpack.graph.NodeClassifier;
 import com.danveloper.ratpack.graph.NodeProperties;
-import com.lambdaworks.redis.RedisClient;
+import com.google.common.collect.Sets;
+import com.lambdaworks.redis.MapScanCursor;
 import com.lambdaworks.redis.RedisURI;
-import com.lambdaworks.redis.api.async.RedisAsyncCommands;
-import com.lambdaworks.redis.codec.Utf8StringCodec;
+import com.lambdaworks.redis.ScanArgs;
+import com.lambdaworks.redis.ScanCursor;
+import com.lambdaworks.redis.ScriptOutputType;
+import com.lambdaworks.redis.cluster.SlotHash;
+import com.lambdaworks.redis.cluster.api.async.RedisClusterAsyncCommands;
+import io.netty.channel.EventLoop;
+import ratpack.exec.Blocking;
+import ratpack.exec.Execution;
+import ratpack.exec.Promise;
 import ratpack.service.Service;
 import ratpack.service.StartEvent;
+import ratpack.service.StopEvent;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+import java.util.stream.Collectors;
 
 public class RedisSupport implements Service {
-  private final RedisGraphModule.Config config;
-  protected RedisAsyncCommands<String, String> connection;
+  private static final RedisScript INTERN_SCRIPT = RedisScript.load("intern.lua");
+  private static final int MAX_CLASSIFIER_CODE_LENGTH = 9;
+
+  protected final RedisGraphModule.Config config;
+  private final Map<NodeClassifier, String> classifierCodes = new ConcurrentHashMap<>();
+  private final Map<String, NodeClassifier> classifiersByCode = new ConcurrentHashMap<>();
+  protected final RedisConnectionProvider connections;
+  protected final RedisKeys keys;
+  private final boolean ownsConnections;
 
+  /**
+   * Creates a repository with connections of its own, which are closed when it stops.
+   *
+   * @param config the Redis configuration
+   */
   public RedisSupport(RedisGraphModule.Config config) {
+    this(config, new RedisConnectionProvider(config), true);
+  }
+
+  /**
+   * Creates a repository that shares the connections of the provided provider.
+   *
+   * @param config the Redis configuration
+   * @param connections the provider of the shared connections
+   */
+  public RedisSupport(RedisGraphModule.Config config, RedisConnectionProvider connections) {
+    this(config, connections, false);
+  }
+
+  private RedisSupport(RedisGraphModule.Config config, RedisConnectionProvider connections, boolean ownsConnections) {
     this.config = config;
+    this.connections = connections;
+    this.ownsConnections = ownsConnections;
+    this.keys = new RedisKeys(config);
   }
 
+  /**
+   * Loads the scripts of the repository, once the connections that it owns, if any, have been opened on a blocking thread.
+   */
   @Override
   public void onStart(StartEvent e) {
-    RedisClient redisClient = RedisClient.create(getRedisURI());
-    this.connection = redisClient.connect(new Utf8StringCodec()).async();
+    if (!ownsConnections) {
+      loadScripts();
+    } else if (Execution.isManagedThread()) {
+      Blocking.op(connections::connect).then(this::loadScripts);
+    } else {
+      connections.connect();
+      loadScripts();
+    }
+  }
+
+  private void loadScripts() {
+    RedisClusterAsyncCommands<String, String> connection = connection();
+    getScripts().forEach(script -> connection.scriptLoad(script.getSource()));
+    if (config.isCompactIds()) {
+      connection.scriptLoad(INTERN_SCRIPT.getSource());
+    }
+  }
+
+  @Override
+  public void onStop(StopEvent e) {
+    if (ownsConnections) {
+      connections.close();
+    }
+  }
+
+  protected List<RedisScript> getScripts() {
+    return Collections.emptyList();
   }
 
   public RedisURI getRedisURI() {
-    RedisURI.Builder builder = RedisURI.Builder.redis(config.getHost());
+    return connections.getRedisURI();
+  }
+
+  /**
+   * @return the connection of the current execution to Redis
+   */
+  protected RedisClusterAsyncCommands<String, String> connection() {
+    return connections.commands();
+  }
+
+  /**
+   * @return the connection of the current execution for reads that may lag behind writes, which is to a replica if there are any
+   */
+  protected RedisClusterAsyncCommands<String, String> readConnection() {
+    return connections.readCommands();
+  }
+
+  protected <T> Promise<T> eval(RedisScript script, ScriptOutputType type, String[] keys, String... args) {
+    if (isSingleSlotRequired()) {
+      for (String key : keys) {
+        if (SlotHash.getSlot(key) != SlotHash.getSlot(keys[0])) {
+          return Promise.error(new IllegalStateException(String.format("Script %s would access both %s and %s, which are in different cluster slots", script.getName(), keys[0], key)));
+        }
+      }
+    }
+    return Promise.<T>async(d -> {
+      EventLoop eventLoop = Execution.current().getEventLoop();
+      RedisClusterAsyncCommands<String, String> connection = connection();
+      connection.<T>evalsha(script.getSha(), type, keys, args).handleAsync((result, evalshaFailure) -> {
+        Throwable failure = evalshaFailure != null ? evalshaFailure : getMultiError(type, result);
+        if (failure == null) {
+          d.success(result);
+        } else if (failure.getMessage() != null && failure.getMessage().startsWith("NOSCRIPT")) {
+          connection.<T>eval(script.getSource(), type, keys, args).handleAsync((evalResult, evalError) -> {
+            Throwable evalFailure = evalError != null ? evalError : getMultiError(type, evalResult);
+            if (evalFailure == null) {
+              d.success(evalResult);
+            } else {
+              d.error(new RuntimeException(String.format("Failed to eval script %s", script.getName()), evalFailure));
+            }
+            return null;
+          }, eventLoop);
+        } else {
+          d.error(new RuntimeException(String.format("Failed to evalsha script %s", script.getName()), failure));
+        }
+        return null;
+      }, eventLoop);
+    });
+  }
 
-    if (config.getPassword() != null) {
-      builder.withPassword(config.getPassword());
+  /**
+   * Lettuce reports a script error as the only element of a {@link ScriptOutputType#MULTI} result, rather than failing the command.
+   */
+  private static Throwable getMultiError(ScriptOutputType type, Object result) {
+    if (type == ScriptOutputType.MULTI && result instanceof List && ((List<?>) result).size() == 1 && ((List<?>) result).get(0) instanceof Throwable) {
+      return (Throwable) ((List<?>) result).get(0);
     }
+    return null;
+  }
+
+  /**
+   * @return true if every key of a script must be in the same cluster slot, which is checked before the script is run
+   */
+  protected boolean isSingleSlotRequired() {
+    return keys.isTagged();
+  }
+
+  /**
+   * Reads the members of the provided sets in a single pipelined batch.
+   */
+  protected Promise<List<Set<String>>> smembers(RedisClusterAsyncCommands<String, String> connection, List<String> keys) {
+    return Promise.<List<Set<String>>>async(d -> {
+      List<CompletableFuture<Set<String>>> futures = keys.stream()
+          .map(key -> connection.smembers(key).toCompletableFuture())
+          .collect(Collectors.toList());
+      CompletableFuture.allOf(futures.toArray(new CompletableFuture<?>[futures.size()])).handleAsync((v, failure) -> {
+        if (failure == null) {
+          d.success(futures.stream()
+              .map(f -> f.join() != null ? f.join() : Sets.<String>newHashSet())
+              .collect(Collectors.toList()));
+        } else {
+          d.error(new RuntimeException("Failed to smembers", failure));
+        }
+        return null;
+      }, Execution.current().getEventLoop());
+    });
+  }
 
-    if (config.getPort() != null) {
-      builder.withPort(config.getPort());
+  /**
+   * Reads the next batch of the fields of a hash and their values.
+   */
+  protected Promise<MapScanCursor<String, String>> hscan(String key, ScanCursor cursor, int count) {
+    return Promise.<MapScanCursor<String, String>>async(d ->
+        connection().hscan(key, cursor, new ScanArgs().limit(count)).handleAsync((result, failure) -> {
+          if (failure == null) {
+            d.success(result);
+          } else {
+            d.error(new RuntimeException("Failed to hscan", failure));
+          }
+          return null;
+        }, Execution.current().getEventLoop())
+    );
+  }
+
+  /**
+   * Sends a command for each bucket without waiting for the others, so that they are pipelined to every shard at once.
+   *
+   * @return a promise to the result of each command, in the order of the buckets
+   */
+  protected <B, R> Promise<List<R>> forEachBucket(List<B> buckets, Function<B, CompletionStage<R>> command, String name) {
+    return Promise.<List<R>>async(d -> {
+      List<CompletableFuture<R>> futures = buckets.stream().map(bucket -> command.apply(bucket).toCompletableFuture()).collect(Collectors.toList());
+      CompletableFuture.allOf(futures.toArray(new CompletableFuture<?>[futures.size()])).handleAsync((result, failure) -> {
+        if (failure == null) {
+          d.success(futures.stream().map(CompletableFuture::join).collect(Collectors.toList()));
+        } else {
+          d.error(new RuntimeException("Failed to " + name, failure));
+        }
+        return null;
+      }, Execution.current().getEventLoop());
+    });
+  }
+
+  /**
+   * Makes sure that the provided classifiers have codes, allocating them in Redis for classifiers that have never been stored.
+   * With {@link RedisGraphModule.Config#isCompactIds() compact ids} this must complete before the composite ids of nodes of these classifiers are built, and it does nothing otherwise.
+   *
+   * @param classifiers the classifiers of the nodes that are about to be written or read
+   * @return a promise that completes once every classifier has a code
+   */
+  protected Promise<Void> intern(Collection<NodeClassifier> classifiers) {
+    if (!config.isCompactIds()) {
+      return Promise.value(null);
     }
+    List<NodeClassifier> unknown = classifiers.stream().distinct().filter(classifier -> !classifierCodes.containsKey(classifier)).collect(Collectors.toList());
+    if (unknown.isEmpty()) {
+      return Promise.value(null);
+    }
+    String[] names = unknown.stream().map(RedisSupport::getClassifierName).toArray(String[]::new);
+    return this.<List<String>>eval(INTERN_SCRIPT, ScriptOutputType.MULTI, new String[]{keys.classifierCodes(), keys.classifierNames()}, names).map(codes -> {
+      for (int i = 0; i < codes.size(); i++) {
+        remember(unknown.get(i), codes.get(i));
+      }
+      return null;
+    });
+  }
 
-    return builder.build();
+  protected Promise<Void> intern(NodeClassifier classifier) {
+    return intern(Collections.singleton(classifier));
   }
 
+  /**
+   * Makes sure that the classifier of each of the provided composite ids is known, so that they can be destructured.
+   * Classifiers that were interned by another application instance are read from Redis.
+   *
+   * @param compositeIds the composite ids that were read from Redis
+   * @return a promise that completes once every classifier is known
+   */
+  protected Promise<Void> resolve(Collection<String> compositeIds) {
+    if (!config.isCompactIds()) {
+      return Promise.value(null);
+    }
+    Set<String> unknown = compositeIds.stream().filter(RedisSupport::isCompactId).map(RedisSupport::getClassifierCode).filter(code -> !classifiersByCode.containsKey(code)).collect(Collectors.toSet());
+    if (unknown.isEmpty()) {
+      return Promise.value(null);
+    }
+    String[] codes = unknown.toArray(new String[unknown.size()]);
+    return Promise.<List<String>>async(d ->
+        connection().hmget(keys.classifierNames(), codes).handleAsync((result, failure) -> {
+          if (failure == null) {
+            d.success(result);
+          } else {
+            d.error(new RuntimeException("Failed to hmget classifier names", failure));
+          }
+          return null;
+        }, Execution.current().getEventLoop())
+    ).map(names -> {
+      for (int i = 0; i < codes.length; i++) {
+        if (names.get(i) == null) {
+          throw new IllegalStateException(String.format("No classifier is interned with the code %s", codes[i]));
+        }
+        remember(parseClassifierName(names.get(i)), codes[i]);
+      }
+      return null;
+    });
+  }
+
+  /**
+   * Builds the id that identifies a node in Redis keys, hash fields and set members.
+   * Ids are either {@code id:type:category}, or with {@link RedisGraphModule.Config#isCompactIds() compact ids} a single character whose value is the length of the classifier code, from 1 to 9, followed by the code and the id.
+   * The classifier of the node must have been {@link #intern(Collection) interned} for compact ids.
+   */
   protected String getCompositeId(NodeProperties props) {
-    return String.format("%s:%s:%s", props.getId(), props.getClassifier().getType(), props.getClassifier().getCategory());
+    if (config.isCompactIds()) {
+      String code = getClassifierSuffix(props.getClassifier());
+      return (char) code.length() + code + props.getId();
+    }
+    NodeClassifier classifier = props.getClassifier();
+    return props.getId() + ':' + classifier.getType() + ':' + classifier.getCategory();
   }
 
+  /**
+   * Reads the node properties back from a composite id.
+   * The classifier of a compact id must have been {@link #resolve(Collection) resolved}.
+   */
   protected NodeProperties destructureCompositeId(String compositeId) {
-    String[] parts = compositeId.split(":");
-    return new NodeProperties(parts[0], new NodeClassifier(parts[1], parts[2]));
+    if (isCompactId(compositeId)) {
+      String code = getClassifierCode(compositeId);
+      NodeClassifier classifier = classifiersByCode.get(code);
+      if (classifier == null) {
+        throw new IllegalStateException(String.format("The classifier with the code %s has not been resolved", code));
+      }
+      return NodeProperties.of(compositeId.substring(1 + code.length()), classifier);
+    }
+    int categoryStart = compositeId.lastIndexOf(':');
+    int typeStart = compositeId.lastIndexOf(':', categoryStart - 1);
+    NodeClassifier classifier = NodeClassifier.of(compositeId.substring(typeStart + 1, categoryStart), compositeId.substring(categoryStart + 1));
+    return NodeProperties.of(compositeId.substring(0, typeStart), classifier);
+  }
+
+  /**
+   * @return true if the classifier of the provided composite id is known locally, so that it can be destructured without resolving it first
+   */
+  protected boolean isResolved(String compositeId) {
+    return !isCompactId(compositeId) || classifiersByCode.containsKey(getClassifierCode(compositeId));
+  }
+
+  /**
+   * @return the part of the per-classifier keys that identifies the classifier, which is {@code type:category}, or its code with compact ids
+   */
+  protected String getClassifierSuffix(NodeClassifier classifier) {
+    if (!config.isCompactIds()) {
+      return classifier.getType() + ':' + classifier.getCategory();
+    }
+    String code = classifierCodes.get(classifier);
+    if (code == null) {
+      throw new IllegalStateException(String.format("The classifier %s:%s has not been interned", classifier.getType(), classifier.getCategory()));
+    }
+    return code;
+  }
+
+  static boolean isCompactId(String compositeId) {
+    return !compositeId.isEmpty() && compositeId.charAt(0) >= 1 && compositeId.charAt(0) <= MAX_CLASSIFIER_CODE_LENGTH;
+  }
+
+  static String getClassifierCode(String compactId) {
+    return compactId.substring(1, 1 + compactId.charAt(0));
+  }
+
+  /**
+   * Classifier names are stored as {@code typeLength:typecategory}, so that neither part needs to be escaped.
+   */
+  static String getClassifierName(NodeClassifier classifier) {
+    return classifier.getType().length() + ":" + classifier.getType() + classifier.getCategory();
+  }
+
+  static NodeClassifier parseClassifierName(String name) {
+    int typeStart = name.indexOf(':') + 1;
+    int categoryStart = typeStart + Integer.parseInt(name.substring(0, typeStart - 1));
+    return NodeClassifier.of(name.substring(typeStart, categoryStart), name.substring(categoryStart));
+  }
+
+  private void remember(NodeClassifier classifier, String code) {
+    if (code.length() > MAX_CLASSIFIER_CODE_LENGTH) {
+      throw new IllegalStateException(String.format("The classifier code %s is too long", code));
+    }
+    classifierCodes.put(classifier, code);
+    classifiersByCode.put(code, classifier);
   }
 }
@@ -0,0 +1,34 @@
+package com.danveloper.ratpack.graph.redis;
+
+import com.lambdaworks.redis.codec.RedisCodec;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Encodes keys as UTF-8 strings, and passes values through as raw bytes.
+ */
+class StringByteArrayCodec implements RedisCodec<String, byte[]> {
+
+  @Override
+  public String decodeKey(ByteBuffer bytes) {
+    return StandardCharsets.UTF_8.decode(bytes).toString();
+  }
+
+  @Override
+  public byte[] decodeValue(ByteBuffer bytes) {
+    byte[] value = new byte[bytes.remaining()];
+    bytes.get(value);
+    return value;
+  }
+
+  @Override
+  public ByteBuffer encodeKey(String key) {
+    return StandardCharsets.UTF_8.encode(key);
+  }
+
+  @Override
+  public ByteBuffer encodeValue(byte[] value) {
+    return ByteBuffer.wrap(value);
+  }
+}
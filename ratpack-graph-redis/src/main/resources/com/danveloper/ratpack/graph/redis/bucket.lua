@@ -0,0 +1,37 @@
+-- Moves nodes from node:all into the node hash of their bucket, along with their index entries and edges.
+-- The composite ids of the nodes are unchanged, so the edges of other nodes that refer to them stay valid.
+--
+-- KEYS[1] node:all
+-- KEYS[2] the node hash of the bucket of the nodes
+-- KEYS[3..] for each node, its classifier index set, last access index, dependents set and relationships set, followed by the same keys in its bucket
+--
+-- ARGV composite ids of the nodes to move
+--
+-- Returns the number of nodes that were moved.
+
+local function moveKey(key, newKey)
+  if redis.call("exists", key) == 1 then
+    redis.call("rename", key, newKey)
+  end
+end
+
+local moved = 0
+local k = 3
+for i = 1, #ARGV do
+  local compositeId = ARGV[i]
+  local lastAccessTime = redis.call("hget", KEYS[1], compositeId)
+  if lastAccessTime then
+    redis.call("hset", KEYS[2], compositeId, lastAccessTime)
+    redis.call("sadd", KEYS[k + 4], compositeId)
+    redis.call("zadd", KEYS[k + 5], lastAccessTime, compositeId)
+    moveKey(KEYS[k + 2], KEYS[k + 6])
+    moveKey(KEYS[k + 3], KEYS[k + 7])
+    redis.call("srem", KEYS[k], compositeId)
+    redis.call("zrem", KEYS[k + 1], compositeId)
+    redis.call("hdel", KEYS[1], compositeId)
+    moved = moved + 1
+  end
+  k = k + 8
+end
+
+return moved
@@ -0,0 +1,25 @@
+-- Adds nodes that are missing from the last access index of a classifier, using their access time from node:all.
+-- The index and the classifier set are kept in step by every write, so this only does any work for nodes that were stored before the index existed.
+--
+-- KEYS[1] node:all
+-- KEYS[2] classifier index set
+-- KEYS[3] last access index of the classifier
+--
+-- Returns the number of nodes that were indexed.
+
+if redis.call("zcard", KEYS[3]) >= redis.call("scard", KEYS[2]) then
+  return 0
+end
+
+local indexed = 0
+for _, compositeId in ipairs(redis.call("smembers", KEYS[2])) do
+  if not redis.call("zscore", KEYS[3], compositeId) then
+    local lastAccessTime = redis.call("hget", KEYS[1], compositeId)
+    if lastAccessTime then
+      redis.call("zadd", KEYS[3], lastAccessTime, compositeId)
+      indexed = indexed + 1
+    end
+  end
+end
+
+return indexed
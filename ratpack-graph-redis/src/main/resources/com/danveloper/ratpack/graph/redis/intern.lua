@@ -0,0 +1,21 @@
+-- Interns classifiers as short numeric codes, allocating the next code to every classifier that does not have one yet.
+--
+-- KEYS[1] classifier:codes, the code of each classifier name
+-- KEYS[2] classifier:names, the classifier name of each code
+--
+-- ARGV classifier names
+--
+-- Returns the code of each classifier, in order.
+
+local codes = {}
+for i, name in ipairs(ARGV) do
+  local code = redis.call("hget", KEYS[1], name)
+  if not code then
+    code = tostring(redis.call("hlen", KEYS[1]) + 1)
+    redis.call("hset", KEYS[1], name, code)
+    redis.call("hset", KEYS[2], code, name)
+  end
+  codes[i] = code
+end
+
+return codes
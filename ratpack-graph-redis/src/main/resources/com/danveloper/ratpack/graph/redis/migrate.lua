@@ -0,0 +1,52 @@
+-- Moves a node from its default composite id to its compact id, along with its index entries and edges.
+--
+-- KEYS[1] node:all
+-- KEYS[2] classifier index set, by classifier name
+-- KEYS[3] last access index, by classifier name
+-- KEYS[4] dependents set of the node, by default composite id
+-- KEYS[5] relationships set of the node, by default composite id
+-- KEYS[6] classifier index set, by classifier code
+-- KEYS[7] last access index, by classifier code
+-- KEYS[8] dependents set of the node, by compact id
+-- KEYS[9] relationships set of the node, by compact id
+--
+-- ARGV[1] default composite id of the node
+-- ARGV[2] compact id of the node
+-- ARGV[3] number of dependents (n)
+-- ARGV[4..3+n] compact ids of the dependents, followed by the compact ids of the relationships
+--
+-- Returns 1 if the node was moved, or 0 if it no longer exists.
+
+local lastAccessTime = redis.call("hget", KEYS[1], ARGV[1])
+if not lastAccessTime then
+  return 0
+end
+
+local numDependents = tonumber(ARGV[3])
+local dependents = {}
+local relationships = {}
+for i = 4, #ARGV do
+  if i <= 3 + numDependents then
+    dependents[#dependents + 1] = ARGV[i]
+  else
+    relationships[#relationships + 1] = ARGV[i]
+  end
+end
+
+local function storeLeaves(key, members)
+  for i = 1, #members, 1000 do
+    redis.call("sadd", key, unpack(members, i, math.min(i + 999, #members)))
+  end
+end
+
+redis.call("hset", KEYS[1], ARGV[2], lastAccessTime)
+redis.call("hdel", KEYS[1], ARGV[1])
+redis.call("srem", KEYS[2], ARGV[1])
+redis.call("sadd", KEYS[6], ARGV[2])
+redis.call("zrem", KEYS[3], ARGV[1])
+redis.call("zadd", KEYS[7], lastAccessTime, ARGV[2])
+redis.call("del", KEYS[4], KEYS[5])
+storeLeaves(KEYS[8], dependents)
+storeLeaves(KEYS[9], relationships)
+
+return 1
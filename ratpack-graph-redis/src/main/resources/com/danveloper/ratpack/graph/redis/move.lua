@@ -0,0 +1,20 @@
+-- Moves hash fields to another hash, keeping their values.
+--
+-- KEYS[1] the hash to move the fields from
+-- KEYS[2] the hash to move the fields to
+--
+-- ARGV the field names
+--
+-- Returns the number of fields that were moved.
+
+local moved = 0
+for i = 1, #ARGV do
+  local value = redis.call("hget", KEYS[1], ARGV[i])
+  if value then
+    redis.call("hset", KEYS[2], ARGV[i], value)
+    redis.call("hdel", KEYS[1], ARGV[i])
+    moved = moved + 1
+  end
+end
+
+return moved
@@ -0,0 +1,32 @@
+-- Relates node "left" to node "right" by persisting both nodes and their edges in a single atomic step, so that both sides of the edge are stored together.
+-- Every leaf of the two nodes is persisted, including leaves that were added to them before they were related, and leaves are only ever added, as with save.lua when stale leaves are kept.
+--
+-- KEYS[1] the node hash of the bucket of both nodes
+-- KEYS[2..5] classifier index set, dependents set, relationships set and last access index of the left node
+-- KEYS[6..9] the same keys of the right node
+--
+-- ARGV[1] last access time
+-- ARGV[2..] for the left node and then the right node: its composite id, its number of dependents (d), its number of relationships (r), its d dependent composite ids and then its r relationship composite ids
+
+local now = ARGV[1]
+
+local function addAll(key, first, count)
+  for i = first, first + count - 1, 1000 do
+    redis.call("sadd", key, unpack(ARGV, i, math.min(i + 999, first + count - 1)))
+  end
+end
+
+local i = 2
+for k = 2, 6, 4 do
+  local compositeId = ARGV[i]
+  local numDependents = tonumber(ARGV[i + 1])
+  local numRelationships = tonumber(ARGV[i + 2])
+  redis.call("hset", KEYS[1], compositeId, now)
+  redis.call("sadd", KEYS[k], compositeId)
+  redis.call("zadd", KEYS[k + 3], now, compositeId)
+  addAll(KEYS[k + 1], i + 3, numDependents)
+  addAll(KEYS[k + 2], i + 3 + numDependents, numRelationships)
+  i = i + 3 + numDependents + numRelationships
+end
+
+return redis.status_reply("OK")
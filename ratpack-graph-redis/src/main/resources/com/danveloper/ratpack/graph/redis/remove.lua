@@ -0,0 +1,73 @@
+-- Removes nodes and every edge reference to them in a single atomic step.
+-- Leaves that point at nodes which no longer exist are purged along the way.
+-- The leaves of the nodes are read before the script is run, so that the keys of every leaf it touches are declared.
+-- If a node has gained a leaf since, nothing is removed, so that the leaves can be read again.
+--
+-- KEYS[1] node:all, or the node hash of the bucket of the nodes
+-- KEYS[2..] for each node, followed by each of their leaves: its classifier index set, its last access index, its dependents set and its relationships set
+--
+-- ARGV[1] "1" to unlink the leaves of the nodes, or "0" if they have already been unlinked with unlink.lua, as the leaves of tagged nodes are stored in other buckets
+-- ARGV[2] number of nodes (n)
+-- ARGV[3..2+n] composite ids of the nodes to remove, followed by the composite ids of their leaves
+--
+-- Returns the number of nodes that were removed, or -1 if a node has a leaf whose keys were not declared.
+
+local CLASSIFIER, ACCESS_INDEX, DEPENDENTS, RELATIONSHIPS = 0, 1, 2, 3
+
+local unlinkLeaves = ARGV[1] == "1"
+local numNodes = tonumber(ARGV[2])
+
+local firstKey = {}
+for i = 3, #ARGV do
+  firstKey[ARGV[i]] = 2 + (i - 3) * 4
+end
+
+local function key(compositeId, kind)
+  return KEYS[firstKey[compositeId] + kind]
+end
+
+local function purge(compositeId)
+  redis.call("srem", key(compositeId, CLASSIFIER), compositeId)
+  redis.call("zrem", key(compositeId, ACCESS_INDEX), compositeId)
+  redis.call("del", key(compositeId, DEPENDENTS), key(compositeId, RELATIONSHIPS))
+  return redis.call("hdel", KEYS[1], compositeId)
+end
+
+local function declared(compositeId, leavesKind)
+  for _, leaf in ipairs(redis.call("smembers", key(compositeId, leavesKind))) do
+    if not firstKey[leaf] then
+      return false
+    end
+  end
+  return true
+end
+
+local function unlink(compositeId, leavesKind, otherSideKind)
+  for _, leaf in ipairs(redis.call("smembers", key(compositeId, leavesKind))) do
+    if redis.call("hexists", KEYS[1], leaf) == 1 then
+      redis.call("srem", key(leaf, otherSideKind), compositeId)
+    else
+      purge(leaf)
+    end
+  end
+end
+
+if unlinkLeaves then
+  for i = 3, 2 + numNodes do
+    if not declared(ARGV[i], DEPENDENTS) or not declared(ARGV[i], RELATIONSHIPS) then
+      return -1
+    end
+  end
+end
+
+local removed = 0
+for i = 3, 2 + numNodes do
+  local compositeId = ARGV[i]
+  if unlinkLeaves then
+    unlink(compositeId, DEPENDENTS, RELATIONSHIPS)
+    unlink(compositeId, RELATIONSHIPS, DEPENDENTS)
+  end
+  removed = removed + purge(compositeId)
+end
+
+return removed
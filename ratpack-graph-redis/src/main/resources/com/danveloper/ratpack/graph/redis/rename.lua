@@ -0,0 +1,19 @@
+-- Renames hash fields, keeping their values.
+--
+-- KEYS[1] the hash
+--
+-- ARGV pairs of current and new field name
+--
+-- Returns the number of fields that were renamed.
+
+local renamed = 0
+for i = 1, #ARGV, 2 do
+  local value = redis.call("hget", KEYS[1], ARGV[i])
+  if value then
+    redis.call("hset", KEYS[1], ARGV[i + 1], value)
+    redis.call("hdel", KEYS[1], ARGV[i])
+    renamed = renamed + 1
+  end
+end
+
+return renamed
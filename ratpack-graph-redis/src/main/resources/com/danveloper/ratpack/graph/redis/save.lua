@@ -0,0 +1,51 @@
+-- Persists a node and its edges in a single round trip.
+--
+-- KEYS[1] node:all
+-- KEYS[2] classifier index set
+-- KEYS[3] dependents set of the node
+-- KEYS[4] relationships set of the node
+-- KEYS[5] last access index of the classifier
+--
+-- ARGV[1] composite id of the node
+-- ARGV[2] last access time
+-- ARGV[3] "1" if leaves that are no longer on the node should be removed
+-- ARGV[4] number of dependents (n)
+-- ARGV[5..4+n] dependent composite ids, followed by the relationship composite ids
+
+local cleanup = ARGV[3] == "1"
+local numDependents = tonumber(ARGV[4])
+
+local dependents = {}
+local relationships = {}
+for i = 5, #ARGV do
+  if i <= 4 + numDependents then
+    dependents[#dependents + 1] = ARGV[i]
+  else
+    relationships[#relationships + 1] = ARGV[i]
+  end
+end
+
+local function storeLeaves(key, members)
+  for i = 1, #members, 1000 do
+    redis.call("sadd", key, unpack(members, i, math.min(i + 999, #members)))
+  end
+  if cleanup then
+    local wanted = {}
+    for _, member in ipairs(members) do
+      wanted[member] = true
+    end
+    for _, member in ipairs(redis.call("smembers", key)) do
+      if not wanted[member] then
+        redis.call("srem", key, member)
+      end
+    end
+  end
+end
+
+redis.call("hset", KEYS[1], ARGV[1], ARGV[2])
+redis.call("sadd", KEYS[2], ARGV[1])
+redis.call("zadd", KEYS[5], ARGV[2], ARGV[1])
+storeLeaves(KEYS[3], dependents)
+storeLeaves(KEYS[4], relationships)
+
+return redis.status_reply("OK")
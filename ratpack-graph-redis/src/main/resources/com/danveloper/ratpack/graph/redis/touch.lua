@@ -0,0 +1,23 @@
+-- Persists buffered access times for nodes that still exist, keeping the latest time for each node.
+-- The last access index of each node's classifier is updated along with node:all.
+--
+-- KEYS[1] node:all, or the node hash of the bucket of the nodes
+-- KEYS[2..] the last access index of the classifier of each node, in order
+--
+-- ARGV pairs of composite id and access time
+--
+-- Returns the number of nodes whose access time was updated.
+
+local updated = 0
+local k = 2
+for i = 1, #ARGV, 2 do
+  local lastAccessTime = redis.call("hget", KEYS[1], ARGV[i])
+  if lastAccessTime and tonumber(lastAccessTime) < tonumber(ARGV[i + 1]) then
+    redis.call("hset", KEYS[1], ARGV[i], ARGV[i + 1])
+    redis.call("zadd", KEYS[k], ARGV[i + 1], ARGV[i])
+    updated = updated + 1
+  end
+  k = k + 1
+end
+
+return updated
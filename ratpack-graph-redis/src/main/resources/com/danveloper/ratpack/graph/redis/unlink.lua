@@ -0,0 +1,26 @@
+-- Removes the references to removed nodes from their leaves in one bucket, for nodes whose keys are tagged by bucket.
+-- Leaves that point at nodes which no longer exist are purged along the way.
+--
+-- KEYS[1] the node hash of the bucket of the leaves
+-- KEYS[2..] for each reference, the set of the leaf that refers to the removed node, followed by the classifier index set, the last access index, the dependents set and the relationships set of the leaf
+--
+-- ARGV pairs of the composite id of a leaf and the composite id of the removed node that it refers to
+--
+-- Returns the number of dangling leaves that were purged.
+
+local purged = 0
+local k = 2
+for i = 1, #ARGV, 2 do
+  local leaf = ARGV[i]
+  if redis.call("hexists", KEYS[1], leaf) == 1 then
+    redis.call("srem", KEYS[k], ARGV[i + 1])
+  else
+    redis.call("srem", KEYS[k + 1], leaf)
+    redis.call("zrem", KEYS[k + 2], leaf)
+    redis.call("del", KEYS[k + 3], KEYS[k + 4])
+    purged = purged + 1
+  end
+  k = k + 5
+end
+
+return purged
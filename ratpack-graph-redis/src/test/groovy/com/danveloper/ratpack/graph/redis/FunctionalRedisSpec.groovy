@@ -14,6 +14,8 @@ import ratpack.test.embed.EmbeddedApp
 import spock.lang.AutoCleanup
 import com.danveloper.ratpack.graph.Node
 
+import java.time.Duration
+
 class FunctionalRedisSpec extends RedisRepositorySpec {
 
   static Node NODE_1 = new Node(new NodeProperties("id1", TEST_GEN))
@@ -49,6 +51,40 @@ class FunctionalRedisSpec extends RedisRepositorySpec {
     resp.foo == NODE_1_DATA.foo
   }
 
+  void "stopping the application should flush buffered access times before the shared connections are closed"() {
+    setup:
+    def props = new NodeProperties("id2", TEST_GEN)
+    def stoppable = EmbeddedApp.of({ spec ->
+      spec.registry(Guice.registry { b ->
+        b.module(RedisGraphModule) { c ->
+          c.port = port
+          c.accessTimeFlushInterval = Duration.ofHours(1)
+        }
+      })
+      .handlers { chain ->
+        chain.get { ctx ->
+          ctx.get(NodeRepository).getOrCreate(props).then { node -> ctx.render node.lastAccessTime.toString() }
+        }
+      }
+    } as Action)
+    def conn = client.connect().sync()
+
+    when:
+    stoppable.httpClient.getText()
+    conn.hset("node:all", "id2:test:general", "1")
+    def accessTime = stoppable.httpClient.getText()
+
+    and: "the repositories and the connection provider are stopped as services of the application"
+    stoppable.server.stop()
+
+    then:
+    conn.hget("node:all", "id2:test:general") == accessTime
+
+    cleanup:
+    stoppable?.close()
+    conn?.close()
+  }
+
   static class TestObj {
     String foo
   }
@@ -0,0 +1,193 @@
+package com.danveloper.ratpack.graph.redis
+
+import com.danveloper.ratpack.graph.Node
+import com.danveloper.ratpack.graph.NodeClassifier
+import com.danveloper.ratpack.graph.NodeProperties
+import com.fasterxml.jackson.databind.ObjectMapper
+import com.lambdaworks.redis.RedisClient
+import ratpack.test.exec.ExecHarness
+import spock.lang.AutoCleanup
+import spock.lang.Requires
+import spock.lang.Shared
+import spock.lang.Specification
+import spock.util.concurrent.PollingConditions
+
+import static com.danveloper.ratpack.graph.redis.PortFinder.nextFree
+
+/**
+ * Runs the repositories against a Redis Cluster of three masters, which is started from the {@code redis-server} binary named by the {@code redis.server} system property or the {@code REDIS_SERVER} environment variable, or found on the {@code PATH}.
+ * The embedded Redis server predates Redis Cluster, so the features that need a cluster are skipped when no Redis 3 or later binary is found.
+ */
+class RedisClusterSpec extends Specification {
+  static final String SERVER = findServer()
+  static final int MASTERS = 3
+  static final int SLOTS = 16384
+
+  static NodeClassifier TEST_GEN = new NodeClassifier("test", "general")
+
+  @Shared
+  List<Integer> ports = []
+
+  @Shared
+  List<Process> servers = []
+
+  @Shared
+  File directory
+
+  @AutoCleanup
+  ExecHarness execControl = ExecHarness.harness()
+
+  def setupSpec() {
+    if (!SERVER) {
+      return
+    }
+    directory = File.createTempDir()
+    ports = (0..<MASTERS).collect { nextFree() }
+    servers = ports.collect { port ->
+      new ProcessBuilder(SERVER, "--port", "$port".toString(), "--cluster-enabled", "yes", "--cluster-config-file", "nodes-${port}.conf".toString(),
+          "--dir", directory.path, "--save", "", "--appendonly", "no")
+          .redirectErrorStream(true)
+          .redirectOutput(new File(directory, "redis-${port}.log"))
+          .start()
+    }
+    new PollingConditions(timeout: 10).eventually {
+      ports.each { port -> assert commands(port) { it.ping() } == "PONG" }
+    }
+    ports.eachWithIndex { port, i ->
+      def slots = ((SLOTS * i).intdiv(MASTERS)..<(SLOTS * (i + 1)).intdiv(MASTERS)) as int[]
+      commands(port) { it.clusterAddSlots(slots) }
+    }
+    ports.drop(1).each { port -> commands(ports[0]) { it.clusterMeet("127.0.0.1", port) } }
+    new PollingConditions(timeout: 30).eventually {
+      ports.each { port -> assert commands(port) { it.clusterInfo() }.contains("cluster_state:ok") }
+    }
+  }
+
+  def cleanupSpec() {
+    servers*.destroy()
+    servers*.waitFor()
+    directory?.deleteDir()
+  }
+
+  def cleanup() {
+    ports.each { port -> commands(port) { it.flushall() } }
+  }
+
+  @Requires({ RedisClusterSpec.SERVER })
+  void "should store nodes in the buckets of every master, running scripts that were only loaded into one of them"() {
+    setup:
+    def repo = new RedisNodeRepository(clusterConfig([ports[0]]))
+    repo.onStart(null)
+    def props = (0..<100).collect { new NodeProperties("id$it".toString(), TEST_GEN) }
+    def save = RedisScript.load("save.lua")
+
+    expect: "scripts are loaded through the cluster connection, which sends SCRIPT LOAD to a single node"
+    new PollingConditions(timeout: 5).eventually {
+      assert ports.count { port -> commands(port) { it.scriptExists(save.sha)[0] } } == 1
+    }
+
+    when:
+    props.eachWithIndex { p, i ->
+      def node = new Node(p)
+      if (i > 0) {
+        node.edge.addRelationship(props[i - 1])
+      }
+      execControl.executeSingle { repo.save(node) }
+    }
+
+    then: "the other masters ran the scripts once EVALSHA failed with NOSCRIPT"
+    ports.every { port -> commands(port) { it.dbsize() } > 0 }
+    ports.every { port -> commands(port) { it.scriptExists(save.sha)[0] } }
+
+    and:
+    execControl.yieldSingle { repo.lookup(TEST_GEN) }.valueOrThrow == props as Set
+    execControl.yieldSingle { repo.get(props[1]) }.valueOrThrow.edge.relationships() == [props[0]] as Set
+    execControl.yieldSingle { repo.get(props[0]) }.valueOrThrow.edge.dependents() == [props[1]] as Set
+    page(repo, 7) as Set == props as Set
+
+    when:
+    execControl.executeSingle { repo.remove(props[0]) }
+
+    then:
+    execControl.yieldSingle { repo.get(props[0]) }.valueOrThrow == null
+    execControl.yieldSingle { repo.get(props[1]) }.valueOrThrow.edge.relationships().isEmpty()
+
+    cleanup:
+    repo?.onStop(null)
+  }
+
+  @Requires({ RedisClusterSpec.SERVER })
+  void "should invalidate near caches across instances that subscribe through different masters"() {
+    setup:
+    def (writer, reader) = [[ports[1], ports[2]], [ports[0]]].collect { seeds ->
+      def config = clusterConfig(seeds)
+      config.nearCache.enabled = true
+      new RedisNodeDataRepository(config, new ObjectMapper())
+    }
+    [writer, reader]*.onStart(null)
+    def props = (0..<20).collect { new NodeProperties("id$it".toString(), TEST_GEN) }
+
+    when:
+    execControl.executeSingle { writer.saveAll(props.collectEntries { [(it): [foo: "bar"]] }) }
+    execControl.yieldSingle { reader.getAll(props) }.valueOrThrow
+
+    and:
+    execControl.executeSingle { writer.saveAll(props.collectEntries { [(it): [foo: "baz"]] }) }
+
+    then:
+    new PollingConditions(timeout: 5).eventually {
+      assert execControl.yieldSingle { reader.<Map>getAll(props) }.valueOrThrow.values()*.foo.every { it == "baz" }
+    }
+
+    cleanup:
+    [writer, reader]*.onStop(null)
+  }
+
+  void "should refuse to keep every node of a cluster in a single bucket"() {
+    when:
+    new RedisConnectionProvider(new RedisGraphModule.Config(clusterNodes: ["localhost:7000"]))
+
+    then:
+    def e = thrown(IllegalStateException)
+    e.message.contains("several buckets for every cluster master")
+  }
+
+  private RedisGraphModule.Config clusterConfig(List<Integer> seeds) {
+    new RedisGraphModule.Config(clusterNodes: seeds.collect { "localhost:$it".toString() }, buckets: MASTERS * 4)
+  }
+
+  private List<NodeProperties> page(RedisNodeRepository repo, int count) {
+    def nodes = []
+    String cursor = null
+    while (true) {
+      def page = execControl.yieldSingle { repo.page(TEST_GEN, cursor, count) }.valueOrThrow
+      nodes.addAll(page.properties)
+      if (page.last) {
+        return nodes
+      }
+      cursor = page.cursor
+    }
+  }
+
+  private static <T> T commands(int port, Closure<T> closure) {
+    def client = new RedisClient("localhost", port)
+    def connection = client.connect()
+    try {
+      closure(connection.sync())
+    } finally {
+      connection.close()
+      client.shutdown()
+    }
+  }
+
+  private static String findServer() {
+    def candidates = [System.getProperty("redis.server"), System.getenv("REDIS_SERVER")] +
+        (System.getenv("PATH") ?: "").split(File.pathSeparator).collect { new File(it, "redis-server").path }
+    candidates.find { it && new File(it).canExecute() && majorVersion(it) >= 3 }
+  }
+
+  private static int majorVersion(String server) {
+    def version = [server, "--version"].execute().text =~ /v=(\d+)/
+    version.find() ? version.group(1).toInteger() : 0
+  }
+}
@@ -2,7 +2,11 @@ package com.danveloper.ratpack.graph.redis
 
 import com.danveloper.ratpack.graph.NodeProperties
 import com.fasterxml.jackson.databind.ObjectMapper
+import com.lambdaworks.redis.codec.ByteArrayCodec
+import com.lambdaworks.redis.pubsub.RedisPubSubAdapter
 import spock.lang.Shared
+import spock.lang.Unroll
+import spock.util.concurrent.PollingConditions
 
 class RedisNodeDataRepositorySpec extends RedisRepositorySpec {
 
@@ -28,6 +32,188 @@ class RedisNodeDataRepositorySpec extends RedisRepositorySpec {
     upd.foo == testObj.foo
   }
 
+  @Unroll
+  void "should be able to store objects as #dataFormat, compressed from #compressionThreshold bytes, and read data stored as JSON"() {
+    setup:
+    def config = new RedisGraphModule.Config(port: port, dataFormat: dataFormat, compressionThreshold: compressionThreshold)
+    def formatted = new RedisNodeDataRepository(config, new ObjectMapper())
+    formatted.onStart(null)
+    def (props, legacyProps) = ["id1", "id2"].collect { new NodeProperties(it, TEST_GEN) }
+    def testObj = new TestObject(foo: "bar" * 100)
+
+    when:
+    execControl.executeSingle { formatted.save(props, testObj) }
+    execControl.executeSingle { repo.save(legacyProps, testObj) }
+
+    then:
+    execControl.yieldSingle { formatted.<TestObject>get(props) }.valueOrThrow.foo == testObj.foo
+    execControl.yieldSingle { formatted.<TestObject>get(legacyProps) }.valueOrThrow.foo == testObj.foo
+
+    and:
+    def stored = client.connect(new ByteArrayCodec()).sync().hget("data:all".bytes, "id1:test:general".bytes)
+    (stored[0] == CompressingNodeDataCodec.DEFLATED) == (compressionThreshold > 0)
+
+    cleanup:
+    formatted.onStop(null)
+
+    where:
+    dataFormat                          | compressionThreshold
+    RedisGraphModule.DataFormat.JSON    | 0
+    RedisGraphModule.DataFormat.JSON    | 64
+    RedisGraphModule.DataFormat.SMILE   | 0
+    RedisGraphModule.DataFormat.SMILE   | 64
+  }
+
+  void "should be able to store maps and lists"() {
+    setup:
+    def (mapProps, listProps) = ["id1", "id2"].collect { new NodeProperties(it, TEST_GEN) }
+
+    when:
+    execControl.executeSingle { repo.save(mapProps, [foo: new TestObject(foo: "bar")]) }
+    execControl.executeSingle { repo.save(listProps, [new TestObject(foo: "bar"), new TestObject(foo: "baz")]) }
+
+    and:
+    def map = execControl.yieldSingle { repo.<Map>get(mapProps) }.valueOrThrow
+    def list = execControl.yieldSingle { repo.<List>get(listProps) }.valueOrThrow
+
+    then:
+    map.foo instanceof TestObject
+    map.foo.foo == "bar"
+    list*.class == [TestObject, TestObject]
+    list*.foo == ["bar", "baz"]
+  }
+
+  void "should be able to get, save and remove objects in a single batch"() {
+    setup:
+    def props = (1..3).collect { new NodeProperties("id$it", TEST_GEN) }
+
+    when:
+    execControl.executeSingle { repo.saveAll([(props[0]): new TestObject(foo: "bar"), (props[1]): new TestObject(foo: "baz")]) }
+
+    and:
+    def data = execControl.yieldSingle { repo.<TestObject>getAll(props) }.valueOrThrow
+
+    then:
+    data.keySet() == [props[0], props[1]] as Set
+    data[props[0]].foo == "bar"
+    data[props[1]].foo == "baz"
+
+    when:
+    execControl.executeSingle { repo.removeAll(props) }
+
+    then:
+    execControl.yieldSingle { repo.getAll(props) }.valueOrThrow.isEmpty()
+
+    and: "removing data that does not exist completes"
+    execControl.executeSingle { repo.remove(props[2]) }
+  }
+
+  void "should spread objects over hash tagged buckets"() {
+    setup:
+    def config = new RedisGraphModule.Config(port: port, buckets: 4)
+    def bucketedRepo = new RedisNodeDataRepository(config, new ObjectMapper())
+    bucketedRepo.onStart(null)
+    def props = (1..20).collect { new NodeProperties("id$it", TEST_GEN) }
+    def conn = client.connect().sync()
+
+    when:
+    execControl.executeSingle { bucketedRepo.saveAll(props.collectEntries { [(it): new TestObject(foo: it.id)] }) }
+    execControl.executeSingle { bucketedRepo.save(props[0], new TestObject(foo: "bar")) }
+
+    then:
+    !conn.exists("data:all")
+    (0..3).count { conn.exists("data:{$it}".toString()) } > 1
+    (0..3).sum { conn.hlen("data:{$it}".toString()) } == 20
+    execControl.yieldSingle { bucketedRepo.<TestObject>get(props[0]) }.valueOrThrow.foo == "bar"
+    execControl.yieldSingle { bucketedRepo.<TestObject>getAll(props) }.valueOrThrow.collectEntries { k, v -> [(k): v.foo] } == props.drop(1).collectEntries { [(it): it.id] } + [(props[0]): "bar"]
+
+    when:
+    execControl.executeSingle { bucketedRepo.removeAll(props.drop(1)) }
+    execControl.executeSingle { bucketedRepo.remove(props[0]) }
+
+    then:
+    execControl.yieldSingle { bucketedRepo.getAll(props) }.valueOrThrow.isEmpty()
+
+    cleanup:
+    conn?.close()
+    bucketedRepo?.onStop(null)
+  }
+
+  void "should serve reads from the near cache, and invalidate it across instances on write"() {
+    setup:
+    def config = new RedisGraphModule.Config(port: port)
+    config.nearCache.enabled = true
+    def (writer, reader) = [new RedisNodeDataRepository(config, new ObjectMapper()), new RedisNodeDataRepository(config, new ObjectMapper())]
+    writer.onStart(null)
+
+    and: "the reader starts as a service of an application does, subscribing to invalidations before the start completes"
+    execControl.run { reader.onStart(null) }
+    def props = new NodeProperties("id1", TEST_GEN)
+
+    when:
+    execControl.executeSingle { writer.save(props, new TestObject(foo: "bar")) }
+    2.times { execControl.yieldSingle { reader.<TestObject>get(props) }.valueOrThrow }
+
+    then:
+    reader.nearCacheStats.missCount() == 1
+    reader.nearCacheStats.hitCount() == 1
+
+    when:
+    execControl.executeSingle { writer.save(props, new TestObject(foo: "baz")) }
+
+    then:
+    new PollingConditions(timeout: 5).eventually {
+      assert execControl.yieldSingle { reader.<TestObject>get(props) }.valueOrThrow.foo == "baz"
+    }
+
+    when:
+    execControl.executeSingle { writer.remove(props) }
+
+    then:
+    new PollingConditions(timeout: 5).eventually {
+      assert execControl.yieldSingle { reader.<TestObject>get(props) }.valueOrThrow == null
+    }
+
+    cleanup:
+    [writer, reader]*.onStop(null)
+  }
+
+  void "should invalidate a bulk write across instances with a bounded number of messages"() {
+    setup:
+    def config = new RedisGraphModule.Config(port: port)
+    config.nearCache.enabled = true
+    def (writer, reader) = [new RedisNodeDataRepository(config, new ObjectMapper()), new RedisNodeDataRepository(config, new ObjectMapper())]
+    [writer, reader]*.onStart(null)
+    def props = (0..<RedisNodeDataRepository.INVALIDATION_BATCH_SIZE * 2 + 1).collect { new NodeProperties("id$it".toString(), TEST_GEN) }
+    def messages = [].asSynchronized()
+    def subscriber = client.connectPubSub()
+    subscriber.addListener(new RedisPubSubAdapter<String, String>() {
+      @Override
+      void message(String channel, String message) {
+        messages << message
+      }
+    })
+    subscriber.sync().subscribe(RedisNodeDataRepository.INVALIDATION_CHANNEL)
+
+    when:
+    execControl.executeSingle { writer.saveAll(props.collectEntries { [(it): new TestObject(foo: "bar")] }) }
+    execControl.yieldSingle { reader.getAll(props) }.valueOrThrow
+
+    and:
+    execControl.executeSingle { writer.saveAll(props.collectEntries { [(it): new TestObject(foo: "baz")] }) }
+
+    then:
+    new PollingConditions(timeout: 5).eventually {
+      assert messages.size() == 6
+      assert execControl.yieldSingle { reader.<TestObject>getAll(props) }.valueOrThrow.values()*.foo.every { it == "baz" }
+    }
+    messages.collect { it.split("\n").size() }.sort() == [1, 1, 1000, 1000, 1000, 1000]
+
+    cleanup:
+    subscriber?.close()
+    [writer, reader]*.onStop(null)
+  }
+
   static class TestObject {
     String foo
   }
@@ -3,7 +3,14 @@ package com.danveloper.ratpack.graph.redis
 import com.danveloper.ratpack.graph.Node
 import com.danveloper.ratpack.graph.NodeClassifier
 import com.danveloper.ratpack.graph.NodeProperties
+import com.danveloper.ratpack.graph.Traversal
+import com.fasterxml.jackson.databind.ObjectMapper
+import com.lambdaworks.redis.RedisClient
+import ratpack.exec.Promise
+import redis.embedded.RedisServer
 import spock.lang.Shared
+import spock.lang.Unroll
+import spock.util.concurrent.PollingConditions
 
 class RedisNodeRepositorySpec extends RedisRepositorySpec {
   @Shared
@@ -28,6 +35,37 @@ class RedisNodeRepositorySpec extends RedisRepositorySpec {
     node == upd
   }
 
+  void "should be able to store a node with many edges and remove stale leaves on save"() {
+    setup:
+    def props = new NodeProperties("id", TEST_GEN)
+    def node = new Node(props)
+    def leaves = (1..1500).collect { new NodeProperties("leaf$it", TEST_GEN) }
+    leaves.each { node.edge.addRelationship(it) }
+    node.edge.addDependent(leaves[0])
+
+    when:
+    execControl.executeSingle { repo.save(node) }
+
+    and:
+    def upd = execControl.yieldSingle { repo.read(props) }.valueOrThrow
+
+    then:
+    1500 == upd.edge.relationships().size()
+    1 == upd.edge.dependents().size()
+
+    when:
+    leaves.drop(1).each { upd.edge.removeRelationship(it) }
+    execControl.executeSingle { repo.save(upd) }
+
+    and:
+    upd = execControl.yieldSingle { repo.read(props) }.valueOrThrow
+
+    then:
+    1 == upd.edge.relationships().size()
+    upd.edge.relationships()[0] == leaves[0]
+    1 == upd.edge.dependents().size()
+  }
+
   void "should be able to lookup nodes by classifier"() {
     setup:
     def props1 = new NodeProperties("id1", TEST_GEN)
@@ -46,6 +84,21 @@ class RedisNodeRepositorySpec extends RedisRepositorySpec {
     lookedUp[0] == props1
   }
 
+  void "should be able to lookup nodes whose ids contain the composite id separator"() {
+    setup:
+    def node = new Node(new NodeProperties("urn:foo:1", TEST_GEN))
+
+    when:
+    execControl.executeSingle { repo.save(node) }
+
+    and:
+    def nodes = execControl.yieldSingle { repo.lookup(TEST_GEN) }.valueOrThrow
+
+    then:
+    nodes == [node.properties] as Set
+    nodes[0].is(NodeProperties.of("urn:foo:1", TEST_GEN))
+  }
+
   void "should be able to create a node with getOrCreate"() {
     setup:
     def props = new NodeProperties("id", TEST_GEN)
@@ -156,6 +209,32 @@ class RedisNodeRepositorySpec extends RedisRepositorySpec {
     !lookedUp*.properties.contains(node1.properties)
   }
 
+  void "removing a node should purge leaves that point at nodes which no longer exist"() {
+    setup:
+    def props = new NodeProperties("id1", TEST_GEN)
+    def dangling = new NodeProperties("dangling", TEST_GEN)
+    def node = new Node(props)
+    node.edge.addDependent(dangling)
+
+    when:
+    execControl.executeSingle { repo.save(node) }
+
+    and:
+    execControl.executeSingle { repo.remove(props) }
+
+    and:
+    def conn = client.connect().sync()
+
+    then:
+    !execControl.yieldSingle { repo.read(props) }.valueOrThrow
+    !conn.exists("dependents:id1:test:general")
+    !conn.exists("relationships:dangling:test:general")
+    execControl.yieldSingle { repo.lookup(TEST_GEN) }.valueOrThrow.isEmpty()
+
+    cleanup:
+    conn?.close()
+  }
+
   void "should be able to expire nodes by classifier and TTL"() {
     setup:
     def node1 = new Node(new NodeProperties("id1", TEST_GEN))
@@ -178,6 +257,83 @@ class RedisNodeRepositorySpec extends RedisRepositorySpec {
     nodes[0] == node2.properties
   }
 
+  void "should be able to get and read multiple nodes in a single batch"() {
+    setup:
+    def node1 = new Node(new NodeProperties("id1", TEST_GEN))
+    def node2 = new Node(new NodeProperties("id2", TEST_GEN))
+    def missing = new NodeProperties("missing", TEST_GEN)
+
+    when:
+    [node1, node2].each { n -> execControl.executeSingle { repo.save(n) } }
+
+    and:
+    execControl.executeSingle { repo.relate(node1, node2) }
+
+    and:
+    def nodes = execControl.yieldSingle { repo.getAll([node1.properties, node2.properties, missing]) }.valueOrThrow
+
+    then:
+    2 == nodes.size()
+    !nodes.containsKey(missing)
+    nodes[node1.properties].edge.hasRelationship(node2.properties)
+    nodes[node2.properties].edge.hasDependent(node1.properties)
+
+    when:
+    def read = execControl.yieldSingle { repo.readAll([node1.properties, node2.properties]) }.valueOrThrow
+
+    then:
+    2 == read.size()
+    read[node1.properties].lastAccessTime == nodes[node1.properties].lastAccessTime
+  }
+
+  void "should expire every stale node in the classifier, including nodes stored before the access index existed"() {
+    setup:
+    def nodes = (1..250).collect { new Node(new NodeProperties("id$it", TEST_GEN)) }
+    def other = new Node(new NodeProperties("other", new NodeClassifier("foo", "bar")))
+    def conn = client.connect().sync()
+
+    when:
+    (nodes + other).each { n -> execControl.executeSingle { repo.save(n) } }
+    execControl.executeSingle { repo.relate(nodes[0], other) }
+    conn.del("lastaccess:test:general")
+
+    and:
+    Thread.sleep(100)
+    execControl.executeSingle { repo.get(nodes[0].properties).operation() }
+    execControl.executeSingle { repo.expireAll(TEST_GEN, 50) }
+
+    then:
+    execControl.yieldSingle { repo.lookup(TEST_GEN) }.valueOrThrow as List == [nodes[0].properties]
+    conn.zrange("lastaccess:test:general", 0, -1) == ["id1:test:general"]
+    execControl.yieldSingle { repo.read(other.properties) }.valueOrThrow
+
+    cleanup:
+    conn?.close()
+  }
+
+  void "should expire no more than the limit"() {
+    setup:
+    def nodes = (1..150).collect { new Node(new NodeProperties("id$it", TEST_GEN)) }
+
+    when:
+    nodes.each { n -> execControl.executeSingle { repo.save(n) } }
+
+    and:
+    Thread.sleep(100)
+    def expired = execControl.yieldSingle { repo.expire(TEST_GEN, 50, 120) }.valueOrThrow
+
+    then:
+    120 == expired
+    30 == execControl.yieldSingle { repo.lookup(TEST_GEN) }.valueOrThrow.size()
+
+    when:
+    expired = execControl.yieldSingle { repo.expire(TEST_GEN, 50, 120) }.valueOrThrow
+
+    then:
+    30 == expired
+    !execControl.yieldSingle { repo.lookup(TEST_GEN) }.valueOrThrow
+  }
+
   void "should be able to read a node without updating its lastAccessTime"() {
     setup:
     def props = new NodeProperties("id1", TEST_GEN)
@@ -195,4 +351,558 @@ class RedisNodeRepositorySpec extends RedisRepositorySpec {
     then:
     upd.lastAccessTime == lastAccessTime
   }
+
+  void "getting a node should buffer its access time instead of writing the node back"() {
+    setup:
+    def props = new NodeProperties("id1", TEST_GEN)
+    def conn = client.connect().sync()
+
+    when:
+    execControl.yieldSingle { repo.getOrCreate(props) }.valueOrThrow
+    conn.hset("node:all", "id1:test:general", "1")
+
+    and:
+    def accessTime = execControl.yieldSingle { repo.get(props) }.valueOrThrow.lastAccessTime
+
+    then:
+    conn.hget("node:all", "id1:test:general") == "1"
+    execControl.yieldSingle { repo.read(props) }.valueOrThrow.lastAccessTime == accessTime
+
+    when:
+    execControl.executeSingle { repo.expireAll(TEST_GEN, Long.MAX_VALUE) }
+
+    then:
+    conn.hget("node:all", "id1:test:general") == accessTime.toString()
+
+    cleanup:
+    conn?.close()
+  }
+
+  void "stopping the repository should flush buffered access times"() {
+    setup:
+    def props = new NodeProperties("id1", TEST_GEN)
+    def stopped = new RedisNodeRepository(new RedisGraphModule.Config(port: port))
+    stopped.onStart(null)
+    def conn = client.connect().sync()
+
+    when:
+    execControl.yieldSingle { stopped.getOrCreate(props) }.valueOrThrow
+    conn.hset("node:all", "id1:test:general", "1")
+    def accessTime = execControl.yieldSingle { stopped.get(props) }.valueOrThrow.lastAccessTime
+
+    and:
+    execControl.run { stopped.onStop(null) }
+
+    then:
+    conn.hget("node:all", "id1:test:general") == accessTime.toString()
+
+    cleanup:
+    conn?.close()
+  }
+
+  void "should traverse the neighborhood of a node"() {
+    setup:
+    def other = new NodeClassifier("test", "other")
+    def (a, b, c, d) = ["a", "b", "c", "d"].collect { new Node(new NodeProperties(it, TEST_GEN)) }
+    def x = new Node(new NodeProperties("x", other))
+    [a, b, c, d, x].each { n -> execControl.executeSingle { repo.save(n) } }
+
+    when:
+    [[a, b], [b, c], [c, d], [a, x]].each { pair ->
+      def (left, right) = pair.collect { n -> execControl.yieldSingle { repo.read(n.properties) }.valueOrThrow }
+      execControl.executeSingle { repo.relate(left, right) }
+    }
+
+    and:
+    def twoHops = traverse(a, Traversal.of(Traversal.Direction.RELATIONSHIPS).maxDepth(2))
+
+    then:
+    twoHops[0] == a.properties
+    twoHops[1..2] as Set == [b, x]*.properties as Set
+    twoHops[3] == c.properties
+    traverse(a, Traversal.of(Traversal.Direction.RELATIONSHIPS).maxDepth(2).classifiers(TEST_GEN)) == [a, b, c]*.properties
+    traverse(a, Traversal.of(Traversal.Direction.RELATIONSHIPS).maxDepth(10).maxNodes(2)).size() == 2
+    traverse(d, Traversal.of(Traversal.Direction.DEPENDENTS).maxDepth(10)) == [d, c, b, a]*.properties
+    traverse(d, Traversal.of(Traversal.Direction.DEPENDENTS).maxDepth(10).order(Traversal.Order.DEPTH_FIRST)) == [d, c, b, a]*.properties
+    traverse(c, Traversal.of(Traversal.Direction.BOTH)) as Set == [b, c, d]*.properties as Set
+  }
+
+  @Unroll
+  void "a depth-first traversal should expand a node that is reached again at a shallower depth (#bId, #cId)"() {
+    setup: "A relates to B and C, C relates to B, and B relates to D, so D is two hops from A through B"
+    def (a, b, c, d) = ["a", bId, cId, "d"].collect { new Node(new NodeProperties(it, TEST_GEN)) }
+    [a, b, c, d].each { n -> execControl.executeSingle { repo.save(n) } }
+    [[a, b], [a, c], [c, b], [b, d]].each { pair ->
+      def (left, right) = pair.collect { n -> execControl.yieldSingle { repo.read(n.properties) }.valueOrThrow }
+      execControl.executeSingle { repo.relate(left, right) }
+    }
+
+    expect: "whichever of B and C is visited first"
+    traverse(a, Traversal.of(Traversal.Direction.RELATIONSHIPS).maxDepth(2).order(Traversal.Order.DEPTH_FIRST)) as Set == [a, b, c, d]*.properties as Set
+
+    where:
+    bId | cId
+    "b" | "c"
+    "c" | "b"
+  }
+
+  void "should page and stream through every node of a classifier"() {
+    setup:
+    def nodes = (1..250).collect { new Node(new NodeProperties("id$it", TEST_GEN)) }
+    nodes.each { n -> execControl.executeSingle { repo.save(n) } }
+    execControl.executeSingle { repo.save(new Node(new NodeProperties("other", new NodeClassifier("foo", "bar")))) }
+
+    when:
+    def paged = []
+    def page = execControl.yieldSingle { repo.page(TEST_GEN, null, 100) }.valueOrThrow
+    paged.addAll(page.properties)
+    while (!page.last) {
+      page = execControl.yieldSingle { repo.page(TEST_GEN, page.cursor, 100) }.valueOrThrow
+      paged.addAll(page.properties)
+    }
+
+    and:
+    def streamed = execControl.yieldSingle { repo.stream(TEST_GEN).toList() }.valueOrThrow
+
+    then:
+    paged as Set == nodes*.properties as Set
+    streamed as Set == nodes*.properties as Set
+  }
+
+  void "should page through the remaining nodes of a classifier when nodes of an earlier page are removed"() {
+    setup:
+    def nodes = (1..9).collect { new Node(new NodeProperties("id$it", TEST_GEN)) }
+    nodes.each { n -> execControl.executeSingle { repo.save(n) } }
+
+    when:
+    def first = execControl.yieldSingle { repo.page(TEST_GEN, null, 3) }.valueOrThrow
+    first.properties.each { p -> execControl.executeSingle { repo.remove(p) } }
+
+    and:
+    def paged = []
+    def page = first
+    while (!page.last) {
+      page = execControl.yieldSingle { repo.page(TEST_GEN, page.cursor, 3) }.valueOrThrow
+      paged.addAll(page.properties)
+    }
+
+    then:
+    paged as Set == (nodes*.properties - first.properties) as Set
+  }
+
+  void "should find the shortest path between related nodes"() {
+    setup:
+    def (a, b, c, d, e) = ["a", "b", "c", "d", "e"].collect { new Node(new NodeProperties(it, TEST_GEN)) }
+    [a, b, c, d, e].each { n -> execControl.executeSingle { repo.save(n) } }
+
+    when:
+    [[a, b], [b, c], [c, d], [a, e], [e, d]].each { pair ->
+      def (left, right) = pair.collect { n -> execControl.yieldSingle { repo.read(n.properties) }.valueOrThrow }
+      execControl.executeSingle { repo.relate(left, right) }
+    }
+
+    then:
+    execControl.yieldSingle { repo.shortestPath(a.properties, d.properties) }.valueOrThrow == [a, e, d]*.properties
+    execControl.yieldSingle { repo.shortestPath(b.properties, d.properties) }.valueOrThrow == [b, c, d]*.properties
+    execControl.yieldSingle { repo.shortestPath(d.properties, a.properties) }.valueOrThrow.isEmpty()
+    execControl.yieldSingle { repo.shortestPath(a.properties, a.properties) }.valueOrThrow == [a.properties]
+    execControl.yieldSingle { repo.reachable(b.properties, d.properties, 2) }.valueOrThrow
+    !execControl.yieldSingle { repo.reachable(b.properties, d.properties, 1) }.valueOrThrow
+    !execControl.yieldSingle { repo.reachable(e.properties, c.properties, 10) }.valueOrThrow
+  }
+
+  void "should store, relate, expire and remove nodes with compact ids"() {
+    setup:
+    def compactRepo = new RedisNodeRepository(new RedisGraphModule.Config(port: port, compactIds: true))
+    compactRepo.onStart(null)
+    def other = new NodeClassifier("test", "other")
+    def a = new Node(new NodeProperties("urn:a:1", TEST_GEN))
+    def b = new Node(new NodeProperties("urn:b:2", other))
+    def stale = new Node(new NodeProperties("stale", other))
+    a.edge.addDependent(stale.properties)
+    def conn = client.connect().sync()
+
+    when:
+    [a, b, stale].each { n -> execControl.executeSingle { compactRepo.save(n) } }
+    execControl.executeSingle { compactRepo.relate(a, b) }
+
+    and:
+    def read = execControl.yieldSingle { compactRepo.read(a.properties) }.valueOrThrow
+
+    then:
+    read.edge.relationships() == [b.properties] as Set
+    read.edge.dependents() == [stale.properties] as Set
+    execControl.yieldSingle { compactRepo.lookup(other) }.valueOrThrow == [b.properties, stale.properties] as Set
+    execControl.yieldSingle { compactRepo.getAll([a.properties, b.properties]) }.valueOrThrow[b.properties].edge.hasDependent(a.properties)
+    execControl.yieldSingle { compactRepo.shortestPath(a.properties, b.properties) }.valueOrThrow == [a, b]*.properties
+    conn.hget("classifier:codes", "4:testgeneral") == "1"
+    conn.hget("classifier:names", "2") == "4:testother"
+    conn.smembers("classifier:1") == ["\u00011urn:a:1"] as Set
+
+    when:
+    Thread.sleep(100)
+    execControl.executeSingle { compactRepo.get(b.properties).operation() }
+    def expired = execControl.yieldSingle { compactRepo.expire(other, 50, 10) }.valueOrThrow
+
+    and:
+    execControl.executeSingle { compactRepo.remove(b.properties) }
+
+    then:
+    1 == expired
+    !execControl.yieldSingle { compactRepo.lookup(other) }.valueOrThrow
+    execControl.yieldSingle { compactRepo.read(a.properties) }.valueOrThrow.edge.relationships().isEmpty()
+
+    cleanup:
+    conn?.close()
+  }
+
+  void "should migrate nodes and their data to compact ids"() {
+    setup:
+    def dataRepo = new RedisNodeDataRepository(new RedisGraphModule.Config(port: port), new ObjectMapper())
+    dataRepo.onStart(null)
+    def nodes = (1..50).collect { new Node(new NodeProperties("id$it", TEST_GEN)) }
+    def other = new Node(new NodeProperties("other", new NodeClassifier("foo", "bar")))
+    nodes.each { n -> n.edge.addRelationship(other.properties) }
+    (nodes + other).each { n -> execControl.executeSingle { repo.save(n) } }
+    execControl.executeSingle { repo.relate(nodes[0], other) }
+    nodes.each { n -> execControl.executeSingle { dataRepo.save(n.properties, [id: n.properties.id]) } }
+
+    def compactConfig = new RedisGraphModule.Config(port: port, compactIds: true)
+    def migration = new CompactIdMigration(compactConfig)
+    migration.onStart(null)
+    def compactRepo = new RedisNodeRepository(compactConfig)
+    compactRepo.onStart(null)
+    def compactDataRepo = new RedisNodeDataRepository(compactConfig, new ObjectMapper())
+    compactDataRepo.onStart(null)
+    def conn = client.connect().sync()
+
+    when:
+    def report = execControl.yieldSingle { migration.migrate() }.valueOrThrow
+
+    then:
+    51 == report.nodes
+    50 == report.data
+    report.usedMemoryBefore > 0
+    report.usedMemoryAfter > 0
+    execControl.yieldSingle { compactRepo.lookup(TEST_GEN) }.valueOrThrow == nodes*.properties as Set
+    execControl.yieldSingle { compactRepo.read(other.properties) }.valueOrThrow.edge.dependents() == [nodes[0].properties] as Set
+    execControl.yieldSingle { compactRepo.read(nodes[0].properties) }.valueOrThrow.edge.relationships() == [other.properties] as Set
+    execControl.yieldSingle { compactDataRepo.getAll(nodes*.properties) }.valueOrThrow[nodes[0].properties] == [id: "id1"]
+    conn.keys("*:test:general").isEmpty()
+    !conn.hexists("node:all", "id1:test:general")
+
+    when:
+    report = execControl.yieldSingle { migration.migrate() }.valueOrThrow
+
+    then:
+    0 == report.nodes
+    0 == report.data
+
+    cleanup:
+    conn?.close()
+  }
+
+  @Unroll
+  void "should migrate nodes and their data to buckets with compact ids #compactIds"() {
+    setup:
+    def config = new RedisGraphModule.Config(port: port, compactIds: compactIds)
+    def unbucketedRepo = new RedisNodeRepository(config)
+    unbucketedRepo.onStart(null)
+    def dataRepo = new RedisNodeDataRepository(config, new ObjectMapper())
+    dataRepo.onStart(null)
+    def nodes = (1..50).collect { new Node(new NodeProperties("id$it", TEST_GEN)) }
+    def other = new Node(new NodeProperties("other", new NodeClassifier("foo", "bar")))
+    nodes.each { n -> n.edge.addRelationship(other.properties) }
+    (nodes + other).each { n -> execControl.executeSingle { unbucketedRepo.save(n) } }
+    execControl.executeSingle { unbucketedRepo.relate(nodes[0], other) }
+    nodes.each { n -> execControl.executeSingle { dataRepo.save(n.properties, [id: n.properties.id]) } }
+
+    def bucketedConfig = new RedisGraphModule.Config(port: port, compactIds: compactIds, buckets: 4)
+    def migration = new BucketMigration(bucketedConfig)
+    migration.onStart(null)
+    def bucketedRepo = new RedisNodeRepository(bucketedConfig)
+    bucketedRepo.onStart(null)
+    def bucketedDataRepo = new RedisNodeDataRepository(bucketedConfig, new ObjectMapper())
+    bucketedDataRepo.onStart(null)
+    def conn = client.connect().sync()
+
+    when:
+    def report = execControl.yieldSingle { migration.migrate() }.valueOrThrow
+
+    then:
+    51 == report.nodes
+    50 == report.data
+    4 == report.buckets
+    4 == report.compactNodeBuckets
+    execControl.yieldSingle { bucketedRepo.lookup(TEST_GEN) }.valueOrThrow == nodes*.properties as Set
+    execControl.yieldSingle { bucketedRepo.read(other.properties) }.valueOrThrow.edge.dependents() == [nodes[0].properties] as Set
+    execControl.yieldSingle { bucketedRepo.read(nodes[1].properties) }.valueOrThrow.edge.relationships() == [other.properties] as Set
+    execControl.yieldSingle { bucketedDataRepo.getAll(nodes*.properties) }.valueOrThrow[nodes[0].properties] == [id: "id1"]
+    !conn.exists("node:all")
+    !conn.exists("data:all")
+    conn.keys("classifier:*").every { it.startsWith("classifier:{") }
+
+    when:
+    report = execControl.yieldSingle { migration.migrate() }.valueOrThrow
+
+    then:
+    0 == report.nodes
+    0 == report.data
+
+    cleanup:
+    conn?.close()
+    [unbucketedRepo, dataRepo, migration, bucketedRepo, bucketedDataRepo]*.onStop(null)
+
+    where:
+    compactIds << [false, true]
+  }
+
+  @Unroll
+  void "relating nodes should persist the other leaves that were added to them, with #buckets buckets"() {
+    setup:
+    def bucketedRepo = new RedisNodeRepository(new RedisGraphModule.Config(port: port, buckets: buckets))
+    bucketedRepo.onStart(null)
+    def keys = new RedisKeys(new RedisGraphModule.Config(buckets: buckets))
+    def pairs = (0..9).collect { [new Node(new NodeProperties("left$it", TEST_GEN)), new Node(new NodeProperties("right$it", TEST_GEN))] }
+    def other = new NodeProperties("other", new NodeClassifier("foo", "bar"))
+    pairs.flatten().each { n -> execControl.executeSingle { bucketedRepo.save(n) } }
+
+    when:
+    pairs.each { left, right ->
+      left.edge.addDependent(other)
+      right.edge.addRelationship(other)
+      execControl.executeSingle { bucketedRepo.relate(left, right) }
+    }
+
+    then: "pairs in the same bucket are related with a single script, and pairs in different buckets a node at a time"
+    def sameBucket = pairs.collect { left, right -> keys.bucket("${left.properties.id}:test:general") == keys.bucket("${right.properties.id}:test:general") }
+    sameBucket.any()
+    buckets == 1 || !sameBucket.every()
+    pairs.every { left, right ->
+      def leftEdge = execControl.yieldSingle { bucketedRepo.read(left.properties) }.valueOrThrow.edge
+      def rightEdge = execControl.yieldSingle { bucketedRepo.read(right.properties) }.valueOrThrow.edge
+      leftEdge.relationships() == [right.properties] as Set && leftEdge.dependents() == [other] as Set &&
+          rightEdge.relationships() == [other] as Set && rightEdge.dependents() == [left.properties] as Set
+    }
+
+    cleanup:
+    bucketedRepo?.onStop(null)
+
+    where:
+    buckets << [1, 4]
+  }
+
+  @Unroll
+  void "scripts should only touch the keys that they declare, so that Redis Cluster can check their slot, with compact ids #compactIds"() {
+    setup:
+    def monitor = new ScriptKeyMonitor(port)
+    def config = new RedisGraphModule.Config(port: port, compactIds: compactIds)
+    def unbucketedRepo = new RedisNodeRepository(config)
+    unbucketedRepo.onStart(null)
+    def bucketedConfig = new RedisGraphModule.Config(port: port, compactIds: compactIds, buckets: 4)
+    def migration = new BucketMigration(bucketedConfig)
+    migration.onStart(null)
+    def bucketedRepo = new RedisNodeRepository(bucketedConfig)
+    bucketedRepo.onStart(null)
+    def nodes = (0..9).collect { new Node(new NodeProperties("id$it", TEST_GEN)) }
+    def other = new Node(new NodeProperties("other", new NodeClassifier("foo", "bar")))
+    def missing = new NodeProperties("missing", new NodeClassifier("foo", "bar"))
+    [nodes[0], nodes[5]]*.edge*.addRelationship(missing)
+
+    when: "nodes are saved, related, touched and removed without buckets"
+    (nodes + other).each { n -> execControl.executeSingle { unbucketedRepo.save(n) } }
+    (0..8).each { i -> execControl.executeSingle { unbucketedRepo.relate(nodes[i], nodes[i + 1]) } }
+    nodes.each { n -> execControl.executeSingle { unbucketedRepo.relate(n, other) } }
+    execControl.executeSingle { unbucketedRepo.getAll(nodes*.properties).operation() }
+    execControl.yieldSingle { unbucketedRepo.expire(new NodeClassifier("foo", "baz"), 0, 10) }.valueOrThrow
+    execControl.executeSingle { unbucketedRepo.remove(nodes[0].properties) }
+
+    and: "moved to buckets, and touched and removed there"
+    execControl.yieldSingle { migration.migrate() }.valueOrThrow
+    execControl.executeSingle { bucketedRepo.getAll(nodes[1..9]*.properties).operation() }
+    execControl.yieldSingle { bucketedRepo.expire(new NodeClassifier("foo", "baz"), 0, 10) }.valueOrThrow
+    execControl.executeSingle { bucketedRepo.remove(nodes[5].properties) }
+    execControl.executeSingle { bucketedRepo.remove(other.properties) }
+
+    then:
+    monitor.undeclaredKeys() == []
+    execControl.yieldSingle { bucketedRepo.lookup(TEST_GEN) }.valueOrThrow == ((1..9) - 5).collect { nodes[it].properties } as Set
+    execControl.yieldSingle { bucketedRepo.read(nodes[4].properties) }.valueOrThrow.edge.relationships().isEmpty()
+    execControl.yieldSingle { bucketedRepo.read(nodes[1].properties) }.valueOrThrow.edge.dependents().isEmpty()
+
+    cleanup:
+    monitor?.close()
+    [unbucketedRepo, migration, bucketedRepo]*.onStop(null)
+
+    where:
+    compactIds << [false, true]
+  }
+
+  void "removing a node that gained leaves after they were read should read its leaves again"() {
+    setup:
+    def props = new NodeProperties("id1", TEST_GEN)
+    def leaf = new NodeProperties("id2", TEST_GEN)
+    execControl.executeSingle { repo.save(new Node(props)) }
+    execControl.executeSingle { repo.save(new Node(leaf)) }
+    execControl.executeSingle { repo.relate(new Node(props), new Node(leaf)) }
+
+    when: "the removal is given the leaves that the node had before it was related"
+    def removed = execControl.yieldSingle { repo.remove(0, ["id1:test:general"], [] as Set, 1) }.valueOrThrow
+
+    then:
+    1 == removed
+    !execControl.yieldSingle { repo.read(props) }.valueOrThrow
+    execControl.yieldSingle { repo.read(leaf) }.valueOrThrow.edge.dependents().isEmpty()
+  }
+
+  void "should open the shared connections when the provider starts, rather than on the first command of an execution"() {
+    setup:
+    def conn = client.connect().sync()
+    def connections = new RedisConnectionProvider(new RedisGraphModule.Config(port: port, connections: 3))
+    def clients = conn.clientList().readLines().size()
+
+    when:
+    execControl.yieldSingle { Promise.value(connections.commands()) }.valueOrThrow
+
+    then:
+    thrown(IllegalStateException)
+
+    when:
+    execControl.run { connections.onStart(null) }
+
+    then: "three connections for commands and three for data"
+    conn.clientList().readLines().size() == clients + 6
+    execControl.yieldSingle { Promise.value(connections.commands()) }.valueOrThrow
+
+    cleanup:
+    connections?.close()
+    conn?.close()
+  }
+
+  void "should spread executions over shared connections and read from replicas"() {
+    setup:
+    def replicaPort = PortFinder.nextFree()
+    def replica = new RedisServer(replicaPort)
+    replica.start()
+    def replicaClient = new RedisClient("localhost", replicaPort)
+    replicaClient.connect().sync().with { slaveof("localhost", port); close() }
+    def config = new RedisGraphModule.Config(port: port, connections: 2, replicas: ["localhost:$replicaPort".toString()])
+    def connections = new RedisConnectionProvider(config)
+    def sharedRepo = new RedisNodeRepository(config, connections)
+    connections.onStart(null)
+    sharedRepo.onStart(null)
+    def props = new NodeProperties("id1", TEST_GEN)
+
+    when:
+    def used = (1..3).collect { execControl.yieldSingle { Promise.value(connections.commands()) }.valueOrThrow }
+
+    then:
+    !used[0].is(used[1])
+    used[0].is(used[2])
+
+    when:
+    execControl.executeSingle { sharedRepo.save(new Node(props)) }
+
+    then:
+    execControl.yieldSingle { sharedRepo.get(props) }.valueOrThrow
+    new PollingConditions(timeout: 10).eventually {
+      assert execControl.yieldSingle { sharedRepo.lookup(TEST_GEN) }.valueOrThrow == [props] as Set
+      assert execControl.yieldSingle { sharedRepo.read(props) }.valueOrThrow
+    }
+
+    when: "a node is written to the replica alone, once it has synchronised with the primary"
+    def replicated = new NodeClassifier("test", "replica")
+    def replicaOnly = new NodeProperties("id2", replicated)
+    replicaClient.connect().sync().with {
+      configSet("slave-read-only", "no")
+      hset("node:all", "id2:test:replica", "1")
+      sadd("classifier:test:replica", "id2:test:replica")
+      close()
+    }
+
+    then: "reads that may lag behind writes see it, and pages, whose cursors only the primary can resume, do not"
+    execControl.yieldSingle { sharedRepo.lookup(replicated) }.valueOrThrow == [replicaOnly] as Set
+    execControl.yieldSingle { sharedRepo.read(replicaOnly) }.valueOrThrow
+    execControl.yieldSingle { sharedRepo.page(replicated, null, 10) }.valueOrThrow.properties.isEmpty()
+    execControl.yieldSingle { sharedRepo.page(TEST_GEN, null, 10) }.valueOrThrow.properties == [props]
+
+    cleanup:
+    connections?.close()
+    replicaClient?.shutdown()
+    replica?.stop()
+  }
+
+  @Unroll
+  void "paging from the malformed cursor '#cursor' should fail with a clear message"() {
+    setup:
+    def bucketedRepo = new RedisNodeRepository(new RedisGraphModule.Config(port: port, buckets: 4))
+    bucketedRepo.onStart(null)
+
+    when:
+    execControl.yieldSingle { bucketedRepo.page(TEST_GEN, cursor, 10) }.valueOrThrow
+
+    then:
+    def e = thrown(IllegalArgumentException)
+    e.message == "'$cursor' is not a cursor of the nodes of $TEST_GEN"
+
+    cleanup:
+    bucketedRepo?.onStop(null)
+
+    where:
+    cursor << ["x:0", "4:0", "-1:0"]
+  }
+
+  void "should spread nodes over hash tagged buckets and keep edges across buckets"() {
+    setup:
+    def config = new RedisGraphModule.Config(port: port, buckets: 4)
+    def bucketedRepo = new RedisNodeRepository(config)
+    bucketedRepo.onStart(null)
+    def keys = new RedisKeys(config)
+    def nodes = (0..19).collect { new Node(new NodeProperties("id$it", TEST_GEN)) }
+    def conn = client.connect().sync()
+
+    when:
+    nodes.each { n -> execControl.executeSingle { bucketedRepo.save(n) } }
+    (0..18).each { i -> execControl.executeSingle { bucketedRepo.relate(nodes[i], nodes[i + 1]) } }
+
+    then: "the chain crosses buckets"
+    nodes.collect { keys.bucket("${it.properties.id}:test:general") }.unique().size() > 1
+    !conn.exists("node:all")
+    (0..3).sum { conn.hlen("node:{$it}".toString()) } == 20
+    (0..3).sum { conn.scard("classifier:{$it}:test:general".toString()) } == 20
+
+    and:
+    execControl.yieldSingle { bucketedRepo.read(nodes[0].properties) }.valueOrThrow.edge.relationships() == [nodes[1].properties] as Set
+    execControl.yieldSingle { bucketedRepo.read(nodes[1].properties) }.valueOrThrow.edge.dependents() == [nodes[0].properties] as Set
+    execControl.yieldSingle { bucketedRepo.readAll(nodes*.properties) }.valueOrThrow.keySet() == nodes*.properties as Set
+    execControl.yieldSingle { bucketedRepo.lookup(TEST_GEN) }.valueOrThrow == nodes*.properties as Set
+    execControl.yieldSingle { bucketedRepo.stream(TEST_GEN).toList() }.valueOrThrow as Set == nodes*.properties as Set
+    execControl.yieldSingle { bucketedRepo.shortestPath(nodes[0].properties, nodes[5].properties) }.valueOrThrow == nodes[0..5]*.properties
+
+    when:
+    execControl.executeSingle { bucketedRepo.remove(nodes[1].properties) }
+
+    then:
+    !execControl.yieldSingle { bucketedRepo.read(nodes[1].properties) }.valueOrThrow
+    execControl.yieldSingle { bucketedRepo.read(nodes[0].properties) }.valueOrThrow.edge.relationships().isEmpty()
+    execControl.yieldSingle { bucketedRepo.read(nodes[2].properties) }.valueOrThrow.edge.dependents().isEmpty()
+
+    when:
+    Thread.sleep(600)
+    execControl.executeSingle { bucketedRepo.getAll(nodes[10..19]*.properties).operation() }
+    def expired = execControl.yieldSingle { bucketedRepo.expire(TEST_GEN, 300, 100) }.valueOrThrow
+
+    then:
+    9 == expired
+    execControl.yieldSingle { bucketedRepo.lookup(TEST_GEN) }.valueOrThrow == nodes[10..19]*.properties as Set
+    execControl.yieldSingle { bucketedRepo.read(nodes[10].properties) }.valueOrThrow.edge.dependents().isEmpty()
+
+    cleanup:
+    conn?.close()
+    bucketedRepo?.onStop(null)
+  }
+
+  List<NodeProperties> traverse(Node start, Traversal traversal) {
+    execControl.yieldSingle { repo.traverse(start.properties, traversal) }.valueOrThrow*.properties
+  }
 }
@@ -19,6 +19,11 @@ class RedisRepositorySpec extends Specification {
   @Shared
   RedisServer redisServer = new RedisServer(port)
 
+  // shut down before the server is stopped, as fields are cleaned up in the reverse of their order
+  @AutoCleanup("shutdown")
+  @Shared
+  RedisClient client = new RedisClient("localhost", port)
+
   @AutoCleanup
   ExecHarness execControl = ExecHarness.harness()
 
@@ -27,7 +32,8 @@ class RedisRepositorySpec extends Specification {
   }
 
   def cleanup() {
-    def conn = new RedisClient("localhost", port).connect()
+    def conn = client.connect()
     conn.sync().flushall()
+    conn.close()
   }
 }
@@ -0,0 +1,121 @@
+package com.danveloper.ratpack.graph.redis
+
+import java.util.concurrent.CopyOnWriteArrayList
+
+/**
+ * Watches the commands that a Redis server runs with MONITOR, and finds the keys that scripts touch without declaring them in KEYS.
+ * Redis Cluster only checks the declared keys of a script against the slot it runs in, so an undeclared key would be read or written on the wrong master.
+ */
+class ScriptKeyMonitor implements Closeable {
+  private static final Set<String> MULTI_KEY_COMMANDS = ["del", "exists"] as Set
+  private static final Set<String> TWO_KEY_COMMANDS = ["rename", "renamenx", "smove"] as Set
+  private static final Map<Character, Character> ESCAPES = [n: "\n", r: "\r", t: "\t", a: "\u0007", b: "\b"].collectEntries { k, v -> [(k as char): (v as char)] }
+
+  private final Socket socket
+  private final List<List<String>> commands = new CopyOnWriteArrayList<>()
+  private volatile Throwable failure
+
+  ScriptKeyMonitor(int port) {
+    socket = new Socket("localhost", port)
+    socket.outputStream.write("MONITOR\r\n".bytes)
+    def reader = socket.inputStream.newReader("ISO-8859-1")
+    assert reader.readLine() == "+OK"
+    Thread.start {
+      try {
+        String line
+        while ((line = reader.readLine()) != null) {
+          commands << [line.contains(" lua] ") ? "lua" : "client"] + parseArguments(line)
+        }
+      } catch (SocketException ignored) {
+        // closed
+      } catch (Throwable t) {
+        failure = t
+      }
+    }
+  }
+
+  /**
+   * @return the keys that scripts touched without declaring them, with the command that touched them
+   */
+  List<String> undeclaredKeys() {
+    catchUp()
+    // MONITOR shows a script before the commands that it runs, which nothing else can run between
+    List<String> undeclared = []
+    Set<String> declared = null
+    commands.each { command ->
+      String name = command[1].toLowerCase()
+      if (command[0] == "client") {
+        declared = name in ["eval", "evalsha"] ? command.subList(4, 4 + command[3].toInteger()) as Set : null
+      } else if (declared != null) {
+        keysOf(name, command.subList(2, command.size())).findAll { !(it in declared) }.each { undeclared << "$name $it".toString() }
+      }
+    }
+    undeclared
+  }
+
+  /**
+   * Waits for MONITOR to show every command that was run before this one.
+   */
+  private void catchUp() {
+    String marker = UUID.randomUUID().toString()
+    def client = new Socket("localhost", socket.port)
+    try {
+      client.outputStream.write("ECHO $marker\r\n".bytes)
+      client.inputStream.newReader().readLine()
+    } finally {
+      client.close()
+    }
+    long deadline = System.currentTimeMillis() + 10000
+    while (!commands.any { it[1].equalsIgnoreCase("echo") && it[2] == marker }) {
+      if (failure) {
+        throw new IllegalStateException("Failed to read the output of MONITOR", failure)
+      }
+      assert System.currentTimeMillis() < deadline, "MONITOR did not show $marker"
+      Thread.sleep(10)
+    }
+  }
+
+  private static List<String> keysOf(String command, List<String> args) {
+    if (command in MULTI_KEY_COMMANDS) {
+      return args
+    }
+    command in TWO_KEY_COMMANDS ? args.take(2) : args.take(1)
+  }
+
+  /**
+   * Reads the quoted arguments of a line of MONITOR, which escapes quotes, backslashes and control characters.
+   */
+  private static List<String> parseArguments(String line) {
+    List<String> args = []
+    StringBuilder arg = null
+    int i = 0
+    while (i < line.length()) {
+      char c = line.charAt(i)
+      if (arg == null) {
+        if (c == '"' as char) {
+          arg = new StringBuilder()
+        }
+      } else if (c == '"' as char) {
+        args << arg.toString()
+        arg = null
+      } else if (c == '\\' as char) {
+        char escaped = line.charAt(++i)
+        if (escaped == 'x' as char) {
+          arg.append((char) Integer.parseInt(line.substring(i + 1, i + 3), 16))
+          i += 2
+        } else {
+          arg.append(ESCAPES[escaped] ?: escaped)
+        }
+      } else {
+        arg.append(c)
+      }
+      i++
+    }
+    args
+  }
+
+  @Override
+  void close() {
+    socket.close()
+  }
+}